@@ -3,6 +3,7 @@ package general
 import javax.inject.{Inject, Singleton}
 import exceptions.gui.JatosGuiException
 import exceptions.publix.{InternalServerErrorPublixException, PublixException}
+import java.util.concurrent.CompletionException
 import javax.naming.NamingException
 import play.api.Logger
 import play.api.http.HttpErrorHandler
@@ -48,7 +49,7 @@ class ErrorHandler @Inject()() extends HttpErrorHandler {
     // PublixException. Those exceptions come with a their own result. We
     // log the exception and show this result.
     Future.successful(
-      throwable match {
+      unwrap(throwable) match {
         case e: JatosGuiException =>
           logger.info(s"JatosGuiException during call ${request.uri}: ${e.getMessage}")
           e.getSimpleResult.asScala()
@@ -72,6 +73,14 @@ class ErrorHandler @Inject()() extends HttpErrorHandler {
     )
   }
 
+  /**
+    * Asynchronous actions (e.g. Publix) hand over their exception wrapped in a CompletionException
+    */
+  private def unwrap(throwable: Throwable): Throwable = throwable match {
+    case e: CompletionException if e.getCause != null => unwrap(e.getCause)
+    case _ => throwable
+  }
+
   private def getErrorResult(status: Int, msg: String, request: RequestHeader): Result = {
     if (HttpUtils.isAjax(request)) Status(status)(msg)
     else Status(status)(views.html.publix.error.render(msg))
@@ -3,6 +3,8 @@ package general
 import com.google.inject.AbstractModule
 import general.common.Common
 import play.api.libs.concurrent.AkkaGuiceSupport
+import play.filters.gzip.{GzipFilter, GzipFilterConfig}
+import services.gui.jobs.JobService
 
 class GuiceModule extends AbstractModule with AkkaGuiceSupport {
 
@@ -10,5 +12,10 @@ class GuiceModule extends AbstractModule with AkkaGuiceSupport {
     // JATOS startup initialisation (eager -> called during JATOS start)
     bind(classOf[Common]).asEagerSingleton()
     bind(classOf[OnStartStop]).asEagerSingleton()
+    // Background jobs (eager -> interrupted jobs are resumed right after the start)
+    bind(classOf[JobService]).asEagerSingleton()
+    // GzipFilter without study assets (instead of Play's GzipFilterModule)
+    bind(classOf[GzipFilterConfig]).toProvider(classOf[GzipFilterConfigProvider])
+    bind(classOf[GzipFilter])
   }
 }
@@ -0,0 +1,36 @@
+package general
+
+import javax.inject.{Inject, Provider, Singleton}
+import play.api.Configuration
+import play.api.http.HeaderNames
+import play.api.mvc.{RequestHeader, Result}
+import play.filters.gzip.GzipFilterConfig
+
+/**
+  * Configures Play's GzipFilter like Play's own provider does (play.filters.gzip in application.conf)
+  * but excludes the study assets: they are sent precompressed (StudyAssetsCompressor) and gzipping
+  * them again with each request would be a waste of CPU. Additionally responses that support range
+  * requests (header Accept-Ranges, e.g. study assets via the study path) are never gzipped on the
+  * fly - their ranges refer to the uncompressed file.
+  *
+  * Bound in GuiceModule instead of Play's GzipFilterModule (disabled in application.conf).
+  */
+@Singleton
+class GzipFilterConfigProvider @Inject()(config: Configuration) extends Provider[GzipFilterConfig] {
+
+  /**
+    * Prefix of the study assets' URL paths (/study_assets/ and /study_assets_root/)
+    */
+  private val studyAssetsPathPrefix = config.get[String]("play.http.context").stripSuffix("/") + "/study_assets"
+
+  lazy val get: GzipFilterConfig = {
+    val gzipFilterConfig = GzipFilterConfig.fromConfiguration(config)
+    gzipFilterConfig.withShouldGzip((request: RequestHeader, result: Result) =>
+      !isStudyAssets(request) && !result.header.headers.contains(HeaderNames.ACCEPT_RANGES) &&
+        gzipFilterConfig.shouldGzip(request, result))
+  }
+
+  private def isStudyAssets(request: RequestHeader): Boolean =
+    request.path.startsWith(studyAssetsPathPrefix)
+
+}
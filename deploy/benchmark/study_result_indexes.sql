@@ -0,0 +1,73 @@
+-- Benchmark for the composite StudyResult indexes of evolution 19 (MySQL 8.0.18 or later - EXPLAIN ANALYZE)
+--
+-- Run it against a COPY of a JATOS database (evolution 19 or later applied):
+--   mysql -u jatosuser -p jatos_benchmark < study_result_indexes.sql
+-- Set @studyId, @batchId and @workerId to an existing study, one of its batches and a worker first.
+--
+-- It generates 5,000,000 study results (marked with the confirmation code 'benchmark'), runs the queries of
+-- StudyResultDao.findLastFinished / findLastUnfinished and the results list without the indexes and then with them,
+-- and removes the generated study results again.
+
+SET @studyId = 1;
+SET @batchId = 1;
+SET @workerId = 1;
+SET @rows = 5000000;
+
+-- Generate the data: the row number n decides state and dates
+-- StudyState is stored by its ordinal: PRE 0, STARTED 1, DATA_RETRIEVED 2, FINISHED 3, ABORTED 4, FAIL 5
+DROP TEMPORARY TABLE IF EXISTS `digits`;
+CREATE TEMPORARY TABLE `digits` (`d` int NOT NULL);
+INSERT INTO `digits` VALUES (0), (1), (2), (3), (4), (5), (6), (7), (8), (9);
+
+INSERT INTO `StudyResult` (`study_id`, `batch_id`, `worker_id`, `studyState`, `startDate`, `endDate`,
+                           `confirmationCode`, `studySessionData`)
+SELECT @studyId, @batchId, @workerId,
+       CASE WHEN n % 100 < 2 THEN n % 3 ELSE 3 + n % 3 END,
+       NOW() - INTERVAL n SECOND,
+       CASE WHEN n % 100 < 2 THEN NULL ELSE NOW() - INTERVAL n SECOND + INTERVAL 10 MINUTE END,
+       'benchmark', '{}'
+FROM (SELECT d1.d + d2.d * 10 + d3.d * 100 + d4.d * 1000 + d5.d * 10000 + d6.d * 100000 + d7.d * 1000000 AS n
+      FROM `digits` d1, `digits` d2, `digits` d3, `digits` d4, `digits` d5, `digits` d6, `digits` d7) numbers
+WHERE n < @rows;
+
+ANALYZE TABLE `StudyResult`;
+
+-- Before: without the composite indexes
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_studyState_endDate`;
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_studyState_startDate_endDate`;
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_study_id`;
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_batch_worker`;
+
+-- Old findLastFinished: all finished states in one query
+EXPLAIN ANALYZE SELECT `id`, `startDate`, `endDate`, `studyState`, `study_id` FROM `StudyResult`
+WHERE `studyState` IN (3, 4, 5) ORDER BY `endDate` DESC LIMIT 10;
+-- New findLastFinished: one query per state
+EXPLAIN ANALYZE SELECT `id`, `startDate`, `endDate`, `studyState`, `study_id` FROM `StudyResult`
+WHERE `studyState` = 3 ORDER BY `endDate` DESC LIMIT 10;
+-- New findLastUnfinished: one query per state
+EXPLAIN ANALYZE SELECT `id`, `startDate`, `endDate`, `studyState`, `study_id` FROM `StudyResult`
+WHERE `studyState` = 1 AND `startDate` IS NOT NULL AND `endDate` IS NULL ORDER BY `startDate` DESC LIMIT 10;
+-- Results list of a study (keyset pagination by ID)
+EXPLAIN ANALYZE SELECT `id` FROM `StudyResult` WHERE `study_id` = @studyId AND `id` > 0 ORDER BY `id` LIMIT 100;
+-- Study results of a worker in a batch
+EXPLAIN ANALYZE SELECT COUNT(*) FROM `StudyResult` WHERE `batch_id` = @batchId AND `worker_id` = @workerId;
+
+-- After: with the composite indexes
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_studyState_endDate` (`studyState`, `endDate`);
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_studyState_startDate_endDate` (`studyState`, `startDate`, `endDate`);
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_study_id` (`study_id`, `id`);
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_batch_worker` (`batch_id`, `worker_id`);
+ANALYZE TABLE `StudyResult`;
+
+EXPLAIN ANALYZE SELECT `id`, `startDate`, `endDate`, `studyState`, `study_id` FROM `StudyResult`
+WHERE `studyState` IN (3, 4, 5) ORDER BY `endDate` DESC LIMIT 10;
+EXPLAIN ANALYZE SELECT `id`, `startDate`, `endDate`, `studyState`, `study_id` FROM `StudyResult`
+WHERE `studyState` = 3 ORDER BY `endDate` DESC LIMIT 10;
+EXPLAIN ANALYZE SELECT `id`, `startDate`, `endDate`, `studyState`, `study_id` FROM `StudyResult`
+WHERE `studyState` = 1 AND `startDate` IS NOT NULL AND `endDate` IS NULL ORDER BY `startDate` DESC LIMIT 10;
+EXPLAIN ANALYZE SELECT `id` FROM `StudyResult` WHERE `study_id` = @studyId AND `id` > 0 ORDER BY `id` LIMIT 100;
+EXPLAIN ANALYZE SELECT COUNT(*) FROM `StudyResult` WHERE `batch_id` = @batchId AND `worker_id` = @workerId;
+
+-- Clean up
+DELETE FROM `StudyResult` WHERE `confirmationCode` = 'benchmark';
+DROP TEMPORARY TABLE `digits`;
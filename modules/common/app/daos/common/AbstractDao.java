@@ -1,6 +1,9 @@
 package daos.common;
 
 import javax.inject.Singleton;
+import javax.persistence.Query;
+
+import org.hibernate.query.NativeQuery;
 
 import play.db.jpa.JPAApi;
 
@@ -36,4 +39,19 @@ public abstract class AbstractDao {
 		jpa.em().refresh(entity);
 	}
 
+	/**
+	 * Creates a native SQL statement (INSERT, UPDATE or DELETE) that changes
+	 * only the given tables. This way Hibernate evicts only the entities of
+	 * those tables from the second-level cache - without it every native
+	 * statement would clear the whole cache.
+	 */
+	protected Query createNativeUpdate(String sql, String... tables) {
+		NativeQuery<?> query = jpa.em().createNativeQuery(sql)
+				.unwrap(NativeQuery.class);
+		for (String table : tables) {
+			query.addSynchronizedQuerySpace(table);
+		}
+		return query;
+	}
+
 }
@@ -1,9 +1,17 @@
 package daos.common;
 
+import java.sql.PreparedStatement;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.LockModeType;
+
+import org.hibernate.Session;
 
 import models.common.Batch;
+import models.common.BatchStats;
+import models.common.workers.Worker;
 import play.db.jpa.JPAApi;
 
 /**
@@ -19,15 +27,25 @@ public class BatchDao extends AbstractDao {
 		super(jpa);
 	}
 
+	/**
+	 * Persists the batch together with its (empty) BatchStats
+	 */
 	public void create(Batch batch) {
 		persist(batch);
+		persist(new BatchStats(batch.getId()));
 	}
 
 	public void update(Batch batch) {
 		merge(batch);
 	}
 
+	/**
+	 * Removes the batch together with its BatchStats
+	 */
 	public void remove(Batch batch) {
+		jpa.em().createQuery("DELETE FROM BatchStats bs WHERE bs.batchId = :batchId")
+				.setParameter("batchId", batch.getId())
+				.executeUpdate();
 		super.remove(batch);
 	}
 
@@ -35,4 +53,111 @@ public class BatchDao extends AbstractDao {
 		return jpa.em().find(Batch.class, id);
 	}
 
+	public void refresh(Batch batch) {
+		super.refresh(batch);
+	}
+
+	/**
+	 * Sets the batch session data and version without loading the Batch. It's
+	 * only written if the stored version is not older than persistedVersion
+	 * (the last version written by the caller) and older than the new version.
+	 * Returns true if it was written.
+	 */
+	public boolean updateBatchSession(Long batchId, String data, long version,
+			long persistedVersion) {
+		String queryStr = "UPDATE Batch b SET b.batchSessionData = :data, "
+				+ "b.batchSessionVersion = :version WHERE b.id = :id "
+				+ "AND b.batchSessionVersion >= :persistedVersion "
+				+ "AND b.batchSessionVersion < :version";
+		int updated = jpa.em().createQuery(queryStr)
+				.setParameter("data", data)
+				.setParameter("version", version)
+				.setParameter("id", batchId)
+				.setParameter("persistedVersion", persistedVersion)
+				.executeUpdate();
+		return updated == 1;
+	}
+
+	/**
+	 * Returns true if the worker is in the batch's workerList - without
+	 * loading the workerList.
+	 */
+	public boolean hasWorker(Batch batch, Worker worker) {
+		String queryStr = "SELECT COUNT(w) FROM Batch b JOIN b.workerList w "
+				+ "WHERE b = :batch AND w = :worker";
+		Number count = (Number) jpa.em().createQuery(queryStr)
+				.setParameter("batch", batch)
+				.setParameter("worker", worker)
+				.getSingleResult();
+		return count.longValue() > 0;
+	}
+
+	/**
+	 * Adds the worker to the batch's workerList without loading the
+	 * workerList - but only if the batch's worker count is below its
+	 * maxTotalWorkers (or it has none) and the worker isn't in the workerList
+	 * already. The batch's row is locked until the end of the transaction
+	 * (SELECT ... FOR UPDATE), so concurrent transactions can't both take the
+	 * last place. The BatchWorkerMap row is inserted with a conditional
+	 * INSERT ... SELECT and the worker count is only incremented if a row was
+	 * inserted. Afterwards the batch is re-read, so its workerCount in the
+	 * persistence context isn't outdated (and can't be written back). Unsaved
+	 * changes of the batch are lost by this. The worker must be persisted -
+	 * it's flushed before the native INSERT, since Hibernate only auto-flushes
+	 * the BatchWorkerMap's query space. Returns true if the worker was added.
+	 */
+	public boolean addWorkerIfAllowed(Batch batch, Worker worker) {
+		jpa.em().refresh(batch, LockModeType.PESSIMISTIC_WRITE);
+		jpa.em().flush();
+		int inserted = createNativeUpdate(
+				"INSERT INTO BatchWorkerMap (batch_id, worker_id) "
+						+ "SELECT b.id, ?2 FROM Batch b WHERE b.id = ?1 "
+						+ "AND (b.maxTotalWorkers IS NULL "
+						+ "OR b.workerCount < b.maxTotalWorkers) "
+						+ "AND NOT EXISTS (SELECT 1 FROM BatchWorkerMap m "
+						+ "WHERE m.batch_id = ?1 AND m.worker_id = ?2)",
+				"BatchWorkerMap")
+				.setParameter(1, batch.getId())
+				.setParameter(2, worker.getId())
+				.executeUpdate();
+		if (inserted == 0) return false;
+
+		jpa.em().createQuery("UPDATE Batch b SET b.workerCount = b.workerCount + 1 "
+				+ "WHERE b.id = :id")
+				.setParameter("id", batch.getId())
+				.executeUpdate();
+		jpa.em().refresh(batch);
+		return true;
+	}
+
+	/**
+	 * Adds the given workers to the batch's workerList without loading the
+	 * workerList: the BatchWorkerMap rows are inserted in one JDBC batch and
+	 * the worker count is incremented with a single UPDATE. The workers must
+	 * be persisted and must not be in the workerList already - they are
+	 * flushed first, since the INSERT runs on the JDBC connection directly.
+	 * The batch's workerList and workerCount in the persistence context are
+	 * not updated by this.
+	 */
+	public void addWorkers(Batch batch, List<? extends Worker> workerList) {
+		if (workerList.isEmpty()) return;
+		jpa.em().flush();
+		String sql = "INSERT INTO BatchWorkerMap (batch_id, worker_id) VALUES (?, ?)";
+		jpa.em().unwrap(Session.class).doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				for (Worker worker : workerList) {
+					statement.setLong(1, batch.getId());
+					statement.setLong(2, worker.getId());
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		});
+		jpa.em().createQuery("UPDATE Batch b SET b.workerCount = b.workerCount + :count "
+				+ "WHERE b.id = :id")
+				.setParameter("count", workerList.size())
+				.setParameter("id", batch.getId())
+				.executeUpdate();
+	}
+
 }
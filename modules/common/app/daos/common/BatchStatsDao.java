@@ -0,0 +1,175 @@
+package daos.common;
+
+import models.common.Batch;
+import models.common.BatchStats;
+import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * DAO for BatchStats. BatchStats are created and removed together with their batch (see BatchDao). The counters are
+ * changed with single UPDATE statements (without loading the BatchStats) - this way concurrent study runs don't
+ * overwrite each other's changes. The BatchStats in the persistence context are not updated by this. Removing results
+ * doesn't decrement the counters - the BatchStats of the affected batches are rebuilt instead (see
+ * BulkResultRemover).
+ */
+@Singleton
+public class BatchStatsDao extends AbstractDao {
+
+    /**
+     * Native SQL that recalculates all counters of the BatchStats from the StudyResult and GroupResult tables
+     */
+    private static final String REBUILD_SQL = buildRebuildSql();
+
+    @Inject
+    BatchStatsDao(JPAApi jpa) {
+        super(jpa);
+    }
+
+    public BatchStats findByBatch(Batch batch) {
+        return jpa.em().find(BatchStats.class, batch.getId());
+    }
+
+    /**
+     * Returns the BatchStats of all given batches with a single query (batch ID -> BatchStats). Batches without
+     * BatchStats are missing in the map.
+     */
+    public Map<Long, BatchStats> findByBatches(List<Batch> batchList) {
+        if (batchList.isEmpty()) return new HashMap<>();
+        List<Long> batchIds = batchList.stream().map(Batch::getId).collect(Collectors.toList());
+        TypedQuery<BatchStats> query = jpa.em().createQuery(
+                "SELECT bs FROM BatchStats bs WHERE bs.batchId IN :batchIds", BatchStats.class);
+        return query.setParameter("batchIds", batchIds).getResultList().stream()
+                .collect(Collectors.toMap(BatchStats::getBatchId, Function.identity()));
+    }
+
+    /**
+     * Counts a new StudyResult (in total and for its worker type)
+     */
+    public void addStudyResult(StudyResult studyResult) {
+        String workerColumn = getWorkerTypeColumn(studyResult.getWorker().getWorkerType());
+        jpa.em().createQuery("UPDATE BatchStats bs SET bs.studyResultCount = bs.studyResultCount + 1, "
+                + "bs." + workerColumn + " = bs." + workerColumn + " + 1, bs.lastActivity = :now "
+                + "WHERE bs.batchId = :batchId")
+                .setParameter("now", new Timestamp(System.currentTimeMillis()))
+                .setParameter("batchId", studyResult.getBatch().getId())
+                .executeUpdate();
+    }
+
+    /**
+     * Counts a StudyResult that just went into one of the final states FINISHED, ABORTED or FAIL. Has to be called
+     * only once per StudyResult.
+     */
+    public void finishStudyResult(StudyResult studyResult) {
+        String stateColumn = getStateColumn(studyResult.getStudyState());
+        if (stateColumn == null) return;
+        jpa.em().createQuery("UPDATE BatchStats bs SET "
+                + "bs." + stateColumn + " = bs." + stateColumn + " + 1, bs.lastActivity = :now "
+                + "WHERE bs.batchId = :batchId")
+                .setParameter("now", new Timestamp(System.currentTimeMillis()))
+                .setParameter("batchId", studyResult.getBatch().getId())
+                .executeUpdate();
+    }
+
+    /**
+     * Counts a new GroupResult
+     */
+    public void addGroupResult(Batch batch) {
+        jpa.em().createQuery("UPDATE BatchStats bs SET bs.groupResultCount = bs.groupResultCount + 1 "
+                + "WHERE bs.batchId = :batchId")
+                .setParameter("batchId", batch.getId())
+                .executeUpdate();
+    }
+
+    /**
+     * Recalculates the BatchStats of the given batches from their StudyResults and GroupResults. Missing BatchStats
+     * are created.
+     */
+    public void rebuild(List<Batch> batchList) {
+        rebuildByIds(batchList.stream().map(Batch::getId).collect(Collectors.toList()));
+    }
+
+    /**
+     * Recalculates the BatchStats of the batches with the given IDs (see rebuild)
+     */
+    public void rebuildByIds(Collection<Long> batchIds) {
+        if (batchIds.isEmpty()) return;
+        createNativeUpdate("INSERT INTO BatchStats (batch_id) SELECT b.id FROM Batch b "
+                + "WHERE b.id IN (:batchIds) AND NOT EXISTS (SELECT 1 FROM BatchStats s WHERE s.batch_id = b.id)",
+                "BatchStats")
+                .setParameter("batchIds", batchIds)
+                .executeUpdate();
+        setRebuildParameters(createNativeUpdate(REBUILD_SQL + " WHERE batch_id IN (:batchIds)", "BatchStats"))
+                .setParameter("batchIds", batchIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Creates and calculates the BatchStats of all batches that have none yet (e.g. batches that existed before the
+     * BatchStats table was added). Returns the number of these batches.
+     */
+    public int rebuildMissing() {
+        @SuppressWarnings("unchecked")
+        List<Number> batchIds = jpa.em().createNativeQuery("SELECT b.id FROM Batch b "
+                + "WHERE NOT EXISTS (SELECT 1 FROM BatchStats s WHERE s.batch_id = b.id)").getResultList();
+        rebuildByIds(batchIds.stream().map(Number::longValue).collect(Collectors.toList()));
+        return batchIds.size();
+    }
+
+    private static String getWorkerTypeColumn(String workerType) {
+        String column = BatchStats.WORKER_TYPE_COLUMNS.get(workerType);
+        if (column == null) throw new IllegalArgumentException("Unknown worker type " + workerType);
+        return column;
+    }
+
+    /**
+     * Returns the counter column of the given state or null if the state isn't counted separately
+     */
+    private static String getStateColumn(StudyState studyState) {
+        return studyState != null ? BatchStats.STATE_COLUMNS.get(studyState) : null;
+    }
+
+    /**
+     * Builds the native SQL of the rebuild from BatchStats.STATE_COLUMNS and BatchStats.WORKER_TYPE_COLUMNS. The state
+     * ordinals and worker types are parameters named after their counter column (see setRebuildParameters).
+     */
+    private static String buildRebuildSql() {
+        String studyResults = "FROM StudyResult sr WHERE sr.batch_id = BatchStats.batch_id";
+        String studyResultsOfWorkerType = "FROM StudyResult sr JOIN Worker w ON sr.worker_id = w.id "
+                + "WHERE sr.batch_id = BatchStats.batch_id AND w.workerType = :";
+        StringBuilder sql = new StringBuilder("UPDATE BatchStats SET ");
+        sql.append("studyResultCount = (SELECT COUNT(*) ").append(studyResults).append("), ");
+        BatchStats.STATE_COLUMNS.values().forEach(column -> sql.append(column)
+                .append(" = (SELECT COUNT(*) ").append(studyResults)
+                .append(" AND sr.studyState = :").append(column).append("), "));
+        BatchStats.WORKER_TYPE_COLUMNS.values().forEach(column -> sql.append(column)
+                .append(" = (SELECT COUNT(*) ").append(studyResultsOfWorkerType).append(column).append("), "));
+        sql.append("groupResultCount = (SELECT COUNT(*) FROM GroupResult gr "
+                + "WHERE gr.batch_id = BatchStats.batch_id), ");
+        sql.append("lastActivity = (SELECT MAX(CASE WHEN sr.endDate IS NULL THEN sr.startDate ELSE sr.endDate END) ")
+                .append(studyResults).append(")");
+        return sql.toString();
+    }
+
+    /**
+     * Binds the parameters of the rebuild SQL: StudyState is stored as ordinal
+     */
+    private static Query setRebuildParameters(Query query) {
+        BatchStats.STATE_COLUMNS.forEach((state, column) -> query.setParameter(column, state.ordinal()));
+        BatchStats.WORKER_TYPE_COLUMNS.forEach((workerType, column) -> query.setParameter(column, workerType));
+        return query;
+    }
+
+}
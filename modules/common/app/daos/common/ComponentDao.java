@@ -2,6 +2,7 @@ package daos.common;
 
 import models.common.Component;
 import models.common.Study;
+import org.hibernate.jpa.QueryHints;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
@@ -59,6 +60,7 @@ public class ComponentDao extends AbstractDao {
         query.setParameter("study", study);
         // There can be only one component with this UUID
         query.setMaxResults(1);
+        query.setHint(QueryHints.HINT_CACHEABLE, true);
         List<Component> studyList = query.getResultList();
         return !studyList.isEmpty() ? Optional.of(studyList.get(0)) : Optional.empty();
     }
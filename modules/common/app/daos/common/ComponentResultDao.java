@@ -2,14 +2,20 @@ package daos.common;
 
 import models.common.Component;
 import models.common.ComponentResult;
+import models.common.ComponentResultChunk;
+import models.common.StudyResult;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import play.db.jpa.JPAApi;
+import utils.common.HashUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.LockModeType;
 import javax.persistence.Query;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -33,10 +39,78 @@ public class ComponentResultDao extends AbstractDao {
         merge(componentResult);
     }
 
+    /**
+     * Removes the ComponentResult together with its appended data chunks
+     */
     public void remove(ComponentResult componentResult) {
+        removeDataChunks(componentResult);
         super.remove(componentResult);
     }
 
+    /**
+     * Appends the given data to the ComponentResult's result data by persisting it as a new ComponentResultChunk.
+     * Neither the ComponentResult's data nor its other chunks are loaded or written. The chunk's chained hash is
+     * calculated from the previous chunk's hash and the new data only.
+     * <p>
+     * Concurrent appends to the same ComponentResult are serialized: its row is locked and re-read (SELECT ... FOR
+     * UPDATE) until the end of the transaction - this way its dataSize is the latest one. Unsaved changes of the
+     * ComponentResult are lost by this - so they have to be done afterwards. The last chunk is read with a locking
+     * read too - this way it's the latest committed one and not the one from the transaction's snapshot (MySQL's
+     * REPEATABLE READ).
+     */
+    public ComponentResultChunk appendData(ComponentResult componentResult, String data) {
+        jpa.em().refresh(componentResult, LockModeType.PESSIMISTIC_WRITE);
+        String queryStr = "SELECT c FROM ComponentResultChunk c WHERE c.componentResult=:componentResult "
+                + "ORDER BY c.chunkNumber DESC";
+        List<ComponentResultChunk> lastChunk = jpa.em().createQuery(queryStr, ComponentResultChunk.class)
+                .setParameter("componentResult", componentResult)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setMaxResults(1)
+                .getResultList();
+        int chunkNumber;
+        String previousHash;
+        if (lastChunk.isEmpty()) {
+            chunkNumber = 1;
+            String submittedData = componentResult.getSubmittedData();
+            previousHash = submittedData != null ? HashUtils.getHash(submittedData, HashUtils.SHA_256) : null;
+        } else {
+            chunkNumber = lastChunk.get(0).getChunkNumber() + 1;
+            previousHash = lastChunk.get(0).getDataHash();
+        }
+        String dataHash = HashUtils.getChainedHash(previousHash, data, HashUtils.SHA_256);
+        ComponentResultChunk dataChunk = new ComponentResultChunk(componentResult, chunkNumber, data, dataHash);
+        persist(dataChunk);
+        componentResult.addDataChunk(dataChunk);
+        return dataChunk;
+    }
+
+    /**
+     * Removes all appended data chunks of the given ComponentResult with a single bulk delete
+     */
+    public void removeDataChunks(ComponentResult componentResult) {
+        if (componentResult.getId() == null) return;
+        jpa.em().createQuery("DELETE FROM ComponentResultChunk c WHERE c.componentResult=:componentResult")
+                .setParameter("componentResult", componentResult)
+                .executeUpdate();
+        componentResult.clearDataChunks();
+    }
+
+    /**
+     * Removes all ComponentResults (together with their data chunks) of the StudyResults with the given IDs with bulk
+     * deletes - without loading them. The StudyResults and the ComponentResults in the persistence context are not
+     * updated by this. Returns the number of removed ComponentResults.
+     */
+    public int removeAllByStudyResultIds(Collection<Long> studyResultIds) {
+        if (studyResultIds.isEmpty()) return 0;
+        createNativeUpdate("DELETE FROM ComponentResultChunk WHERE componentResult_id IN "
+                + "(SELECT cr.id FROM ComponentResult cr WHERE cr.studyResult_id IN (:ids))", "ComponentResultChunk")
+                .setParameter("ids", studyResultIds)
+                .executeUpdate();
+        return createNativeUpdate("DELETE FROM ComponentResult WHERE studyResult_id IN (:ids)", "ComponentResult")
+                .setParameter("ids", studyResultIds)
+                .executeUpdate();
+    }
+
     public void refresh(ComponentResult componentResult) {
         super.refresh(componentResult);
     }
@@ -45,6 +119,45 @@ public class ComponentResultDao extends AbstractDao {
         return jpa.em().find(ComponentResult.class, id);
     }
 
+    /**
+     * Returns the IDs of the ComponentResults of the given StudyResult in the order of its componentResultList. The
+     * ComponentResults themselves (and their result data) are not loaded.
+     */
+    public List<Long> findIdsByStudyResult(StudyResult studyResult) {
+        String queryStr = "SELECT cr.id FROM StudyResult sr JOIN sr.componentResultList cr "
+                + "WHERE sr=:studyResult ORDER BY INDEX(cr)";
+        return jpa.em().createQuery(queryStr, Long.class)
+                .setParameter("studyResult", studyResult)
+                .getResultList();
+    }
+
+    /**
+     * Returns the metadata of the ComponentResults of the given StudyResult in the order of its componentResultList:
+     * each Tuple has the aliases id, startDate, endDate, componentState, componentId and componentTitle. No result data
+     * are loaded.
+     */
+    public List<Tuple> findMetadataByStudyResult(StudyResult studyResult) {
+        String queryStr = "SELECT cr.id AS id, cr.startDate AS startDate, cr.endDate AS endDate, "
+                + "cr.componentState AS componentState, c.id AS componentId, c.title AS componentTitle "
+                + "FROM StudyResult sr JOIN sr.componentResultList cr JOIN cr.component c "
+                + "WHERE sr=:studyResult ORDER BY INDEX(cr)";
+        return jpa.em().createQuery(queryStr, Tuple.class)
+                .setParameter("studyResult", studyResult)
+                .getResultList();
+    }
+
+    /**
+     * Returns the Component of the ComponentResult with the given ID without loading the ComponentResult (and its
+     * result data). Returns null if the ComponentResult doesn't exist.
+     */
+    public Component findComponentByComponentResultId(Long componentResultId) {
+        String queryStr = "SELECT cr.component FROM ComponentResult cr WHERE cr.id=:id";
+        List<Component> result = jpa.em().createQuery(queryStr, Component.class)
+                .setParameter("id", componentResultId)
+                .getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
     /**
      * Returns the number of ComponentResults belonging to the given Component.
      */
@@ -10,6 +10,7 @@ import javax.inject.Singleton;
 import javax.persistence.LockModeType;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -90,4 +91,57 @@ public class GroupResultDao extends AbstractDao {
         return query.getResultList();
     }
 
+    /**
+     * Sets the group session data and version without loading the GroupResult. It's only written if the stored version
+     * is not older than persistedVersion (the last version written by the caller), older than the new version and the
+     * group isn't FINISHED yet. Returns true if it was written.
+     */
+    public boolean updateGroupSession(Long groupResultId, String data, long version, long persistedVersion) {
+        String queryStr = "UPDATE GroupResult gr SET gr.groupSessionData = :data, "
+                + "gr.groupSessionVersion = :version WHERE gr.id = :id "
+                + "AND gr.groupSessionVersion >= :persistedVersion "
+                + "AND gr.groupSessionVersion < :version "
+                + "AND gr.groupState <> :finished";
+        int updated = jpa.em().createQuery(queryStr)
+                .setParameter("data", data)
+                .setParameter("version", version)
+                .setParameter("id", groupResultId)
+                .setParameter("persistedVersion", persistedVersion)
+                .setParameter("finished", GroupState.FINISHED)
+                .executeUpdate();
+        return updated == 1;
+    }
+
+    /**
+     * Deletes the group session data without loading the GroupResult
+     */
+    public void clearGroupSession(Long groupResultId) {
+        jpa.em().createQuery("UPDATE GroupResult gr SET gr.groupSessionData = NULL WHERE gr.id = :id")
+                .setParameter("id", groupResultId)
+                .executeUpdate();
+    }
+
+    /**
+     * Recounts the active and history members of the GroupResults with the given IDs and removes those that are
+     * FINISHED and have no members anymore - all with bulk statements and without loading the GroupResults. Used after
+     * StudyResults were removed in bulk. The GroupResults in the persistence context are not updated by this. Returns
+     * the number of removed GroupResults.
+     */
+    public int updateMemberCountsAndRemoveEmpty(Collection<Long> groupResultIds) {
+        if (groupResultIds.isEmpty()) return 0;
+        createNativeUpdate("UPDATE GroupResult SET "
+                + "activeMemberCount = (SELECT COUNT(*) FROM StudyResult sr "
+                + "WHERE sr.activeGroupMember_id = GroupResult.id), "
+                + "historyMemberCount = (SELECT COUNT(*) FROM StudyResult sr "
+                + "WHERE sr.historyGroupMember_id = GroupResult.id) "
+                + "WHERE id IN (:ids)", "GroupResult")
+                .setParameter("ids", groupResultIds)
+                .executeUpdate();
+        return jpa.em().createQuery("DELETE FROM GroupResult gr WHERE gr.id IN :ids "
+                + "AND gr.groupState = :finished AND gr.activeMemberCount = 0 AND gr.historyMemberCount = 0")
+                .setParameter("ids", groupResultIds)
+                .setParameter("finished", GroupState.FINISHED)
+                .executeUpdate();
+    }
+
 }
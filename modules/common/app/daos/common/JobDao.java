@@ -0,0 +1,150 @@
+package daos.common;
+
+import models.common.Job;
+import models.common.Job.JobState;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * DAO for Job entity. The state changes of a job are done with single UPDATE statements that check the job's current
+ * state - this way e.g. a job that was cancelled while it waited in the queue isn't started anymore. The jobs in the
+ * persistence context are not updated by this.
+ */
+@Singleton
+public class JobDao extends AbstractDao {
+
+    @Inject
+    JobDao(JPAApi jpa) {
+        super(jpa);
+    }
+
+    public void create(Job job) {
+        persist(job);
+    }
+
+    public Job findById(Long id) {
+        return jpa.em().find(Job.class, id);
+    }
+
+    /**
+     * Returns all jobs in the given state - the oldest first
+     */
+    public List<Job> findByState(JobState state) {
+        return jpa.em().createQuery("SELECT j FROM Job j WHERE j.state = :state ORDER BY j.id", Job.class)
+                .setParameter("state", state)
+                .getResultList();
+    }
+
+    /**
+     * Returns the number of the given user's jobs that are running right now
+     */
+    public int countRunningByUser(String username) {
+        Number result = (Number) jpa.em().createQuery(
+                "SELECT COUNT(j) FROM Job j WHERE j.username = :username AND j.state = :state")
+                .setParameter("username", username)
+                .setParameter("state", JobState.RUNNING)
+                .getSingleResult();
+        return result.intValue();
+    }
+
+    /**
+     * Sets the job with the given ID to RUNNING - but only if it's still QUEUED and not cancelled. Returns true if
+     * the job was set to RUNNING.
+     */
+    public boolean markRunning(Long id) {
+        int count = jpa.em().createQuery("UPDATE Job j SET j.state = :running, j.startDate = :now "
+                + "WHERE j.id = :id AND j.state = :queued AND j.cancelRequested = false")
+                .setParameter("running", JobState.RUNNING)
+                .setParameter("now", new Timestamp(System.currentTimeMillis()))
+                .setParameter("id", id)
+                .setParameter("queued", JobState.QUEUED)
+                .executeUpdate();
+        return count == 1;
+    }
+
+    /**
+     * Puts a RUNNING job back into the queue, e.g. after it was interrupted by a restart
+     */
+    public void requeue(Long id) {
+        jpa.em().createQuery("UPDATE Job j SET j.state = :queued, j.startDate = NULL "
+                + "WHERE j.id = :id AND j.state = :running")
+                .setParameter("queued", JobState.QUEUED)
+                .setParameter("id", id)
+                .setParameter("running", JobState.RUNNING)
+                .executeUpdate();
+    }
+
+    /**
+     * Ends the job with the given ID in the given state (DONE, FAILED or CANCELLED). Jobs that ended already aren't
+     * changed.
+     */
+    public void markEnded(Long id, JobState state, String result, String error) {
+        if (!state.isEnded()) throw new IllegalArgumentException("Not an end state: " + state);
+        jpa.em().createQuery("UPDATE Job j SET j.state = :state, j.result = :result, j.error = :error, "
+                + "j.endDate = :now WHERE j.id = :id AND j.state IN :notEnded")
+                .setParameter("state", state)
+                .setParameter("result", result)
+                .setParameter("error", error)
+                .setParameter("now", new Timestamp(System.currentTimeMillis()))
+                .setParameter("id", id)
+                .setParameter("notEnded", Arrays.asList(JobState.QUEUED, JobState.RUNNING))
+                .executeUpdate();
+    }
+
+    public void updateProgress(Long id, int progress, int total) {
+        jpa.em().createQuery("UPDATE Job j SET j.progress = :progress, j.total = :total WHERE j.id = :id")
+                .setParameter("progress", progress)
+                .setParameter("total", total)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    /**
+     * Asks the job with the given ID to stop. A QUEUED job is cancelled right away - a RUNNING job is cancelled by
+     * its handler at the next item.
+     */
+    public void requestCancel(Long id) {
+        jpa.em().createQuery("UPDATE Job j SET j.cancelRequested = true WHERE j.id = :id AND j.state IN :notEnded")
+                .setParameter("id", id)
+                .setParameter("notEnded", Arrays.asList(JobState.QUEUED, JobState.RUNNING))
+                .executeUpdate();
+        jpa.em().createQuery("UPDATE Job j SET j.state = :cancelled, j.endDate = :now "
+                + "WHERE j.id = :id AND j.state = :queued")
+                .setParameter("cancelled", JobState.CANCELLED)
+                .setParameter("now", new Timestamp(System.currentTimeMillis()))
+                .setParameter("id", id)
+                .setParameter("queued", JobState.QUEUED)
+                .executeUpdate();
+    }
+
+    public boolean isCancelRequested(Long id) {
+        Boolean cancelRequested = jpa.em().createQuery(
+                "SELECT j.cancelRequested FROM Job j WHERE j.id = :id", Boolean.class)
+                .setParameter("id", id)
+                .getResultList().stream().findFirst().orElse(true);
+        return cancelRequested;
+    }
+
+    /**
+     * Returns the IDs of all jobs that ended before the given time
+     */
+    public List<Long> findIdsEndedBefore(Timestamp time) {
+        return jpa.em().createQuery("SELECT j.id FROM Job j WHERE j.endDate < :time", Long.class)
+                .setParameter("time", time)
+                .getResultList();
+    }
+
+    public void removeAllByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) return;
+        jpa.em().createQuery("DELETE FROM Job j WHERE j.id IN :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+}
@@ -2,13 +2,13 @@ package daos.common;
 
 import models.common.Study;
 import models.common.User;
+import org.hibernate.jpa.QueryHints;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.TypedQuery;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 /**
  * DAO of Study entity
@@ -45,6 +45,7 @@ public class StudyDao extends AbstractDao {
         query.setParameter("uuid", uuid);
         // There can be only one study with this UUID
         query.setMaxResults(1);
+        query.setHint(QueryHints.HINT_CACHEABLE, true);
         List<Study> studyList = query.getResultList();
         return !studyList.isEmpty() ? Optional.of(studyList.get(0)) : Optional.empty();
     }
@@ -71,6 +72,23 @@ public class StudyDao extends AbstractDao {
         return query.getResultList();
     }
 
+    /**
+     * Returns the users of the studies with the given IDs (study ID -> users) - all with one query and without loading
+     * the studies. Studies without users are not in the map.
+     */
+    public Map<Long, List<User>> findUsersByStudyIds(Collection<Long> studyIds) {
+        Map<Long, List<User>> usersByStudyId = new HashMap<>();
+        if (studyIds.isEmpty()) return usersByStudyId;
+        List<Object[]> rows = jpa.em().createQuery(
+                "SELECT s.id, u FROM Study s INNER JOIN s.userList u WHERE s.id IN :studyIds", Object[].class)
+                .setParameter("studyIds", studyIds)
+                .getResultList();
+        for (Object[] row : rows) {
+            usersByStudyId.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add((User) row[1]);
+        }
+        return usersByStudyId;
+    }
+
     /**
      * Returns the number of Study rows
      */
@@ -4,14 +4,18 @@ import models.common.*;
 import models.common.workers.Worker;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
-import java.util.Arrays;
-import java.util.List;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static models.common.StudyResult.StudyState;
 
@@ -134,6 +138,74 @@ public class StudyResultDao extends AbstractDao {
         return query.setParameter("batch", batch).getResultList();
     }
 
+    /**
+     * Returns the IDs of all StudyResults of the given study in ascending order - without loading the StudyResults
+     */
+    public List<Long> findIdsByStudy(Study study) {
+        String queryStr = "SELECT sr.id FROM StudyResult sr WHERE sr.study=:study ORDER BY sr.id";
+        return jpa.em().createQuery(queryStr, Long.class).setParameter("study", study).getResultList();
+    }
+
+    /**
+     * Returns the IDs of all StudyResults of the given batch in ascending order - without loading the StudyResults
+     */
+    public List<Long> findIdsByBatch(Batch batch) {
+        String queryStr = "SELECT sr.id FROM StudyResult sr WHERE sr.batch=:batch ORDER BY sr.id";
+        return jpa.em().createQuery(queryStr, Long.class).setParameter("batch", batch).getResultList();
+    }
+
+    /**
+     * Returns the study IDs of the StudyResults with the given IDs (study result ID -> study ID) - without loading the
+     * StudyResults. StudyResults that don't exist are missing in the map.
+     */
+    public Map<Long, Long> findStudyIds(Collection<Long> studyResultIds) {
+        if (studyResultIds.isEmpty()) return new HashMap<>();
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = jpa.em().createNativeQuery(
+                "SELECT sr.id, sr.study_id FROM StudyResult sr WHERE sr.id IN (:ids)")
+                .setParameter("ids", studyResultIds)
+                .getResultList();
+        Map<Long, Long> studyIds = new HashMap<>();
+        rows.forEach(row -> studyIds.put(((Number) row[0]).longValue(), ((Number) row[1]).longValue()));
+        return studyIds;
+    }
+
+    /**
+     * Columns of StudyResult that reference other entities (used by findDistinctReferencedIds)
+     */
+    private static final List<String> REFERENCE_COLUMNS = Arrays.asList("worker_id", "batch_id",
+            "activeGroupMember_id", "historyGroupMember_id");
+
+    /**
+     * Returns the distinct IDs of the workers, batches and GroupResults (active and history) the StudyResults with the
+     * given IDs belong to - without loading the StudyResults
+     *
+     * @param studyResultIds IDs of StudyResults
+     * @param column         One of the columns worker_id, batch_id, activeGroupMember_id or historyGroupMember_id
+     */
+    public Set<Long> findDistinctReferencedIds(Collection<Long> studyResultIds, String column) {
+        if (studyResultIds.isEmpty()) return new HashSet<>();
+        if (!REFERENCE_COLUMNS.contains(column)) throw new IllegalArgumentException("Unknown column " + column);
+        List<?> result = jpa.em().createNativeQuery("SELECT DISTINCT sr." + column + " FROM StudyResult sr "
+                + "WHERE sr.id IN (:ids) AND sr." + column + " IS NOT NULL")
+                .setParameter("ids", studyResultIds)
+                .getResultList();
+        return result.stream().map(id -> ((Number) id).longValue()).collect(Collectors.toSet());
+    }
+
+    /**
+     * Removes the StudyResults with the given IDs with a single bulk delete. Their ComponentResults have to be removed
+     * before (ComponentResultDao.removeAllByStudyResultIds). The StudyResults' workers, GroupResults and batches are
+     * not updated by this and neither are the StudyResults in the persistence context. Returns the number of removed
+     * StudyResults.
+     */
+    public int removeAllByIds(Collection<Long> studyResultIds) {
+        if (studyResultIds.isEmpty()) return 0;
+        return createNativeUpdate("DELETE FROM StudyResult WHERE id IN (:ids)", "StudyResult")
+                .setParameter("ids", studyResultIds)
+                .executeUpdate();
+    }
+
     /**
      * Returns a ScrollableResults of all StudyResults that belongs to the given Batch and worker type.
      */
@@ -158,26 +230,223 @@ public class StudyResultDao extends AbstractDao {
         return query.setParameter("group", groupResult).scroll(ScrollMode.FORWARD_ONLY);
     }
 
+    /**
+     * Columns the StudyResultSummaries can be sorted by. The StudyResult's ID is always the second sort criteria.
+     */
+    public static final Map<String, String> SUMMARY_SORT_COLUMNS;
+
+    static {
+        Map<String, String> sortColumns = new HashMap<>();
+        sortColumns.put("id", "sr.id");
+        sortColumns.put("startDate", "sr.startDate");
+        sortColumns.put("studyState", "sr.studyState");
+        sortColumns.put("workerId", "w.id");
+        SUMMARY_SORT_COLUMNS = Collections.unmodifiableMap(sortColumns);
+    }
+
+    /**
+     * Returns one page of StudyResultSummaries of the given study (projection query - no entities and no result data
+     * are loaded). Keyset pagination: the page starts after the StudyResult with the ID afterId (in the given sort
+     * order) or, if afterId is null, at the beginning. All filter parameters are optional (null).
+     *
+     * @param sortBy one of SUMMARY_SORT_COLUMNS
+     */
+    public List<StudyResultSummary> findSummaries(Study study, Long batchId, Long groupResultId, Long workerId,
+            StudyState studyState, String workerType, String sortBy, boolean descending, Long afterId, int limit) {
+        String sortColumn = SUMMARY_SORT_COLUMNS.get(sortBy);
+        if (sortColumn == null) throw new IllegalArgumentException("Unknown sort column " + sortBy);
+        String comparator = descending ? "<" : ">";
+        String direction = descending ? " DESC" : " ASC";
+
+        StringBuilder queryStr = new StringBuilder("SELECT NEW models.common.StudyResultSummary(")
+                .append("sr.id, sr.startDate, sr.endDate, sr.lastSeenDate, sr.studyState, w.id, b.id, b.title, ")
+                .append("COALESCE(agr.id, hgr.id), ")
+                .append("(SELECT COUNT(cr) FROM ComponentResult cr WHERE cr.studyResult = sr), ")
+                .append("(SELECT SUM(cr.dataSize) FROM ComponentResult cr WHERE cr.studyResult = sr)) ")
+                .append("FROM StudyResult sr JOIN sr.worker w JOIN sr.batch b ")
+                .append("LEFT JOIN sr.activeGroupResult agr LEFT JOIN sr.historyGroupResult hgr ")
+                .append("WHERE sr.study = :study ");
+        if (batchId != null) queryStr.append("AND b.id = :batchId ");
+        if (groupResultId != null) queryStr.append("AND (agr.id = :groupResultId OR hgr.id = :groupResultId) ");
+        if (workerId != null) queryStr.append("AND w.id = :workerId ");
+        if (studyState != null) queryStr.append("AND sr.studyState = :studyState ");
+        if (workerType != null) queryStr.append("AND w.class = :workerType ");
+        Object afterValue = null;
+        if (afterId != null) {
+            afterValue = findSummarySortValue(sortColumn, afterId);
+            if (afterValue == null) return new ArrayList<>();
+            if (sortColumn.equals("sr.id")) {
+                queryStr.append("AND sr.id ").append(comparator).append(" :afterId ");
+            } else {
+                queryStr.append("AND (").append(sortColumn).append(" ").append(comparator).append(" :afterValue OR (")
+                        .append(sortColumn).append(" = :afterValue AND sr.id ").append(comparator)
+                        .append(" :afterId)) ");
+            }
+        }
+        queryStr.append("ORDER BY ").append(sortColumn).append(direction);
+        if (!sortColumn.equals("sr.id")) queryStr.append(", sr.id").append(direction);
+
+        TypedQuery<StudyResultSummary> query = jpa.em().createQuery(queryStr.toString(), StudyResultSummary.class)
+                .setParameter("study", study);
+        if (batchId != null) query.setParameter("batchId", batchId);
+        if (groupResultId != null) query.setParameter("groupResultId", groupResultId);
+        if (workerId != null) query.setParameter("workerId", workerId);
+        if (studyState != null) query.setParameter("studyState", studyState);
+        if (workerType != null) query.setParameter("workerType", workerType);
+        if (afterId != null) {
+            query.setParameter("afterId", afterId);
+            if (!sortColumn.equals("sr.id")) query.setParameter("afterValue", afterValue);
+        }
+        List<StudyResultSummary> summaries = query.setMaxResults(limit).getResultList();
+        fillWorkerTypes(summaries);
+        return summaries;
+    }
+
+    /**
+     * Returns the value of the given sort column of the StudyResult with the given ID (or null if it doesn't exist)
+     */
+    private Object findSummarySortValue(String sortColumn, Long studyResultId) {
+        String queryStr = "SELECT " + sortColumn + " FROM StudyResult sr JOIN sr.worker w WHERE sr.id = :id";
+        List<?> result = jpa.em().createQuery(queryStr).setParameter("id", studyResultId).getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Sets the worker types in the given StudyResultSummaries - with one query for all of them that only reads the
+     * workers' discriminator column (the worker type) and doesn't load the workers
+     */
+    private void fillWorkerTypes(List<StudyResultSummary> summaries) {
+        if (summaries.isEmpty()) return;
+        Set<Long> workerIds = summaries.stream().map(StudyResultSummary::getWorkerId).collect(Collectors.toSet());
+        List<?> rows = jpa.em()
+                .createNativeQuery("SELECT w.id, w." + Worker.DISCRIMINATOR + " FROM Worker w WHERE w.id IN (:ids)")
+                .setParameter("ids", workerIds)
+                .getResultList();
+        Map<Long, String> workerTypes = new HashMap<>();
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            workerTypes.put(((Number) columns[0]).longValue(), (String) columns[1]);
+        }
+        summaries.forEach(s -> s.setWorkerType(workerTypes.get(s.getWorkerId())));
+    }
+
+    /**
+     * Returns the last started StudyResultStatus that are not finished yet (max count, -1 for all). There is one query
+     * per StudyState - with an equality on studyState the DB can use the index on (studyState, startDate, endDate) for
+     * the order. This isn't verified on a big database yet (see deploy/benchmark/study_result_indexes.sql).
+     */
     public List<StudyResultStatus> findLastUnfinished(int count) {
         String queryStr = "SELECT srs FROM StudyResultStatus srs "
-                + "WHERE srs.studyState in :studyStates "
+                + "WHERE srs.studyState = :studyState "
                 + "AND srs.startDate is not null "
                 + "AND srs.endDate is null "
                 + "ORDER BY srs.startDate desc";
-        TypedQuery<StudyResultStatus> query = jpa.em().createQuery(queryStr, StudyResultStatus.class);
-        query.setParameter("studyStates", Arrays.asList(StudyState.PRE, StudyState.STARTED, StudyState.DATA_RETRIEVED));
-        if (count != -1) query.setMaxResults(count);
-        return query.getResultList();
+        return findLastPerStudyState(queryStr, Arrays.asList(StudyState.PRE, StudyState.STARTED,
+                StudyState.DATA_RETRIEVED), StudyResultStatus::getStartDate, count);
     }
 
+    /**
+     * Returns the last finished StudyResultStatus (max count, -1 for all). There is one query per StudyState - with an
+     * equality on studyState the DB can use the index on (studyState, endDate) for the order. This isn't verified on a
+     * big database yet (see deploy/benchmark/study_result_indexes.sql).
+     */
     public List<StudyResultStatus> findLastFinished(int count) {
         String queryStr = "SELECT srs FROM StudyResultStatus srs "
-                + "WHERE srs.studyState in :studyStates "
+                + "WHERE srs.studyState = :studyState "
                 + "ORDER BY srs.endDate desc";
-        TypedQuery<StudyResultStatus> query = jpa.em().createQuery(queryStr, StudyResultStatus.class);
-        query.setParameter("studyStates", Arrays.asList(StudyState.FINISHED, StudyState.FAIL, StudyState.ABORTED));
-        if (count != -1) query.setMaxResults(count);
-        return query.getResultList();
+        return findLastPerStudyState(queryStr, Arrays.asList(StudyState.FINISHED, StudyState.FAIL,
+                StudyState.ABORTED), StudyResultStatus::getEndDate, count);
+    }
+
+    /**
+     * Runs the query for each StudyState and merges the results: sorted by the given date (latest first, nulls last)
+     * and limited to count
+     */
+    private List<StudyResultStatus> findLastPerStudyState(String queryStr, List<StudyState> studyStates,
+            Function<StudyResultStatus, Timestamp> date, int count) {
+        List<StudyResultStatus> statusList = new ArrayList<>();
+        for (StudyState studyState : studyStates) {
+            TypedQuery<StudyResultStatus> query = jpa.em().createQuery(queryStr, StudyResultStatus.class);
+            query.setParameter("studyState", studyState);
+            if (count != -1) query.setMaxResults(count);
+            statusList.addAll(query.getResultList());
+        }
+        statusList.sort(Comparator.comparing(date, Comparator.nullsLast(Comparator.reverseOrder())));
+        return count != -1 && statusList.size() > count ? statusList.subList(0, count) : statusList;
+    }
+
+    /**
+     * Sets the lastSeenDate of many StudyResults in one JDBC batch (study result ID -> last seen date). A
+     * lastSeenDate is only changed if the new one is later. Finished, failed or aborted StudyResults are not changed.
+     * The StudyResults in the persistence context are not updated by this.
+     */
+    public void updateLastSeenDates(Map<Long, Timestamp> lastSeenDates) {
+        String sql = "UPDATE StudyResult SET lastSeenDate = ? WHERE id = ? "
+                + "AND (lastSeenDate IS NULL OR lastSeenDate < ?) AND studyState NOT IN (?, ?, ?)";
+        jpa.em().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (Map.Entry<Long, Timestamp> entry : lastSeenDates.entrySet()) {
+                    statement.setTimestamp(1, entry.getValue());
+                    statement.setLong(2, entry.getKey());
+                    statement.setTimestamp(3, entry.getValue());
+                    // StudyState is stored by its ordinal
+                    statement.setInt(4, StudyState.FINISHED.ordinal());
+                    statement.setInt(5, StudyState.FAIL.ordinal());
+                    statement.setInt(6, StudyState.ABORTED.ordinal());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Sets the study session data of the StudyResult with the given ID with a single UPDATE - without loading the
+     * StudyResult first. Finished, failed or aborted StudyResults are not changed. Returns false if nothing was
+     * changed. The StudyResults in the persistence context are not updated by this.
+     */
+    public boolean updateStudySessionData(Long studyResultId, String studySessionData) {
+        String queryStr = "UPDATE StudyResult sr SET sr.studySessionData = :studySessionData "
+                + "WHERE sr.id = :id AND sr.studyState NOT IN :studyStates";
+        int updated = jpa.em().createQuery(queryStr)
+                .setParameter("studySessionData", studySessionData)
+                .setParameter("id", studyResultId)
+                .setParameter("studyStates", Arrays.asList(StudyState.FINISHED, StudyState.FAIL, StudyState.ABORTED))
+                .executeUpdate();
+        return updated > 0;
+    }
+
+    /**
+     * Returns the size (in bytes) of all result files uploaded in the StudyResult with the given ID - or null if it's
+     * unknown (StudyResults from before the size was stored) or the StudyResult doesn't exist.
+     */
+    public Long findUploadsSize(Long studyResultId) {
+        List<?> result = jpa.em().createNativeQuery("SELECT sr.uploadsSize FROM StudyResult sr WHERE sr.id = :id")
+                .setParameter("id", studyResultId)
+                .getResultList();
+        return result.isEmpty() || result.get(0) == null ? null : ((Number) result.get(0)).longValue();
+    }
+
+    /**
+     * Sets the size (in bytes) of all result files uploaded in the StudyResult with the given ID
+     */
+    public void setUploadsSize(Long studyResultId, long uploadsSize) {
+        createNativeUpdate("UPDATE StudyResult SET uploadsSize = :uploadsSize WHERE id = :id", "StudyResult")
+                .setParameter("uploadsSize", uploadsSize)
+                .setParameter("id", studyResultId)
+                .executeUpdate();
+    }
+
+    /**
+     * Adds delta (in bytes, can be negative) to the size of all result files uploaded in the StudyResult with the
+     * given ID. An unknown size (null) stays unknown.
+     */
+    public void addToUploadsSize(Long studyResultId, long delta) {
+        createNativeUpdate("UPDATE StudyResult SET uploadsSize = uploadsSize + :delta WHERE id = :id",
+                "StudyResult")
+                .setParameter("delta", delta)
+                .setParameter("id", studyResultId)
+                .executeUpdate();
     }
 
 }
@@ -1,13 +1,19 @@
 package daos.common.worker;
 
 import daos.common.AbstractDao;
+import models.common.Batch;
+import models.common.StudyResult.StudyState;
+import models.common.WorkerSummary;
 import models.common.workers.Worker;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
-import java.util.List;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * DAO for abstract Worker entity
@@ -26,6 +32,15 @@ public class WorkerDao extends AbstractDao {
         persist(worker);
     }
 
+    /**
+     * Persists all given workers and flushes them. Since Worker IDs come from a pooled generator (and not from the
+     * table's auto increment) Hibernate inserts them in JDBC batches (hibernate.jdbc.batch_size).
+     */
+    public void createAll(List<? extends Worker> workerList) {
+        workerList.forEach(this::persist);
+        jpa.em().flush();
+    }
+
     public void update(Worker worker) {
         merge(worker);
     }
@@ -51,4 +66,126 @@ public class WorkerDao extends AbstractDao {
         return result.intValue();
     }
 
+    /**
+     * Closes the gaps in the order column (studyResultList_order) of the study result lists of the workers with the
+     * given IDs that were left by removing StudyResults in bulk. Instead of updating each StudyResult only one UPDATE
+     * per gap is issued: it shifts all positions between this gap and the next one. Neither the workers nor their
+     * StudyResults are loaded and the ones in the persistence context are not updated by this.
+     */
+    public void renumberStudyResultLists(Collection<Long> workerIds) {
+        for (Long workerId : workerIds) {
+            List<?> result = jpa.em().createNativeQuery("SELECT sr.studyResultList_order FROM StudyResult sr "
+                    + "WHERE sr.worker_id = :workerId AND sr.studyResultList_order IS NOT NULL "
+                    + "ORDER BY sr.studyResultList_order")
+                    .setParameter("workerId", workerId)
+                    .getResultList();
+            List<Integer> positions = result.stream().map(p -> ((Number) p).intValue()).collect(Collectors.toList());
+            int i = 0;
+            while (i < positions.size()) {
+                // Find the run of positions that all have to be shifted by the same amount
+                int shift = positions.get(i) - i;
+                int j = i;
+                while (j + 1 < positions.size() && positions.get(j + 1) - (j + 1) == shift) j++;
+                if (shift != 0) {
+                    createNativeUpdate("UPDATE StudyResult "
+                            + "SET studyResultList_order = studyResultList_order - :shift "
+                            + "WHERE worker_id = :workerId AND studyResultList_order BETWEEN :from AND :to",
+                            "StudyResult")
+                            .setParameter("shift", shift)
+                            .setParameter("workerId", workerId)
+                            .setParameter("from", positions.get(i))
+                            .setParameter("to", positions.get(j))
+                            .executeUpdate();
+                }
+                i = j + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns one page of WorkerSummaries of all workers that belong to at least one of the given batches (projection
+     * query - neither the workers' StudyResults nor their batches are loaded). The workers are sorted by ID in
+     * descending order. Keyset pagination: the page starts after the worker with the ID afterId or, if afterId is
+     * null, at the beginning.
+     *
+     * @param batchList          Workers of these batches
+     * @param lastStateOfBatch   If true the last study state is taken only from StudyResults within the given
+     *                           batches, otherwise from all StudyResults of the worker
+     * @param withBatchList      If true the WorkerSummaries' batch lists are filled (only with the given batches)
+     * @param afterId            ID of the last worker of the previous page (can be null)
+     * @param limit              Max number of WorkerSummaries
+     */
+    public List<WorkerSummary> findSummaries(List<Batch> batchList, boolean lastStateOfBatch, boolean withBatchList,
+            Long afterId, int limit) {
+        if (batchList.isEmpty()) return new ArrayList<>();
+        List<Long> batchIds = batchList.stream().map(Batch::getId).collect(Collectors.toList());
+        String queryStr = "SELECT w.id, w.workerType, w.comment, w.mtWorkerId, u.username, "
+                + "(SELECT sr.studyState FROM StudyResult sr WHERE sr.id = (SELECT MAX(sr2.id) FROM StudyResult sr2 "
+                + "WHERE sr2.worker_id = w.id" + (lastStateOfBatch ? " AND sr2.batch_id IN (:batchIds)" : "")
+                + ")) "
+                + "FROM Worker w LEFT JOIN `User` u ON u.worker_id = w.id "
+                + "WHERE w.id IN (SELECT bwm.worker_id FROM BatchWorkerMap bwm WHERE bwm.batch_id IN (:batchIds)) "
+                + (afterId != null ? "AND w.id < :afterId " : "")
+                + "ORDER BY w.id DESC";
+        Query query = jpa.em().createNativeQuery(queryStr).setParameter("batchIds", batchIds);
+        if (afterId != null) query.setParameter("afterId", afterId);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.setMaxResults(limit).getResultList();
+
+        List<WorkerSummary> summaries = new ArrayList<>();
+        for (Object[] row : rows) {
+            StudyState lastStudyState = row[5] != null ? StudyState.values()[((Number) row[5]).intValue()] : null;
+            summaries.add(new WorkerSummary(((Number) row[0]).longValue(), (String) row[1], (String) row[2],
+                    (String) row[3], (String) row[4], lastStudyState));
+        }
+        if (withBatchList) fillBatchLists(summaries, batchList);
+        return summaries;
+    }
+
+    /**
+     * Returns the IDs and comments (worker ID -> comment) of the workers of the given type that belong to the batch -
+     * without loading the workers. They are sorted by ID. Keyset pagination: the page starts after the worker with the
+     * ID afterId (or at the beginning if it's null) and ends with the worker with the ID toId (or the last one if it's
+     * null).
+     */
+    public Map<Long, String> findIdsAndComments(Batch batch, String workerType, Long afterId, Long toId, int limit) {
+        String queryStr = "SELECT w.id, w.comment FROM BatchWorkerMap bwm JOIN Worker w ON w.id = bwm.worker_id "
+                + "WHERE bwm.batch_id = :batchId AND w.workerType = :workerType "
+                + (afterId != null ? "AND bwm.worker_id > :afterId " : "")
+                + (toId != null ? "AND bwm.worker_id <= :toId " : "")
+                + "ORDER BY bwm.worker_id";
+        Query query = jpa.em().createNativeQuery(queryStr)
+                .setParameter("batchId", batch.getId())
+                .setParameter("workerType", workerType);
+        if (afterId != null) query.setParameter("afterId", afterId);
+        if (toId != null) query.setParameter("toId", toId);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.setMaxResults(limit).getResultList();
+
+        Map<Long, String> idsAndComments = new LinkedHashMap<>();
+        rows.forEach(row -> idsAndComments.put(((Number) row[0]).longValue(), (String) row[1]));
+        return idsAndComments;
+    }
+
+    /**
+     * Adds the batches (only those in the given batch list) to the given WorkerSummaries - with one query for all of
+     * them
+     */
+    private void fillBatchLists(List<WorkerSummary> summaries, List<Batch> batchList) {
+        if (summaries.isEmpty()) return;
+        Map<Long, WorkerSummary> summaryMap = summaries.stream()
+                .collect(Collectors.toMap(WorkerSummary::getId, Function.identity()));
+        Map<Long, Batch> batchMap = batchList.stream().collect(Collectors.toMap(Batch::getId, Function.identity()));
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = jpa.em().createNativeQuery("SELECT bwm.worker_id, bwm.batch_id FROM BatchWorkerMap bwm "
+                + "WHERE bwm.worker_id IN (:workerIds) AND bwm.batch_id IN (:batchIds) ORDER BY bwm.batch_id")
+                .setParameter("workerIds", summaryMap.keySet())
+                .setParameter("batchIds", batchMap.keySet())
+                .getResultList();
+        for (Object[] row : rows) {
+            Batch batch = batchMap.get(((Number) row[1]).longValue());
+            summaryMap.get(((Number) row[0]).longValue()).addBatch(batch.getId(), batch.getTitle());
+        }
+    }
+
 }
@@ -0,0 +1,43 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import daos.common.BatchStatsDao;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import scala.concurrent.ExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+
+/**
+ * Creates and calculates the BatchStats of batches that have none right after JATOS started - this happens once after
+ * the BatchStats table was added (evolution 16). This way the counters are calculated only in BatchStatsDao and not
+ * again in SQL scripts.
+ */
+@Singleton
+public class BatchStatsInitializer {
+
+    private static final Logger.ALogger LOGGER = Logger.of(BatchStatsInitializer.class);
+
+    private final JPAApi jpa;
+    private final BatchStatsDao batchStatsDao;
+
+    @Inject
+    BatchStatsInitializer(JPAApi jpa, BatchStatsDao batchStatsDao, ActorSystem actorSystem,
+            ExecutionContext executionContext) {
+        this.jpa = jpa;
+        this.batchStatsDao = batchStatsDao;
+        actorSystem.scheduler().scheduleOnce(Duration.ZERO, this::rebuildMissing, executionContext);
+    }
+
+    private void rebuildMissing() {
+        try {
+            int count = jpa.withTransaction(batchStatsDao::rebuildMissing);
+            if (count > 0) LOGGER.info(".rebuildMissing: created BatchStats of " + count + " batches");
+        } catch (Exception e) {
+            LOGGER.error(".rebuildMissing: couldn't create missing BatchStats", e);
+        }
+    }
+
+}
@@ -47,6 +47,11 @@ public class Common {
      */
     private static final String PROPERTY_JATOS_RESULT_UPLOADS_PATH = "jatos.resultUploads.path";
 
+    /**
+     * Property name in application config - path (file system) to the journals of batch and group sessions
+     */
+    private static final String PROPERTY_JATOS_SESSION_JOURNAL_PATH = "jatos.session.journalPath";
+
     private static String jatosVersion;
     private static String basepath;
     private static String studyAssetsRootPath;
@@ -56,6 +61,10 @@ public class Common {
     private static String resultUploadsPath;
     private static long resultUploadsMaxFileSize;
     private static long resultUploadsLimitPerStudyRun;
+    private static int sessionPersistAfterChanges;
+    private static long sessionPersistInterval;
+    private static String sessionJournalPath;
+    private static long sessionPatchCoalescingWindow;
     private static boolean inMemoryDb;
     private static int userSessionTimeout;
     private static int userSessionInactivity;
@@ -101,6 +110,10 @@ public class Common {
         resultUploadsPath = fillResultUploadsPath(config);
         resultUploadsMaxFileSize = config.getBytes("jatos.resultUploads.maxFileSize");
         resultUploadsLimitPerStudyRun = config.getBytes("jatos.resultUploads.limitPerStudyRun");
+        sessionPersistAfterChanges = config.getInt("jatos.session.persistAfterChanges");
+        sessionPersistInterval = config.getDuration("jatos.session.persistInterval").toMillis();
+        sessionJournalPath = fillSessionJournalPath(config);
+        sessionPatchCoalescingWindow = config.getDuration("jatos.session.patchCoalescingWindow").toMillis();
         inMemoryDb = config.getString("db.default.url").contains("jdbc:h2:mem:");
         userSessionTimeout = config.getInt("jatos.userSession.timeout");
         userSessionInactivity = config.getInt("jatos.userSession.inactivity");
@@ -165,6 +178,14 @@ public class Common {
         return tmpResultUploadsPath;
     }
 
+    private String fillSessionJournalPath(Config config) {
+        String tmpSessionJournalPath = obtainPath(config, PROPERTY_JATOS_SESSION_JOURNAL_PATH).orElseThrow(() ->
+                new RuntimeException("Missing configuration of path to session journal directory: "
+                        + "It must be set in application.conf under " + PROPERTY_JATOS_SESSION_JOURNAL_PATH + "."));
+        LOGGER.info("Path to session journal directory is " + tmpSessionJournalPath);
+        return tmpSessionJournalPath;
+    }
+
     private Optional<String> obtainPath(Config config, String property) {
         String path = config.getString(property);
         if (Strings.isNullOrEmpty(path)) return Optional.empty();
@@ -267,6 +288,36 @@ public class Common {
         return resultUploadsLimitPerStudyRun;
     }
 
+    /**
+     * Number of changes of a batch or group session held in memory after which it is written into the database
+     */
+    public static int getSessionPersistAfterChanges() {
+        return sessionPersistAfterChanges;
+    }
+
+    /**
+     * Max time in ms a change of a batch or group session held in memory waits until it is written into the database
+     */
+    public static long getSessionPersistInterval() {
+        return sessionPersistInterval;
+    }
+
+    /**
+     * Path in the file system where JATOS journals the changes of batch and group sessions that are not yet written
+     * into the database
+     */
+    public static String getSessionJournalPath() {
+        return sessionJournalPath;
+    }
+
+    /**
+     * Time in ms a dispatcher collects batch or group session patches before it sends them merged to the members (0
+     * sends each patch immediately)
+     */
+    public static long getSessionPatchCoalescingWindow() {
+        return sessionPatchCoalescingWindow;
+    }
+
     /**
      * Is true if an in-memory database is used.
      */
@@ -14,6 +14,8 @@ public class CommonGuiceModule extends AbstractModule implements AkkaGuiceSuppor
 	@Override
 	protected void configure() {
 		bind(JsonObjectMapper.class).asEagerSingleton();
+		bind(HeartbeatBuffer.class).asEagerSingleton();
+		bind(BatchStatsInitializer.class).asEagerSingleton();
 	}
 
 }
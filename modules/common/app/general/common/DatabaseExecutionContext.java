@@ -0,0 +1,35 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+import play.libs.concurrent.HttpExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.Executor;
+
+/**
+ * Execution context for blocking database work (JPA/JDBC) of requests, e.g. the endpoints of Publix. It uses Akka's
+ * 'database.dispatcher' whose thread pool should be as big as the database connection pool
+ * (jatos.db.poolSize): this way no thread waits for a connection and Play's default dispatcher is kept free for
+ * non-blocking work like serving study assets.
+ */
+@Singleton
+public class DatabaseExecutionContext extends CustomExecutionContext {
+
+    private final HttpExecutionContext httpExecutionContext = new HttpExecutionContext(this);
+
+    @Inject
+    public DatabaseExecutionContext(ActorSystem actorSystem) {
+        super(actorSystem, "database.dispatcher");
+    }
+
+    /**
+     * Returns an executor that runs in this execution context but with the current Http.Context (and class loader) of
+     * the calling thread. Play's Java API (e.g. Controller.request() or the cookies of the response) needs it.
+     */
+    public Executor current() {
+        return httpExecutionContext.current();
+    }
+
+}
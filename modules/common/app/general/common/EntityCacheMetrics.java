@@ -0,0 +1,54 @@
+package general.common;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.statistics.StatisticsGateway;
+
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hit and miss counts of Hibernate's second-level cache (Study, Component, Batch and their collections - see
+ * persistence.xml and hibernate-ehcache.xml). The cache is switched off by default (see hibernate.properties) - then
+ * there are no metrics.
+ */
+@Singleton
+public class EntityCacheMetrics {
+
+    /**
+     * Name of the ehcache CacheManager used by Hibernate (defined in hibernate-ehcache.xml)
+     */
+    private static final String CACHE_MANAGER_NAME = "jatos-hibernate";
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        CacheManager cacheManager = CacheManager.getCacheManager(CACHE_MANAGER_NAME);
+        metrics.put("enabled", cacheManager != null);
+        if (cacheManager == null) return metrics;
+
+        long totalHits = 0;
+        long totalMisses = 0;
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String cacheName : cacheManager.getCacheNames()) {
+            Ehcache cache = cacheManager.getEhcache(cacheName);
+            if (cache == null) continue;
+            StatisticsGateway statistics = cache.getStatistics();
+            long hits = statistics.cacheHitCount();
+            long misses = statistics.cacheMissCount();
+            Map<String, Object> region = new LinkedHashMap<>();
+            region.put("hits", hits);
+            region.put("misses", misses);
+            region.put("size", statistics.getSize());
+            regions.put(cacheName, region);
+            totalHits += hits;
+            totalMisses += misses;
+        }
+        metrics.put("hits", totalHits);
+        metrics.put("misses", totalMisses);
+        metrics.put("hitRatio", totalHits + totalMisses > 0 ? (double) totalHits / (totalHits + totalMisses) : 0);
+        metrics.put("regions", regions);
+        return metrics;
+    }
+
+}
@@ -0,0 +1,28 @@
+package general.common;
+
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * While a group has open group channels its group session is held in memory (by the GroupDispatcher in the session
+ * module) and only written into the database from time to time. Everybody outside the session module that reads or
+ * changes a group session (e.g. the GUI) has to go through this interface to not work on outdated data.
+ */
+public interface GroupSessionAccess {
+
+    /**
+     * Writes the group session into the database if it's currently held in memory. The returned CompletionStage
+     * completes with whether the group session in the database is up to date. It waits only a short time for the write
+     * - if it takes longer it completes with false and the group session in the database can be outdated by a few
+     * seconds.
+     */
+    CompletionStage<Boolean> persist(long groupResultId);
+
+    /**
+     * Replaces the group session data if the group session is currently held in memory - but only if the given version
+     * is the current one. The returned CompletionStage completes with empty if the group session isn't held in memory
+     * (then it has to be changed in the database) - otherwise with whether the data were replaced.
+     */
+    CompletionStage<Optional<Boolean>> replace(long groupResultId, long version, String data);
+
+}
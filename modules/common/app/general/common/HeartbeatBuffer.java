@@ -0,0 +1,123 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import daos.common.StudyResultDao;
+import models.common.StudyResult;
+import models.common.StudyResultStatus;
+import models.common.StudyResultSummary;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.ExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the heartbeats of running studies in memory (study result ID -> last seen time) and periodically writes
+ * them into StudyResult's lastSeenDate with a single batched update. This way a heartbeat doesn't need a DB
+ * transaction.
+ * <p>
+ * Since the lastSeenDate in the DB might be older than the pending one, everything that shows the lastSeenDate (e.g.
+ * the GUI) has to merge the pending value into the StudyResult or StudyResultStatus first.
+ * <p>
+ * Only unfinished StudyResults get a new lastSeenDate. The number of pending heartbeats is limited
+ * (jatos.heartbeat.maxPending) - heartbeats of further study results are dropped until the next flush.
+ */
+@Singleton
+public class HeartbeatBuffer {
+
+    private static final Logger.ALogger LOGGER = Logger.of(HeartbeatBuffer.class);
+
+    private final Map<Long, Timestamp> pendingLastSeenDates = new ConcurrentHashMap<>();
+
+    /**
+     * Number of heartbeats dropped since the last flush because too many were pending
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final int maxPending;
+
+    private final JPAApi jpa;
+    private final StudyResultDao studyResultDao;
+
+    @Inject
+    HeartbeatBuffer(JPAApi jpa, StudyResultDao studyResultDao, ActorSystem actorSystem,
+            ExecutionContext executionContext, ApplicationLifecycle applicationLifecycle, Config config) {
+        this.jpa = jpa;
+        this.studyResultDao = studyResultDao;
+        this.maxPending = config.getInt("jatos.heartbeat.maxPending");
+        Duration flushInterval = config.getDuration("jatos.heartbeat.flushInterval");
+        actorSystem.scheduler().schedule(flushInterval, flushInterval, this::flush, executionContext);
+        applicationLifecycle.addStopHook(() -> {
+            flush();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Stores the current time as the last seen time of the study result with the given ID. If there are already too
+     * many pending study results and this one isn't one of them the heartbeat is dropped.
+     */
+    public void record(Long studyResultId) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        if (pendingLastSeenDates.size() >= maxPending && !pendingLastSeenDates.containsKey(studyResultId)) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        pendingLastSeenDates.put(studyResultId, now);
+    }
+
+    /**
+     * Sets a pending last seen time (if there is one) in the given StudyResult. The StudyResult isn't changed in the
+     * DB by this.
+     */
+    public void merge(StudyResult studyResult) {
+        Timestamp pending = pendingLastSeenDates.get(studyResult.getId());
+        if (pending != null) studyResult.setPendingLastSeenDate(pending);
+    }
+
+    /**
+     * Sets a pending last seen time (if there is one) in the given StudyResultStatus
+     */
+    public void merge(StudyResultStatus studyResultStatus) {
+        Timestamp pending = pendingLastSeenDates.get(studyResultStatus.getId());
+        if (pending != null) studyResultStatus.setPendingLastSeenDate(pending);
+    }
+
+    /**
+     * Sets a pending last seen time (if there is one) in the given StudyResultSummary
+     */
+    public void merge(StudyResultSummary studyResultSummary) {
+        Timestamp pending = pendingLastSeenDates.get(studyResultSummary.getId());
+        if (pending != null) studyResultSummary.setPendingLastSeenDate(pending);
+    }
+
+    /**
+     * Writes all pending last seen times into the DB. A pending time is only removed if it didn't change in the
+     * meantime.
+     */
+    public synchronized void flush() {
+        long dropped = droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            LOGGER.warn("Dropped " + dropped + " heartbeats: more than " + maxPending + " study results were pending");
+        }
+        if (pendingLastSeenDates.isEmpty()) return;
+        Map<Long, Timestamp> lastSeenDates = new HashMap<>(pendingLastSeenDates);
+        try {
+            jpa.withTransaction(() -> studyResultDao.updateLastSeenDates(lastSeenDates));
+            lastSeenDates.forEach(pendingLastSeenDates::remove);
+        } catch (Exception e) {
+            LOGGER.error("Couldn't write heartbeats into the database", e);
+        }
+    }
+
+}
@@ -93,6 +93,7 @@ public class MessagesStrings {
     public static final String IMPORT_OF_STUDY_FAILED = "Import of study failed";
     public static final String IMPORT_OF_COMPONENT_FAILED = "Import of component failed";
     public static final String NO_RESULTS_SELECTED = "No results selected";
+    public static final String JOB_INTERRUPTED = "Interrupted by a restart of JATOS";
     public static final String PROBLEM_GENERATING_JSON_DATA = "Problem generate JSON data";
     public static final String TOO_NEW_STUDY_VERSION = "This study is from an newer version of JATOS. Try updating "
             + "your JATOS.";
@@ -282,6 +283,14 @@ public class MessagesStrings {
         return "A study result with ID " + studyResultId + " doesn't exist.";
     }
 
+    public static String jobNotExist(Long jobId) {
+        return "A job with ID " + jobId + " doesn't exist.";
+    }
+
+    public static String jobNotAllowed(Long jobId) {
+        return "You are not allowed to access the job with ID " + jobId + ".";
+    }
+
     public static String htmlFilePathEmpty(Long componentId) {
         return "Component " + componentId + "'s HTML file path is empty.";
     }
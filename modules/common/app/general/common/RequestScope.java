@@ -2,6 +2,9 @@ package general.common;
 
 import play.mvc.Http;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Provides something similar to a request scope in Spring or Guice. Objects are
  * stored within Play's Http.Context which is created anew for each request.
@@ -9,13 +12,20 @@ import play.mvc.Http;
  * e.g. store a StudyRequest that you retrieved from the database and reuse it
  * later on without having to retrieve it from the database again. This saves
  * resources and brings performance.
- * 
+ *
+ * Outside of a request (e.g. in a background job) there is no Http.Context -
+ * then the objects are stored in a thread-local map that has to be cleared
+ * afterwards.
+ *
  * @author Kristian Lange
  */
 public class RequestScope {
 
+	private static final ThreadLocal<Map<String, Object>> FALLBACK = ThreadLocal
+			.withInitial(HashMap::new);
+
 	public static Object get(String key) {
-		return Http.Context.current().args.get(key);
+		return getArgs().get(key);
 	}
 
 	public static boolean has(String key) {
@@ -27,7 +37,19 @@ public class RequestScope {
 	 * stored it gets overwritten.
 	 */
 	public static void put(String key, Object value) {
-		Http.Context.current().args.put(key, value);
+		getArgs().put(key, value);
+	}
+
+	/**
+	 * Removes everything that was stored outside of a request in this thread
+	 */
+	public static void clear() {
+		FALLBACK.remove();
+	}
+
+	private static Map<String, Object> getArgs() {
+		Http.Context context = Http.Context.current.get();
+		return context != null ? context.args : FALLBACK.get();
 	}
 
 }
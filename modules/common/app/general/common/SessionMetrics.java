@@ -0,0 +1,56 @@
+package general.common;
+
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the batch and group sessions - of all dispatchers (BatchDispatcher and GroupDispatcher in the session
+ * module) together since JATOS started: messages and bytes sent to the channels and how the session patches were
+ * coalesced (PatchCoalescer).
+ */
+@Singleton
+public class SessionMetrics {
+
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong coalescedPatches = new AtomicLong();
+    private final AtomicLong sentPatches = new AtomicLong();
+    private final AtomicLong coalescedOperations = new AtomicLong();
+    private final AtomicLong sentOperations = new AtomicLong();
+    private final AtomicLong restatedPatches = new AtomicLong();
+
+    /**
+     * Records messages with the given number of bytes in total that were sent to channels
+     */
+    public void recordSent(long messages, long bytes) {
+        sentMessages.addAndGet(messages);
+        sentBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Records that the given number of patches (with operationsIn operations) were coalesced into one patch with
+     * operationsOut operations. Restated means the session data had to be restated (e.g. after a 'remove' of "/").
+     */
+    public void recordCoalescing(int patches, int operationsIn, int operationsOut, boolean restated) {
+        coalescedPatches.addAndGet(patches);
+        sentPatches.incrementAndGet();
+        coalescedOperations.addAndGet(operationsIn);
+        sentOperations.addAndGet(operationsOut);
+        if (restated) restatedPatches.incrementAndGet();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("sentMessages", sentMessages.get());
+        metrics.put("sentBytes", sentBytes.get());
+        metrics.put("coalescedPatches", coalescedPatches.get());
+        metrics.put("sentPatches", sentPatches.get());
+        metrics.put("coalescedOperations", coalescedOperations.get());
+        metrics.put("sentOperations", sentOperations.get());
+        metrics.put("restatedPatches", restatedPatches.get());
+        return metrics;
+    }
+
+}
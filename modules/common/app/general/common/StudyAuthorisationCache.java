@@ -0,0 +1,212 @@
+package general.common;
+
+import org.hibernate.Session;
+import play.cache.NamedCache;
+import play.cache.SyncCacheApi;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.transaction.Synchronization;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Caches the authorisation decisions of running studies. Once a worker was authorised to do a study run (to do its
+ * StudyResult) the decision is kept as a Context per study result ID. During the study run the publix requests are
+ * checked against the cached Context and there is no need to retrieve and check the worker, study, batch and study
+ * result again.
+ * <p>
+ * A Context is only valid as long as nothing changed that the decision depends on. Each Context carries the stamps of
+ * its study and batch from the time it was created. Changing a study or batch (e.g. deactivating a batch, changing its
+ * allowed worker types, changing the study's members) replaces the stamp and so invalidates all Contexts of this study
+ * or batch at once. The Context of a single study result is removed if the study result is finished, aborted or
+ * removed.
+ */
+@Singleton
+public class StudyAuthorisationCache {
+
+    private final JPAApi jpa;
+    private final SyncCacheApi cache;
+
+    @Inject
+    StudyAuthorisationCache(JPAApi jpa, @NamedCache("study-authorisation-cache") SyncCacheApi cache) {
+        this.jpa = jpa;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the cached Context of the study result with the given ID - or an empty Optional if there is none or it
+     * isn't valid anymore.
+     */
+    public Optional<Context> get(Long studyResultId) {
+        Context context = cache.get(studyResultKey(studyResultId));
+        if (context == null) return Optional.empty();
+        Stamps current = new Stamps(cache.get(studyKey(context.studyId)), cache.get(batchKey(context.batchId)));
+        return context.stamps.equals(current) ? Optional.of(context) : Optional.empty();
+    }
+
+    /**
+     * Returns the current stamps of the given study and batch. They have to be taken before the authorisation data are
+     * retrieved from the database: an invalidation that happens in between will make the Context invalid right away.
+     */
+    public Stamps getStamps(Long studyId, Long batchId) {
+        return new Stamps(cache.getOrElseUpdate(studyKey(studyId), StudyAuthorisationCache::newStamp),
+                cache.getOrElseUpdate(batchKey(batchId), StudyAuthorisationCache::newStamp));
+    }
+
+    /**
+     * Caches the decision that the worker is allowed to do the study result.
+     *
+     * @param username Username of a JatosWorker's user - null for all other worker types
+     * @param stamps   Stamps taken before the decision was made (see getStamps)
+     */
+    public Context put(Long studyResultId, Long studyId, Long batchId, Long workerId, String workerType,
+            String username, Stamps stamps) {
+        Context context = new Context(studyResultId, studyId, batchId, workerId, workerType, username, stamps);
+        cache.set(studyResultKey(studyResultId), context);
+        return context;
+    }
+
+    /**
+     * Invalidates the Context of this study result. If called within a transaction it's done again after the
+     * transaction completed - so a Context created from the not yet committed state is dropped too.
+     */
+    public void invalidateStudyResult(Long studyResultId) {
+        invalidate(studyResultKey(studyResultId));
+    }
+
+    /**
+     * Invalidates the Contexts of all study results of this study
+     */
+    public void invalidateStudy(Long studyId) {
+        invalidate(studyKey(studyId));
+    }
+
+    /**
+     * Invalidates the Contexts of all study results of this batch
+     */
+    public void invalidateBatch(Long batchId) {
+        invalidate(batchKey(batchId));
+    }
+
+    private void invalidate(String key) {
+        cache.remove(key);
+        Session session;
+        try {
+            session = jpa.em().unwrap(Session.class);
+        } catch (RuntimeException e) {
+            // No EntityManager bound to this thread
+            return;
+        }
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                cache.remove(key);
+            }
+        });
+    }
+
+    private static String newStamp() {
+        return UUID.randomUUID().toString();
+    }
+
+    private static String studyResultKey(Long studyResultId) {
+        return "studyResult-" + studyResultId;
+    }
+
+    private static String studyKey(Long studyId) {
+        return "study-" + studyId;
+    }
+
+    private static String batchKey(Long batchId) {
+        return "batch-" + batchId;
+    }
+
+    /**
+     * Stamps of a study and a batch at a certain time
+     */
+    public static class Stamps {
+
+        private final String studyStamp;
+        private final String batchStamp;
+
+        private Stamps(String studyStamp, String batchStamp) {
+            this.studyStamp = studyStamp;
+            this.batchStamp = batchStamp;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Stamps)) return false;
+            Stamps other = (Stamps) obj;
+            return studyStamp != null && studyStamp.equals(other.studyStamp)
+                    && batchStamp != null && batchStamp.equals(other.batchStamp);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (studyStamp != null ? studyStamp.hashCode() : 0)
+                    + (batchStamp != null ? batchStamp.hashCode() : 0);
+        }
+    }
+
+    /**
+     * Authorisation context of a study result: the worker with this ID and type is allowed to do this study result of
+     * this study in this batch.
+     */
+    public static class Context {
+
+        private final Long studyResultId;
+        private final Long studyId;
+        private final Long batchId;
+        private final Long workerId;
+        private final String workerType;
+        private final String username;
+        private final Stamps stamps;
+
+        private Context(Long studyResultId, Long studyId, Long batchId, Long workerId, String workerType,
+                String username, Stamps stamps) {
+            this.studyResultId = studyResultId;
+            this.studyId = studyId;
+            this.batchId = batchId;
+            this.workerId = workerId;
+            this.workerType = workerType;
+            this.username = username;
+            this.stamps = stamps;
+        }
+
+        public Long getStudyResultId() {
+            return studyResultId;
+        }
+
+        public Long getStudyId() {
+            return studyId;
+        }
+
+        public Long getBatchId() {
+            return batchId;
+        }
+
+        public Long getWorkerId() {
+            return workerId;
+        }
+
+        public String getWorkerType() {
+            return workerType;
+        }
+
+        /**
+         * Username of a JatosWorker's user - null for all other worker types
+         */
+        public String getUsername() {
+            return username;
+        }
+    }
+
+}
@@ -0,0 +1,425 @@
+package general.common;
+
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous writer for the study logs (used by StudyLogger). Log entries are put into a bounded queue and written
+ * by a single writer thread. This thread keeps a FileChannel open for each recently used study log and writes all
+ * entries that wait in the queue in one go (group commit). Since there is only one writer thread, entries of the same
+ * log are never interleaved. When the written entries are forced to disk (fsync) is configurable.
+ * <p>
+ * The number of open channels is limited (jatos.studyLogs.maxOpenLogs): if the limit is reached the least recently
+ * used channel is closed. Channels that weren't used for some time (jatos.studyLogs.idleTimeout) are closed too.
+ * <p>
+ * If the queue is full the calling thread blocks until there is space again - no log entry is dropped.
+ * <p>
+ * All queued entries are written and the channels closed when JATOS stops. Entries that come in after that (e.g. from
+ * requests that are still running) are written directly by the calling thread.
+ */
+@Singleton
+public class StudyLogWriter {
+
+    private static final Logger.ALogger LOGGER = Logger.of(StudyLogWriter.class);
+
+    /**
+     * Max time to wait for the writer thread to finish the queued entries
+     */
+    private static final long FLUSH_TIMEOUT_MS = 10000;
+
+    /**
+     * Policies when written log entries are forced to disk (fsync)
+     */
+    public enum FsyncPolicy {
+        NEVER, // Leave it to the operating system
+        BATCH, // After each group commit
+        ALWAYS // After each entry
+    }
+
+    /**
+     * Something the writer thread has to do
+     */
+    private static abstract class Task {
+        final long enqueuedAt = System.nanoTime();
+    }
+
+    /**
+     * A log entry that has to be appended to the log file at the path
+     */
+    private static class Entry extends Task {
+        final Path path;
+        final byte[] bytes;
+        /**
+         * Supplies the first entry if the log file doesn't exist yet
+         */
+        final Supplier<byte[]> initialEntry;
+
+        Entry(Path path, byte[] bytes, Supplier<byte[]> initialEntry) {
+            this.path = path;
+            this.bytes = bytes;
+            this.initialEntry = initialEntry;
+        }
+    }
+
+    /**
+     * All tasks queued before a Barrier are done when the writer thread reaches it. Optionally closes the channel of
+     * a log file (e.g. before it is moved) or stops the writer thread.
+     */
+    private static class Barrier extends Task {
+        final Path pathToClose;
+        final boolean stop;
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Barrier(Path pathToClose, boolean stop) {
+            this.pathToClose = pathToClose;
+            this.stop = stop;
+        }
+    }
+
+    /**
+     * An open channel of a study log and when it was used last
+     */
+    private static class OpenLog {
+        final FileChannel channel;
+        long lastUsedNanos = System.nanoTime();
+
+        OpenLog(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final BlockingQueue<Task> queue;
+    private final FsyncPolicy fsyncPolicy;
+    private final int maxOpenLogs;
+    private final long idleTimeoutNanos;
+
+    /**
+     * Open channels of the study logs in access order (least recently used first). Only used by the writer thread.
+     */
+    private final LinkedHashMap<Path, OpenLog> openLogMap = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Number of open channels (for the metrics)
+     */
+    private volatile int openLogCount = 0;
+
+    private volatile boolean stopped = false;
+
+    private final AtomicLong writtenEntryCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong queueFullCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    @Inject
+    StudyLogWriter(Config config, ApplicationLifecycle applicationLifecycle) {
+        this.queue = new LinkedBlockingQueue<>(config.getInt("jatos.studyLogs.queueSize"));
+        this.fsyncPolicy = FsyncPolicy.valueOf(config.getString("jatos.studyLogs.fsync").toUpperCase());
+        this.maxOpenLogs = config.getInt("jatos.studyLogs.maxOpenLogs");
+        this.idleTimeoutNanos = config.getDuration("jatos.studyLogs.idleTimeout").toNanos();
+        Thread writerThread = new Thread(this::run, "study-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        applicationLifecycle.addStopHook(() -> {
+            stop();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Queues the log entry to be appended to the log file. If the log file doesn't exist yet it is created with the
+     * entry supplied by initialEntry first.
+     */
+    public void write(Path path, byte[] bytes, Supplier<byte[]> initialEntry) {
+        enqueue(new Entry(path, bytes, initialEntry));
+    }
+
+    /**
+     * Blocks until all entries queued so far are written (and forced to disk according to the fsync policy).
+     */
+    public void flush() {
+        awaitBarrier(new Barrier(null, false));
+    }
+
+    /**
+     * Blocks until all entries queued so far are written and closes the channel of the given log file. Has to be
+     * called before the log file is moved or deleted.
+     */
+    public void flushAndClose(Path path) {
+        awaitBarrier(new Barrier(path, false));
+    }
+
+    /**
+     * Writes all queued entries, closes all channels and stops the writer thread
+     */
+    void stop() {
+        awaitBarrier(new Barrier(null, true));
+    }
+
+    /**
+     * Returns the current metrics of this writer
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long written = writtenEntryCount.get();
+        metrics.put("queueDepth", queue.size());
+        metrics.put("queueRemainingCapacity", queue.remainingCapacity());
+        metrics.put("queueFullCount", queueFullCount.get());
+        metrics.put("writtenEntries", written);
+        metrics.put("writtenBatches", batchCount.get());
+        metrics.put("openLogs", openLogCount);
+        metrics.put("avgLatencyMs", written > 0 ? totalLatencyNanos.get() / written / 1000000.0 : 0);
+        metrics.put("maxLatencyMs", maxLatencyNanos.get() / 1000000.0);
+        metrics.put("fsync", fsyncPolicy.name().toLowerCase());
+        return metrics;
+    }
+
+    private void enqueue(Task task) {
+        if (stopped) {
+            runDirectly(task);
+            return;
+        }
+        if (!queue.offer(task)) {
+            queueFullCount.incrementAndGet();
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while waiting to queue a study log entry");
+                return;
+            }
+        }
+        // The writer thread might have stopped in the meantime - then it didn't take this task anymore
+        if (stopped && queue.remove(task)) runDirectly(task);
+    }
+
+    /**
+     * Does the task without the writer thread (after it stopped): an entry is written by the calling thread.
+     */
+    private void runDirectly(Task task) {
+        if (task instanceof Entry) {
+            writeDirectly((Entry) task);
+        } else {
+            ((Barrier) task).latch.countDown();
+        }
+    }
+
+    /**
+     * Opens the log file, writes the entry and closes the log file again. Synchronized - this way entries of the same
+     * log are not interleaved.
+     */
+    private synchronized void writeDirectly(Entry entry) {
+        try {
+            boolean isNew = Files.notExists(entry.path);
+            if (isNew) Files.createDirectories(entry.path.getParent());
+            try (FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                if (isNew && entry.initialEntry != null) write(channel, entry.initialEntry.get());
+                write(channel, entry.bytes);
+                if (fsyncPolicy != FsyncPolicy.NEVER) channel.force(false);
+            }
+            recordLatency(entry);
+        } catch (IOException e) {
+            LOGGER.error("Study log couldn't be written: " + entry.path, e);
+        }
+    }
+
+    private void awaitBarrier(Barrier barrier) {
+        enqueue(barrier);
+        try {
+            if (!barrier.latch.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Timeout while waiting for the study log writer");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Task> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                Task task = queue.poll(idleTimeoutNanos, TimeUnit.NANOSECONDS);
+                if (task == null) {
+                    closeIdle();
+                    continue;
+                }
+                batch.add(task);
+                queue.drainTo(batch);
+                running = process(batch);
+                closeIdle();
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Exception e) {
+                LOGGER.error("Study log writer error", e);
+            } finally {
+                batch.clear();
+            }
+        }
+        if (!stopped) stopWriting(Collections.emptyList());
+    }
+
+    /**
+     * Writes a batch of tasks. Returns false if the writer thread should stop.
+     */
+    private boolean process(List<Task> batch) {
+        Set<FileChannel> touchedChannels = new HashSet<>();
+        Set<Path> checkedPaths = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Task task = batch.get(i);
+            if (task instanceof Entry) {
+                Entry entry = (Entry) task;
+                FileChannel channel = writeEntry(entry, checkedPaths);
+                if (channel != null) touchedChannels.add(channel);
+                recordLatency(entry);
+            } else if (task instanceof Barrier) {
+                Barrier barrier = (Barrier) task;
+                force(touchedChannels);
+                touchedChannels.clear();
+                if (barrier.pathToClose != null) close(barrier.pathToClose);
+                if (barrier.stop) {
+                    stopWriting(batch.subList(i + 1, batch.size()));
+                    barrier.latch.countDown();
+                    batchCount.incrementAndGet();
+                    return false;
+                }
+                barrier.latch.countDown();
+            }
+        }
+        force(touchedChannels);
+        batchCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Closes all channels and from now on lets the calling threads write their entries themselves. The given tasks
+     * (queued after the stop) and all tasks still waiting in the queue are done directly.
+     */
+    private void stopWriting(List<Task> tasksAfterStop) {
+        closeAll();
+        stopped = true;
+        List<Task> remaining = new ArrayList<>(tasksAfterStop);
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            LOGGER.info("Study log writer stopped: " + remaining.size() + " tasks queued after the stop are done "
+                    + "directly");
+        }
+        remaining.forEach(this::runDirectly);
+    }
+
+    private FileChannel writeEntry(Entry entry, Set<Path> checkedPaths) {
+        try {
+            FileChannel channel = getChannel(entry, checkedPaths);
+            write(channel, entry.bytes);
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) channel.force(false);
+            return channel;
+        } catch (IOException e) {
+            LOGGER.error("Study log couldn't be written: " + entry.path, e);
+            close(entry.path);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the open channel of the entry's log file or opens a new one. The log file's existence is checked only
+     * once per batch (it might have been deleted in the meantime) - and if it doesn't exist it's recreated. If there
+     * are too many open channels the least recently used one is closed.
+     */
+    private FileChannel getChannel(Entry entry, Set<Path> checkedPaths) throws IOException {
+        boolean isNew = checkedPaths.add(entry.path) && Files.notExists(entry.path);
+        OpenLog openLog = openLogMap.get(entry.path);
+        if (!isNew && openLog != null && openLog.channel.isOpen()) {
+            openLog.lastUsedNanos = System.nanoTime();
+            return openLog.channel;
+        }
+
+        close(entry.path);
+        if (openLogMap.size() >= maxOpenLogs) close(openLogMap.keySet().iterator().next());
+        if (isNew) {
+            LOGGER.info("Couldn't find study log " + entry.path + ". Create new log file.");
+            Files.createDirectories(entry.path.getParent());
+        }
+        FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        openLogMap.put(entry.path, new OpenLog(channel));
+        openLogCount = openLogMap.size();
+        if (isNew && entry.initialEntry != null) write(channel, entry.initialEntry.get());
+        return channel;
+    }
+
+    private void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void force(Set<FileChannel> channels) {
+        if (fsyncPolicy != FsyncPolicy.BATCH) return;
+        for (FileChannel channel : channels) {
+            if (!channel.isOpen()) continue; // Already forced when it was closed
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                LOGGER.error("Study log couldn't be forced to disk", e);
+            }
+        }
+    }
+
+    private void recordLatency(Entry entry) {
+        long latency = System.nanoTime() - entry.enqueuedAt;
+        writtenEntryCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Closes the channel of the log file (if it's open). With the fsync policy 'batch' the channel is forced to disk
+     * first - it might have been written in the current batch.
+     */
+    private void close(Path path) {
+        OpenLog openLog = openLogMap.remove(path);
+        openLogCount = openLogMap.size();
+        if (openLog == null) return;
+        try {
+            if (fsyncPolicy == FsyncPolicy.BATCH && openLog.channel.isOpen()) openLog.channel.force(false);
+            openLog.channel.close();
+        } catch (IOException e) {
+            LOGGER.error("Study log couldn't be closed: " + path, e);
+        }
+    }
+
+    /**
+     * Closes all channels that weren't used within the idle timeout
+     */
+    private void closeIdle() {
+        long now = System.nanoTime();
+        List<Path> idlePaths = new ArrayList<>();
+        // Least recently used first - stop at the first one that isn't idle
+        for (Map.Entry<Path, OpenLog> mapEntry : openLogMap.entrySet()) {
+            if (now - mapEntry.getValue().lastUsedNanos < idleTimeoutNanos) break;
+            idlePaths.add(mapEntry.getKey());
+        }
+        idlePaths.forEach(this::close);
+    }
+
+    private void closeAll() {
+        new ArrayList<>(openLogMap.keySet()).forEach(this::close);
+    }
+
+}
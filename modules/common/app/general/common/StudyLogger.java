@@ -6,6 +6,7 @@ import akka.actor.Status;
 import akka.stream.OverflowStrategy;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.common.*;
 import models.common.workers.Worker;
@@ -15,6 +16,7 @@ import play.Logger;
 import play.libs.Json;
 import utils.common.HashUtils;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
@@ -24,6 +26,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * StudyLogger provides logging for JATOS studies. Each study gets it's own log usually created while the study is
@@ -35,7 +40,14 @@ import java.time.Instant;
  * Whenever the log entry handles result data a SHA-256 hash of the data is included in the log. If it exports files a
  * SHA-256 hash of the content of the file is included in the log.
  * <p>
+ * Appended result data are logged with a chained hash: the hash of the previous hash followed by the appended data
+ * (see HashUtils.getChainedHash). This way only the appended data have to be hashed. The chain can be checked with
+ * verifyResultDataHash.
+ * <p>
  * The log uses charset ISO_8859_1.
+ * <p>
+ * Log entries are written asynchronously by the StudyLogWriter. Everything that reads a study log file directly has to
+ * call flush() first.
  *
  * @author Kristian Lange
  */
@@ -44,6 +56,8 @@ public class StudyLogger {
 
     private static final Logger.ALogger LOGGER = Logger.of(StudyLogger.class);
 
+    private final StudyLogWriter studyLogWriter;
+
     /**
      * JSON key names used in study log
      */
@@ -61,6 +75,13 @@ public class StudyLogger {
     private static final String FILE_NAME = "fileName";
     private static final String NO_DATA = "no data";
     private static final String COMPONENT_UUID = "componentUuid";
+    private static final String COMPONENT_RESULT_ID = "componentResultId";
+    private static final String CHUNK_NUMBER = "chunkNumber";
+
+    @Inject
+    StudyLogger(StudyLogWriter studyLogWriter) {
+        this.studyLogWriter = studyLogWriter;
+    }
 
     public String getFilename(Study study) {
         return study.getUuid() + ".log";
@@ -84,15 +105,10 @@ public class StudyLogger {
         create(study, initialMsg);
     }
 
-    private void recreate(Study study) {
-        if (!Common.isStudyLogsEnabled()) return;
-        String initialMsg = "Could not find a study log although the study already exists. Create a new one.";
-        create(study, initialMsg);
-    }
-
     private void create(Study study, String msg) {
         if (!Common.isStudyLogsEnabled()) return;
         Path studyLogPath = Paths.get(getPath(study));
+        studyLogWriter.flushAndClose(studyLogPath);
         try {
             Path studyLogDirPath = Paths.get(Common.getStudyLogsPath());
             if (!Files.isDirectory(studyLogDirPath)) {
@@ -102,26 +118,28 @@ public class StudyLogger {
                 LOGGER.error("A study log with " + studyLogPath + " exists already.");
                 retire(study);
             }
-
-            ObjectNode jsonObj = Json.newObject();
-            jsonObj.put(MSG, msg);
-            jsonObj.put(TIMESTAMP, Instant.now().toEpochMilli());
-            jsonObj.put(STUDY_UUID, study.getUuid());
-            jsonObj.put(SERVERS_MAC, Common.getMac());
-            jsonObj.put(HASH_FUNCTION, HashUtils.SHA_256);
-            String logEntry = "\n" + Json.mapper().writer().writeValueAsString(jsonObj);
-            byte[] logEntryInBytes = logEntry.getBytes(StandardCharsets.ISO_8859_1);
-            Files.write(studyLogPath, logEntryInBytes, StandardOpenOption.CREATE_NEW);
+            Files.write(studyLogPath, getInitialEntry(study.getUuid(), msg), StandardOpenOption.CREATE_NEW);
         } catch (IOException e) {
             LOGGER.error("Study log couldn't be created: " + studyLogPath, e);
         }
     }
 
+    private byte[] getInitialEntry(String studyUuid, String msg) {
+        ObjectNode jsonObj = Json.newObject();
+        jsonObj.put(MSG, msg);
+        jsonObj.put(TIMESTAMP, Instant.now().toEpochMilli());
+        jsonObj.put(STUDY_UUID, studyUuid);
+        jsonObj.put(SERVERS_MAC, Common.getMac());
+        jsonObj.put(HASH_FUNCTION, HashUtils.SHA_256);
+        return ("\n" + Json.stringify(jsonObj)).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
     public String retire(Study study) {
         if (!Common.isStudyLogsEnabled()) return null;
         log(study, null, "Last entry of the study log", Pair.of(STUDY_UUID, study.getUuid()));
         Path logPath = Paths.get(getPath(study));
         Path retiredLogPath = Paths.get(getRetiredPath(study));
+        studyLogWriter.flushAndClose(logPath);
         if (Files.exists(logPath)) {
             try {
                 Files.move(logPath, retiredLogPath);
@@ -178,10 +196,21 @@ public class StudyLogger {
      * @param file File that will be stored
      */
     public void logResultUploading(Path file, ComponentResult componentResult) throws IOException {
+        if (!Common.isStudyLogsEnabled()) return;
+        if (file == null) return;
+        logResultUploading(file, HashUtils.getHash(file, HashUtils.SHA_256), componentResult);
+    }
+
+    /**
+     * Adds an entry to the study log: adds the given hash of the file, component UUID, and the worker ID
+     *
+     * @param file     File that will be stored
+     * @param fileHash SHA-256 hash of the file (e.g. calculated while the file was written)
+     */
+    public void logResultUploading(Path file, String fileHash, ComponentResult componentResult) {
         if (!Common.isStudyLogsEnabled()) return;
         if (file == null) return;
         StudyResult studyResult = componentResult.getStudyResult();
-        String fileHash = HashUtils.getHash(file, HashUtils.SHA_256);
 
         ObjectNode jsonObj = Json.newObject();
         jsonObj.put(MSG, "Uploaded file");
@@ -202,40 +231,108 @@ public class StudyLogger {
         if (componentResult == null) return;
 
         StudyResult studyResult = componentResult.getStudyResult();
-        String resultDataHash = (componentResult.getData() != null) ? HashUtils.getHash(componentResult.getData(),
-                HashUtils.SHA_256) : NO_DATA;
+        // Submitted data replace all appended data chunks - no need to load them
+        String submittedData = componentResult.getSubmittedData();
+        String resultDataHash = (submittedData != null) ? HashUtils.getHash(submittedData, HashUtils.SHA_256)
+                : NO_DATA;
         ObjectNode jsonObj = Json.newObject();
         jsonObj.put(MSG, "Stored component result data");
         jsonObj.put(COMPONENT_UUID, componentResult.getComponent().getUuid());
+        jsonObj.put(COMPONENT_RESULT_ID, componentResult.getId());
         jsonObj.put(WORKER_ID, componentResult.getWorkerId());
         jsonObj.put(DATA_HASH, resultDataHash);
         log(studyResult.getStudy(), null, jsonObj);
     }
 
+    /**
+     * Adds an entry to the study log: adds the chained hash of the appended result data (the previous hash followed
+     * by the appended data), component UUID, component result ID, chunk number, and the worker ID
+     *
+     * @param componentResult ComponentResults the data were appended to
+     * @param dataChunk       the appended data
+     */
+    public void logResultDataAppending(ComponentResult componentResult, ComponentResultChunk dataChunk) {
+        if (!Common.isStudyLogsEnabled()) return;
+        if (componentResult == null || dataChunk == null) return;
+
+        StudyResult studyResult = componentResult.getStudyResult();
+        ObjectNode jsonObj = Json.newObject();
+        jsonObj.put(MSG, "Appended component result data");
+        jsonObj.put(COMPONENT_UUID, componentResult.getComponent().getUuid());
+        jsonObj.put(COMPONENT_RESULT_ID, componentResult.getId());
+        jsonObj.put(CHUNK_NUMBER, dataChunk.getChunkNumber());
+        jsonObj.put(WORKER_ID, componentResult.getWorkerId());
+        jsonObj.put(DATA_HASH, dataChunk.getDataHash());
+        log(studyResult.getStudy(), null, jsonObj);
+    }
+
+    /**
+     * Verifies the result data of the given ComponentResult against the study log: it recalculates the (chained)
+     * hash from the submitted data and all appended data chunks and compares it with the last data hash that was
+     * logged for this ComponentResult.
+     *
+     * @return true if the recalculated hash matches the last logged one - false if it doesn't or if there is no log
+     * entry for this ComponentResult
+     */
+    public boolean verifyResultDataHash(ComponentResult componentResult) throws IOException {
+        Study study = componentResult.getStudyResult().getStudy();
+        flush();
+        File logFile = new File(getPath(study));
+        if (!logFile.exists()) return false;
+
+        List<String> appendedDataList = componentResult.getDataChunkList().stream()
+                .map(ComponentResultChunk::getData)
+                .collect(Collectors.toList());
+        String hash = HashUtils.getChainedHash(componentResult.getSubmittedData(), appendedDataList,
+                HashUtils.SHA_256);
+        if (hash == null) hash = NO_DATA;
+
+        try (ReversedLinesFileReader reader = new ReversedLinesFileReader(logFile, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                JsonNode entry = Json.parse(line);
+                if (entry.has(COMPONENT_RESULT_ID) && entry.has(DATA_HASH)
+                        && entry.get(COMPONENT_RESULT_ID).asLong() == componentResult.getId()) {
+                    return hash.equals(entry.get(DATA_HASH).asText());
+                }
+            }
+        }
+        return false;
+    }
+
     public void logStudyDescriptionHash(Study study, User user) {
         log(study, user, "Study description changed", Pair.of(STUDY_DESCRIPTION_HASH, study.getDescriptionHash()));
     }
 
     /**
-     * Adds the given jsonObj as an entry to the study
+     * Adds the given jsonObj as an entry to the study log. The entry is only queued - it's written asynchronously by
+     * the StudyLogWriter. If the log doesn't exist it will be recreated.
      */
     private void log(Study study, User user, ObjectNode jsonObj) {
         if (!Common.isStudyLogsEnabled()) return;
         Path studyLogPath = Paths.get(getPath(study));
-        if (Files.notExists(studyLogPath)) {
-            LOGGER.info("Couldn't find log for study with UUID " + study.getUuid() + " in " + studyLogPath
-                    + ". Create new log file.");
-            recreate(study);
-        }
-        try {
-            if (user != null) jsonObj.put(USER_NAME, user.getName());
-            jsonObj.put(TIMESTAMP, Instant.now().toEpochMilli());
-            String logEntry = "\n" + Json.mapper().writer().writeValueAsString(jsonObj);
-            byte[] logEntryInBytes = logEntry.getBytes(StandardCharsets.ISO_8859_1);
-            Files.write(studyLogPath, logEntryInBytes, StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            LOGGER.error("Study log couldn't be written: " + studyLogPath, e);
-        }
+        if (user != null) jsonObj.put(USER_NAME, user.getName());
+        jsonObj.put(TIMESTAMP, Instant.now().toEpochMilli());
+        byte[] logEntryInBytes = ("\n" + Json.stringify(jsonObj)).getBytes(StandardCharsets.ISO_8859_1);
+        String studyUuid = study.getUuid();
+        String recreateMsg = "Could not find a study log although the study already exists. Create a new one.";
+        studyLogWriter.write(studyLogPath, logEntryInBytes, () -> getInitialEntry(studyUuid, recreateMsg));
+    }
+
+    /**
+     * Blocks until all queued log entries are written into their study log files
+     */
+    public void flush() {
+        if (!Common.isStudyLogsEnabled()) return;
+        studyLogWriter.flush();
+    }
+
+    /**
+     * Returns metrics (e.g. queue depth and latency) of the asynchronous study log writing
+     */
+    public Map<String, Object> getWriterMetrics() {
+        return studyLogWriter.getMetrics();
     }
 
     /**
@@ -245,6 +342,7 @@ public class StudyLogger {
     public Source<ByteString, ?> readLogFile(Study study, int entryLimit) {
         // Prepare a chunked text stream (I have no idea what I'm doing here -
         // https://www.playframework.com/documentation/2.5.x/JavaStream)
+        flush();
         int bufferSize = entryLimit > 256 ? entryLimit : 256; // ensure min buffer size
         return Source.<ByteString>actorRef(bufferSize, OverflowStrategy.fail()).mapMaterializedValue(
                 sourceActor -> fillSourceWithLogFile(sourceActor, getPath(study), entryLimit));
@@ -3,6 +3,9 @@ package models.common;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import models.common.workers.Worker;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 import utils.common.JsonUtils;
 
 import javax.persistence.*;
@@ -16,10 +19,16 @@ import java.util.Set;
  * <p>
  * Defines the constrains regarding workers for a batch of a study, e.g. which
  * worker types are allowed, how many workers, which Workers etc.
+ * <p>
+ * Batches and their allowed worker types are in Hibernate's second-level cache (if it's switched on). The bulk
+ * updates of the batch session and the worker count evict all batches from the cache.
  *
  * @author Kristian Lange
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@DynamicUpdate
 @Table(name = "Batch")
 public class Batch {
 
@@ -95,12 +104,21 @@ public class Batch {
             @JoinColumn(name = "worker_id", referencedColumnName = "id")})
     private Set<Worker> workerList = new HashSet<>();
 
+    /**
+     * Number of workers in the workerList. With it maxTotalWorkers can be checked without loading the workerList. It's
+     * kept in sync by the methods that change the workerList or, for workers that are added during a study run, by
+     * BatchDao.addWorkerIfAllowed.
+     */
+    @JsonIgnore
+    private int workerCount = 0;
+
     /**
      * Set of worker types that are allowed to run in this batch. If the worker
      * type is not in this list, it has no permission to run this study.
      */
     @JsonView({JsonUtils.JsonForPublix.class, JsonUtils.JsonForIO.class})
     @ElementCollection
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<String> allowedWorkerTypes = new HashSet<>();
 
     /**
@@ -232,6 +250,7 @@ public class Batch {
 
     public void setWorkerList(Set<Worker> workerList) {
         this.workerList = workerList;
+        this.workerCount = workerList.size();
     }
 
     public Set<Worker> getWorkerList() {
@@ -239,19 +258,23 @@ public class Batch {
     }
 
     public void addWorker(Worker worker) {
-        workerList.add(worker);
+        if (workerList.add(worker)) workerCount++;
     }
 
     public void addAllWorkers(List<Worker> workerList) {
-        this.workerList.addAll(workerList);
+        workerList.forEach(this::addWorker);
     }
 
     public void removeWorker(Worker worker) {
-        workerList.remove(worker);
+        if (workerList.remove(worker)) workerCount--;
     }
 
     public void removeAllWorkers(List<Worker> workerList) {
-        this.workerList.removeAll(workerList);
+        workerList.forEach(this::removeWorker);
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
     }
 
     public boolean hasWorker(Worker worker) {
@@ -0,0 +1,164 @@
+package models.common;
+
+import models.common.StudyResult.StudyState;
+import models.common.workers.*;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Domain model / entity with aggregated counters of a batch: number of StudyResults (in total, per worker type and per
+ * final study state), number of GroupResults and the time of the last activity. It's kept up-to-date incrementally
+ * (see BatchStatsDao) whenever a StudyResult or GroupResult is created, finished or removed - this way the GUI doesn't
+ * have to count the results of a batch on every request. Each batch has exactly one BatchStats.
+ */
+@Entity
+@Table(name = "BatchStats")
+public class BatchStats {
+
+    /**
+     * Worker type -> column that holds the number of StudyResults of this worker type
+     */
+    public static final Map<String, String> WORKER_TYPE_COLUMNS;
+
+    static {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put(JatosWorker.WORKER_TYPE, "jatosCount");
+        map.put(PersonalSingleWorker.WORKER_TYPE, "personalSingleCount");
+        map.put(PersonalMultipleWorker.WORKER_TYPE, "personalMultipleCount");
+        map.put(GeneralSingleWorker.WORKER_TYPE, "generalSingleCount");
+        map.put(GeneralMultipleWorker.WORKER_TYPE, "generalMultipleCount");
+        map.put(MTWorker.WORKER_TYPE, "mtCount");
+        map.put(MTSandboxWorker.WORKER_TYPE, "mtSandboxCount");
+        WORKER_TYPE_COLUMNS = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Final study state -> column that holds the number of StudyResults in this state. Other states aren't counted
+     * separately.
+     */
+    public static final Map<StudyState, String> STATE_COLUMNS;
+
+    static {
+        Map<StudyState, String> map = new EnumMap<>(StudyState.class);
+        map.put(StudyState.FINISHED, "finishedCount");
+        map.put(StudyState.ABORTED, "abortedCount");
+        map.put(StudyState.FAIL, "failCount");
+        STATE_COLUMNS = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * ID of the batch these stats belong to
+     */
+    @Id
+    @Column(name = "batch_id")
+    private Long batchId;
+
+    private int studyResultCount;
+
+    private int finishedCount;
+
+    private int abortedCount;
+
+    private int failCount;
+
+    private int jatosCount;
+
+    private int personalSingleCount;
+
+    private int personalMultipleCount;
+
+    private int generalSingleCount;
+
+    private int generalMultipleCount;
+
+    private int mtCount;
+
+    private int mtSandboxCount;
+
+    private int groupResultCount;
+
+    /**
+     * Time of the last start or end of a study run in this batch
+     */
+    private Timestamp lastActivity;
+
+    public BatchStats() {
+    }
+
+    public BatchStats(Long batchId) {
+        this.batchId = batchId;
+    }
+
+    public Long getBatchId() {
+        return batchId;
+    }
+
+    public int getStudyResultCount() {
+        return studyResultCount;
+    }
+
+    /**
+     * Number of StudyResults in state FINISHED
+     */
+    public int getFinishedCount() {
+        return finishedCount;
+    }
+
+    /**
+     * Number of StudyResults in state ABORTED
+     */
+    public int getAbortedCount() {
+        return abortedCount;
+    }
+
+    /**
+     * Number of StudyResults in state FAIL
+     */
+    public int getFailCount() {
+        return failCount;
+    }
+
+    /**
+     * Number of StudyResults that are not finished, aborted or failed yet
+     */
+    public int getUnfinishedCount() {
+        return studyResultCount - finishedCount - abortedCount - failCount;
+    }
+
+    /**
+     * Returns the number of StudyResults per worker type (worker type -> count)
+     */
+    public Map<String, Integer> getStudyResultCountsPerWorker() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put(JatosWorker.WORKER_TYPE, jatosCount);
+        counts.put(PersonalSingleWorker.WORKER_TYPE, personalSingleCount);
+        counts.put(PersonalMultipleWorker.WORKER_TYPE, personalMultipleCount);
+        counts.put(GeneralSingleWorker.WORKER_TYPE, generalSingleCount);
+        counts.put(GeneralMultipleWorker.WORKER_TYPE, generalMultipleCount);
+        counts.put(MTWorker.WORKER_TYPE, mtCount);
+        counts.put(MTSandboxWorker.WORKER_TYPE, mtSandboxCount);
+        return counts;
+    }
+
+    public int getGroupResultCount() {
+        return groupResultCount;
+    }
+
+    public Timestamp getLastActivity() {
+        return lastActivity;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchStats of batch " + batchId;
+    }
+
+}
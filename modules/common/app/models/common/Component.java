@@ -3,6 +3,7 @@ package models.common;
 import java.io.File;
 import java.sql.Timestamp;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -15,16 +16,21 @@ import javax.persistence.Table;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import utils.common.JsonUtils;
 
 /**
  * Domain model / entity of a component. It's used by JPA and JSON marshaling.
  * The corresponding UI model is models.gui.ComponentProperties.
+ * Components are in Hibernate's second-level cache (if it's switched on).
  * 
  * @author Kristian Lange
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "Component")
 public class Component {
 
@@ -1,8 +1,11 @@
 package models.common;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -11,10 +14,13 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
+import javax.persistence.OrderBy;
 import javax.persistence.Table;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.annotations.DynamicUpdate;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -28,6 +34,7 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  * @author Kristian Lange
  */
 @Entity
+@DynamicUpdate
 @Table(name = "ComponentResult")
 @JsonPropertyOrder(value = { "id", "startDate", "workerId", "workerType", "componentState" })
 public class ComponentResult {
@@ -98,6 +105,23 @@ public class ComponentResult {
     @JsonIgnore
     private String data;
 
+    /**
+     * Result data that were appended (via jatos.appendResultData) after the data were submitted. Each append is
+     * stored as an own chunk so it's a single small insert and the data @Lob doesn't have to be rewritten. This
+     * relationship is bidirectional.
+     */
+    @JsonIgnore
+    @OneToMany(fetch = FetchType.LAZY, mappedBy = "componentResult")
+    @OrderBy("chunkNumber")
+    private List<ComponentResultChunk> dataChunkList = new ArrayList<>();
+
+    /**
+     * Size in bytes (UTF-8) of the full result data: the submitted data and all appended data chunks. It's stored to
+     * not have to read the data to get its size (e.g. in the results list).
+     */
+    @JsonIgnore
+    private long dataSize = 0;
+
     /**
      * Some message usually set via jatos.startComponent. Max 255 characters. Can be left null.
      */
@@ -162,14 +186,68 @@ public class ComponentResult {
         return this.component;
     }
 
+    /**
+     * Sets the submitted result data. Appended data chunks are not touched - they have to be removed via
+     * ComponentResultDao first (the dataSize is set to the size of the submitted data).
+     */
     public void setData(String data) {
         this.data = data;
+        this.dataSize = sizeOf(data);
     }
 
+    /**
+     * Returns the full result data: the submitted data with all appended data chunks. Returns null if neither exist.
+     * <p>
+     * This loads all data chunks and concatenates them in memory - its costs grow with the total size of the result
+     * data. Don't use it for exports, downloads or to show the data in the GUI: use ResultDataCursor (streams the data
+     * from the DB) or JsonUtils.componentResultDataForUI (only loads a prefix) instead.
+     */
     public String getData() {
+        if (dataChunkList.isEmpty()) return this.data;
+
+        StringBuilder sb = new StringBuilder(this.data != null ? this.data : "");
+        dataChunkList.forEach(chunk -> sb.append(chunk.getData()));
+        return sb.toString();
+    }
+
+    /**
+     * Returns only the submitted result data without the appended data chunks
+     */
+    @JsonIgnore
+    public String getSubmittedData() {
         return this.data;
     }
 
+    public void setDataChunkList(List<ComponentResultChunk> dataChunkList) {
+        this.dataChunkList = dataChunkList;
+    }
+
+    public List<ComponentResultChunk> getDataChunkList() {
+        return this.dataChunkList;
+    }
+
+    public void addDataChunk(ComponentResultChunk dataChunk) {
+        dataChunkList.add(dataChunk);
+        dataSize += sizeOf(dataChunk.getData());
+    }
+
+    /**
+     * Clears the appended data chunks (they have to be removed from the DB via ComponentResultDao). Only the
+     * submitted data remain.
+     */
+    public void clearDataChunks() {
+        dataChunkList.clear();
+        dataSize = sizeOf(data);
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    private static long sizeOf(String data) {
+        return data != null ? data.getBytes(StandardCharsets.UTF_8).length : 0;
+    }
+
     public void setMessage(String message) {
         this.message = StringUtils.substring(message, 0, 255);
     }
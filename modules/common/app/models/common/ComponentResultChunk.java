@@ -0,0 +1,128 @@
+package models.common;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+/**
+ * Domain model / entity of a chunk of result data that was appended to a ComponentResult (via
+ * jatos.appendResultData). Each append is stored as a new chunk instead of rewriting the whole result data of the
+ * ComponentResult. The chunks are ordered by their chunkNumber and together with the ComponentResult's own data they
+ * make up the full result data (see ComponentResult.getData()).
+ */
+@Entity
+@Table(name = "ComponentResultChunk")
+public class ComponentResultChunk {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    /**
+     * ComponentResult this chunk belongs to. This relationship is bidirectional.
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "componentResult_id", nullable = false)
+    private ComponentResult componentResult;
+
+    /**
+     * Position of this chunk within the ComponentResult's result data. Starts with 1.
+     */
+    @Column(nullable = false)
+    private int chunkNumber;
+
+    /**
+     * The appended result data
+     */
+    @Lob
+    private String data;
+
+    /**
+     * Chained hash over the ComponentResult's submitted data and all chunks up to and including this one (see
+     * HashUtils.getChainedHash). It allows to calculate the hash of the next chunk without reading all data again.
+     */
+    private String dataHash;
+
+    public ComponentResultChunk() {
+    }
+
+    public ComponentResultChunk(ComponentResult componentResult, int chunkNumber, String data, String dataHash) {
+        this.componentResult = componentResult;
+        this.chunkNumber = chunkNumber;
+        this.data = data;
+        this.dataHash = dataHash;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getId() {
+        return this.id;
+    }
+
+    public void setComponentResult(ComponentResult componentResult) {
+        this.componentResult = componentResult;
+    }
+
+    public ComponentResult getComponentResult() {
+        return this.componentResult;
+    }
+
+    public void setChunkNumber(int chunkNumber) {
+        this.chunkNumber = chunkNumber;
+    }
+
+    public int getChunkNumber() {
+        return this.chunkNumber;
+    }
+
+    public void setData(String data) {
+        this.data = data;
+    }
+
+    public String getData() {
+        return this.data;
+    }
+
+    public void setDataHash(String dataHash) {
+        this.dataHash = dataHash;
+    }
+
+    public String getDataHash() {
+        return this.dataHash;
+    }
+
+    @Override
+    public String toString() {
+        return id + ", " + chunkNumber;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((getId() == null) ? 0 : getId().hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+
+        if (obj == null) return false;
+
+        if (!(obj instanceof ComponentResultChunk)) return false;
+
+        ComponentResultChunk other = (ComponentResultChunk) obj;
+        if (getId() == null) return other.getId() == null;
+        return getId().equals(other.getId());
+    }
+
+}
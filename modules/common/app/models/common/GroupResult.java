@@ -55,16 +55,21 @@ public class GroupResult {
      * study is running. All members of this group share the same groupSessionData. It will be deleted after the group
      * is finished. It's stored as a normal string but jatos.js converts it into JSON. We use versioning to prevent
      * concurrent changes of the data. It's initialised with an empty JSON object.
+     * <p>
+     * While the group has open group channels the group session is held in memory by the GroupDispatcher. The group
+     * session is therefore never written together with the rest of the GroupResult, but only via
+     * GroupResultDao.updateGroupSession and GroupResultDao.clearGroupSession.
      */
     @JsonIgnore
     @Lob
+    @Column(updatable = false)
     private String groupSessionData = "{}";
 
     /**
      * Current version of the groupSessionData. With each change of the data it is increased by 1. We use versioning to
      * prevent concurrent changes of the data.
      */
-    @Column(nullable = false)
+    @Column(nullable = false, updatable = false)
     private Long groupSessionVersion = 1L;
 
     @JsonIgnore
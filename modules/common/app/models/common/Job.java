@@ -0,0 +1,232 @@
+package models.common;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/**
+ * Domain model / entity of a background job: a long-running operation of the GUI (e.g. a study import or the removal
+ * of a batch) that isn't done within the request. The job is persisted so its progress can be polled by the GUI and so
+ * it survives a restart of JATOS. It's turned into JSON for the GUI.
+ */
+@Entity
+@Table(name = "Job")
+@JsonPropertyOrder(value = { "id", "type", "title", "state", "progress", "total", "cancelRequested", "creationDate",
+        "startDate", "endDate", "error", "result" })
+public class Job {
+
+    public enum JobState {
+        QUEUED, // Waiting for a free thread (or for the user's other jobs)
+        RUNNING, // Is running right now
+        DONE, // Finished successfully
+        FAILED, // Finished with an error
+        CANCELLED; // Cancelled by the user
+
+        public boolean isEnded() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    /**
+     * Type of the job - determines which handler runs it
+     */
+    @Column(nullable = false)
+    private String type;
+
+    @Column(nullable = false)
+    private JobState state;
+
+    /**
+     * Username of the user who submitted this job
+     */
+    @JsonIgnore
+    @Column(nullable = false)
+    private String username;
+
+    /**
+     * Short description shown in the GUI
+     */
+    private String title;
+
+    /**
+     * Parameters of the job as JSON - only the job's handler knows how to read them
+     */
+    @JsonIgnore
+    @Lob
+    private String parameters;
+
+    /**
+     * Result of the job as JSON (null if the job has no result)
+     */
+    @JsonRawValue
+    @Lob
+    private String result;
+
+    /**
+     * Error message if the job failed
+     */
+    @Lob
+    private String error;
+
+    /**
+     * Number of items of this job that are done (meaning of an item depends on the job's type)
+     */
+    private int progress;
+
+    /**
+     * Number of items of this job (0 if unknown)
+     */
+    private int total;
+
+    /**
+     * Is true if the user wants this job to stop. A running job stops at the next item.
+     */
+    private boolean cancelRequested;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
+    private Timestamp creationDate;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
+    private Timestamp startDate;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
+    private Timestamp endDate;
+
+    public Job() {
+    }
+
+    public Job(String type, String username, String title, String parameters) {
+        this.type = type;
+        this.username = username;
+        this.title = title;
+        this.parameters = parameters;
+        this.state = JobState.QUEUED;
+        this.creationDate = new Timestamp(System.currentTimeMillis());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    public void setState(JobState state) {
+        this.state = state;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(String parameters) {
+        this.parameters = parameters;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public int getProgress() {
+        return progress;
+    }
+
+    public void setProgress(int progress) {
+        this.progress = progress;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void setCancelRequested(boolean cancelRequested) {
+        this.cancelRequested = cancelRequested;
+    }
+
+    public Timestamp getCreationDate() {
+        return creationDate;
+    }
+
+    public void setCreationDate(Timestamp creationDate) {
+        this.creationDate = creationDate;
+    }
+
+    public Timestamp getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(Timestamp startDate) {
+        this.startDate = startDate;
+    }
+
+    public Timestamp getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(Timestamp endDate) {
+        this.endDate = endDate;
+    }
+
+    @Override
+    public String toString() {
+        return id + " " + type + " " + state;
+    }
+
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import utils.common.HashUtils;
 import utils.common.JsonUtils;
 
@@ -21,10 +23,15 @@ import java.util.*;
  * Default values, where necessary, are at the fields or in the constructor.
  * <p>
  * For the GUI a different model (models.gui.StudyProperties) is used.
+ * <p>
+ * Studies, their component list and batch list are in Hibernate's second-level cache (if it's switched on - see
+ * hibernate.properties).
  *
  * @author Kristian Lange (2014)
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "Study")
 public class Study {
 
@@ -124,6 +131,7 @@ public class Study {
      */
     @JsonView(JsonUtils.JsonForIO.class)
     @OneToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OrderColumn(name = "componentList_order")
     @JoinColumn(name = "study_id")
     // Not using mappedBy because of
@@ -135,6 +143,7 @@ public class Study {
      */
     @JsonView(JsonUtils.JsonForIO.class)
     @OneToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OrderColumn(name = "batchList_order")
     @JoinColumn(name = "study_id")
     // Not using mappedBy because of
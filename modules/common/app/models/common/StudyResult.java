@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import models.common.workers.Worker;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 import java.sql.Timestamp;
@@ -18,6 +19,7 @@ import java.util.*;
  * @author Kristian Lange
  */
 @Entity
+@DynamicUpdate
 @Table(name = "StudyResult")
 @JsonPropertyOrder(value = { "id", "startDate", "worker", "confirmationCode", "studyState", "errorMsg", "abortMsg" })
 public class StudyResult {
@@ -45,6 +47,13 @@ public class StudyResult {
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
     private Timestamp lastSeenDate;
 
+    /**
+     * Last heartbeat that isn't written into the DB yet (see HeartbeatBuffer). Not persisted.
+     */
+    @Transient
+    @JsonIgnore
+    private Timestamp pendingLastSeenDate;
+
     /**
      * State of this study run (it actual should be called StudyResultState)
      */
@@ -185,7 +194,13 @@ public class StudyResult {
         return this.endDate;
     }
 
+    /**
+     * Returns the last seen date - or the pending one if it is later
+     */
     public Timestamp getLastSeenDate() {
+        if (pendingLastSeenDate != null && (lastSeenDate == null || pendingLastSeenDate.after(lastSeenDate))) {
+            return pendingLastSeenDate;
+        }
         return lastSeenDate;
     }
 
@@ -193,6 +208,10 @@ public class StudyResult {
         this.lastSeenDate = lastSeenDate;
     }
 
+    public void setPendingLastSeenDate(Timestamp pendingLastSeenDate) {
+        this.pendingLastSeenDate = pendingLastSeenDate;
+    }
+
     public void setStudyState(StudyState state) {
         this.studyState = state;
     }
@@ -45,16 +45,26 @@ public class StudyResultStatus {
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
     private Timestamp lastSeenDate;
 
+    /**
+     * Last heartbeat that isn't written into the DB yet (see HeartbeatBuffer). Not persisted.
+     */
+    @Transient
+    @JsonIgnore
+    private Timestamp pendingLastSeenDate;
+
     /**
      * State in the progress of a study. (Yes, it should be named studyResultState - but hey, it's so much nice this
      * way.)
      */
     private StudyResult.StudyState studyState;
 
+    /**
+     * ID of the study this StudyResult belongs to. Only the ID - this way the study isn't loaded together with the
+     * StudyResultStatus.
+     */
     @JsonIgnore
-    @OneToOne(fetch = FetchType.EAGER)
-    @JoinColumn(name = "study_id")
-    private Study study;
+    @Column(name = "study_id", insertable = false, updatable = false)
+    private Long studyId;
 
     /**
      * List of user Strings containing the User's name and username of all Users that are members of the Study that this
@@ -90,7 +100,13 @@ public class StudyResultStatus {
         return this.endDate;
     }
 
+    /**
+     * Returns the last seen date - or the pending one if it is later
+     */
     public Timestamp getLastSeenDate() {
+        if (pendingLastSeenDate != null && (lastSeenDate == null || pendingLastSeenDate.after(lastSeenDate))) {
+            return pendingLastSeenDate;
+        }
         return lastSeenDate;
     }
 
@@ -98,6 +114,10 @@ public class StudyResultStatus {
         this.lastSeenDate = lastSeenDate;
     }
 
+    public void setPendingLastSeenDate(Timestamp pendingLastSeenDate) {
+        this.pendingLastSeenDate = pendingLastSeenDate;
+    }
+
     public void setStudyState(StudyResult.StudyState state) {
         this.studyState = state;
     }
@@ -106,12 +126,12 @@ public class StudyResultStatus {
         return this.studyState;
     }
 
-    public Study getStudy() {
-        return study;
+    public Long getStudyId() {
+        return studyId;
     }
 
-    public void setStudy(Study study) {
-        this.study = study;
+    public void setStudyId(Long studyId) {
+        this.studyId = studyId;
     }
 
     public void setUsers(List<String> users) {
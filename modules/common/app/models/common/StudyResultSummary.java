@@ -0,0 +1,144 @@
+package models.common;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import models.common.StudyResult.StudyState;
+import models.common.workers.Worker;
+
+import java.sql.Timestamp;
+
+/**
+ * JSON model of a row in the GUI's result tables. It has only the few fields of a StudyResult (and its worker,
+ * batch, group and component results) that are shown in the table. It's not an entity but filled directly by a
+ * projection query (StudyResultDao.findSummaries) - so no entities and no result data (Lobs) are loaded.
+ */
+@JsonPropertyOrder(value = { "id", "startDate", "endDate", "lastSeenDate", "studyState", "workerId", "workerType",
+        "uiWorkerType", "batchId", "batchTitle", "groupResultId", "componentResultCount", "dataSize" })
+public class StudyResultSummary {
+
+    private final Long id;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
+    private final Timestamp startDate;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
+    private final Timestamp endDate;
+
+    private final Timestamp lastSeenDate;
+
+    /**
+     * Last heartbeat that isn't written into the DB yet (see HeartbeatBuffer)
+     */
+    @JsonIgnore
+    private Timestamp pendingLastSeenDate;
+
+    private final StudyState studyState;
+
+    private final Long workerId;
+
+    /**
+     * Worker type - it's not part of the projection query and has to be set afterwards
+     */
+    private String workerType;
+
+    private final Long batchId;
+
+    private final String batchTitle;
+
+    /**
+     * ID of the active or (if there is none) the history group result
+     */
+    private final Long groupResultId;
+
+    private final long componentResultCount;
+
+    /**
+     * Size of all result data of this study result (all component results' data and appended data chunks)
+     */
+    private final long dataSize;
+
+    public StudyResultSummary(Long id, Timestamp startDate, Timestamp endDate, Timestamp lastSeenDate,
+            StudyState studyState, Long workerId, Long batchId, String batchTitle, Long groupResultId,
+            Number componentResultCount, Number dataSize) {
+        this.id = id;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.lastSeenDate = lastSeenDate;
+        this.studyState = studyState;
+        this.workerId = workerId;
+        this.batchId = batchId;
+        this.batchTitle = batchTitle;
+        this.groupResultId = groupResultId;
+        this.componentResultCount = componentResultCount != null ? componentResultCount.longValue() : 0;
+        this.dataSize = dataSize != null ? dataSize.longValue() : 0;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Timestamp getStartDate() {
+        return startDate;
+    }
+
+    public Timestamp getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * Returns the last seen date - or the pending one if it is later
+     */
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
+    public Timestamp getLastSeenDate() {
+        if (pendingLastSeenDate != null && (lastSeenDate == null || pendingLastSeenDate.after(lastSeenDate))) {
+            return pendingLastSeenDate;
+        }
+        return lastSeenDate;
+    }
+
+    public void setPendingLastSeenDate(Timestamp pendingLastSeenDate) {
+        this.pendingLastSeenDate = pendingLastSeenDate;
+    }
+
+    public StudyState getStudyState() {
+        return studyState;
+    }
+
+    public Long getWorkerId() {
+        return workerId;
+    }
+
+    public String getWorkerType() {
+        return workerType;
+    }
+
+    public void setWorkerType(String workerType) {
+        this.workerType = workerType;
+    }
+
+    public String getUiWorkerType() {
+        return workerType != null ? Worker.getUIWorkerType(workerType) : null;
+    }
+
+    public Long getBatchId() {
+        return batchId;
+    }
+
+    public String getBatchTitle() {
+        return batchTitle;
+    }
+
+    public Long getGroupResultId() {
+        return groupResultId;
+    }
+
+    public long getComponentResultCount() {
+        return componentResultCount;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+}
@@ -0,0 +1,125 @@
+package models.common;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import models.common.StudyResult.StudyState;
+import models.common.workers.JatosWorker;
+import models.common.workers.Worker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON model of a row in the GUI's worker tables. It has only the fields of a Worker (and its batches and last
+ * StudyResult) that are shown in the tables. It's not an entity but filled directly by a projection query
+ * (WorkerDao.findSummaries) - so neither the workers' StudyResults nor their batches have to be loaded.
+ */
+@JsonPropertyOrder(value = { "id", "workerType", "uiWorkerType", "comment", "mtWorkerId", "username",
+        "lastStudyState", "batchList" })
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WorkerSummary {
+
+    private final Long id;
+
+    private final String workerType;
+
+    /**
+     * Only PersonalSingleWorker and PersonalMultipleWorker have a comment
+     */
+    private final String comment;
+
+    /**
+     * Only MTWorker and MTSandboxWorker have a MTurk worker ID
+     */
+    private final String mtWorkerId;
+
+    /**
+     * Only JatosWorker have a username
+     */
+    private final String username;
+
+    /**
+     * State of the worker's last StudyResult or null if the worker has none
+     */
+    private final StudyState lastStudyState;
+
+    /**
+     * Batches this worker belongs to - it's not part of the projection query and has to be filled afterwards (null if
+     * not needed)
+     */
+    private List<BatchInfo> batchList;
+
+    public WorkerSummary(Long id, String workerType, String comment, String mtWorkerId, String username,
+            StudyState lastStudyState) {
+        this.id = id;
+        this.workerType = workerType;
+        this.comment = comment;
+        this.mtWorkerId = mtWorkerId;
+        if (JatosWorker.WORKER_TYPE.equals(workerType)) {
+            this.username = username != null ? username : "unknown";
+        } else {
+            this.username = null;
+        }
+        this.lastStudyState = lastStudyState;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getWorkerType() {
+        return workerType;
+    }
+
+    public String getUiWorkerType() {
+        return Worker.getUIWorkerType(workerType);
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public String getMtWorkerId() {
+        return mtWorkerId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public StudyState getLastStudyState() {
+        return lastStudyState;
+    }
+
+    public List<BatchInfo> getBatchList() {
+        return batchList;
+    }
+
+    public void addBatch(Long batchId, String batchTitle) {
+        if (batchList == null) batchList = new ArrayList<>();
+        batchList.add(new BatchInfo(batchId, batchTitle));
+    }
+
+    /**
+     * ID and title of a batch
+     */
+    public static class BatchInfo {
+
+        private final Long id;
+        private final String title;
+
+        private BatchInfo(Long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+}
@@ -6,6 +6,8 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonTypeInfo.As;
 import models.common.Batch;
 import models.common.StudyResult;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import play.data.validation.ValidationError;
 
 import javax.persistence.*;
@@ -20,6 +22,10 @@ import java.util.*;
  * <p>
  * All worker entities are stored in the same database table. Inheritance is
  * established with an discriminator column.
+ * <p>
+ * The IDs are taken in blocks from the IdGenerator table (pooled) instead of
+ * the table's auto increment. This way many workers can be inserted in JDBC
+ * batches (see WorkerDao.createAll).
  *
  * @author Kristian Lange (2015)
  */
@@ -37,7 +43,13 @@ public abstract class Worker {
     public static final String UI_WORKER_TYPE = "uiWorkerType";
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = "workerIdGenerator")
+    @GenericGenerator(name = "workerIdGenerator",
+            strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+            @Parameter(name = "table_name", value = "IdGenerator"),
+            @Parameter(name = "segment_value", value = "Worker"),
+            @Parameter(name = "increment_size", value = "50"),
+            @Parameter(name = "optimizer", value = "pooled-lo")})
     private Long id;
 
     /**
@@ -5,14 +5,16 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 public class HashUtils {
 
     public static final String SHA_256 = "SHA-256";
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     public static String getHashMD5(String str) {
         try {
             byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
@@ -39,18 +41,60 @@ public class HashUtils {
     }
 
     /**
-     * Calculates hash for the given file. Converts the byte array into an String of hexadecimal characters.
+     * Calculates a chained hash: the hash of the previous hash (as a String of hexadecimal characters) followed by the
+     * given str. If there is no previous hash (null) it is just the hash of str. This way a hash over data that are
+     * appended piece by piece can be calculated incrementally by only hashing the new piece. Uses ISO_8859_1 charset.
      */
-    public static String getHash(Path file, String hashFunction) throws IOException {
+    public static String getChainedHash(String previousHash, String str, String hashFunction) {
+        if (previousHash == null) return getHash(str, hashFunction);
         try {
             MessageDigest digest = MessageDigest.getInstance(hashFunction);
-            try (InputStream is = Files.newInputStream(file);
-                    DigestInputStream dis = new DigestInputStream(is, digest)) {
-                while ((dis.read()) != -1) {}
+            digest.update(previousHash.getBytes(StandardCharsets.ISO_8859_1));
+            byte[] hashByte = digest.digest(str.getBytes(StandardCharsets.ISO_8859_1));
+            return bytesToHex(hashByte);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calculates the chained hash (see getChainedHash) over the first str and all following strings in the given
+     * order. The first str can be null.
+     */
+    public static String getChainedHash(String firstStr, List<String> appendedStrList, String hashFunction) {
+        String hash = firstStr != null ? getHash(firstStr, hashFunction) : null;
+        for (String appendedStr : appendedStrList) {
+            hash = getChainedHash(hash, appendedStr, hashFunction);
+        }
+        return hash;
+    }
 
+    /**
+     * Calculates hash for the given file. Converts the byte array into an String of hexadecimal characters.
+     */
+    public static String getHash(Path file, String hashFunction) throws IOException {
+        MessageDigest digest = getMessageDigest(hashFunction);
+        try (InputStream is = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
             }
-            byte[] hashByte = digest.digest();
-            return bytesToHex(hashByte);
+        }
+        return bytesToHex(digest.digest());
+    }
+
+    /**
+     * Completes the hash calculation of the given MessageDigest. Converts the byte array into an String of
+     * hexadecimal characters.
+     */
+    public static String getHash(MessageDigest digest) {
+        return bytesToHex(digest.digest());
+    }
+
+    public static MessageDigest getMessageDigest(String hashFunction) {
+        try {
+            return MessageDigest.getInstance(hashFunction);
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
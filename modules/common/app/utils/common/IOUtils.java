@@ -14,7 +14,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Utility class that handles access to the system's file system.
@@ -400,10 +404,30 @@ public class IOUtils {
         return getResultUploadsDir(studyResultId) + File.separator + "comp-result_" + componentResultId;
     }
 
+    /**
+     * Returns all uploaded result files of the given ComponentResult (or an empty list if there are none)
+     */
+    public static List<Path> listResultUploadFiles(Long studyResultId, Long componentResultId) throws IOException {
+        Path dir = Paths.get(getResultUploadsDir(studyResultId, componentResultId));
+        if (!Files.isDirectory(dir)) return new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
     public long getResultUploadDirSize(Long studyResultId) throws IOException {
-        Path path = Paths.get(IOUtils.getResultUploadsDir(studyResultId));
+        return getDirSize(Paths.get(IOUtils.getResultUploadsDir(studyResultId)));
+    }
+
+    public long getResultUploadDirSize(Long studyResultId, Long componentResultId) throws IOException {
+        return getDirSize(Paths.get(IOUtils.getResultUploadsDir(studyResultId, componentResultId)));
+    }
+
+    private long getDirSize(Path path) throws IOException {
         if (!Files.exists(path)) return 0;
-        return Files.walk(path).mapToLong(p -> p.toFile().length()).sum();
+        try (Stream<Path> paths = Files.walk(path)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
     }
 
     public File getResultUploadFileSecurely(Long studyResultId, Long componentResultId, String filename)
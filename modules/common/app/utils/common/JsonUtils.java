@@ -6,9 +6,8 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import general.common.HeartbeatBuffer;
 import models.common.*;
-import models.common.workers.JatosWorker;
-import models.common.workers.Worker;
 import org.hibernate.Hibernate;
 import org.hibernate.proxy.HibernateProxy;
 import play.Logger;
@@ -16,6 +15,7 @@ import play.Logger.ALogger;
 import play.libs.Json;
 import utils.common.JsonUtils.SidebarStudy.SidebarComponent;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
@@ -38,6 +38,13 @@ public class JsonUtils {
 
     private static final ALogger LOGGER = Logger.of(JsonUtils.class);
 
+    private final HeartbeatBuffer heartbeatBuffer;
+
+    @Inject
+    JsonUtils(HeartbeatBuffer heartbeatBuffer) {
+        this.heartbeatBuffer = heartbeatBuffer;
+    }
+
     public static final String DATA = "data";
     public static final String VERSION = "version";
 
@@ -184,7 +191,7 @@ public class JsonUtils {
      */
     public String componentResultDataForUI(ComponentResult componentResult) {
         final int MAX_CHAR_PER_RESULT = 1000;
-        String data = componentResult.getData();
+        String data = getResultDataPrefix(componentResult, MAX_CHAR_PER_RESULT);
         if (data != null) {
             // Escape HTML tags and &
             data = data.replace("&", "&amp").replace("<", "&lt;").replace(">", "&gt;");
@@ -198,11 +205,29 @@ public class JsonUtils {
         }
     }
 
+    /**
+     * Returns at least the first maxLength characters of the result data (if there are that many) without
+     * reassembling all appended data chunks. Returns null if there are no result data.
+     */
+    private String getResultDataPrefix(ComponentResult componentResult, int maxLength) {
+        String submittedData = componentResult.getSubmittedData();
+        List<ComponentResultChunk> dataChunkList = componentResult.getDataChunkList();
+        if (dataChunkList.isEmpty()) return submittedData;
+
+        StringBuilder sb = new StringBuilder(submittedData != null ? submittedData : "");
+        for (ComponentResultChunk dataChunk : dataChunkList) {
+            if (sb.length() > maxLength) break;
+            sb.append(dataChunk.getData());
+        }
+        return sb.toString();
+    }
+
     /**
      * Returns ObjectNode of the given StudyResult. It contains the worker,
      * study's ID and title, and all ComponentResults.
      */
     public JsonNode studyResultAsJsonNode(StudyResult studyResult) {
+        heartbeatBuffer.merge(studyResult);
         ObjectNode studyResultNode = Json.mapper().valueToTree(studyResult);
 
         // Add worker
@@ -492,53 +517,28 @@ public class JsonUtils {
     }
 
     /**
-     * Returns a JSON string with the given set of workers wrapped in a data
-     * object. Intended for use in JATOS' GUI.
+     * Returns one page of workers (WorkerSummaries) wrapped in a data object together with the ID to ask for the next
+     * page ('next' - it's null if there are no more pages). Intended for use in JATOS' GUI.
      */
-    public JsonNode workersForTableData(Set<Worker> workerSet, Study study) {
-        ArrayNode workerArrayNode = Json.mapper().createArrayNode();
-        for (Worker worker : workerSet) {
-            ObjectNode workerNode = Json.mapper().valueToTree(initializeAndUnproxy(worker));
-
-            List<Batch> batchList = worker.getBatchList().stream()
-                    .filter(b -> study.getBatchList().contains(b))
-                    .collect(Collectors.toList());
-            workerNode.set("batchList", Json.mapper().valueToTree(batchList));
-
-            Optional<StudyResult> last = worker.getLastStudyResult();
-            String lastStudyState = last.map(studyResult -> studyResult.getStudyState().name()).orElse(null);
-            workerNode.put("lastStudyState", lastStudyState);
-
-            addUsernameForJatosWorker(worker, workerNode);
-            workerArrayNode.add(workerNode);
-        }
+    public JsonNode workersForTableData(List<WorkerSummary> workerSummaries, int limit) {
         ObjectNode workersNode = Json.mapper().createObjectNode();
-        workersNode.set(DATA, workerArrayNode);
+        workersNode.set(DATA, Json.mapper().valueToTree(workerSummaries));
+        if (workerSummaries.size() == limit) {
+            workersNode.put("next", workerSummaries.get(workerSummaries.size() - 1).getId());
+        } else {
+            workersNode.putNull("next");
+        }
         return workersNode;
     }
 
     /**
-     * Returns a JsonNode with all workers (additionally for JatosWorkers the username is added), the given
-     * studyResultCountsPerWorker and all allowed worker types of this batch.
-     * Intended for use in JATOS' GUI / worker setup.
+     * Returns a JsonNode with all workers of a batch (WorkerSummaries), the given studyResultCountsPerWorker and all
+     * allowed worker types of this batch. Intended for use in JATOS' GUI / worker setup.
      */
-    public JsonNode workerSetupData(Batch batch, Map<String, Integer> studyResultCountsPerWorker) {
+    public JsonNode workerSetupData(Batch batch, List<WorkerSummary> workerSummaries,
+            Map<String, Integer> studyResultCountsPerWorker) {
         ObjectNode workerSetupData = Json.mapper().createObjectNode();
-
-        ArrayNode workerArrayNode = Json.mapper().createArrayNode();
-        for (Worker worker : batch.getWorkerList()) {
-            ObjectNode workerNode = Json.mapper().valueToTree(worker);
-
-            // We have to get last StudyResult only from within the given batch.
-            StudyResult lastStudyResult = getLastStudyResultByBatch(worker, batch);
-            String lastStudyState =
-                    lastStudyResult != null ? lastStudyResult.getStudyState().name() : null;
-            workerNode.put("lastStudyState", lastStudyState);
-
-            addUsernameForJatosWorker(worker, workerNode);
-            workerArrayNode.add(workerNode);
-        }
-        workerSetupData.set("allWorkers", workerArrayNode);
+        workerSetupData.set("allWorkers", Json.mapper().valueToTree(workerSummaries));
 
         JsonNode studyResultCountsPerWorkerNode = asJsonNode(studyResultCountsPerWorker);
         workerSetupData.set("studyResultCountsPerWorker", studyResultCountsPerWorkerNode);
@@ -548,31 +548,6 @@ public class JsonUtils {
         return workerSetupData;
     }
 
-    private void addUsernameForJatosWorker(Worker worker, ObjectNode workerNode) {
-        if (worker instanceof JatosWorker) {
-            JatosWorker jatosWorker = (JatosWorker) worker;
-            if (jatosWorker.getUser() != null) {
-                workerNode.put("username", jatosWorker.getUser().getUsername());
-            } else {
-                workerNode.put("username", "unknown");
-            }
-        } else if (worker.getWorkerType().equals(JatosWorker.WORKER_TYPE)) {
-            // In case the JatosWorker's user is already removed from the
-            // database Hibernate doesn't use the type JatosWorker
-            workerNode.put("username", "unknown (probably deleted)");
-        }
-    }
-
-    private StudyResult getLastStudyResultByBatch(Worker worker, Batch batch) {
-        List<StudyResult> studyResultList = worker.getStudyResultList();
-        ListIterator<StudyResult> iterator = studyResultList.listIterator(studyResultList.size());
-        while (iterator.hasPrevious()) {
-            StudyResult sr = iterator.previous();
-            if (sr != null && sr.getBatch().equals(batch)) return sr;
-        }
-        return null;
-    }
-
     @SuppressWarnings("unchecked")
     public static <T> T initializeAndUnproxy(T obj) {
         Hibernate.initialize(obj);
@@ -0,0 +1,430 @@
+package utils.common;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a ZIP archive as an Akka Streams Source - without a temporary file. The entries are prepared in parallel
+ * (compressed or, in store mode, their CRC calculated) on the given Executor while the archive itself is written
+ * sequentially. Since it's a Source the entries are only prepared and written as fast as the downstream (e.g. the HTTP
+ * response) consumes them.
+ *
+ * Memory is bounded: an entry is compressed into memory only as long as its compressed data stays below
+ * IN_MEMORY_LIMIT - bigger entries are compressed again while they are written (with a data descriptor after the
+ * data). Stored entries are read twice: once to calculate the CRC and once while writing. ZIP64 is used where
+ * necessary, e.g. for entries and archives bigger than 4 GB or more than 65535 entries.
+ */
+public class ZipStreamer {
+
+    /**
+     * Max size of an entry's data (compressed) that is kept in memory
+     */
+    static final int IN_MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * Supplies the content of an entry. It might be called more than once (each time a new InputStream).
+     */
+    @FunctionalInterface
+    public interface ContentSupplier {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * An entry of the ZIP archive
+     */
+    public static class Entry {
+
+        private final String name;
+        private final ContentSupplier content;
+        private final boolean store;
+
+        /**
+         * @param name    path of the entry within the archive (with '/' as separator)
+         * @param content supplies the entry's content
+         * @param store   if true the entry is stored without compression (e.g. for already compressed files)
+         */
+        public Entry(String name, ContentSupplier content, boolean store) {
+            this.name = name;
+            this.content = content;
+            this.store = store;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+    }
+
+    /**
+     * Returns a Source that emits the ZIP archive of the given entries. The entries are prepared on the given
+     * Executor with up to 'parallelism' entries at the same time.
+     */
+    public static Source<ByteString, NotUsed> zip(Source<Entry, ?> entries, Executor executor, int parallelism) {
+        return Source.lazily(() -> {
+            ArchiveState state = new ArchiveState();
+            return entries
+                    .mapAsync(parallelism, entry -> CompletableFuture.supplyAsync(() -> prepare(entry), executor))
+                    .flatMapConcat(prepared -> write(prepared, state))
+                    .concat(Source.lazily(() -> Source.single(state.writeCentralDirectory())));
+        }).mapMaterializedValue(m -> NotUsed.getInstance());
+    }
+
+    /**
+     * Reads the entry's content once: either compresses it into memory or (in store mode or if the compressed data
+     * get too big) only calculates its CRC and size.
+     */
+    private static PreparedEntry prepare(Entry entry) {
+        PreparedEntry prepared = new PreparedEntry(entry);
+        CRC32 crc = new CRC32();
+        Deflater deflater = entry.store ? null : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteStringBuilder data = ByteString.createBuilder();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        byte[] deflateBuffer = new byte[CHUNK_SIZE];
+        long size = 0;
+        boolean inMemory = true;
+        try (InputStream in = entry.content.open()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+                if (!inMemory) {
+                    // Only stored entries need the CRC and size beforehand
+                    if (deflater != null) break;
+                    continue;
+                }
+                if (deflater != null) {
+                    deflater.setInput(buffer, 0, read);
+                    deflate(deflater, deflateBuffer, data, false);
+                } else {
+                    data.putBytes(buffer, 0, read);
+                }
+                if (data.length() > IN_MEMORY_LIMIT) {
+                    inMemory = false;
+                    data.clear();
+                }
+            }
+            if (deflater != null && inMemory) {
+                deflater.finish();
+                deflate(deflater, deflateBuffer, data, true);
+                inMemory = data.length() <= IN_MEMORY_LIMIT;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read " + entry.name, e);
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+
+        prepared.crc = crc.getValue();
+        prepared.size = size;
+        if (inMemory) {
+            prepared.data = data.result();
+            prepared.compressedSize = prepared.data.size();
+        } else if (entry.store) {
+            prepared.compressedSize = size;
+        } else {
+            // Compressed again while writing - CRC and sizes follow in a data descriptor
+            prepared.dataDescriptor = true;
+        }
+        return prepared;
+    }
+
+    /**
+     * Returns the Source of an entry: local file header, data and, if necessary, data descriptor. The entry's central
+     * directory record is added to the ArchiveState afterwards.
+     */
+    private static Source<ByteString, NotUsed> write(PreparedEntry prepared, ArchiveState state) {
+        return Source.lazily(() -> {
+            prepared.offset = state.offset;
+            Source<ByteString, ?> data;
+            if (prepared.data != null) {
+                data = Source.single(prepared.data);
+            } else if (prepared.dataDescriptor) {
+                data = deflateWhileWriting(prepared);
+            } else {
+                data = storeWhileWriting(prepared);
+            }
+            return Source.single(prepared.writeLocalHeader())
+                    .concat(data)
+                    .map(bytes -> {
+                        state.offset += bytes.size();
+                        return bytes;
+                    })
+                    .concat(Source.lazily(() -> {
+                        state.entries.add(prepared);
+                        return Source.<ByteString>empty();
+                    }));
+        }).mapMaterializedValue(m -> NotUsed.getInstance());
+    }
+
+    private static Source<ByteString, ?> storeWhileWriting(PreparedEntry prepared) {
+        long[] written = {0};
+        return StreamConverters.fromInputStream(prepared.entry.content::open, CHUNK_SIZE)
+                .map(bytes -> {
+                    written[0] += bytes.size();
+                    return bytes;
+                })
+                .concat(Source.lazily(() -> {
+                    if (written[0] != prepared.size) {
+                        throw new IOException("Content of " + prepared.entry.name + " changed while zipping");
+                    }
+                    return Source.<ByteString>empty();
+                }));
+    }
+
+    private static Source<ByteString, ?> deflateWhileWriting(PreparedEntry prepared) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        byte[] deflateBuffer = new byte[CHUNK_SIZE];
+        long[] sizes = {0, 0};
+        return StreamConverters.fromInputStream(prepared.entry.content::open, CHUNK_SIZE)
+                .map(bytes -> {
+                    byte[] array = bytes.toArray();
+                    crc.update(array);
+                    sizes[0] += array.length;
+                    deflater.setInput(array);
+                    ByteStringBuilder compressed = ByteString.createBuilder();
+                    deflate(deflater, deflateBuffer, compressed, false);
+                    sizes[1] += compressed.length();
+                    return compressed.result();
+                })
+                .filter(bytes -> !bytes.isEmpty())
+                .concat(Source.lazily(() -> {
+                    ByteStringBuilder rest = ByteString.createBuilder();
+                    try {
+                        deflater.finish();
+                        deflate(deflater, deflateBuffer, rest, true);
+                    } finally {
+                        deflater.end();
+                    }
+                    sizes[1] += rest.length();
+                    prepared.crc = crc.getValue();
+                    prepared.size = sizes[0];
+                    prepared.compressedSize = sizes[1];
+                    return Source.single(rest.append(prepared.writeDataDescriptor()).result());
+                }));
+    }
+
+    /**
+     * Takes everything the Deflater has to give at the moment (or, if finishing, until it's finished)
+     */
+    private static void deflate(Deflater deflater, byte[] buffer, ByteStringBuilder out, boolean finishing) {
+        while (finishing ? !deflater.finished() : !deflater.needsInput()) {
+            int length = deflater.deflate(buffer);
+            out.putBytes(buffer, 0, length);
+        }
+    }
+
+    /**
+     * An Entry after its content was read once
+     */
+    private static class PreparedEntry {
+
+        private final Entry entry;
+        private final byte[] name;
+        private final int time;
+        private final int date;
+
+        /**
+         * Entry's data (compressed or stored) if they are kept in memory - otherwise null
+         */
+        private ByteString data;
+
+        /**
+         * If true the data are compressed while writing and the CRC and sizes follow in a data descriptor
+         */
+        private boolean dataDescriptor;
+
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+
+        PreparedEntry(Entry entry) {
+            this.entry = entry;
+            this.name = entry.name.getBytes(StandardCharsets.UTF_8);
+            LocalDateTime now = LocalDateTime.now();
+            this.time = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() / 2);
+            this.date = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+        }
+
+        private int method() {
+            return entry.store ? METHOD_STORED : METHOD_DEFLATED;
+        }
+
+        private int flags() {
+            return dataDescriptor ? FLAG_UTF8 | FLAG_DATA_DESCRIPTOR : FLAG_UTF8;
+        }
+
+        /**
+         * Whether the local header needs a ZIP64 extra field. Not for entries with a data descriptor: their sizes
+         * aren't known yet and the data descriptor gets 8 byte sizes only if they turn out to be that big (that's what
+         * e.g. Java's ZipInputStream expects).
+         */
+        private boolean localZip64() {
+            return !dataDescriptor && (size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC);
+        }
+
+        ByteString writeLocalHeader() {
+            boolean zip64 = localZip64();
+            ByteStringBuilder b = ByteString.createBuilder();
+            putInt(b, 0x04034b50);
+            putShort(b, zip64 ? VERSION_ZIP64 : VERSION);
+            putShort(b, flags());
+            putShort(b, method());
+            putShort(b, time);
+            putShort(b, date);
+            putInt(b, dataDescriptor ? 0 : crc);
+            putInt(b, zip64 ? ZIP64_MAGIC : dataDescriptor ? 0 : compressedSize);
+            putInt(b, zip64 ? ZIP64_MAGIC : dataDescriptor ? 0 : size);
+            putShort(b, name.length);
+            putShort(b, zip64 ? 20 : 0);
+            b.putBytes(name);
+            if (zip64) {
+                putShort(b, 0x0001);
+                putShort(b, 16);
+                putLong(b, size);
+                putLong(b, compressedSize);
+            }
+            return b.result();
+        }
+
+        ByteString writeDataDescriptor() {
+            ByteStringBuilder b = ByteString.createBuilder();
+            putInt(b, 0x08074b50);
+            putInt(b, crc);
+            if (size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC) {
+                putLong(b, compressedSize);
+                putLong(b, size);
+            } else {
+                putInt(b, compressedSize);
+                putInt(b, size);
+            }
+            return b.result();
+        }
+
+        ByteString writeCentralDirectoryHeader() {
+            List<Long> zip64Fields = new ArrayList<>();
+            if (size >= ZIP64_MAGIC) zip64Fields.add(size);
+            if (compressedSize >= ZIP64_MAGIC) zip64Fields.add(compressedSize);
+            if (offset >= ZIP64_MAGIC) zip64Fields.add(offset);
+            boolean zip64 = !zip64Fields.isEmpty() || localZip64();
+
+            ByteStringBuilder b = ByteString.createBuilder();
+            putInt(b, 0x02014b50);
+            putShort(b, zip64 ? VERSION_ZIP64 : VERSION);
+            putShort(b, zip64 ? VERSION_ZIP64 : VERSION);
+            putShort(b, flags());
+            putShort(b, method());
+            putShort(b, time);
+            putShort(b, date);
+            putInt(b, crc);
+            putInt(b, Math.min(compressedSize, ZIP64_MAGIC));
+            putInt(b, Math.min(size, ZIP64_MAGIC));
+            putShort(b, name.length);
+            putShort(b, zip64Fields.isEmpty() ? 0 : 4 + 8 * zip64Fields.size());
+            putShort(b, 0); // comment length
+            putShort(b, 0); // disk number
+            putShort(b, 0); // internal attributes
+            putInt(b, 0); // external attributes
+            putInt(b, Math.min(offset, ZIP64_MAGIC));
+            b.putBytes(name);
+            if (!zip64Fields.isEmpty()) {
+                putShort(b, 0x0001);
+                putShort(b, 8 * zip64Fields.size());
+                zip64Fields.forEach(field -> putLong(b, field));
+            }
+            return b.result();
+        }
+
+    }
+
+    /**
+     * State of one archive while it's written: the current offset and the written entries
+     */
+    private static class ArchiveState {
+
+        private long offset = 0;
+        private final List<PreparedEntry> entries = new ArrayList<>();
+
+        ByteString writeCentralDirectory() {
+            ByteStringBuilder b = ByteString.createBuilder();
+            long centralDirectoryOffset = offset;
+            entries.forEach(entry -> b.append(entry.writeCentralDirectoryHeader()));
+            long centralDirectorySize = b.length();
+            long count = entries.size();
+
+            if (count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC
+                    || centralDirectorySize >= ZIP64_MAGIC) {
+                long zip64EndOffset = centralDirectoryOffset + centralDirectorySize;
+                // ZIP64 end of central directory record
+                putInt(b, 0x06064b50);
+                putLong(b, 44);
+                putShort(b, VERSION_ZIP64);
+                putShort(b, VERSION_ZIP64);
+                putInt(b, 0);
+                putInt(b, 0);
+                putLong(b, count);
+                putLong(b, count);
+                putLong(b, centralDirectorySize);
+                putLong(b, centralDirectoryOffset);
+                // ZIP64 end of central directory locator
+                putInt(b, 0x07064b50);
+                putInt(b, 0);
+                putLong(b, zip64EndOffset);
+                putInt(b, 1);
+            }
+
+            // End of central directory record
+            putInt(b, 0x06054b50);
+            putShort(b, 0);
+            putShort(b, 0);
+            putShort(b, (int) Math.min(count, ZIP64_MAGIC_COUNT));
+            putShort(b, (int) Math.min(count, ZIP64_MAGIC_COUNT));
+            putInt(b, Math.min(centralDirectorySize, ZIP64_MAGIC));
+            putInt(b, Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+            putShort(b, 0);
+            return b.result();
+        }
+
+    }
+
+    private static void putShort(ByteStringBuilder b, int value) {
+        b.putShort(value, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void putInt(ByteStringBuilder b, long value) {
+        b.putInt((int) value, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void putLong(ByteStringBuilder b, long value) {
+        b.putLong(value, ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
@@ -0,0 +1,16 @@
+# --- Add ComponentResultChunk table: appended result data are stored as chunks
+
+# --- !Ups
+CREATE TABLE `ComponentResultChunk` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `componentResult_id` bigint(20) NOT NULL,
+  `chunkNumber` int(11) NOT NULL,
+  `data` longtext,
+  PRIMARY KEY (`id`)
+) DEFAULT CHARSET=utf8;
+
+ALTER TABLE `ComponentResultChunk` ADD UNIQUE KEY `UK_componentResultChunk_number` (`componentResult_id`, `chunkNumber`);
+ALTER TABLE `ComponentResultChunk` ADD CONSTRAINT `FK_componentResultChunk_componentResult` FOREIGN KEY (`componentResult_id`) REFERENCES `ComponentResult` (`id`);
+
+# --- !Downs
+DROP TABLE IF EXISTS `ComponentResultChunk`;
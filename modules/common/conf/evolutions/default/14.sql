@@ -0,0 +1,7 @@
+# --- Add chained data hash to ComponentResultChunk table
+
+# --- !Ups
+ALTER TABLE `ComponentResultChunk` ADD COLUMN `dataHash` varchar(255) DEFAULT NULL;
+
+# --- !Downs
+ALTER TABLE `ComponentResultChunk` DROP COLUMN `dataHash`;
@@ -0,0 +1,8 @@
+# --- Add worker count to Batch table: number of workers in BatchWorkerMap
+
+# --- !Ups
+ALTER TABLE `Batch` ADD COLUMN `workerCount` int(11) NOT NULL DEFAULT 0;
+UPDATE `Batch` SET `workerCount` = (SELECT COUNT(*) FROM `BatchWorkerMap` WHERE `BatchWorkerMap`.`batch_id` = `Batch`.`id`);
+
+# --- !Downs
+ALTER TABLE `Batch` DROP COLUMN `workerCount`;
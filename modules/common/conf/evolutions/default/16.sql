@@ -0,0 +1,27 @@
+# --- Add BatchStats table: aggregated counters of a batch's study results and group results
+
+# --- !Ups
+CREATE TABLE `BatchStats` (
+  `batch_id` bigint(20) NOT NULL,
+  `studyResultCount` int(11) NOT NULL DEFAULT 0,
+  `finishedCount` int(11) NOT NULL DEFAULT 0,
+  `abortedCount` int(11) NOT NULL DEFAULT 0,
+  `failCount` int(11) NOT NULL DEFAULT 0,
+  `jatosCount` int(11) NOT NULL DEFAULT 0,
+  `personalSingleCount` int(11) NOT NULL DEFAULT 0,
+  `personalMultipleCount` int(11) NOT NULL DEFAULT 0,
+  `generalSingleCount` int(11) NOT NULL DEFAULT 0,
+  `generalMultipleCount` int(11) NOT NULL DEFAULT 0,
+  `mtCount` int(11) NOT NULL DEFAULT 0,
+  `mtSandboxCount` int(11) NOT NULL DEFAULT 0,
+  `groupResultCount` int(11) NOT NULL DEFAULT 0,
+  `lastActivity` datetime DEFAULT NULL,
+  PRIMARY KEY (`batch_id`)
+) DEFAULT CHARSET=utf8;
+
+ALTER TABLE `BatchStats` ADD CONSTRAINT `FK_batchStats_batch` FOREIGN KEY (`batch_id`) REFERENCES `Batch` (`id`);
+
+# The BatchStats of existing batches are created and calculated at the next start (BatchStatsInitializer)
+
+# --- !Downs
+DROP TABLE IF EXISTS `BatchStats`;
@@ -0,0 +1,8 @@
+# --- Add uploadsSize to StudyResult table: size of all result files uploaded in a study run (NULL if unknown)
+
+# --- !Ups
+ALTER TABLE `StudyResult` ADD COLUMN `uploadsSize` bigint(20) DEFAULT NULL;
+ALTER TABLE `StudyResult` ALTER COLUMN `uploadsSize` SET DEFAULT 0;
+
+# --- !Downs
+ALTER TABLE `StudyResult` DROP COLUMN `uploadsSize`;
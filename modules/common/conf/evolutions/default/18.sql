@@ -0,0 +1,27 @@
+# --- Add Job table: long-running GUI operations (e.g. study import or batch removal) that run in the background
+# --- (JobState is stored as ordinal: QUEUED = 0, RUNNING = 1, DONE = 2, FAILED = 3, CANCELLED = 4)
+
+# --- !Ups
+CREATE TABLE `Job` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `type` varchar(64) NOT NULL,
+  `state` int(11) NOT NULL,
+  `username` varchar(255) NOT NULL,
+  `title` varchar(255) DEFAULT NULL,
+  `parameters` longtext,
+  `result` longtext,
+  `error` longtext,
+  `progress` int(11) NOT NULL DEFAULT 0,
+  `total` int(11) NOT NULL DEFAULT 0,
+  `cancelRequested` tinyint(1) NOT NULL DEFAULT 0,
+  `creationDate` datetime DEFAULT NULL,
+  `startDate` datetime DEFAULT NULL,
+  `endDate` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`)
+) DEFAULT CHARSET=utf8;
+
+ALTER TABLE `Job` ADD KEY `IDX_job_state` (`state`);
+ALTER TABLE `Job` ADD KEY `IDX_job_username_state` (`username`, `state`);
+
+# --- !Downs
+DROP TABLE IF EXISTS `Job`;
@@ -0,0 +1,15 @@
+# --- Add composite indexes to StudyResult table: for the last finished / unfinished study runs on the home page
+# --- (studyState with endDate / startDate), for a study's results ordered by ID (study_id, id) and for a worker's
+# --- results within a batch (batch_id, worker_id)
+
+# --- !Ups
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_studyState_endDate` (`studyState`, `endDate`);
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_studyState_startDate_endDate` (`studyState`, `startDate`, `endDate`);
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_study_id` (`study_id`, `id`);
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_batch_worker` (`batch_id`, `worker_id`);
+
+# --- !Downs
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_studyState_endDate`;
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_studyState_startDate_endDate`;
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_study_id`;
+ALTER TABLE `StudyResult` DROP INDEX `IDX_studyResult_batch_worker`;
@@ -0,0 +1,14 @@
+# --- Add IdGenerator table: Hibernate's table-based ID generator (one row per entity) - Worker IDs are taken from here
+# --- in blocks (pooled) so that workers can be inserted in JDBC batches. It starts after the highest existing ID.
+
+# --- !Ups
+CREATE TABLE `IdGenerator` (
+  `sequence_name` varchar(255) NOT NULL,
+  `next_val` bigint(20) DEFAULT NULL,
+  PRIMARY KEY (`sequence_name`)
+) DEFAULT CHARSET=utf8;
+
+INSERT INTO `IdGenerator` (`sequence_name`, `next_val`) SELECT 'Worker', COALESCE(MAX(`id`), 0) + 1 FROM `Worker`;
+
+# --- !Downs
+DROP TABLE IF EXISTS `IdGenerator`;
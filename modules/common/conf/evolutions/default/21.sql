@@ -0,0 +1,13 @@
+# --- Add dataSize to ComponentResult: size of its result data including all appended data chunks - this way the size
+# --- can be shown without reading the data
+
+# --- !Ups
+ALTER TABLE `ComponentResult` ADD COLUMN `dataSize` bigint(20) NOT NULL DEFAULT 0;
+
+# Size in bytes (OCTET_LENGTH) like the dataSize JATOS keeps when data are appended - not in characters
+UPDATE `ComponentResult` SET `dataSize` = COALESCE(OCTET_LENGTH(`data`), 0)
+  + COALESCE((SELECT SUM(OCTET_LENGTH(c.`data`)) FROM `ComponentResultChunk` c
+    WHERE c.`componentResult_id` = `ComponentResult`.`id`), 0);
+
+# --- !Downs
+ALTER TABLE `ComponentResult` DROP COLUMN `dataSize`;
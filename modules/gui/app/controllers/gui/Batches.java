@@ -1,34 +1,48 @@
 package controllers.gui;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.fasterxml.jackson.databind.JsonNode;
 import controllers.gui.actionannotations.AuthenticationAction.Authenticated;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
 import daos.common.BatchDao;
+import daos.common.BatchStatsDao;
 import daos.common.GroupResultDao;
 import daos.common.StudyDao;
-import daos.common.StudyResultDao;
 import exceptions.gui.BadRequestException;
 import exceptions.gui.ForbiddenException;
 import exceptions.gui.JatosGuiException;
-import general.gui.RequestScopeMessaging;
+import general.common.StudyAuthorisationCache;
 import models.common.Batch;
+import models.common.BatchStats;
 import models.common.GroupResult;
 import models.common.GroupResult.GroupState;
+import models.common.Job;
 import models.common.Study;
 import models.common.User;
+import models.common.WorkerSummary;
+import models.common.workers.PersonalMultipleWorker;
+import models.common.workers.PersonalSingleWorker;
 import models.common.workers.Worker;
 import models.gui.BatchProperties;
 import models.gui.BatchSession;
 import models.gui.GroupSession;
 import play.Logger;
 import play.Logger.ALogger;
+import play.core.utils.HttpHeaderParameterEncoding;
 import play.data.Form;
 import play.data.FormFactory;
 import play.db.jpa.Transactional;
 import play.libs.F.Function3;
+import play.libs.Json;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
+import scala.Option;
 import services.gui.*;
+import services.gui.jobs.BatchRemovalJobHandler;
+import services.gui.jobs.JobService;
 import utils.common.HttpUtils;
 import utils.common.JsonUtils;
 
@@ -39,6 +53,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 /**
@@ -62,17 +78,19 @@ public class Batches extends Controller {
     private final BreadcrumbsService breadcrumbsService;
     private final StudyDao studyDao;
     private final BatchDao batchDao;
-    private final StudyResultDao studyResultDao;
+    private final BatchStatsDao batchStatsDao;
     private final GroupResultDao groupResultDao;
     private final FormFactory formFactory;
+    private final StudyAuthorisationCache studyAuthorisationCache;
+    private final JobService jobService;
 
     @Inject
     Batches(JatosGuiExceptionThrower jatosGuiExceptionThrower, Checker checker,
             JsonUtils jsonUtils, AuthenticationService authenticationService,
             WorkerService workerService, BatchService batchService, GroupService groupService,
             BreadcrumbsService breadcrumbsService, StudyDao studyDao,
-            BatchDao batchDao, StudyResultDao studyResultDao, GroupResultDao groupResultDao,
-            FormFactory formFactory) {
+            BatchDao batchDao, BatchStatsDao batchStatsDao, GroupResultDao groupResultDao,
+            FormFactory formFactory, StudyAuthorisationCache studyAuthorisationCache, JobService jobService) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.checker = checker;
         this.jsonUtils = jsonUtils;
@@ -83,9 +101,11 @@ public class Batches extends Controller {
         this.breadcrumbsService = breadcrumbsService;
         this.studyDao = studyDao;
         this.batchDao = batchDao;
-        this.studyResultDao = studyResultDao;
+        this.batchStatsDao = batchStatsDao;
         this.groupResultDao = groupResultDao;
         this.formFactory = formFactory;
+        this.studyAuthorisationCache = studyAuthorisationCache;
+        this.jobService = jobService;
     }
 
     /**
@@ -103,7 +123,7 @@ public class Batches extends Controller {
         }
 
         int allWorkersSize =
-                study.getBatchList().stream().mapToInt(b -> b.getWorkerList().size()).sum();
+                study.getBatchList().stream().mapToInt(Batch::getWorkerCount).sum();
         String breadcrumbs = breadcrumbsService.generateForStudy(study,
                 BreadcrumbsService.WORKER_AND_BATCH_MANAGER);
         URL jatosURL = HttpUtils.getHostUrl();
@@ -128,8 +148,9 @@ public class Batches extends Controller {
             jatosGuiExceptionThrower.throwAjax(e);
         }
 
-        Integer resultCount = studyResultDao.countByBatch(batch);
-        Integer groupCount = groupResultDao.countByBatch(batch);
+        BatchStats batchStats = batchStatsDao.findByBatch(batch);
+        Integer resultCount = batchStats != null ? batchStats.getStudyResultCount() : 0;
+        Integer groupCount = batchStats != null ? batchStats.getGroupResultCount() : 0;
         return ok(jsonUtils.getBatchByStudyForUI(batch, resultCount, groupCount));
     }
 
@@ -150,13 +171,37 @@ public class Batches extends Controller {
         }
 
         List<Batch> batchList = study.getBatchList();
+        Map<Long, BatchStats> batchStatsMap = batchStatsDao.findByBatches(batchList);
         List<Integer> resultCountList = new ArrayList<>();
-        batchList.forEach(batch -> resultCountList.add(studyResultDao.countByBatch(batch)));
         List<Integer> groupCountList = new ArrayList<>();
-        batchList.forEach(batch -> groupCountList.add(groupResultDao.countByBatch(batch)));
+        for (Batch batch : batchList) {
+            BatchStats batchStats = batchStatsMap.getOrDefault(batch.getId(), new BatchStats(batch.getId()));
+            resultCountList.add(batchStats.getStudyResultCount());
+            groupCountList.add(batchStats.getGroupResultCount());
+        }
         return ok(jsonUtils.allBatchesByStudyForUI(batchList, resultCountList, groupCountList));
     }
 
+    /**
+     * Ajax POST request: Recalculates the BatchStats (counts of StudyResults and GroupResults) of all batches of the
+     * given study from the database. Usually the BatchStats are kept up-to-date on their own - this is only necessary
+     * if they got out of sync, e.g. after the database was changed manually.
+     */
+    @Transactional
+    @Authenticated
+    public Result rebuildStats(Long studyId) throws JatosGuiException {
+        Study study = studyDao.findById(studyId);
+        User loggedInUser = authenticationService.getLoggedInUser();
+        try {
+            checker.checkStandardForStudy(study, studyId, loggedInUser);
+        } catch (ForbiddenException | BadRequestException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+
+        batchStatsDao.rebuild(study.getBatchList());
+        return ok(" "); // jQuery.ajax cannot handle empty responses
+    }
+
     /**
      * Ajax GET request: Returns a list of groups that belong to a batch as JSON
      */
@@ -208,7 +253,7 @@ public class Batches extends Controller {
      */
     @Transactional
     @Authenticated
-    public Result batchSessionData(Long studyId, Long batchId) throws JatosGuiException {
+    public CompletionStage<Result> batchSessionData(Long studyId, Long batchId) throws JatosGuiException {
         Study study = studyDao.findById(studyId);
         Batch batch = batchDao.findById(batchId);
         User loggedInUser = authenticationService.getLoggedInUser();
@@ -219,8 +264,8 @@ public class Batches extends Controller {
             jatosGuiExceptionThrower.throwAjax(e);
         }
 
-        BatchSession batchSession = batchService.bindToBatchSession(batch);
-        return ok(jsonUtils.asJsonNode(batchSession));
+        return batchService.bindToBatchSession(batch.getId())
+                .thenApply(batchSession -> ok(jsonUtils.asJsonNode(batchSession)));
     }
 
     /**
@@ -228,7 +273,7 @@ public class Batches extends Controller {
      */
     @Transactional
     @Authenticated
-    public Result groupSessionData(Long studyId, Long groupResultId) throws JatosGuiException {
+    public CompletionStage<Result> groupSessionData(Long studyId, Long groupResultId) throws JatosGuiException {
         Study study = studyDao.findById(studyId);
         GroupResult groupResult = groupResultDao.findById(groupResultId);
         User loggedInUser = authenticationService.getLoggedInUser();
@@ -239,8 +284,8 @@ public class Batches extends Controller {
             jatosGuiExceptionThrower.throwAjax(e);
         }
 
-        GroupSession groupSession = groupService.bindToGroupSession(groupResult);
-        return ok(jsonUtils.asJsonNode(groupSession));
+        return groupService.bindToGroupSession(groupResult.getId())
+                .thenApply(groupSession -> ok(jsonUtils.asJsonNode(groupSession)));
     }
 
     /**
@@ -248,7 +293,7 @@ public class Batches extends Controller {
      */
     @Transactional
     @Authenticated
-    public Result submitEditedBatchSessionData(Long studyId, Long batchId)
+    public CompletionStage<Result> submitEditedBatchSessionData(Long studyId, Long batchId)
             throws JatosGuiException {
         Study study = studyDao.findById(studyId);
         User loggedInUser = authenticationService.getLoggedInUser();
@@ -262,15 +307,16 @@ public class Batches extends Controller {
         }
 
         Form<BatchSession> form = formFactory.form(BatchSession.class).bindFromRequest();
-        if (form.hasErrors()) return badRequest(form.errorsAsJson());
+        if (form.hasErrors()) return CompletableFuture.completedFuture(badRequest(form.errorsAsJson()));
 
         BatchSession batchSession = form.get();
-        boolean success = batchService.updateBatchSession(batch.getId(), batchSession);
-        if (!success) {
-            return forbidden("The Batch Session has been updated since you " +
-                    "loaded this page. Reload before trying to save again.");
-        }
-        return ok(" "); // jQuery.ajax cannot handle empty responses
+        return batchService.updateBatchSession(batch.getId(), batchSession).thenApply(success -> {
+            if (!success) {
+                return forbidden("The Batch Session has been updated since you " +
+                        "loaded this page. Reload before trying to save again.");
+            }
+            return ok(" "); // jQuery.ajax cannot handle empty responses
+        });
     }
 
     /**
@@ -278,7 +324,7 @@ public class Batches extends Controller {
      */
     @Transactional
     @Authenticated
-    public Result submitEditedGroupSessionData(Long studyId, Long groupResultId)
+    public CompletionStage<Result> submitEditedGroupSessionData(Long studyId, Long groupResultId)
             throws JatosGuiException {
         Study study = studyDao.findById(studyId);
         User loggedInUser = authenticationService.getLoggedInUser();
@@ -292,15 +338,16 @@ public class Batches extends Controller {
         }
 
         Form<GroupSession> form = formFactory.form(GroupSession.class).bindFromRequest();
-        if (form.hasErrors()) return badRequest(form.errorsAsJson());
+        if (form.hasErrors()) return CompletableFuture.completedFuture(badRequest(form.errorsAsJson()));
 
         GroupSession groupSession = form.get();
-        boolean success = groupService.updateGroupSession(groupResult.getId(), groupSession);
-        if (!success) {
-            return forbidden("The Group Session has been updated since you " +
-                    "loaded this page. Reload before trying to save again.");
-        }
-        return ok(" "); // jQuery.ajax cannot handle empty responses
+        return groupService.updateGroupSession(groupResult.getId(), groupSession).thenApply(success -> {
+            if (!success) {
+                return forbidden("The Group Session has been updated since you " +
+                        "loaded this page. Reload before trying to save again.");
+            }
+            return ok(" "); // jQuery.ajax cannot handle empty responses
+        });
     }
 
     /**
@@ -396,6 +443,7 @@ public class Batches extends Controller {
         if (active != null) {
             batch.setActive(active);
             batchDao.update(batch);
+            studyAuthorisationCache.invalidateBatch(batch.getId());
         }
         return ok(jsonUtils.asJsonNode(batch.isActive()));
     }
@@ -425,6 +473,7 @@ public class Batches extends Controller {
                 batch.removeAllowedWorkerType(workerType);
             }
             batchDao.update(batch);
+            studyAuthorisationCache.invalidateBatch(batch.getId());
         } else {
             return badRequest();
         }
@@ -432,7 +481,7 @@ public class Batches extends Controller {
     }
 
     /**
-     * Ajax POST request to remove a Batch
+     * Ajax POST request to remove a Batch. The removal runs as a background job - the returned JSON is the job.
      */
     @Transactional
     @Authenticated
@@ -449,8 +498,9 @@ public class Batches extends Controller {
             jatosGuiExceptionThrower.throwAjax(e);
         }
 
-        batchService.remove(batch, loggedInUser);
-        return ok(RequestScopeMessaging.getAsJson());
+        Job job = jobService.submit(BatchRemovalJobHandler.TYPE, loggedInUser, "Remove batch " + batch.getTitle(),
+                BatchRemovalJobHandler.parameters(batch));
+        return ok(Json.toJson(job));
     }
 
     /**
@@ -530,8 +580,80 @@ public class Batches extends Controller {
 
         Map<String, Integer> studyResultCountsPerWorker =
                 workerService.retrieveStudyResultCountsPerWorker(batch);
-        JsonNode workerSetupData = jsonUtils.workerSetupData(batch, studyResultCountsPerWorker);
+        List<WorkerSummary> workerSummaries = workerService.retrieveWorkerSummaries(batch);
+        JsonNode workerSetupData = jsonUtils.workerSetupData(batch, workerSummaries, studyResultCountsPerWorker);
         return ok(workerSetupData);
     }
 
+    /**
+     * Ajax GET request: Returns one page of run links of the Personal Single or Personal Multiple workers (given by
+     * workerType) of the batch as JSON: each with the worker's ID, comment and run URL. It also returns the ID to ask
+     * for the next page ('next', it's null on the last page). To get the next page pass 'next' as 'afterId'.
+     */
+    @Transactional
+    @Authenticated
+    public Result personalRunLinks(Long studyId, Long batchId, String workerType, Option<Long> afterId,
+            Option<Long> toId, Option<Integer> limit) throws JatosGuiException {
+        Study study = studyDao.findById(studyId);
+        User loggedInUser = authenticationService.getLoggedInUser();
+        Batch batch = batchDao.findById(batchId);
+        try {
+            checker.checkStandardForStudy(study, studyId, loggedInUser);
+            checker.checkStandardForBatch(batch, study, batchId);
+        } catch (ForbiddenException | BadRequestException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+        checkPersonalWorkerType(workerType);
+
+        int pageSize = Math.max(1, Math.min(limit.isDefined() ? limit.get() : 100, 1000));
+        return ok(JsonUtils.asJson(workerService.retrievePersonalRunLinks(batch, workerType,
+                HttpUtils.getHostUrl().toString(), orNull(afterId), orNull(toId), pageSize)));
+    }
+
+    /**
+     * Ajax GET request with chunked streaming: Returns the run links of the Personal Single or Personal Multiple
+     * workers (given by workerType) of the batch as a CSV or TSV file (format 'csv' or 'tsv') with the columns worker
+     * ID, comment and run URL. Optionally only the workers with IDs within (afterId, toId] are exported, e.g. the ones
+     * that were just created.
+     */
+    @Transactional
+    @Authenticated
+    public Result exportPersonalRunLinks(Long studyId, Long batchId, String workerType, String format,
+            Option<Long> afterId, Option<Long> toId) throws JatosGuiException {
+        Study study = studyDao.findById(studyId);
+        User loggedInUser = authenticationService.getLoggedInUser();
+        Batch batch = batchDao.findById(batchId);
+        try {
+            checker.checkStandardForStudy(study, studyId, loggedInUser);
+            checker.checkStandardForBatch(batch, study, batchId);
+        } catch (ForbiddenException | BadRequestException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+        checkPersonalWorkerType(workerType);
+        if (!format.equals("csv") && !format.equals("tsv")) {
+            jatosGuiExceptionThrower.throwAjax("Unknown format " + format, Http.Status.BAD_REQUEST);
+        }
+
+        char separator = format.equals("csv") ? ',' : '\t';
+        Source<ByteString, NotUsed> source = workerService.streamPersonalRunLinks(batch, workerType,
+                HttpUtils.getHostUrl().toString(), separator, orNull(afterId), orNull(toId));
+        String filename = "runLinks_" + study.getId() + "_" + batch.getId() + "_" + workerType + "." + format;
+        String filenameInHeader = HttpHeaderParameterEncoding.encode("filename", filename);
+        return ok().chunked(source)
+                .as(format.equals("csv") ? "text/csv; charset=utf-8" : "text/tab-separated-values; charset=utf-8")
+                .withHeader(Http.HeaderNames.CONTENT_DISPOSITION, "attachment; " + filenameInHeader);
+    }
+
+    private void checkPersonalWorkerType(String workerType) throws JatosGuiException {
+        if (!PersonalSingleWorker.WORKER_TYPE.equals(workerType)
+                && !PersonalMultipleWorker.WORKER_TYPE.equals(workerType)) {
+            jatosGuiExceptionThrower.throwAjax("Run links are only available for Personal Single and "
+                    + "Personal Multiple workers", Http.Status.BAD_REQUEST);
+        }
+    }
+
+    private static <T> T orNull(Option<T> option) {
+        return option.isDefined() ? option.get() : null;
+    }
+
 }
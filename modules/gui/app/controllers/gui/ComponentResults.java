@@ -6,6 +6,7 @@ import akka.actor.Status;
 import akka.stream.OverflowStrategy;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
+import com.google.common.collect.ImmutableMap;
 import controllers.gui.actionannotations.AuthenticationAction.Authenticated;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
 import daos.common.ComponentDao;
@@ -15,7 +16,10 @@ import exceptions.gui.BadRequestException;
 import exceptions.gui.ForbiddenException;
 import exceptions.gui.JatosGuiException;
 import exceptions.gui.NotFoundException;
+import general.common.MessagesStrings;
+import general.common.StudyLogger;
 import models.common.Component;
+import models.common.ComponentResult;
 import models.common.Study;
 import models.common.User;
 import play.db.jpa.Transactional;
@@ -25,6 +29,7 @@ import scala.Option;
 import services.gui.*;
 import utils.common.HttpUtils;
 import utils.common.IOUtils;
+import utils.common.JsonUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -51,13 +56,15 @@ public class ComponentResults extends Controller {
     private final StudyDao studyDao;
     private final ComponentDao componentDao;
     private final ComponentResultDao componentResultDao;
+    private final StudyLogger studyLogger;
     private final IOUtils ioUtils;
 
     @Inject
     ComponentResults(JatosGuiExceptionThrower jatosGuiExceptionThrower, Checker checker,
             AuthenticationService authenticationService, BreadcrumbsService breadcrumbsService,
             ResultRemover resultRemover, ResultService resultService, StudyDao studyDao,
-            ComponentDao componentDao, ComponentResultDao componentResultDao, IOUtils ioUtils) {
+            ComponentDao componentDao, ComponentResultDao componentResultDao, StudyLogger studyLogger,
+            IOUtils ioUtils) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.checker = checker;
         this.authenticationService = authenticationService;
@@ -67,6 +74,7 @@ public class ComponentResults extends Controller {
         this.studyDao = studyDao;
         this.componentDao = componentDao;
         this.componentResultDao = componentResultDao;
+        this.studyLogger = studyLogger;
         this.ioUtils = ioUtils;
     }
 
@@ -112,6 +120,30 @@ public class ComponentResults extends Controller {
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
 
+    /**
+     * Ajax GET request
+     * <p>
+     * Verifies the result data of the given ComponentResult against the data hashes in the study log (works with
+     * the chained hashes of appended result data). Returns JSON with the field 'verified'.
+     */
+    @Transactional
+    @Authenticated
+    public Result verifyResultData(Long componentResultId) throws JatosGuiException {
+        User loggedInUser = authenticationService.getLoggedInUser();
+        ComponentResult componentResult = componentResultDao.findById(componentResultId);
+        boolean verified = false;
+        try {
+            if (componentResult == null) {
+                throw new NotFoundException(MessagesStrings.componentResultNotExist(componentResultId));
+            }
+            checker.checkComponentResult(componentResult, loggedInUser, false);
+            verified = studyLogger.verifyResultDataHash(componentResult);
+        } catch (ForbiddenException | BadRequestException | NotFoundException | IOException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+        return ok(JsonUtils.asJson(ImmutableMap.of("verified", verified)));
+    }
+
     /**
      * Ajax request with chunked streaming (reduces memory usage)
      *
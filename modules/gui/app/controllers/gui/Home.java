@@ -6,7 +6,10 @@ import daos.common.StudyDao;
 import daos.common.StudyResultDao;
 import daos.common.UserDao;
 import daos.common.worker.WorkerDao;
+import general.common.EntityCacheMetrics;
+import general.common.SessionMetrics;
 import general.common.JatosUpdater;
+import general.common.StudyLogger;
 import models.common.Study;
 import models.common.User;
 import models.common.User.Role;
@@ -52,12 +55,16 @@ public class Home extends Controller {
     private final WorkerDao workerDao;
     private final LogFileReader logFileReader;
     private final JatosUpdater jatosUpdater;
+    private final StudyLogger studyLogger;
+    private final EntityCacheMetrics entityCacheMetrics;
+    private final SessionMetrics sessionMetrics;
 
     @Inject
     Home(JsonUtils jsonUtils, AuthenticationService authenticationService,
             BreadcrumbsService breadcrumbsService, StudyDao studyDao, StudyResultDao studyResultDao, UserDao userDao,
             WorkerDao workerDao, LogFileReader logFileReader,
-            JatosUpdater jatosUpdater) {
+            JatosUpdater jatosUpdater, StudyLogger studyLogger, EntityCacheMetrics entityCacheMetrics,
+            SessionMetrics sessionMetrics) {
         this.jsonUtils = jsonUtils;
         this.authenticationService = authenticationService;
         this.breadcrumbsService = breadcrumbsService;
@@ -67,6 +74,9 @@ public class Home extends Controller {
         this.workerDao = workerDao;
         this.logFileReader = logFileReader;
         this.jatosUpdater = jatosUpdater;
+        this.studyLogger = studyLogger;
+        this.entityCacheMetrics = entityCacheMetrics;
+        this.sessionMetrics = sessionMetrics;
     }
 
     /**
@@ -192,6 +202,9 @@ public class Home extends Controller {
         map.put("workerCount", workerDao.count());
         map.put("userCount", userDao.count());
         map.put("serverTime", (new SimpleDateFormat("yyyy/MM/dd HH:mm:ss")).format(new Date()));
+        map.put("studyLogWriter", studyLogger.getWriterMetrics());
+        map.put("entityCache", entityCacheMetrics.getMetrics());
+        map.put("sessions", sessionMetrics.getMetrics());
         return ok(JsonUtils.asJson(map));
     }
 
@@ -1,10 +1,6 @@
 package controllers.gui;
 
-import akka.NotUsed;
-import akka.actor.ActorRef;
-import akka.actor.Status;
 import akka.stream.IOResult;
-import akka.stream.OverflowStrategy;
 import akka.stream.javadsl.FileIO;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
@@ -26,14 +22,17 @@ import play.Logger;
 import play.Logger.ALogger;
 import play.core.utils.HttpHeaderParameterEncoding;
 import play.db.jpa.Transactional;
+import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Http.MultipartFormData.FilePart;
 import play.mvc.Result;
 import services.gui.*;
+import services.gui.jobs.JobService;
+import services.gui.jobs.ResultFilesExportJobHandler;
+import services.gui.jobs.StudyImportJobHandler;
 import utils.common.IOUtils;
 import utils.common.JsonUtils;
-import utils.common.ZipUtil;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -45,7 +44,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -70,12 +68,13 @@ public class ImportExport extends Controller {
     private final ComponentDao componentDao;
     private final StudyResultDao studyResultDao;
     private final ComponentResultDao componentResultDao;
+    private final JobService jobService;
 
     @Inject
     ImportExport(JatosGuiExceptionThrower jatosGuiExceptionThrower, Checker checker, IOUtils ioUtils,
             JsonUtils jsonUtils, AuthenticationService authenticationService, ImportExportService importExportService,
             ResultDataExporter resultDataStringGenerator, StudyDao studyDao, ComponentDao componentDao,
-            StudyResultDao studyResultDao, ComponentResultDao componentResultDao) {
+            StudyResultDao studyResultDao, ComponentResultDao componentResultDao, JobService jobService) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.checker = checker;
         this.jsonUtils = jsonUtils;
@@ -87,6 +86,7 @@ public class ImportExport extends Controller {
         this.componentDao = componentDao;
         this.studyResultDao = studyResultDao;
         this.componentResultDao = componentResultDao;
+        this.jobService = jobService;
     }
 
     /**
@@ -125,7 +125,8 @@ public class ImportExport extends Controller {
     /**
      * Ajax request
      * <p>
-     * Actual import of study and its study assets directory. Always subsequent of an importStudy() call.
+     * Actual import of study and its study assets directory. Always subsequent of an importStudy() call. The import
+     * runs as a background job - the returned JSON is the job and its result will be the import's messages.
      */
     @Transactional
     @Authenticated
@@ -134,14 +135,11 @@ public class ImportExport extends Controller {
 
         // Get confirmation: overwrite study's properties and/or study assets
         JsonNode json = request.body().asJson();
-        try {
-            importExportService.importStudyConfirmed(loggedInUser, json);
-        } catch (Exception e) {
-            jatosGuiExceptionThrower.throwHome(e);
-        } finally {
-            importExportService.cleanupAfterStudyImport();
-        }
-        return ok(RequestScopeMessaging.getAsJson());
+        String unzippedStudyDirName = session(ImportExportService.SESSION_UNZIPPED_STUDY_DIR);
+        session().remove(ImportExportService.SESSION_UNZIPPED_STUDY_DIR);
+        Job job = jobService.submit(StudyImportJobHandler.TYPE, loggedInUser, "Import study",
+                StudyImportJobHandler.parameters(unzippedStudyDirName, json));
+        return ok(Json.toJson(job));
     }
 
     /**
@@ -269,15 +267,7 @@ public class ImportExport extends Controller {
         List<Long> studyResultIdList = new ArrayList<>();
         request.body().asJson().get("resultIds").forEach(node -> studyResultIdList.add(node.asLong()));
 
-        int bufferSize = studyResultIdList.size();
-        Source<ByteString, ?> source = Source.<ByteString>actorRef(bufferSize, OverflowStrategy.fail())
-                .mapMaterializedValue(sourceActor -> {
-                    CompletableFuture.runAsync(() -> {
-                        resultDataExporter.byStudyResultIds(sourceActor, studyResultIdList, loggedInUser);
-                        sourceActor.tell(new Status.Success(NotUsed.getInstance()), ActorRef.noSender());
-                    });
-                    return sourceActor;
-                });
+        Source<ByteString, ?> source = resultDataExporter.byStudyResultIds(studyResultIdList, loggedInUser);
         return ok().chunked(source).as("text/plain; charset=utf-8");
     }
 
@@ -294,18 +284,31 @@ public class ImportExport extends Controller {
         List<Long> componentResultIdList = new ArrayList<>();
         request.body().asJson().get("resultIds").forEach(node -> componentResultIdList.add(node.asLong()));
 
-        int bufferSize = componentResultIdList.size();
-        Source<ByteString, ?> source = Source.<ByteString>actorRef(bufferSize, OverflowStrategy.fail())
-                .mapMaterializedValue(sourceActor -> {
-                    CompletableFuture.runAsync(() -> {
-                        resultDataExporter.byComponentResultIds(sourceActor, componentResultIdList, loggedInUser);
-                        sourceActor.tell(new Status.Success(NotUsed.getInstance()), ActorRef.noSender());
-                    });
-                    return sourceActor;
-                });
+        Source<ByteString, ?> source = resultDataExporter.byComponentResultIds(componentResultIdList, loggedInUser);
         return ok().chunked(source).as("text/plain; charset=utf-8");
     }
 
+    /**
+     * Ajax request with chunked streaming
+     * <p>
+     * Returns a ZIP archive with the metadata, result data and uploaded result files of StudyResults. The StudyResults
+     * are specified by their IDs in the request's body. If the body's 'store' is true nothing is compressed (already
+     * compressed result files, like audio or video, are never compressed). The ZIP is written directly into the
+     * response.
+     */
+    @Transactional
+    @Authenticated
+    public Result exportResultsOfStudyResults(Http.Request request) {
+        User loggedInUser = authenticationService.getLoggedInUser();
+        JsonNode json = request.body().asJson();
+        List<Long> studyResultIdList = new ArrayList<>();
+        json.get("resultIds").forEach(node -> studyResultIdList.add(node.asLong()));
+        boolean store = json.has("store") && json.get("store").asBoolean();
+
+        Source<ByteString, ?> source = resultDataExporter.zipByStudyResultIds(studyResultIdList, loggedInUser, store);
+        return ok().chunked(source).as("application/zip");
+    }
+
     @Transactional
     @Authenticated
     public Result downloadSingleResultFile(Long studyId, Long studyResultId, Long componetResultId, String filename)
@@ -329,7 +332,7 @@ public class ImportExport extends Controller {
 
     @Transactional
     @Authenticated
-    public Result exportResultFilesOfStudyResults(Http.Request request) throws IOException, JatosGuiException {
+    public Result exportResultFilesOfStudyResults(Http.Request request) throws JatosGuiException {
         User loggedInUser = authenticationService.getLoggedInUser();
 
         List<Path> resultFileList = new ArrayList<>();
@@ -346,15 +349,12 @@ public class ImportExport extends Controller {
         }
         if (resultFileList.isEmpty()) return notFound("No result files found");
 
-        File zipFile = File.createTempFile("resultFiles", "." + IOUtils.ZIP_FILE_SUFFIX);
-        zipFile.deleteOnExit();
-        ZipUtil.zipFiles(resultFileList, zipFile);
-        return okFileStreamed(zipFile, zipFile::delete, "application/zip");
+        return submitResultFilesExport(resultFileList, loggedInUser);
     }
 
     @Transactional
     @Authenticated
-    public Result exportResultFilesOfComponentResults(Http.Request request) throws IOException, JatosGuiException {
+    public Result exportResultFilesOfComponentResults(Http.Request request) throws JatosGuiException {
         User loggedInUser = authenticationService.getLoggedInUser();
 
         List<Path> resultFileList = new ArrayList<>();
@@ -372,11 +372,18 @@ public class ImportExport extends Controller {
         }
         if (resultFileList.isEmpty()) return notFound("No result files found");
 
-        File zipFile = File.createTempFile("resultFiles", "." + IOUtils.ZIP_FILE_SUFFIX);
-        zipFile.deleteOnExit();
-        ZipUtil.zipFiles(resultFileList, zipFile);
+        return submitResultFilesExport(resultFileList, loggedInUser);
+    }
 
-        return okFileStreamed(zipFile, zipFile::delete, "application/zip");
+    /**
+     * Zipping the result files runs as a background job - the returned JSON is the job and the ZIP can be downloaded
+     * via Jobs.download when it's done.
+     */
+    private Result submitResultFilesExport(List<Path> resultFileList, User loggedInUser) {
+        Job job = jobService.submit(ResultFilesExportJobHandler.TYPE, loggedInUser,
+                "Export " + resultFileList.size() + " result file directories",
+                ResultFilesExportJobHandler.parameters(resultFileList));
+        return ok(Json.toJson(job));
     }
 
     /**
@@ -0,0 +1,106 @@
+package controllers.gui;
+
+import controllers.gui.actionannotations.AuthenticationAction.Authenticated;
+import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
+import exceptions.gui.ForbiddenException;
+import exceptions.gui.JatosGuiException;
+import exceptions.gui.NotFoundException;
+import models.common.Job;
+import models.common.Job.JobState;
+import models.common.User;
+import play.core.utils.HttpHeaderParameterEncoding;
+import play.db.jpa.Transactional;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Result;
+import services.gui.AuthenticationService;
+import services.gui.JatosGuiExceptionThrower;
+import services.gui.jobs.JobService;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+
+/**
+ * Controller for the background jobs of the JATOS GUI (e.g. study import, batch removal). The GUI polls a job's
+ * progress here after it submitted the job.
+ */
+@GuiAccessLogging
+@Singleton
+public class Jobs extends Controller {
+
+    private final JatosGuiExceptionThrower jatosGuiExceptionThrower;
+    private final AuthenticationService authenticationService;
+    private final JobService jobService;
+
+    @Inject
+    Jobs(JatosGuiExceptionThrower jatosGuiExceptionThrower, AuthenticationService authenticationService,
+            JobService jobService) {
+        this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
+        this.authenticationService = authenticationService;
+        this.jobService = jobService;
+    }
+
+    /**
+     * Ajax GET request
+     * <p>
+     * Returns the job (state, progress, result) as JSON
+     */
+    @Transactional
+    @Authenticated
+    public Result job(Long jobId) throws JatosGuiException {
+        User loggedInUser = authenticationService.getLoggedInUser();
+        Job job = null;
+        try {
+            job = jobService.get(jobId, loggedInUser);
+        } catch (NotFoundException | ForbiddenException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+        return ok(Json.toJson(job));
+    }
+
+    /**
+     * Ajax POST request
+     * <p>
+     * Cancels the job
+     */
+    @Transactional
+    @Authenticated
+    public Result cancel(Long jobId) throws JatosGuiException {
+        User loggedInUser = authenticationService.getLoggedInUser();
+        try {
+            jobService.cancel(jobId, loggedInUser);
+        } catch (NotFoundException | ForbiddenException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+        return ok(" "); // jQuery.ajax cannot handle empty responses
+    }
+
+    /**
+     * Ajax GET request
+     * <p>
+     * Downloads the file a job created (e.g. a ZIP with result files). The job has to be done.
+     */
+    @Transactional
+    @Authenticated
+    public Result download(Long jobId) throws JatosGuiException {
+        User loggedInUser = authenticationService.getLoggedInUser();
+        Job job = null;
+        try {
+            job = jobService.get(jobId, loggedInUser);
+        } catch (NotFoundException | ForbiddenException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+        File resultFile = jobService.getResultFile(jobId);
+        if (job.getState() != JobState.DONE || !resultFile.exists()) {
+            return notFound("Job " + jobId + " has no file to download");
+        }
+        String filename = "jatos_job_" + jobId + "." + IOUtils.ZIP_FILE_SUFFIX;
+        String filenameInHeader = HttpHeaderParameterEncoding.encode("filename", filename);
+        return ok(resultFile).as("application/zip")
+                .withHeader(Http.HeaderNames.CONTENT_DISPOSITION, "attachment; " + filenameInHeader);
+    }
+
+}
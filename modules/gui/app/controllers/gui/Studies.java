@@ -4,7 +4,6 @@ import akka.stream.javadsl.FileIO;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.collect.ImmutableMap;
 import controllers.gui.actionannotations.AuthenticationAction.Authenticated;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
 import daos.common.*;
@@ -13,11 +12,13 @@ import exceptions.gui.ForbiddenException;
 import exceptions.gui.JatosGuiException;
 import exceptions.gui.NotFoundException;
 import general.common.Common;
+import general.common.StudyAuthorisationCache;
 import general.common.StudyLogger;
 import models.common.Component;
+import models.common.Job;
 import models.common.Study;
 import models.common.User;
-import models.common.workers.Worker;
+import models.common.WorkerSummary;
 import models.gui.StudyProperties;
 import play.data.Form;
 import play.data.FormFactory;
@@ -28,7 +29,11 @@ import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.ResponseHeader;
 import play.mvc.Result;
+import scala.Option;
 import services.gui.*;
+import services.gui.jobs.JobService;
+import services.gui.jobs.StudyCloneJobHandler;
+import services.gui.jobs.StudyRemovalJobHandler;
 import utils.common.HttpUtils;
 import utils.common.IOUtils;
 import utils.common.JsonUtils;
@@ -66,13 +71,16 @@ public class Studies extends Controller {
     private final IOUtils ioUtils;
     private final FormFactory formFactory;
     private final StudyLogger studyLogger;
+    private final StudyAuthorisationCache studyAuthorisationCache;
+    private final JobService jobService;
 
     @Inject
     Studies(JatosGuiExceptionThrower jatosGuiExceptionThrower, Checker checker, StudyService studyService,
             UserService userService, AuthenticationService authenticationService, WorkerService workerService,
             BreadcrumbsService breadcrumbsService, StudyDao studyDao, ComponentDao componentDao,
             StudyResultDao studyResultDao, UserDao userDao, ComponentResultDao componentResultDao, JsonUtils jsonUtils,
-            IOUtils ioUtils, FormFactory formFactory, StudyLogger studyLogger) {
+            IOUtils ioUtils, FormFactory formFactory, StudyLogger studyLogger,
+            StudyAuthorisationCache studyAuthorisationCache, JobService jobService) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.checker = checker;
         this.studyService = studyService;
@@ -89,6 +97,8 @@ public class Studies extends Controller {
         this.ioUtils = ioUtils;
         this.formFactory = formFactory;
         this.studyLogger = studyLogger;
+        this.studyAuthorisationCache = studyAuthorisationCache;
+        this.jobService = jobService;
     }
 
     /**
@@ -193,6 +203,7 @@ public class Studies extends Controller {
 
         study.setLocked(!study.isLocked());
         studyDao.update(study);
+        studyAuthorisationCache.invalidateStudy(study.getId());
         if (study.isLocked()) {
             studyLogger.log(study, loggedInUser, "Locked study");
         } else {
@@ -204,7 +215,7 @@ public class Studies extends Controller {
     /**
      * Ajax DELETE request
      * <p>
-     * Remove a study
+     * Remove a study. The removal runs as a background job - the returned JSON is the job.
      */
     @Transactional
     @Authenticated
@@ -218,19 +229,16 @@ public class Studies extends Controller {
             jatosGuiExceptionThrower.throwAjax(e);
         }
 
-        try {
-            studyService.removeStudyInclAssets(study, loggedInUser);
-        } catch (IOException e) {
-            String errorMsg = e.getMessage();
-            return internalServerError(errorMsg);
-        }
-        return ok(" "); // jQuery.ajax cannot handle empty responses
+        Job job = jobService.submit(StudyRemovalJobHandler.TYPE, loggedInUser, "Remove study " + study.getTitle(),
+                StudyRemovalJobHandler.parameters(study));
+        return ok(Json.toJson(job));
     }
 
     /**
      * Ajax request
      * <p>
-     * Clones a study.
+     * Clones a study. The cloning runs as a background job - the returned JSON is the job and its result will be the
+     * clone's ID and title.
      */
     @Transactional
     @Authenticated
@@ -243,14 +251,9 @@ public class Studies extends Controller {
             jatosGuiExceptionThrower.throwAjax(e);
         }
 
-        Study clone = null;
-        try {
-            clone = studyService.clone(study);
-            studyService.createAndPersistStudy(loggedInUser, clone);
-        } catch (IOException e) {
-            jatosGuiExceptionThrower.throwAjax(e.getMessage(), Http.Status.INTERNAL_SERVER_ERROR);
-        }
-        return ok(Json.toJson(ImmutableMap.of("id", clone.getId(), "title", clone.getTitle())));
+        Job job = jobService.submit(StudyCloneJobHandler.TYPE, loggedInUser, "Clone study " + study.getTitle(),
+                StudyCloneJobHandler.parameters(study));
+        return ok(Json.toJson(job));
     }
 
     /**
@@ -402,6 +405,7 @@ public class Studies extends Controller {
         checkStandardForStudy(studyId, study, loggedInUser);
 
         if (download) {
+            studyLogger.flush();
             Path studyLogPath = Paths.get(studyLogger.getPath(study));
             if (Files.notExists(studyLogPath)) {
                 return notFound();
@@ -417,11 +421,12 @@ public class Studies extends Controller {
     /**
      * Ajax GET request
      * <p>
-     * Returns a list of all workers as JSON that belong to this study.
+     * Returns one page of all workers as JSON that belong to this study (sorted by ID in descending order) and the ID
+     * to ask for the next page ('next', it's null on the last page). To get the next page pass 'next' as 'afterId'.
      */
     @Transactional
     @Authenticated
-    public Result allWorkers(Long studyId) throws JatosGuiException {
+    public Result allWorkers(Long studyId, Option<Long> afterId, Option<Integer> limit) throws JatosGuiException {
         Study study = studyDao.findById(studyId);
         User loggedInUser = authenticationService.getLoggedInUser();
 
@@ -429,8 +434,10 @@ public class Studies extends Controller {
         try {
             checker.checkStandardForStudy(study, studyId, loggedInUser);
 
-            Set<Worker> workerSet = workerService.retrieveAllWorkers(study);
-            dataAsJson = jsonUtils.workersForTableData(workerSet, study);
+            int pageSize = Math.max(1, Math.min(limit.isDefined() ? limit.get() : 1000, 10000));
+            List<WorkerSummary> workerSummaries = workerService.retrieveWorkerSummaries(study,
+                    afterId.isDefined() ? afterId.get() : null, pageSize);
+            dataAsJson = jsonUtils.workersForTableData(workerSummaries, pageSize);
         } catch (ForbiddenException | BadRequestException e) {
             jatosGuiExceptionThrower.throwAjax(e);
         }
@@ -19,24 +19,30 @@ import exceptions.gui.JatosGuiException;
 import exceptions.gui.NotFoundException;
 import models.common.Batch;
 import models.common.GroupResult;
+import models.common.Job;
 import models.common.Study;
+import models.common.StudyResult.StudyState;
 import models.common.User;
 import models.common.workers.MTSandboxWorker;
 import models.common.workers.MTWorker;
 import models.common.workers.Worker;
 import play.db.jpa.Transactional;
+import play.libs.Json;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import scala.Option;
 import services.gui.*;
+import services.gui.jobs.JobService;
+import services.gui.jobs.StudyResultsRemovalJobHandler;
 import utils.common.HttpUtils;
 import utils.common.JsonUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -59,13 +65,15 @@ public class StudyResults extends Controller {
     private final GroupResultDao groupResultDao;
     private final WorkerDao workerDao;
     private final StudyResultDao studyResultDao;
+    private final JobService jobService;
 
     @Inject
     StudyResults(JatosGuiExceptionThrower jatosGuiExceptionThrower,
             Checker checker, AuthenticationService authenticationService,
             BreadcrumbsService breadcrumbsService, ResultRemover resultRemover,
             ResultService resultService, StudyDao studyDao, BatchDao batchDao,
-            GroupResultDao groupResultDao, WorkerDao workerDao, StudyResultDao studyResultDao) {
+            GroupResultDao groupResultDao, WorkerDao workerDao, StudyResultDao studyResultDao,
+            JobService jobService) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.checker = checker;
         this.authenticationService = authenticationService;
@@ -77,6 +85,7 @@ public class StudyResults extends Controller {
         this.groupResultDao = groupResultDao;
         this.workerDao = workerDao;
         this.studyResultDao = studyResultDao;
+        this.jobService = jobService;
     }
 
     /**
@@ -172,8 +181,9 @@ public class StudyResults extends Controller {
     /**
      * Ajax POST request
      * <p>
-     * Removes all StudyResults specified in the parameter. The parameter is a comma separated list of StudyResults
-     * IDs as a String. Removing a StudyResult always removes it's ComponentResults.
+     * Starts the removal of all StudyResults specified in the parameter. The parameter is a comma separated list of
+     * StudyResults IDs as a String. Removing a StudyResult always removes it's ComponentResults. The removal runs as
+     * a background job - the returned JSON is the job (its progress can be polled via Jobs.job).
      */
     @Transactional
     @Authenticated
@@ -181,12 +191,16 @@ public class StudyResults extends Controller {
         User loggedInUser = authenticationService.getLoggedInUser();
         List<Long> studyResultIdList = new ArrayList<>();
         request().body().asJson().get("resultIds").forEach(node -> studyResultIdList.add(node.asLong()));
+        Set<Study> studies = null;
         try {
-            resultRemover.removeStudyResults(studyResultIdList, loggedInUser);
-        } catch (ForbiddenException | BadRequestException | NotFoundException | IOException e) {
+            studies = resultRemover.checkStudyResults(studyResultIdList, loggedInUser);
+        } catch (ForbiddenException | BadRequestException | NotFoundException e) {
             jatosGuiExceptionThrower.throwAjax(e);
         }
-        return ok(" "); // jQuery.ajax cannot handle empty responses
+        Job job = jobService.submit(StudyResultsRemovalJobHandler.TYPE, loggedInUser,
+                "Remove " + studyResultIdList.size() + " results",
+                StudyResultsRemovalJobHandler.parameters(studyResultIdList, studies));
+        return ok(Json.toJson(job));
     }
 
     /**
@@ -344,6 +358,47 @@ public class StudyResults extends Controller {
         return ok().chunked(source).as("text/html; charset=utf-8");
     }
 
+    /**
+     * Ajax request
+     *
+     * Returns one page of the results of a study as JSON for the result tables: only the fields shown in the table
+     * (StudyResultSummary) and the ID to ask for the next page ('next', it's null on the last page). The results can
+     * be filtered by batch, group, worker, study state and worker type and sorted by one of
+     * StudyResultDao.SUMMARY_SORT_COLUMNS. To get the next page pass 'next' as 'afterId'.
+     */
+    @Transactional
+    @Authenticated
+    public Result tableDataPage(Long studyId, Option<Long> batchId, Option<Long> groupId, Option<Long> workerId,
+            Option<String> studyState, Option<String> workerType, Option<String> sortBy, Option<Boolean> desc,
+            Option<Long> afterId, Option<Integer> limit) throws JatosGuiException {
+        Study study = studyDao.findById(studyId);
+        User loggedInUser = authenticationService.getLoggedInUser();
+        try {
+            checker.checkStandardForStudy(study, studyId, loggedInUser);
+        } catch (ForbiddenException | BadRequestException e) {
+            jatosGuiExceptionThrower.throwAjax(e);
+        }
+
+        String sortColumn = sortBy.isDefined() ? sortBy.get() : "id";
+        if (!StudyResultDao.SUMMARY_SORT_COLUMNS.containsKey(sortColumn)) {
+            jatosGuiExceptionThrower.throwAjax("Unknown sort column " + sortColumn, Http.Status.BAD_REQUEST);
+        }
+        StudyState state = null;
+        if (studyState.isDefined()) {
+            try {
+                state = StudyState.valueOf(studyState.get());
+            } catch (IllegalArgumentException e) {
+                jatosGuiExceptionThrower.throwAjax("Unknown study state " + studyState.get(),
+                        Http.Status.BAD_REQUEST);
+            }
+        }
+        int pageSize = Math.max(1, Math.min(limit.isDefined() ? limit.get() : 100, 1000));
+
+        return ok(JsonUtils.asJson(resultService.getStudyResultSummaries(study, orNull(batchId), orNull(groupId),
+                orNull(workerId), state, orNull(workerType), sortColumn, desc.isDefined() && desc.get(),
+                orNull(afterId), pageSize)));
+    }
+
     /**
      * Ajax request
      *
@@ -355,6 +410,8 @@ public class StudyResults extends Controller {
         return ok(JsonUtils.asJson(resultService.getStudyResultStatus()));
     }
 
-
+    private static <T> T orNull(Option<T> option) {
+        return option.isDefined() ? option.get() : null;
+    }
 
 }
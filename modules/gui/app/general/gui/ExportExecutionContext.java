@@ -0,0 +1,25 @@
+package general.gui;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Execution context for the database reads of the GUI's streamed exports (e.g. result data, run links). It uses
+ * Akka's 'export.dispatcher' with jatos.export.poolSize threads. Exports can take long (they're only read as fast as
+ * the client downloads) - with their own small thread pool they never take the threads of the study runs
+ * (DatabaseExecutionContext) and at most jatos.export.poolSize of them query the database at the same time.
+ */
+@Singleton
+public class ExportExecutionContext extends CustomExecutionContext {
+
+    public static final String DISPATCHER = "export.dispatcher";
+
+    @Inject
+    public ExportExecutionContext(ActorSystem actorSystem) {
+        super(actorSystem, DISPATCHER);
+    }
+
+}
@@ -5,6 +5,9 @@ import daos.common.BatchDao;
 import daos.common.GroupResultDao;
 import daos.common.StudyDao;
 import daos.common.worker.WorkerDao;
+import general.common.BatchSessionAccess;
+import general.common.DatabaseExecutionContext;
+import general.common.StudyAuthorisationCache;
 import general.common.StudyLogger;
 import models.common.Batch;
 import models.common.Study;
@@ -15,11 +18,13 @@ import models.common.workers.PersonalSingleWorker;
 import models.common.workers.Worker;
 import models.gui.BatchProperties;
 import models.gui.BatchSession;
+import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.IOException;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Service class for JATOS Controllers (not Publix).
@@ -35,16 +40,26 @@ public class BatchService {
     private final WorkerDao workerDao;
     private final GroupResultDao groupResultDao;
     private final StudyLogger studyLogger;
+    private final BatchSessionAccess batchSessionAccess;
+    private final StudyAuthorisationCache studyAuthorisationCache;
+    private final JPAApi jpa;
+    private final DatabaseExecutionContext dbExecutionContext;
 
     @Inject
     BatchService(ResultRemover resultRemover, BatchDao batchDao, StudyDao studyDao,
-            WorkerDao workerDao, GroupResultDao groupResultDao, StudyLogger studyLogger) {
+            WorkerDao workerDao, GroupResultDao groupResultDao, StudyLogger studyLogger,
+            BatchSessionAccess batchSessionAccess, StudyAuthorisationCache studyAuthorisationCache,
+            JPAApi jpa, DatabaseExecutionContext dbExecutionContext) {
         this.resultRemover = resultRemover;
         this.batchDao = batchDao;
         this.studyDao = studyDao;
         this.workerDao = workerDao;
         this.groupResultDao = groupResultDao;
         this.studyLogger = studyLogger;
+        this.batchSessionAccess = batchSessionAccess;
+        this.studyAuthorisationCache = studyAuthorisationCache;
+        this.jpa = jpa;
+        this.dbExecutionContext = dbExecutionContext;
     }
 
     /**
@@ -133,6 +148,7 @@ public class BatchService {
         batch.setComments(updatedBatchProps.getComments());
         batch.setJsonData(updatedBatchProps.getJsonData());
         batchDao.update(batch);
+        studyAuthorisationCache.invalidateBatch(batch.getId());
     }
 
     public BatchProperties bindToProperties(Batch batch) {
@@ -177,14 +193,36 @@ public class BatchService {
         return batch;
     }
 
-    public BatchSession bindToBatchSession(Batch batch) {
-        BatchSession batchSession = new BatchSession();
-        batchSession.setVersion(batch.getBatchSessionVersion());
-        batchSession.setData(batch.getBatchSessionData());
-        return batchSession;
+    /**
+     * Returns the current batch session. If the batch session is held in memory
+     * (the batch has open batch channels) it's written into the database first.
+     * Nothing blocks the calling thread: the batch session is read in its own
+     * transaction in the DatabaseExecutionContext.
+     */
+    public CompletionStage<BatchSession> bindToBatchSession(long batchId) {
+        return batchSessionAccess.persist(batchId).thenApplyAsync(
+                persisted -> jpa.withTransaction(() -> {
+                    Batch batch = batchDao.findById(batchId);
+                    BatchSession batchSession = new BatchSession();
+                    batchSession.setVersion(batch.getBatchSessionVersion());
+                    batchSession.setData(batch.getBatchSessionData());
+                    return batchSession;
+                }), dbExecutionContext.current());
+    }
+
+    /**
+     * Changes the batch session data, but only if the version is the current
+     * one. If the batch session is held in memory (the batch has open batch
+     * channels) it's changed there - otherwise in the database in its own
+     * transaction in the DatabaseExecutionContext.
+     */
+    public CompletionStage<Boolean> updateBatchSession(long batchId, BatchSession batchSession) {
+        return batchSessionAccess.replace(batchId, batchSession.getVersion(), batchSession.getData())
+                .thenApplyAsync(replaced -> replaced.orElseGet(() -> jpa.withTransaction(
+                        () -> updateBatchSessionInDb(batchId, batchSession))), dbExecutionContext.current());
     }
 
-    public boolean updateBatchSession(long batchId, BatchSession batchSession) {
+    private boolean updateBatchSessionInDb(long batchId, BatchSession batchSession) {
         Batch currentBatch = batchDao.findById(batchId);
         if (currentBatch == null ||
                 !batchSession.getVersion().equals(currentBatch.getBatchSessionVersion())) {
@@ -226,6 +264,7 @@ public class BatchService {
         }
 
         batchDao.remove(batch);
+        studyAuthorisationCache.invalidateBatch(batch.getId());
         studyLogger.log(study, loggedinUser, "Removed batch", batch);
     }
 
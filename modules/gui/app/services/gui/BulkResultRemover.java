@@ -0,0 +1,179 @@
+package services.gui;
+
+import com.google.common.collect.Lists;
+import daos.common.BatchStatsDao;
+import daos.common.ComponentResultDao;
+import daos.common.GroupResultDao;
+import daos.common.StudyResultDao;
+import daos.common.worker.WorkerDao;
+import general.common.StudyAuthorisationCache;
+import org.hibernate.Session;
+import play.Logger;
+import play.Logger.ALogger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+/**
+ * Removes many StudyResults at once, e.g. all results of a batch. Instead of loading each StudyResult together with
+ * its ComponentResults, worker and GroupResults it uses set-based bulk statements, chunk by chunk: first the
+ * ComponentResults (and their data chunks) of the chunk's StudyResults, then the StudyResults and at last the
+ * GroupResults that are left without members. When all chunks are done the gaps in the workers' study result lists
+ * are closed and the batches' BatchStats are rebuilt. The result upload directories are removed asynchronously
+ * after the removal is committed.
+ * <p>
+ * The removal either runs within the caller's transaction (remove) or with one transaction per chunk
+ * (removeInTransactions) - the latter is meant for background jobs (see StudyResultsRemovalJobHandler).
+ */
+@Singleton
+public class BulkResultRemover {
+
+    private static final ALogger LOGGER = Logger.of(BulkResultRemover.class);
+
+    /**
+     * Max number of StudyResults that are removed together (in one transaction with removeInTransactions)
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    private final JPAApi jpa;
+    private final ComponentResultDao componentResultDao;
+    private final StudyResultDao studyResultDao;
+    private final GroupResultDao groupResultDao;
+    private final WorkerDao workerDao;
+    private final BatchStatsDao batchStatsDao;
+    private final IOUtils ioUtils;
+    private final StudyAuthorisationCache studyAuthorisationCache;
+
+    private final ExecutorService uploadsExecutor = Executors.newSingleThreadExecutor();
+
+    @Inject
+    BulkResultRemover(JPAApi jpa, ComponentResultDao componentResultDao, StudyResultDao studyResultDao,
+            GroupResultDao groupResultDao, WorkerDao workerDao, BatchStatsDao batchStatsDao, IOUtils ioUtils,
+            StudyAuthorisationCache studyAuthorisationCache, ApplicationLifecycle applicationLifecycle) {
+        this.jpa = jpa;
+        this.componentResultDao = componentResultDao;
+        this.studyResultDao = studyResultDao;
+        this.groupResultDao = groupResultDao;
+        this.workerDao = workerDao;
+        this.batchStatsDao = batchStatsDao;
+        this.ioUtils = ioUtils;
+        this.studyAuthorisationCache = studyAuthorisationCache;
+        applicationLifecycle.addStopHook(() -> {
+            uploadsExecutor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Removes the StudyResults with the given IDs within the current transaction. The entities in the persistence
+     * context are not updated by this. The result upload directories are removed asynchronously after the transaction
+     * is committed - if it's rolled back they are kept.
+     */
+    public void remove(List<Long> studyResultIdList) {
+        // Pending changes have to be written before the bulk statements bypass the persistence context
+        jpa.em().flush();
+        Set<Long> batchIds = new HashSet<>();
+        Set<Long> workerIds = new HashSet<>();
+        for (List<Long> chunk : partition(studyResultIdList)) {
+            removeChunk(chunk, batchIds, workerIds);
+        }
+        cleanUp(batchIds, workerIds);
+        removeUploadsDirsAfterCommit(studyResultIdList);
+    }
+
+    /**
+     * Removes the StudyResults with the given IDs - each chunk in its own transaction. Must not be called within a
+     * transaction. After each chunk the number of StudyResults removed so far is passed to afterChunk - it can stop
+     * the removal by throwing an exception (e.g. if the user cancelled it). The chunks that were removed until then
+     * stay removed and are cleaned up.
+     */
+    public void removeInTransactions(List<Long> studyResultIdList, IntConsumer afterChunk) {
+        Set<Long> batchIds = new HashSet<>();
+        Set<Long> workerIds = new HashSet<>();
+        List<Long> removedIdList = new ArrayList<>();
+        try {
+            for (List<Long> chunk : partition(studyResultIdList)) {
+                jpa.withTransaction(() -> removeChunk(chunk, batchIds, workerIds));
+                removedIdList.addAll(chunk);
+                afterChunk.accept(removedIdList.size());
+            }
+        } finally {
+            // Clean up even if the removal stopped - the chunks that were removed are committed already
+            jpa.withTransaction(() -> cleanUp(batchIds, workerIds));
+            removeUploadsDirsAsync(removedIdList);
+        }
+    }
+
+    /**
+     * Removes the StudyResults of one chunk together with their ComponentResults and collects the IDs of their batches
+     * and workers
+     */
+    private void removeChunk(List<Long> chunk, Set<Long> batchIds, Set<Long> workerIds) {
+        batchIds.addAll(studyResultDao.findDistinctReferencedIds(chunk, "batch_id"));
+        workerIds.addAll(studyResultDao.findDistinctReferencedIds(chunk, "worker_id"));
+        Set<Long> groupResultIds = studyResultDao.findDistinctReferencedIds(chunk, "activeGroupMember_id");
+        groupResultIds.addAll(studyResultDao.findDistinctReferencedIds(chunk, "historyGroupMember_id"));
+
+        componentResultDao.removeAllByStudyResultIds(chunk);
+        studyResultDao.removeAllByIds(chunk);
+        groupResultDao.updateMemberCountsAndRemoveEmpty(groupResultIds);
+        chunk.forEach(studyAuthorisationCache::invalidateStudyResult);
+    }
+
+    private void cleanUp(Set<Long> batchIds, Set<Long> workerIds) {
+        workerDao.renumberStudyResultLists(workerIds);
+        batchStatsDao.rebuildByIds(batchIds);
+    }
+
+    /**
+     * Removes the result upload directories (see removeUploadsDirsAsync) after the current transaction is committed
+     */
+    private void removeUploadsDirsAfterCommit(List<Long> studyResultIdList) {
+        List<Long> ids = new ArrayList<>(studyResultIdList);
+        jpa.em().unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) removeUploadsDirsAsync(ids);
+            }
+        });
+    }
+
+    private void removeUploadsDirsAsync(List<Long> studyResultIdList) {
+        if (studyResultIdList.isEmpty()) return;
+        List<Long> ids = new ArrayList<>(studyResultIdList);
+        uploadsExecutor.execute(() -> {
+            for (Long studyResultId : ids) {
+                try {
+                    ioUtils.removeResultUploadsDir(studyResultId);
+                } catch (IOException e) {
+                    LOGGER.warn(".removeUploadsDirsAsync: couldn't remove upload directory of study result "
+                            + studyResultId + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Sorts the IDs (StudyResults that were created together end up in the same chunk) and splits them into chunks
+     */
+    private static List<List<Long>> partition(List<Long> studyResultIdList) {
+        List<Long> sorted = new ArrayList<>(new TreeSet<>(studyResultIdList));
+        return Lists.partition(sorted, CHUNK_SIZE);
+    }
+
+}
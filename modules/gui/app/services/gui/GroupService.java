@@ -2,12 +2,16 @@ package services.gui;
 
 import com.google.common.base.Strings;
 import daos.common.GroupResultDao;
+import general.common.DatabaseExecutionContext;
+import general.common.GroupSessionAccess;
 import models.common.GroupResult;
 import models.common.GroupResult.GroupState;
 import models.gui.GroupSession;
+import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Service class for JATOS Controllers (not Publix).
@@ -18,34 +22,48 @@ import javax.inject.Singleton;
 public class GroupService {
 
     private final GroupResultDao groupResultDao;
+    private final GroupSessionAccess groupSessionAccess;
+    private final JPAApi jpa;
+    private final DatabaseExecutionContext dbExecutionContext;
 
     @Inject
-    GroupService(GroupResultDao groupResultDao) {
+    GroupService(GroupResultDao groupResultDao, GroupSessionAccess groupSessionAccess, JPAApi jpa,
+            DatabaseExecutionContext dbExecutionContext) {
         this.groupResultDao = groupResultDao;
+        this.groupSessionAccess = groupSessionAccess;
+        this.jpa = jpa;
+        this.dbExecutionContext = dbExecutionContext;
     }
 
-    public GroupSession bindToGroupSession(GroupResult groupResult) {
-        GroupSession groupSession = new GroupSession();
-        groupSession.setVersion(groupResult.getGroupSessionVersion());
-        groupSession.setData(groupResult.getGroupSessionData());
-        return groupSession;
+    /**
+     * Returns the current group session. If the group session is held in memory (the group has open group channels)
+     * it's written into the database first. Nothing blocks the calling thread: the group session is read in its own
+     * transaction in the DatabaseExecutionContext.
+     */
+    public CompletionStage<GroupSession> bindToGroupSession(long groupResultId) {
+        return groupSessionAccess.persist(groupResultId).thenApplyAsync(
+                persisted -> jpa.withTransaction(() -> {
+                    GroupResult groupResult = groupResultDao.findById(groupResultId);
+                    GroupSession groupSession = new GroupSession();
+                    groupSession.setVersion(groupResult.getGroupSessionVersion());
+                    groupSession.setData(groupResult.getGroupSessionData());
+                    return groupSession;
+                }), dbExecutionContext.current());
     }
 
-    public boolean updateGroupSession(long groupResultId, GroupSession groupSession) {
-        GroupResult currentGroupResult = groupResultDao.findById(groupResultId);
-        if (currentGroupResult == null ||
-                !groupSession.getVersion().equals(currentGroupResult.getGroupSessionVersion())) {
-            return false;
-        }
-
-        currentGroupResult.setGroupSessionVersion(currentGroupResult.getGroupSessionVersion() + 1);
-        if (Strings.isNullOrEmpty(groupSession.getData())) {
-            currentGroupResult.setGroupSessionData("{}");
-        } else {
-            currentGroupResult.setGroupSessionData(groupSession.getData());
-        }
-        groupResultDao.update(currentGroupResult);
-        return true;
+    /**
+     * Changes the group session data, but only if the version is the current one. If the group session is held in
+     * memory (the group has open group channels) it's changed there - otherwise in the database in its own transaction
+     * in the DatabaseExecutionContext.
+     */
+    public CompletionStage<Boolean> updateGroupSession(long groupResultId, GroupSession groupSession) {
+        return groupSessionAccess.replace(groupResultId, groupSession.getVersion(), groupSession.getData())
+                .thenApplyAsync(replaced -> replaced.orElseGet(() -> {
+                    String data = Strings.isNullOrEmpty(groupSession.getData()) ? "{}" : groupSession.getData();
+                    long version = groupSession.getVersion();
+                    return jpa.withTransaction(
+                            () -> groupResultDao.updateGroupSession(groupResultId, data, version + 1, version));
+                }), dbExecutionContext.current());
     }
 
     public GroupState toggleGroupFixed(GroupResult groupResult, boolean fixed) {
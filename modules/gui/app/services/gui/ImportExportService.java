@@ -186,6 +186,15 @@ public class ImportExportService {
 
     public void importStudyConfirmed(User loggedInUser, JsonNode json)
             throws IOException, ForbiddenException, BadRequestException {
+        importStudyConfirmed(loggedInUser, json, getUnzippedStudyDir());
+    }
+
+    /**
+     * Like importStudyConfirmed(User, JsonNode) but the unzipped study directory is passed as a parameter instead of
+     * taken from the session, e.g. in a background job (see StudyImportJobHandler)
+     */
+    public void importStudyConfirmed(User loggedInUser, JsonNode json, File tempUnzippedStudyDir)
+            throws IOException, ForbiddenException, BadRequestException {
         if (json == null || json.findPath("overwriteStudysProperties") == null ||
                 json.findPath("overwriteStudysDir") == null) {
             LOGGER.error(".importStudyConfirmed: " + "JSON is malformed");
@@ -196,7 +205,6 @@ public class ImportExportService {
         boolean keepCurrentDirName = json.findPath("keepCurrentDirName").booleanValue();
         boolean renameDir = json.findPath("renameDir").booleanValue();
 
-        File tempUnzippedStudyDir = getUnzippedStudyDir();
         if (tempUnzippedStudyDir == null) {
             LOGGER.error(".importStudyConfirmed: "
                     + "missing unzipped study directory in temp directory");
@@ -230,11 +238,14 @@ public class ImportExportService {
     }
 
     public void cleanupAfterStudyImport() {
-        File tempUnzippedStudyDir = getUnzippedStudyDir();
+        cleanupAfterStudyImport(getUnzippedStudyDir());
+        Controller.session().remove(ImportExportService.SESSION_UNZIPPED_STUDY_DIR);
+    }
+
+    public void cleanupAfterStudyImport(File tempUnzippedStudyDir) {
         if (tempUnzippedStudyDir != null) {
             tempUnzippedStudyDir.delete();
         }
-        Controller.session().remove(ImportExportService.SESSION_UNZIPPED_STUDY_DIR);
     }
 
     private void overwriteExistingStudy(User loggedInUser,
@@ -0,0 +1,201 @@
+package services.gui;
+
+import akka.util.ByteString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads the result data of a list of ComponentResults directly via JDBC piece by piece - it's the resource of the
+ * Source in ResultDataExporter. Each call of next() returns the next piece of at most CHUNK_SIZE characters. The
+ * data are read with Clob character streams (ResultSet.getCharacterStream) so a result data is never held as a whole
+ * in memory. After the submitted data and all appended data chunks of a ComponentResult follows a line separator (if
+ * the ComponentResult has data at all).
+ *
+ * Not thread-safe - but the Source calls it only from one thread at a time.
+ */
+class ResultDataCursor implements AutoCloseable {
+
+    /**
+     * Max number of characters that are read at once
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final ByteString LINE_SEPARATOR = ByteString.fromString(System.lineSeparator());
+
+    private enum Phase {SUBMITTED_DATA, DATA_CHUNKS}
+
+    private final Connection connection;
+    private final List<Long> componentResultIds;
+    private final PreparedStatement submittedDataStatement;
+    private final PreparedStatement dataChunksStatement;
+    private final char[] buffer = new char[CHUNK_SIZE];
+
+    private int index = -1;
+    private Phase phase;
+    private ResultSet resultSet;
+    private Reader reader;
+
+    /**
+     * Whether the current ComponentResult had any data so far
+     */
+    private boolean hasData;
+
+    /**
+     * Whether buffer[0] holds a high surrogate that was held back from the last piece (a surrogate pair must not be
+     * split between two pieces - otherwise its UTF-8 encoding breaks)
+     */
+    private boolean pendingHighSurrogate;
+
+    /**
+     * @param connection         JDBC connection - it's closed together with this cursor
+     * @param componentResultIds IDs of the ComponentResults in the order their data should be read
+     * @param fetchSize          JDBC fetch size for the data chunks
+     */
+    ResultDataCursor(Connection connection, List<Long> componentResultIds, int fetchSize) throws SQLException {
+        this.connection = connection;
+        this.componentResultIds = componentResultIds;
+        try {
+            this.submittedDataStatement = connection.prepareStatement(
+                    "SELECT data FROM ComponentResult WHERE id = ?");
+            this.dataChunksStatement = connection.prepareStatement(
+                    "SELECT data FROM ComponentResultChunk WHERE componentResult_id = ? ORDER BY chunkNumber");
+            this.dataChunksStatement.setFetchSize(fetchSize);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the next piece of result data or an empty Optional if there is no more data
+     */
+    Optional<ByteString> next() throws SQLException, IOException {
+        while (true) {
+            if (reader != null) {
+                ByteString piece = readPiece();
+                if (piece != null) return Optional.of(piece);
+                reader.close();
+                reader = null;
+            }
+            if (resultSet != null && resultSet.next()) {
+                // Is null if the column is NULL
+                reader = resultSet.getCharacterStream(1);
+                continue;
+            }
+            closeResultSet();
+
+            if (phase == Phase.SUBMITTED_DATA) {
+                phase = Phase.DATA_CHUNKS;
+                dataChunksStatement.setLong(1, componentResultIds.get(index));
+                resultSet = dataChunksStatement.executeQuery();
+                continue;
+            }
+            if (phase == Phase.DATA_CHUNKS) {
+                phase = null;
+                if (hasData) {
+                    hasData = false;
+                    return Optional.of(LINE_SEPARATOR);
+                }
+            }
+
+            index++;
+            if (index >= componentResultIds.size()) return Optional.empty();
+            phase = Phase.SUBMITTED_DATA;
+            submittedDataStatement.setLong(1, componentResultIds.get(index));
+            resultSet = submittedDataStatement.executeQuery();
+        }
+    }
+
+    /**
+     * Returns this cursor as an InputStream (UTF-8). Closing the InputStream closes this cursor.
+     */
+    InputStream asInputStream() {
+        return new InputStream() {
+
+            private ByteString piece = ByteString.empty();
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) return 0;
+                try {
+                    while (piece.isEmpty()) {
+                        Optional<ByteString> next = next();
+                        if (!next.isPresent()) return -1;
+                        piece = next.get();
+                    }
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                }
+                int count = Math.min(length, piece.size());
+                piece.iterator().getBytes(bytes, offset, count);
+                piece = piece.drop(count);
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    ResultDataCursor.this.close();
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the next piece from the current reader. Returns null if the reader is exhausted.
+     */
+    private ByteString readPiece() throws IOException {
+        while (true) {
+            int start = pendingHighSurrogate ? 1 : 0;
+            int read = reader.read(buffer, start, buffer.length - start);
+            if (read == -1) {
+                if (!pendingHighSurrogate) return null;
+                pendingHighSurrogate = false;
+                return ByteString.fromString(String.valueOf(buffer[0]));
+            }
+
+            int end = start + read;
+            hasData = true;
+            pendingHighSurrogate = Character.isHighSurrogate(buffer[end - 1]);
+            int pieceEnd = pendingHighSurrogate ? end - 1 : end;
+            if (pieceEnd == 0) continue;
+            ByteString piece = ByteString.fromString(new String(buffer, 0, pieceEnd));
+            if (pendingHighSurrogate) buffer[0] = buffer[end - 1];
+            return piece;
+        }
+    }
+
+    private void closeResultSet() throws SQLException {
+        if (resultSet != null) {
+            resultSet.close();
+            resultSet = null;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException, IOException {
+        try {
+            if (reader != null) reader.close();
+            closeResultSet();
+        } finally {
+            connection.close();
+        }
+    }
+
+}
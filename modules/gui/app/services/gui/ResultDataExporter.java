@@ -1,25 +1,49 @@
 package services.gui;
 
-import akka.actor.ActorRef;
+import akka.NotUsed;
+import akka.stream.ActorAttributes;
+import akka.stream.javadsl.Source;
 import akka.util.ByteString;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
+import exceptions.gui.BadRequestException;
+import exceptions.gui.ForbiddenException;
+import general.common.Common;
 import general.common.StudyLogger;
+import general.gui.ExportExecutionContext;
+import models.common.Component;
 import models.common.ComponentResult;
 import models.common.Study;
 import models.common.StudyResult;
 import models.common.User;
 import play.Logger;
+import play.db.Database;
 import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.common.IOUtils;
+import utils.common.JsonUtils;
+import utils.common.ZipStreamer;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * Service class that streams result data to Actor sources.
+ * Service class that streams result data. The result data are read directly via JDBC (ResultDataCursor) as
+ * back-pressured Akka Streams Sources: the next piece is only read from the database when the client is ready to
+ * receive it. Result data, metadata and uploaded result files can be exported together as a ZIP archive
+ * (ZipStreamer).
  *
  * @author Kristian Lange
  */
@@ -28,27 +52,57 @@ public class ResultDataExporter {
 
     private static final Logger.ALogger LOGGER = Logger.of(ResultDataExporter.class);
 
+    /**
+     * Max number of ZIP entries that are prepared (read and compressed) at the same time. Each might hold a database
+     * connection, so it's kept well below the connection pool's size.
+     */
+    private static final int ZIP_PARALLELISM = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+    /**
+     * File extensions of uploaded result files that are already compressed and therefore stored in the ZIP without
+     * compression
+     */
+    private static final Set<String> COMPRESSED_FILE_SUFFIXES = new HashSet<>(Arrays.asList("zip", "jzip", "gz",
+            "tgz", "bz2", "xz", "7z", "rar", "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "m4a", "aac", "ogg",
+            "oga", "opus", "flac", "mp4", "m4v", "mov", "webm", "mkv", "avi", "ogv"));
+
     private final Checker checker;
     private final ComponentResultDao componentResultDao;
     private final StudyResultDao studyResultDao;
     private final StudyLogger studyLogger;
     private final JPAApi jpaApi;
+    private final Database database;
+    private final ExportExecutionContext exportExecutionContext;
+
+    /**
+     * Prepares the entries of ZIP exports
+     */
+    private final ForkJoinPool zipPool = new ForkJoinPool(ZIP_PARALLELISM);
 
     @Inject
     ResultDataExporter(Checker checker, ComponentResultDao componentResultDao, StudyResultDao studyResultDao,
-            StudyLogger studyLogger, JPAApi jpaApi) {
+            StudyLogger studyLogger, JPAApi jpaApi, Database database, ExportExecutionContext exportExecutionContext,
+            ApplicationLifecycle applicationLifecycle) {
         this.checker = checker;
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
         this.studyLogger = studyLogger;
         this.jpaApi = jpaApi;
+        this.database = database;
+        this.exportExecutionContext = exportExecutionContext;
+        applicationLifecycle.addStopHook(() -> {
+            zipPool.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
     }
 
     /**
-     * Retrieves the StudyResults that correspond to the IDs, checks them and returns all their result data.
+     * Retrieves the StudyResults that correspond to the IDs, checks them and returns a Source with all their result
+     * data.
      */
-    public void byStudyResultIds(ActorRef sourceActor, List<Long> studyResultIdList, User user) {
-        jpaApi.withTransaction(entityManager -> {
+    public Source<ByteString, NotUsed> byStudyResultIds(List<Long> studyResultIdList, User user) {
+        List<Long> componentResultIdList = jpaApi.withTransaction(entityManager -> {
+            List<Long> componentResultIds = new ArrayList<>();
             Set<Study> studies = new HashSet<>();
             for (Long studyResultId : studyResultIdList) {
                 try {
@@ -59,44 +113,193 @@ public class ResultDataExporter {
                     }
                     checker.checkStudyResult(studyResult, user, false);
                     studies.add(studyResult.getStudy());
-                    studyResult.getComponentResultList().forEach(cr -> tellResultData(sourceActor, cr));
+                    componentResultIds.addAll(componentResultDao.findIdsByStudyResult(studyResult));
                 } catch (Exception e) {
                     LOGGER.warn("Couldn't get result data", e);
                 }
             }
             studies.forEach(study -> studyLogger.log(study, user, "Exported result data to file"));
+            return componentResultIds;
         });
+        return streamResultData(componentResultIdList);
     }
 
     /**
-     * Retrieves the ComponentResults that correspond to the IDs, checks them and returns all their result data.
+     * Retrieves the ComponentResults that correspond to the IDs, checks them and returns a Source with all their
+     * result data.
      */
-    public void byComponentResultIds(ActorRef sourceActor, List<Long> componentResultIdList, User user) {
-        jpaApi.withTransaction(entityManager -> {
+    public Source<ByteString, NotUsed> byComponentResultIds(List<Long> componentResultIdList, User user) {
+        List<Long> checkedComponentResultIdList = jpaApi.withTransaction(entityManager -> {
+            List<Long> componentResultIds = new ArrayList<>();
             Set<Study> studies = new HashSet<>();
             for (Long componentResultId : componentResultIdList) {
-                ComponentResult componentResult = componentResultDao.findById(componentResultId);
-                if (componentResult == null) {
+                Component component = componentResultDao.findComponentByComponentResultId(componentResultId);
+                if (component == null) {
                     LOGGER.warn("A component result with ID " + componentResultId + " doesn't exist.");
                     continue;
                 }
                 try {
-                    checker.checkComponentResult(componentResult, user, false);
-                    studies.add(componentResult.getStudyResult().getStudy());
-                    tellResultData(sourceActor, componentResult);
+                    checkComponent(component, user);
+                    studies.add(component.getStudy());
+                    componentResultIds.add(componentResultId);
                 } catch (Exception e) {
                     LOGGER.warn("Couldn't get result data", e);
                 }
             }
             studies.forEach(study -> studyLogger.log(study, user, "Exported result data to file"));
+            return componentResultIds;
+        });
+        return streamResultData(checkedComponentResultIdList);
+    }
+
+    /**
+     * Retrieves the StudyResults that correspond to the IDs, checks them and returns a Source with a ZIP archive of
+     * them. For each StudyResult the ZIP has a directory 'study_result_[ID]' with its metadata in 'metadata.json' and
+     * for each of its ComponentResults a directory 'comp_result_[ID]' with the result data in 'data.txt' and the
+     * uploaded result files in 'files'. The entries are prepared in parallel on a bounded pool. Already compressed
+     * result files (e.g. audio or video) are stored without compression - with store=true all entries are.
+     */
+    public Source<ByteString, NotUsed> zipByStudyResultIds(List<Long> studyResultIdList, User user, boolean store) {
+        List<Long> checkedStudyResultIdList = jpaApi.withTransaction(entityManager -> {
+            List<Long> studyResultIds = new ArrayList<>();
+            Set<Study> studies = new HashSet<>();
+            for (Long studyResultId : studyResultIdList) {
+                try {
+                    StudyResult studyResult = studyResultDao.findById(studyResultId);
+                    if (studyResult == null) {
+                        LOGGER.warn("A study result with ID " + studyResultId + " doesn't exist.");
+                        continue;
+                    }
+                    checker.checkStudyResult(studyResult, user, false);
+                    studies.add(studyResult.getStudy());
+                    studyResultIds.add(studyResultId);
+                } catch (Exception e) {
+                    LOGGER.warn("Couldn't get results", e);
+                }
+            }
+            studies.forEach(study -> studyLogger.log(study, user, "Exported results to ZIP file"));
+            return studyResultIds;
+        });
+
+        Source<ZipStreamer.Entry, NotUsed> entries = Source.from(checkedStudyResultIdList)
+                .mapAsync(1, studyResultId -> CompletableFuture.supplyAsync(
+                        () -> getZipEntries(studyResultId, store), exportExecutionContext))
+                .mapConcat(entryList -> entryList);
+        return ZipStreamer.zip(entries, zipPool, ZIP_PARALLELISM);
+    }
+
+    /**
+     * Returns the ZIP entries of the given StudyResult. Their content is only read when the entries are prepared. Runs
+     * in the ExportExecutionContext - the zipPool is kept free for preparing the entries.
+     */
+    private List<ZipStreamer.Entry> getZipEntries(Long studyResultId, boolean store) {
+        String studyResultDir = "study_result_" + studyResultId + "/";
+        List<ZipStreamer.Entry> entries = new ArrayList<>();
+        entries.add(new ZipStreamer.Entry(studyResultDir + "metadata.json",
+                () -> new ByteArrayInputStream(getMetadata(studyResultId)), store));
+
+        List<Long> componentResultIds = jpaApi.withTransaction(entityManager -> {
+            StudyResult studyResult = studyResultDao.findById(studyResultId);
+            return studyResult != null ? componentResultDao.findIdsByStudyResult(studyResult) : new ArrayList<>();
+        });
+        for (Long componentResultId : componentResultIds) {
+            String componentResultDir = studyResultDir + "comp_result_" + componentResultId + "/";
+            entries.add(new ZipStreamer.Entry(componentResultDir + "data.txt",
+                    () -> openResultData(componentResultId), store));
+            for (Path file : listResultFiles(studyResultId, componentResultId)) {
+                String filename = file.getFileName().toString();
+                entries.add(new ZipStreamer.Entry(componentResultDir + "files/" + filename,
+                        () -> Files.newInputStream(file), store || isCompressedFile(filename)));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the metadata of the StudyResult as JSON: the StudyResult with its worker and its ComponentResults - all
+     * without result data
+     */
+    private byte[] getMetadata(Long studyResultId) throws IOException {
+        ObjectNode metadata = jpaApi.withTransaction(entityManager -> {
+            StudyResult studyResult = studyResultDao.findById(studyResultId);
+            if (studyResult == null) return Json.newObject();
+            ObjectNode studyResultNode = Json.mapper().valueToTree(studyResult);
+            studyResultNode.set("worker",
+                    Json.mapper().valueToTree(JsonUtils.initializeAndUnproxy(studyResult.getWorker())));
+            studyResultNode.put("studyId", studyResult.getStudy().getId());
+            studyResultNode.put("batchId", studyResult.getBatch().getId());
+            ArrayNode componentResultsNode = studyResultNode.putArray("componentResults");
+            for (ComponentResult componentResult : studyResult.getComponentResultList()) {
+                ObjectNode componentResultNode = Json.mapper().valueToTree(componentResult);
+                componentResultNode.put("componentId", componentResult.getComponent().getId());
+                componentResultsNode.add(componentResultNode);
+            }
+            return studyResultNode;
         });
+        return Json.mapper().writerWithDefaultPrettyPrinter().writeValueAsBytes(metadata);
+    }
+
+    /**
+     * Opens the result data of one ComponentResult as InputStream. The database connection is held until the stream
+     * is closed.
+     */
+    private InputStream openResultData(Long componentResultId) throws IOException {
+        try {
+            return new ResultDataCursor(database.getConnection(), Collections.singletonList(componentResultId),
+                    getFetchSize()).asInputStream();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
     }
 
-    private void tellResultData(ActorRef sourceActor, ComponentResult componentResult) {
-        String resultDataStr = componentResult.getData();
-        if (resultDataStr == null) return;
-        ByteString lineToSend = ByteString.fromString(resultDataStr + System.lineSeparator());
-        sourceActor.tell(lineToSend, null);
+    private static List<Path> listResultFiles(Long studyResultId, Long componentResultId) {
+        try {
+            return IOUtils.listResultUploadFiles(studyResultId, componentResultId);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't list result files of component result " + componentResultId, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Whether the file is already compressed (judged by its suffix) and therefore should be stored without
+     * compression
+     */
+    private static boolean isCompressedFile(String filename) {
+        int index = filename.lastIndexOf('.');
+        return index != -1
+                && COMPRESSED_FILE_SUFFIXES.contains(filename.substring(index + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Same checks as Checker.checkComponentResult but without the need to load the ComponentResult
+     */
+    private void checkComponent(Component component, User user) throws ForbiddenException, BadRequestException {
+        Study study = component.getStudy();
+        checker.checkStandardForStudy(study, study.getId(), user);
+        checker.checkStandardForComponents(study.getId(), component.getId(), component);
+    }
+
+    /**
+     * Returns a Source that reads the result data of the given ComponentResults piece by piece only when there is
+     * demand. Each ComponentResult's data is one line. The database connection is held until the Source completes or
+     * is cancelled. The cursor is read on the export.dispatcher (ExportExecutionContext) and not on Akka Stream's
+     * blocking IO dispatcher - this way exports don't compete with the study runs for threads.
+     */
+    private Source<ByteString, NotUsed> streamResultData(List<Long> componentResultIdList) {
+        return Source.unfoldResource(
+                () -> new ResultDataCursor(database.getConnection(), componentResultIdList, getFetchSize()),
+                ResultDataCursor::next,
+                ResultDataCursor::close)
+                .withAttributes(ActorAttributes.dispatcher(ExportExecutionContext.DISPATCHER));
+    }
+
+    /**
+     * JDBC fetch size for the data chunks. MySQL's Connector/J only streams a result set row by row if the fetch size
+     * is Integer.MIN_VALUE - otherwise it loads all rows into memory.
+     */
+    private static int getFetchSize() {
+        return Common.getDbDefaultDriver().contains("mysql") ? Integer.MIN_VALUE : 16;
     }
 
 }
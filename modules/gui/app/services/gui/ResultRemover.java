@@ -1,15 +1,15 @@
 package services.gui;
 
+import com.google.common.collect.Lists;
 import daos.common.ComponentResultDao;
-import daos.common.GroupResultDao;
+import daos.common.StudyDao;
 import daos.common.StudyResultDao;
-import daos.common.worker.WorkerDao;
 import exceptions.gui.BadRequestException;
 import exceptions.gui.ForbiddenException;
 import exceptions.gui.NotFoundException;
+import general.common.MessagesStrings;
 import general.common.StudyLogger;
 import models.common.*;
-import models.common.workers.Worker;
 import play.Logger;
 import play.Logger.ALogger;
 import utils.common.IOUtils;
@@ -17,9 +17,7 @@ import utils.common.IOUtils;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Service class that removes ComponentResults or StudyResults. It's used by
@@ -36,24 +34,25 @@ public class ResultRemover {
     private final ResultService resultService;
     private final ComponentResultDao componentResultDao;
     private final StudyResultDao studyResultDao;
-    private final GroupResultDao groupResultDao;
-    private final WorkerDao workerDao;
+    private final StudyDao studyDao;
     private final StudyLogger studyLogger;
     private final IOUtils ioUtils;
+    private final BulkResultRemover bulkResultRemover;
 
     @Inject
     ResultRemover(Checker checker, ResultService resultService,
             ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, GroupResultDao groupResultDao,
-            WorkerDao workerDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, StudyDao studyDao,
+            StudyLogger studyLogger, IOUtils ioUtils,
+            BulkResultRemover bulkResultRemover) {
         this.checker = checker;
         this.resultService = resultService;
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
-        this.groupResultDao = groupResultDao;
-        this.workerDao = workerDao;
+        this.studyDao = studyDao;
         this.studyLogger = studyLogger;
         this.ioUtils = ioUtils;
+        this.bulkResultRemover = bulkResultRemover;
     }
 
     /**
@@ -79,24 +78,45 @@ public class ResultRemover {
     }
 
     /**
-     * Retrieves all StudyResults that correspond to the IDs in the given
-     * String, checks if the given user is allowed to remove them and if yes,
-     * removes them. Removes result upload files.
+     * Checks if the given user is allowed to remove the StudyResults that correspond to the given IDs and if yes,
+     * removes them (in bulk, see BulkResultRemover). Removes result upload files.
      *
      * @param studyResultIdList List of IDs of StudyResults.
      * @param user           For each StudyResult it will be checked that the given user is
      *                       a user of the study that the StudyResult belongs too.
      */
     public void removeStudyResults(List<Long> studyResultIdList, User user)
-            throws BadRequestException, NotFoundException, ForbiddenException, IOException {
-        List<StudyResult> studyResultList = resultService.getStudyResults(studyResultIdList);
+            throws BadRequestException, NotFoundException, ForbiddenException {
+        Set<Study> studies = checkStudyResults(studyResultIdList, user);
+        bulkResultRemover.remove(studyResultIdList);
+        studies.forEach(study -> studyLogger.log(study, user, "Removed result data and files"));
+    }
+
+    /**
+     * Checks that all StudyResults with the given IDs exist, that the given user is a user of their studies and that
+     * those studies are not locked. The StudyResults themselves are not loaded - only their study IDs. Returns the
+     * studies of the StudyResults. It's used before the StudyResults are removed in a background job (see
+     * StudyResultsRemovalJobHandler).
+     */
+    public Set<Study> checkStudyResults(List<Long> studyResultIdList, User user)
+            throws BadRequestException, NotFoundException, ForbiddenException {
+        Map<Long, Long> studyIds = new HashMap<>();
+        for (List<Long> chunk : Lists.partition(studyResultIdList, BulkResultRemover.CHUNK_SIZE)) {
+            studyIds.putAll(studyResultDao.findStudyIds(chunk));
+        }
+        for (Long studyResultId : studyResultIdList) {
+            if (!studyIds.containsKey(studyResultId)) {
+                throw new NotFoundException(MessagesStrings.studyResultNotExist(studyResultId));
+            }
+        }
         Set<Study> studies = new HashSet<>();
-        checker.checkStudyResults(studyResultList, user, true);
-        for (StudyResult studyResult : studyResultList) {
-            removeStudyResult(studyResult);
+        for (Long studyId : new HashSet<>(studyIds.values())) {
+            Study study = studyDao.findById(studyId);
+            checker.checkStandardForStudy(study, studyId, user);
+            checker.checkStudyLocked(study);
+            studies.add(study);
         }
-        studyResultList.forEach(sr -> studies.add(sr.getStudy()));
-        studies.forEach(study -> studyLogger.log(study, user, "Removed result data and files"));
+        return studies;
     }
 
     /**
@@ -125,13 +145,11 @@ public class ResultRemover {
     }
 
     /**
-     * Removes all StudyResults that belong to the given batch. Removes result upload files.
+     * Removes all StudyResults that belong to the given batch (in bulk, see BulkResultRemover). Removes result upload
+     * files.
      */
-    void removeAllStudyResults(Batch batch, User user) throws IOException {
-        List<StudyResult> studyResultList = studyResultDao.findAllByBatch(batch);
-        for (StudyResult studyResult : studyResultList) {
-            removeStudyResult(studyResult);
-        }
+    void removeAllStudyResults(Batch batch, User user) {
+        bulkResultRemover.remove(studyResultDao.findIdsByBatch(batch));
         studyLogger.log(batch.getStudy(), user, "Removed result data and files");
     }
 
@@ -146,7 +164,9 @@ public class ResultRemover {
             studyResultDao.update(studyResult);
 
             // Remove componentResult's upload dir
+            long uploadsSize = ioUtils.getResultUploadDirSize(studyResult.getId(), componentResult.getId());
             ioUtils.removeResultUploadsDir(studyResult.getId(), componentResult.getId());
+            studyResultDao.addToUploadsSize(studyResult.getId(), -uploadsSize);
         } else {
             LOGGER.error(".removeComponentResult: StudyResult is null - "
                     + "but a ComponentResult always belongs to a StudyResult "
@@ -155,49 +175,4 @@ public class ResultRemover {
         componentResultDao.remove(componentResult);
     }
 
-    /**
-     * Removes all ComponentResults of the given StudyResult, removes this
-     * StudyResult from the given worker, removes this StudyResult from the
-     * GroupResult and then remove StudyResult itself. Removes result upload files.
-     */
-    private void removeStudyResult(StudyResult studyResult) throws IOException {
-        // Remove all component results of this study result
-        studyResult.getComponentResultList().forEach(componentResultDao::remove);
-
-        // Remove study result from worker
-        Worker worker = studyResult.getWorker();
-        worker.removeStudyResult(studyResult);
-        workerDao.update(worker);
-
-        // Remove studyResult as member from group result
-        GroupResult activeGroupResult = studyResult.getActiveGroupResult();
-        if (activeGroupResult != null) {
-            activeGroupResult.removeActiveMember(studyResult);
-            updateOrRemoveGroupResult(activeGroupResult);
-        }
-        GroupResult historyGroupResult = studyResult.getHistoryGroupResult();
-        if (historyGroupResult != null) {
-            historyGroupResult.removeHistoryMember(studyResult);
-            updateOrRemoveGroupResult(historyGroupResult);
-        }
-
-        // Remove studyResult
-        studyResultDao.remove(studyResult);
-
-        // Remove studyResult's upload dir
-        ioUtils.removeResultUploadsDir(studyResult.getId());
-    }
-
-    /**
-     * If the group has no more members remove it.
-     */
-    private void updateOrRemoveGroupResult(GroupResult groupResult) {
-        if (groupResult.getGroupState() == GroupResult.GroupState.FINISHED &&
-                groupResult.getActiveMemberCount() == 0 && groupResult.getHistoryMemberCount() == 0) {
-            groupResultDao.remove(groupResult);
-        } else {
-            groupResultDao.update(groupResult);
-        }
-    }
-
 }
@@ -4,12 +4,17 @@ import akka.actor.ActorRef;
 import akka.util.ByteString;
 import com.fasterxml.jackson.databind.JsonNode;
 import daos.common.ComponentResultDao;
+import daos.common.StudyDao;
 import daos.common.StudyResultDao;
 import exceptions.gui.NotFoundException;
+import general.common.HeartbeatBuffer;
 import general.common.MessagesStrings;
 import models.common.ComponentResult;
+import models.common.Study;
 import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
 import models.common.StudyResultStatus;
+import models.common.StudyResultSummary;
 import models.common.User;
 import models.common.workers.Worker;
 import org.hibernate.ScrollableResults;
@@ -20,10 +25,7 @@ import utils.common.JsonUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -39,18 +41,22 @@ public class ResultService {
 
     private final ComponentResultDao componentResultDao;
     private final StudyResultDao studyResultDao;
+    private final StudyDao studyDao;
     private final Checker checker;
     private final JsonUtils jsonUtils;
     private final JPAApi jpaApi;
+    private final HeartbeatBuffer heartbeatBuffer;
 
     @Inject
-    ResultService(ComponentResultDao componentResultDao, StudyResultDao studyResultDao, Checker checker,
-            JsonUtils jsonUtils, JPAApi jpaApi) {
+    ResultService(ComponentResultDao componentResultDao, StudyResultDao studyResultDao, StudyDao studyDao,
+            Checker checker, JsonUtils jsonUtils, JPAApi jpaApi, HeartbeatBuffer heartbeatBuffer) {
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
+        this.studyDao = studyDao;
         this.checker = checker;
         this.jsonUtils = jsonUtils;
         this.jpaApi = jpaApi;
+        this.heartbeatBuffer = heartbeatBuffer;
     }
 
     /**
@@ -159,21 +165,43 @@ public class ResultService {
 
         List<StudyResultStatus> lastUnfinishedStudyResults = studyResultDao.findLastUnfinished(5);
         fillUsers(lastUnfinishedStudyResults);
+        lastUnfinishedStudyResults.forEach(heartbeatBuffer::merge);
         studyResultStatus.put("lastUnfinishedStudyResults", lastUnfinishedStudyResults);
 
         List<StudyResultStatus> lastFinishedStudyResults = studyResultDao.findLastFinished(5);
         fillUsers(lastFinishedStudyResults);
+        lastFinishedStudyResults.forEach(heartbeatBuffer::merge);
         studyResultStatus.put("lastFinishedStudyResults", lastFinishedStudyResults);
 
         return studyResultStatus;
     }
 
     /**
-     * Adds the user's name and username to the given list of StudyResultStatus
+     * Returns one page of StudyResultSummaries of the given study together with the ID to ask for the next page
+     * ('next' - it's null if there are no more pages). See StudyResultDao.findSummaries for the parameters.
      */
-    private void fillUsers(List<StudyResultStatus> lastUnfinishedStudyResults) {
-        for (StudyResultStatus srs : lastUnfinishedStudyResults) {
-            for (User user : srs.getStudy().getUserList()) {
+    public Map<String, Object> getStudyResultSummaries(Study study, Long batchId, Long groupResultId, Long workerId,
+            StudyState studyState, String workerType, String sortBy, boolean descending, Long afterId, int limit) {
+        List<StudyResultSummary> summaries = studyResultDao.findSummaries(study, batchId, groupResultId, workerId,
+                studyState, workerType, sortBy, descending, afterId, limit);
+        summaries.forEach(heartbeatBuffer::merge);
+
+        Map<String, Object> page = new HashMap<>();
+        page.put("data", summaries);
+        page.put("next", summaries.size() == limit ? summaries.get(summaries.size() - 1).getId() : null);
+        return page;
+    }
+
+    /**
+     * Adds the user's name and username to the given list of StudyResultStatus. The users of all studies are loaded
+     * with one query.
+     */
+    private void fillUsers(List<StudyResultStatus> studyResultStatusList) {
+        Set<Long> studyIds = studyResultStatusList.stream().map(StudyResultStatus::getStudyId)
+                .collect(Collectors.toSet());
+        Map<Long, List<User>> usersByStudyId = studyDao.findUsersByStudyIds(studyIds);
+        for (StudyResultStatus srs : studyResultStatusList) {
+            for (User user : usersByStudyId.getOrDefault(srs.getStudyId(), Collections.emptyList())) {
                 srs.addUser(user.getName() + " (" + user.getUsername() + ")");
             }
         }
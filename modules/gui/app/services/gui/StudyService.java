@@ -10,6 +10,7 @@ import daos.common.worker.WorkerDao;
 import exceptions.gui.BadRequestException;
 import exceptions.gui.ForbiddenException;
 import general.common.MessagesStrings;
+import general.common.StudyAuthorisationCache;
 import general.common.StudyLogger;
 import models.common.Batch;
 import models.common.Component;
@@ -53,11 +54,13 @@ public class StudyService {
     private final IOUtils ioUtils;
     private final StudyLogger studyLogger;
     private final AuthenticationService authenticationService;
+    private final StudyAuthorisationCache studyAuthorisationCache;
 
     @Inject
     StudyService(BatchService batchService, ComponentService componentService, StudyDao studyDao,
             ComponentDao componentDao, BatchDao batchDao, UserDao userDao, WorkerDao workerDao, IOUtils ioUtils,
-            StudyLogger studyLogger, AuthenticationService authenticationService) {
+            StudyLogger studyLogger, AuthenticationService authenticationService,
+            StudyAuthorisationCache studyAuthorisationCache) {
         this.batchService = batchService;
         this.componentService = componentService;
         this.studyDao = studyDao;
@@ -68,6 +71,7 @@ public class StudyService {
         this.ioUtils = ioUtils;
         this.studyLogger = studyLogger;
         this.authenticationService = authenticationService;
+        this.studyAuthorisationCache = studyAuthorisationCache;
     }
 
     /**
@@ -75,12 +79,21 @@ public class StudyService {
      * corresponding study assets. Does NOT persist the clone.
      */
     public Study clone(Study study) throws IOException {
+        String destDirName = ioUtils.cloneStudyAssetsDirectory(study.getDirName());
+        return clone(study, destDirName);
+    }
+
+    /**
+     * Like clone(Study) but the study assets were copied already (e.g. outside of a transaction) into the directory
+     * with the given name. Does NOT persist the clone.
+     */
+    public Study clone(Study study, String clonedDirName) {
         Study clone = new Study();
         // Generate new UUID for clone
         clone.setUuid(UUID.randomUUID().toString());
         clone.setTitle(cloneTitle(study.getTitle()));
         clone.setDescription(study.getDescription());
-        clone.setDirName(study.getDirName());
+        clone.setDirName(clonedDirName);
         clone.setComments(study.getComments());
         clone.setEndRedirectUrl(study.getEndRedirectUrl());
         clone.setJsonData(study.getJsonData());
@@ -95,10 +108,6 @@ public class StudyService {
             clone.addComponent(componentClone);
         }
 
-        // Clone assets directory
-        String destDirName = ioUtils.cloneStudyAssetsDirectory(study.getDirName());
-        clone.setDirName(destDirName);
-
         return clone;
     }
 
@@ -139,6 +148,7 @@ public class StudyService {
         }
         studyDao.update(study);
         userDao.update(userToChange);
+        studyAuthorisationCache.invalidateStudy(study.getId());
     }
 
     /**
@@ -152,6 +162,7 @@ public class StudyService {
 
         studyDao.update(study);
         userList.forEach(userDao::update);
+        studyAuthorisationCache.invalidateStudy(study.getId());
     }
 
     /**
@@ -166,6 +177,7 @@ public class StudyService {
         study.getUserList().removeAll(userList);
         studyDao.update(study);
         userList.forEach(userDao::update);
+        studyAuthorisationCache.invalidateStudy(study.getId());
     }
 
     /**
@@ -383,6 +395,7 @@ public class StudyService {
         }
 
         studyDao.remove(study);
+        studyAuthorisationCache.invalidateStudy(study.getId());
 
         ioUtils.removeStudyAssetsDir(study.getDirName());
         studyLogger.log(study, loggedInUser, "Removed study");
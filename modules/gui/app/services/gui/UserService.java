@@ -7,6 +7,7 @@ import daos.common.worker.WorkerDao;
 import exceptions.gui.ForbiddenException;
 import exceptions.gui.NotFoundException;
 import general.common.MessagesStrings;
+import general.common.StudyAuthorisationCache;
 import models.common.Study;
 import models.common.User;
 import models.common.User.AuthMethod;
@@ -54,16 +55,18 @@ public class UserService {
     private final StudyDao studyDao;
     private final WorkerDao workerDao;
     private final JPAApi jpa;
+    private final StudyAuthorisationCache studyAuthorisationCache;
 
     @Inject
     UserService(StudyService studyService, AuthenticationService authenticationService, UserDao userDao,
-            StudyDao studyDao, WorkerDao workerDao, JPAApi jpa) {
+            StudyDao studyDao, WorkerDao workerDao, JPAApi jpa, StudyAuthorisationCache studyAuthorisationCache) {
         this.studyService = studyService;
         this.authenticationService = authenticationService;
         this.userDao = userDao;
         this.studyDao = studyDao;
         this.workerDao = workerDao;
         this.jpa = jpa;
+        this.studyAuthorisationCache = studyAuthorisationCache;
     }
 
     /**
@@ -205,6 +208,7 @@ public class UserService {
             } else {
                 study.removeUser(user);
                 studyDao.update(study);
+                studyAuthorisationCache.invalidateStudy(study.getId());
             }
         }
         // Don't necessary to remove the user's JatosWorker: he is removed
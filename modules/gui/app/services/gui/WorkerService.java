@@ -1,20 +1,29 @@
 package services.gui;
 
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import daos.common.BatchDao;
-import daos.common.StudyResultDao;
+import daos.common.BatchStatsDao;
 import daos.common.worker.WorkerDao;
 import exceptions.gui.BadRequestException;
+import general.common.Common;
+import general.gui.ExportExecutionContext;
 import models.common.Batch;
+import models.common.BatchStats;
 import models.common.Study;
+import models.common.WorkerSummary;
 import models.common.workers.*;
 import play.data.validation.ValidationError;
+import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * Service class for JATOS Controllers (not Publix).
@@ -24,26 +33,41 @@ import java.util.stream.Collectors;
 @Singleton
 public class WorkerService {
 
-    private final StudyResultDao studyResultDao;
+    /**
+     * Number of run links that are read from the database at once during an export
+     */
+    private static final int RUN_LINKS_EXPORT_PAGE_SIZE = 1000;
+
+    private final BatchStatsDao batchStatsDao;
     private final WorkerDao workerDao;
     private final BatchDao batchDao;
+    private final JPAApi jpa;
+    private final ExportExecutionContext exportExecutionContext;
 
     @Inject
-    WorkerService(StudyResultDao studyResultDao, WorkerDao workerDao,
-            BatchDao batchDao) {
-        this.studyResultDao = studyResultDao;
+    WorkerService(BatchStatsDao batchStatsDao, WorkerDao workerDao,
+            BatchDao batchDao, JPAApi jpa, ExportExecutionContext exportExecutionContext) {
+        this.batchStatsDao = batchStatsDao;
         this.workerDao = workerDao;
         this.batchDao = batchDao;
+        this.jpa = jpa;
+        this.exportExecutionContext = exportExecutionContext;
     }
 
     /**
-     * Retrieve all workers that belong to the study including the ones that were not started yet
+     * Retrieves one page of all workers that belong to the study including the ones that were not started yet. The
+     * page starts after the worker with the ID afterId (workers are sorted by ID in descending order). Their last study
+     * state is taken from all their StudyResults.
      */
-    public Set<Worker> retrieveAllWorkers(Study study) {
-        return study.getBatchList().stream()
-                .map(Batch::getWorkerList)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
+    public List<WorkerSummary> retrieveWorkerSummaries(Study study, Long afterId, int limit) {
+        return workerDao.findSummaries(study.getBatchList(), false, true, afterId, limit);
+    }
+
+    /**
+     * Retrieves all workers of the batch. Their last study state is taken only from StudyResults within this batch.
+     */
+    public List<WorkerSummary> retrieveWorkerSummaries(Batch batch) {
+        return workerDao.findSummaries(Collections.singletonList(batch), true, false, null, Integer.MAX_VALUE);
     }
 
     /**
@@ -77,6 +101,8 @@ public class WorkerService {
     /**
      * The actual creation of PersonalSingleWorker(s) and PersonalMultipleWorker(s) is
      * the same - they just need a different constructor which is passed via workerConstructor.
+     * All workers are inserted in JDBC batches and added to the batch without loading the
+     * batch's workerList (see WorkerDao.createAll and BatchDao.addWorkers).
      */
     private <T extends Worker> List<T> createAndPersistWorker(String comment, int amount,
             Batch batch, Function<String, T> workerConstructor) throws BadRequestException {
@@ -85,12 +111,11 @@ public class WorkerService {
         while (amount > 0) {
             T worker = workerConstructor.apply(comment);
             validateWorker(worker);
-            batch.addWorker(worker);
-            workerDao.create(worker);
-            batchDao.update(batch);
             workerList.add(worker);
             amount--;
         }
+        workerDao.createAll(workerList);
+        batchDao.addWorkers(batch, workerList);
         return workerList;
     }
 
@@ -102,22 +127,109 @@ public class WorkerService {
         }
     }
 
+    /**
+     * Retrieves one page of the run links of the Personal Single or Personal Multiple workers (given by workerType) of
+     * the batch: each with the worker's ID, comment and the URL that starts the run. The page starts after the worker
+     * with the ID afterId and ends with the worker with the ID toId (workers are sorted by ID). To get the next page
+     * pass 'next' as 'afterId' ('next' is null on the last page).
+     *
+     * @param jatosUrl URL of this JATOS (e.g. from HttpUtils.getHostUrl) that is used in the run links
+     */
+    public Map<String, Object> retrievePersonalRunLinks(Batch batch, String workerType, String jatosUrl,
+            Long afterId, Long toId, int limit) {
+        Map<Long, String> idsAndComments = workerDao.findIdsAndComments(batch, workerType, afterId, toId, limit);
+        String runUrlPrefix = getRunUrlPrefix(batch, workerType, jatosUrl);
+        List<Map<String, Object>> runLinks = new ArrayList<>();
+        Long lastId = null;
+        for (Map.Entry<Long, String> idAndComment : idsAndComments.entrySet()) {
+            Map<String, Object> runLink = new LinkedHashMap<>();
+            runLink.put("id", idAndComment.getKey());
+            runLink.put("comment", idAndComment.getValue());
+            runLink.put("url", runUrlPrefix + idAndComment.getKey());
+            runLinks.add(runLink);
+            lastId = idAndComment.getKey();
+        }
+
+        Map<String, Object> page = new HashMap<>();
+        page.put("data", runLinks);
+        page.put("next", runLinks.size() == limit ? lastId : null);
+        return page;
+    }
+
+    /**
+     * Streams the run links of the Personal Single or Personal Multiple workers (given by workerType) of the batch as
+     * CSV or TSV (separator ',' or '\t'): a header line and one line with worker ID, comment and run URL per worker.
+     * The workers are read page by page (keyset pagination over the worker IDs) in the ExportExecutionContext and
+     * only when the client is ready to receive them - this way the memory usage is constant, regardless of how many
+     * workers the batch has. Optionally only the workers with IDs within (afterId, toId] are exported.
+     *
+     * @param jatosUrl URL of this JATOS (e.g. from HttpUtils.getHostUrl) that is used in the run links
+     */
+    public Source<ByteString, NotUsed> streamPersonalRunLinks(Batch batch, String workerType, String jatosUrl,
+            char separator, Long afterId, Long toId) {
+        Source<ByteString, NotUsed> header = Source.single(ByteString.fromString(
+                String.join(String.valueOf(separator), "id", "comment", "url") + "\n"));
+        // Get the URL prefix here - the pages are fetched in another thread where the batch's study can't be loaded
+        String runUrlPrefix = getRunUrlPrefix(batch, workerType, jatosUrl);
+        Source<ByteString, NotUsed> lines = Source.unfoldAsync(Optional.ofNullable(afterId),
+                lastId -> fetchRunLinksPage(batch, workerType, runUrlPrefix, separator, lastId.orElse(null), toId));
+        return header.concat(lines);
+    }
+
+    /**
+     * Fetches the next page of run links for streamPersonalRunLinks. Returns an empty Optional after the last page.
+     */
+    private CompletionStage<Optional<Pair<Optional<Long>, ByteString>>> fetchRunLinksPage(Batch batch,
+            String workerType, String runUrlPrefix, char separator, Long afterId, Long toId) {
+        return CompletableFuture.supplyAsync(() -> jpa.withTransaction(() -> {
+            Map<Long, String> idsAndComments = workerDao.findIdsAndComments(batch, workerType, afterId, toId,
+                    RUN_LINKS_EXPORT_PAGE_SIZE);
+            if (idsAndComments.isEmpty()) return Optional.empty();
+
+            StringBuilder sb = new StringBuilder();
+            Long lastId = null;
+            for (Map.Entry<Long, String> idAndComment : idsAndComments.entrySet()) {
+                lastId = idAndComment.getKey();
+                sb.append(lastId).append(separator)
+                        .append(escapeField(idAndComment.getValue(), separator)).append(separator)
+                        .append(runUrlPrefix).append(lastId).append('\n');
+            }
+            return Optional.of(Pair.create(Optional.of(lastId), ByteString.fromString(sb.toString())));
+        }), exportExecutionContext);
+    }
+
+    /**
+     * Returns the run URL without the worker ID, e.g.
+     * 'http://localhost:9000/publix/1/start?batchId=1&personalSingleWorkerId='
+     */
+    private static String getRunUrlPrefix(Batch batch, String workerType, String jatosUrl) {
+        String workerIdParam = workerType.equals(PersonalSingleWorker.WORKER_TYPE)
+                ? "personalSingleWorkerId" : "personalMultipleWorkerId";
+        return jatosUrl + Common.getPlayHttpContext() + "publix/" + batch.getStudy().getId() + "/start?batchId="
+                + batch.getId() + "&" + workerIdParam + "=";
+    }
+
+    /**
+     * CSV: quotes the field if necessary (RFC 4180). TSV: replaces tabs and line breaks with spaces.
+     */
+    private static String escapeField(String field, char separator) {
+        if (field == null) return "";
+        if (separator == '\t') return field.replaceAll("[\t\r\n]", " ");
+        if (field.indexOf(separator) >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+                || field.indexOf('\r') >= 0) {
+            return "\"" + field.replace("\"", "\"\"") + "\"";
+        }
+        return field;
+    }
+
     /**
      * Retrieves the count of StudyResults for each worker type in a map (
      * workerType -> count).
      */
     public Map<String, Integer> retrieveStudyResultCountsPerWorker(Batch batch) {
-        Map<String, Integer> resultsPerWorker = new HashMap<>();
-        Consumer<String> putCountToMap = (String workerType) -> resultsPerWorker
-                .put(workerType, studyResultDao.countByBatchAndWorkerType(batch, workerType));
-        putCountToMap.accept(JatosWorker.WORKER_TYPE);
-        putCountToMap.accept(PersonalSingleWorker.WORKER_TYPE);
-        putCountToMap.accept(PersonalMultipleWorker.WORKER_TYPE);
-        putCountToMap.accept(GeneralSingleWorker.WORKER_TYPE);
-        putCountToMap.accept(GeneralMultipleWorker.WORKER_TYPE);
-        putCountToMap.accept(MTWorker.WORKER_TYPE);
-        putCountToMap.accept(MTSandboxWorker.WORKER_TYPE);
-        return resultsPerWorker;
+        BatchStats batchStats = batchStatsDao.findByBatch(batch);
+        if (batchStats == null) batchStats = new BatchStats(batch.getId());
+        return batchStats.getStudyResultCountsPerWorker();
     }
 
 }
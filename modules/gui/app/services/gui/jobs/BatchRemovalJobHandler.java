@@ -0,0 +1,84 @@
+package services.gui.jobs;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import daos.common.BatchDao;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import models.common.Batch;
+import play.libs.Json;
+import services.gui.BatchService;
+import services.gui.BulkResultRemover;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Job handler that removes a batch. First the batch's StudyResults are removed in chunks (see BulkResultRemover) - the
+ * job can be cancelled in between. Then the batch itself is removed together with its GroupResults and workers (see
+ * BatchService.remove) in one transaction. Progress is the number of removed StudyResults (plus one for the batch).
+ * It can be resumed after a restart.
+ */
+@Singleton
+public class BatchRemovalJobHandler implements JobHandler {
+
+    public static final String TYPE = "batchRemoval";
+
+    private final BatchService batchService;
+    private final BulkResultRemover bulkResultRemover;
+    private final BatchDao batchDao;
+    private final StudyResultDao studyResultDao;
+    private final UserDao userDao;
+
+    @Inject
+    BatchRemovalJobHandler(BatchService batchService, BulkResultRemover bulkResultRemover, BatchDao batchDao,
+            StudyResultDao studyResultDao, UserDao userDao) {
+        this.batchService = batchService;
+        this.bulkResultRemover = bulkResultRemover;
+        this.batchDao = batchDao;
+        this.studyResultDao = studyResultDao;
+        this.userDao = userDao;
+    }
+
+    /**
+     * Parameters of a job that removes the given batch. The batch has to be checked before.
+     */
+    public static ObjectNode parameters(Batch batch) {
+        return Json.newObject().put("batchId", batch.getId());
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isResumable() {
+        return true;
+    }
+
+    @Override
+    public void run(JobContext context) throws Exception {
+        Long batchId = context.getParameters().get("batchId").asLong();
+        List<Long> studyResultIdList = context.withTransaction(() -> {
+            Batch batch = batchDao.findById(batchId);
+            return batch != null ? studyResultDao.findIdsByBatch(batch) : Collections.<Long>emptyList();
+        });
+        int total = studyResultIdList.size() + 1;
+        context.setTotal(total);
+        bulkResultRemover.removeInTransactions(studyResultIdList, removed -> {
+            context.setProgress(removed);
+            context.checkCancelled();
+        });
+
+        context.withTransaction(() -> {
+            // Maybe it was removed already (e.g. the job was resumed)
+            Batch batch = batchDao.findById(batchId);
+            if (batch != null) batchService.remove(batch, userDao.findByUsername(context.getUsername()));
+            return null;
+        });
+        context.setProgress(total);
+    }
+
+}
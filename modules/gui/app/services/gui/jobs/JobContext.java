@@ -0,0 +1,144 @@
+package services.gui.jobs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import daos.common.JobDao;
+import models.common.Job;
+import play.db.jpa.JPAApi;
+import play.libs.Json;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Is handed to a JobHandler together with the job it has to run. Gives access to the job's parameters and lets the
+ * handler report its progress, check whether the user cancelled the job and set the job's result. Progress and
+ * cancellation each use their own short transaction - so they shouldn't be called from within the handler's
+ * transactions.
+ */
+public class JobContext {
+
+    private final JPAApi jpa;
+    private final JobDao jobDao;
+    private final Long jobId;
+    private final String username;
+    private final JsonNode parameters;
+    private final File resultFile;
+    private int total;
+    private String result;
+
+    JobContext(JPAApi jpa, JobDao jobDao, Job job, File resultFile) {
+        this.jpa = jpa;
+        this.jobDao = jobDao;
+        this.jobId = job.getId();
+        this.username = job.getUsername();
+        this.parameters = job.getParameters() != null ? Json.parse(job.getParameters()) : Json.newObject();
+        this.resultFile = resultFile;
+        this.total = job.getTotal();
+    }
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Username of the user who submitted the job
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    public JsonNode getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the IDs in the given array field of the job's parameters
+     */
+    public List<Long> getIds(String field) {
+        List<Long> ids = new ArrayList<>();
+        parameters.path(field).forEach(node -> ids.add(node.asLong()));
+        return ids;
+    }
+
+    /**
+     * Sets the number of items of this job and sets the progress to 0
+     */
+    public void setTotal(int total) {
+        this.total = total;
+        setProgress(0);
+    }
+
+    /**
+     * Sets the number of items of this job that are done
+     */
+    public void setProgress(int progress) {
+        jpa.withTransaction(() -> jobDao.updateProgress(jobId, progress, total));
+    }
+
+    /**
+     * Throws a CancellationException if the user wants this job to stop
+     */
+    public void checkCancelled() {
+        if (jpa.withTransaction(() -> jobDao.isCancelRequested(jobId))) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Sets the result of this job that is sent to the GUI. It's turned into JSON - a String is taken as JSON
+     * already.
+     */
+    public void setResult(Object result) {
+        this.result = result instanceof String ? (String) result : Json.stringify(Json.toJson(result));
+    }
+
+    /**
+     * Runs the given work in a new transaction. Unlike JPAApi.withTransaction the work may throw checked exceptions -
+     * they roll back the transaction and are thrown on unchanged.
+     */
+    public <T> T withTransaction(TransactionalWork<T> work) throws Exception {
+        try {
+            return jpa.withTransaction(() -> {
+                try {
+                    return work.run();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CheckedExceptionWrapper(e);
+                }
+            });
+        } catch (CheckedExceptionWrapper e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    String getResult() {
+        return result;
+    }
+
+    /**
+     * File where the job can write its result if the result is a file (e.g. a ZIP archive). The user can download it
+     * after the job is done.
+     */
+    public File getResultFile() {
+        return resultFile;
+    }
+
+    @FunctionalInterface
+    public interface TransactionalWork<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Carries a checked exception out of a transaction
+     */
+    private static class CheckedExceptionWrapper extends RuntimeException {
+
+        CheckedExceptionWrapper(Exception cause) {
+            super(cause);
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package services.gui.jobs;
+
+/**
+ * Runs the background jobs of one type (see JobService). A handler does the actual work of a job - it gets the job's
+ * parameters and reports the progress via the JobContext. It runs outside of a request and outside of a transaction:
+ * the handler has to open its own transactions, ideally several short ones instead of a long one.
+ */
+public interface JobHandler {
+
+    /**
+     * Type of jobs this handler runs (stored with each job)
+     */
+    String getType();
+
+    /**
+     * Is true if a job of this type can just be started again after it was interrupted by a restart of JATOS (e.g.
+     * because it only removes things that are still there). Jobs that aren't resumable are marked as failed.
+     */
+    boolean isResumable();
+
+    /**
+     * Does the job's work. A cancellation by the user is noticed by JobContext.checkCancelled. Any exception lets the
+     * job fail with the exception's message.
+     */
+    void run(JobContext context) throws Exception;
+
+}
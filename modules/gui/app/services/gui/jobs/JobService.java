@@ -0,0 +1,271 @@
+package services.gui.jobs;
+
+import com.typesafe.config.Config;
+import daos.common.JobDao;
+import exceptions.gui.ForbiddenException;
+import exceptions.gui.NotFoundException;
+import general.common.MessagesStrings;
+import general.common.RequestScope;
+import models.common.Job;
+import models.common.Job.JobState;
+import models.common.User;
+import play.Logger;
+import play.Logger.ALogger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs long-running operations of the GUI (e.g. study import, study clone, batch removal) as background jobs. This
+ * way the request returns right away and neither Play's threads nor the DB connections are blocked by one user's bulk
+ * action. The GUI polls the job's progress and can cancel it.
+ * <p>
+ * Jobs are stored in the database (Job table). A submitted job waits in the queue until one of the threads of the
+ * job executor is free and the user has not too many other jobs running (jatos.jobs.poolSize and
+ * jatos.jobs.maxPerUser). The job's work is done by the JobHandler of the job's type. Jobs that were interrupted by a
+ * restart of JATOS are put back into the queue if their handler is resumable - otherwise they are marked as failed.
+ * Ended jobs are removed after jatos.jobs.retention.
+ * <p>
+ * All queue handling happens in a single dispatcher thread - so the counters of running jobs need no locking.
+ */
+@Singleton
+public class JobService {
+
+    private static final ALogger LOGGER = Logger.of(JobService.class);
+
+    /**
+     * Interval in seconds in which the queue is checked even if no job was submitted or ended
+     */
+    private static final long DISPATCH_INTERVAL = 10;
+
+    /**
+     * Interval in minutes in which expired jobs are removed
+     */
+    private static final long CLEANUP_INTERVAL = 60;
+
+    private final JPAApi jpa;
+    private final JobDao jobDao;
+    private final int poolSize;
+    private final int maxPerUser;
+    private final long retention;
+
+    /**
+     * Job type -> handler
+     */
+    private final Map<String, JobHandler> handlers = new HashMap<>();
+
+    private final ExecutorService jobExecutor;
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Username -> number of this user's running jobs (only used by the dispatcher thread)
+     */
+    private final Map<String, Integer> runningPerUser = new HashMap<>();
+    private int runningCount = 0;
+    private boolean resumed = false;
+
+    @Inject
+    JobService(JPAApi jpa, JobDao jobDao, Config config, ApplicationLifecycle applicationLifecycle,
+            StudyResultsRemovalJobHandler studyResultsRemovalJobHandler,
+            BatchRemovalJobHandler batchRemovalJobHandler, StudyRemovalJobHandler studyRemovalJobHandler,
+            StudyCloneJobHandler studyCloneJobHandler, StudyImportJobHandler studyImportJobHandler,
+            ResultFilesExportJobHandler resultFilesExportJobHandler) {
+        this.jpa = jpa;
+        this.jobDao = jobDao;
+        this.poolSize = Math.max(1, config.getInt("jatos.jobs.poolSize"));
+        this.maxPerUser = Math.max(1, config.getInt("jatos.jobs.maxPerUser"));
+        this.retention = config.getDuration("jatos.jobs.retention").toMillis();
+        Arrays.asList(studyResultsRemovalJobHandler, batchRemovalJobHandler, studyRemovalJobHandler,
+                studyCloneJobHandler, studyImportJobHandler, resultFilesExportJobHandler)
+                .forEach(handler -> handlers.put(handler.getType(), handler));
+        this.jobExecutor = Executors.newFixedThreadPool(poolSize);
+
+        dispatcher.scheduleWithFixedDelay(this::dispatch, 0, DISPATCH_INTERVAL, TimeUnit.SECONDS);
+        dispatcher.scheduleWithFixedDelay(this::removeExpired, 1, CLEANUP_INTERVAL, TimeUnit.MINUTES);
+        applicationLifecycle.addStopHook(() -> {
+            // Running jobs stay RUNNING in the DB and are resumed (or failed) after the next start
+            dispatcher.shutdownNow();
+            jobExecutor.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Puts a new job into the queue and returns it. The job is committed in its own transaction - this way it can
+     * start right away and not only after the caller's transaction ends.
+     *
+     * @param type       Type of the job - there must be a JobHandler for it
+     * @param user       User who submits the job
+     * @param title      Short description of the job (shown in the GUI)
+     * @param parameters Parameters of the job - they are stored as JSON and passed to the job's handler
+     */
+    public Job submit(String type, User user, String title, Object parameters) {
+        if (!handlers.containsKey(type)) throw new IllegalArgumentException("Unknown job type " + type);
+        Job job = new Job(type, user.getUsername(), title, Json.stringify(Json.toJson(parameters)));
+        jpa.withTransaction(() -> jobDao.create(job));
+        triggerDispatch();
+        return job;
+    }
+
+    /**
+     * Returns the job with the given ID. Only the user who submitted the job or an admin are allowed to get it.
+     */
+    public Job get(Long jobId, User user) throws NotFoundException, ForbiddenException {
+        Job job = jobDao.findById(jobId);
+        if (job == null) {
+            throw new NotFoundException(MessagesStrings.jobNotExist(jobId));
+        }
+        if (!job.getUsername().equals(user.getUsername()) && !user.isAdmin()) {
+            throw new ForbiddenException(MessagesStrings.jobNotAllowed(jobId));
+        }
+        return job;
+    }
+
+    /**
+     * Cancels the job with the given ID. A waiting job is cancelled right away, a running one stops as soon as its
+     * handler checks for it (some jobs, e.g. a study clone, can't be stopped in the middle and just finish).
+     */
+    public void cancel(Long jobId, User user) throws NotFoundException, ForbiddenException {
+        get(jobId, user);
+        jobDao.requestCancel(jobId);
+    }
+
+    /**
+     * File where a job can store its result if the result is a file (e.g. a ZIP archive)
+     */
+    public File getResultFile(Long jobId) {
+        return new File(IOUtils.TMP_DIR, "JatosJob_" + jobId);
+    }
+
+    private void triggerDispatch() {
+        try {
+            dispatcher.execute(this::dispatch);
+        } catch (RejectedExecutionException e) {
+            // JATOS is shutting down - the job will be started after the next start
+        }
+    }
+
+    /**
+     * Starts as many waiting jobs as there are free threads - without exceeding the limit per user
+     */
+    private void dispatch() {
+        try {
+            if (!resumed) resumeInterrupted();
+            if (runningCount >= poolSize) return;
+
+            List<Job> jobsToStart = jpa.withTransaction(() -> {
+                List<Job> jobs = new ArrayList<>();
+                Map<String, Integer> perUser = new HashMap<>(runningPerUser);
+                for (Job job : jobDao.findByState(JobState.QUEUED)) {
+                    if (runningCount + jobs.size() >= poolSize) break;
+                    if (perUser.getOrDefault(job.getUsername(), 0) >= maxPerUser) continue;
+                    if (!handlers.containsKey(job.getType())) {
+                        jobDao.markEnded(job.getId(), JobState.FAILED, null, "Unknown job type " + job.getType());
+                        continue;
+                    }
+                    if (jobDao.markRunning(job.getId())) {
+                        jobs.add(job);
+                        perUser.merge(job.getUsername(), 1, Integer::sum);
+                    }
+                }
+                return jobs;
+            });
+
+            for (Job job : jobsToStart) {
+                runningCount++;
+                runningPerUser.merge(job.getUsername(), 1, Integer::sum);
+                jobExecutor.execute(() -> run(job));
+            }
+        } catch (RejectedExecutionException e) {
+            // JATOS is shutting down
+        } catch (Exception e) {
+            LOGGER.error(".dispatch: couldn't start jobs", e);
+        }
+    }
+
+    /**
+     * Handles jobs that are still RUNNING in the DB, which means they were interrupted by a restart of JATOS. Is
+     * called once before the first dispatch.
+     */
+    private void resumeInterrupted() {
+        jpa.withTransaction(() -> {
+            for (Job job : jobDao.findByState(JobState.RUNNING)) {
+                JobHandler handler = handlers.get(job.getType());
+                if (job.isCancelRequested()) {
+                    jobDao.markEnded(job.getId(), JobState.CANCELLED, null, null);
+                } else if (handler != null && handler.isResumable()) {
+                    jobDao.requeue(job.getId());
+                    LOGGER.info(".resumeInterrupted: resume job " + job);
+                } else {
+                    jobDao.markEnded(job.getId(), JobState.FAILED, null, MessagesStrings.JOB_INTERRUPTED);
+                    LOGGER.info(".resumeInterrupted: job " + job + " can't be resumed");
+                }
+            }
+        });
+        resumed = true;
+    }
+
+    private void run(Job job) {
+        JobContext context = new JobContext(jpa, jobDao, job, getResultFile(job.getId()));
+        try {
+            JobState state = JobState.DONE;
+            String error = null;
+            try {
+                handlers.get(job.getType()).run(context);
+            } catch (CancellationException e) {
+                state = JobState.CANCELLED;
+            } catch (Exception e) {
+                // Leave the job RUNNING if it was interrupted by a shutdown - it's handled after the next start
+                if (jobExecutor.isShutdown()) return;
+                LOGGER.error(".run: job " + job + " failed", e);
+                state = JobState.FAILED;
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            } finally {
+                RequestScope.clear();
+            }
+
+            if (state != JobState.DONE) context.getResultFile().delete();
+            JobState endState = state;
+            String endError = error;
+            jpa.withTransaction(() -> jobDao.markEnded(job.getId(), endState, context.getResult(), endError));
+        } catch (Exception e) {
+            LOGGER.error(".run: couldn't store the end of job " + job, e);
+        } finally {
+            try {
+                dispatcher.execute(() -> {
+                    runningCount--;
+                    runningPerUser.computeIfPresent(job.getUsername(),
+                            (username, count) -> count > 1 ? count - 1 : null);
+                    dispatch();
+                });
+            } catch (RejectedExecutionException e) {
+                // JATOS is shutting down
+            }
+        }
+    }
+
+    /**
+     * Removes jobs (and their result files) that ended longer than jatos.jobs.retention ago
+     */
+    private void removeExpired() {
+        try {
+            Timestamp endedBefore = new Timestamp(System.currentTimeMillis() - retention);
+            jpa.withTransaction(() -> {
+                List<Long> jobIds = jobDao.findIdsEndedBefore(endedBefore);
+                jobIds.forEach(jobId -> getResultFile(jobId).delete());
+                jobDao.removeAllByIds(jobIds);
+            });
+        } catch (Exception e) {
+            LOGGER.error(".removeExpired: couldn't remove expired jobs", e);
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package services.gui.jobs;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import play.libs.Json;
+import utils.common.ZipUtil;
+
+import javax.inject.Singleton;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Job handler that zips result files into the job's result file. Afterwards the zip can be downloaded via the job
+ * (see JobService.getResultFile). The result files have to be checked before the job is submitted. It can be resumed
+ * after a restart - the zip is just created again.
+ */
+@Singleton
+public class ResultFilesExportJobHandler implements JobHandler {
+
+    public static final String TYPE = "resultFilesExport";
+
+    /**
+     * Parameters of a job that zips the given result upload directories
+     */
+    public static ObjectNode parameters(List<Path> resultFileList) {
+        ObjectNode parameters = Json.newObject();
+        ArrayNode paths = parameters.putArray("paths");
+        resultFileList.forEach(path -> paths.add(path.toString()));
+        return parameters;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isResumable() {
+        return true;
+    }
+
+    @Override
+    public void run(JobContext context) throws Exception {
+        List<Path> resultFileList = new ArrayList<>();
+        context.getParameters().path("paths").forEach(node -> resultFileList.add(Paths.get(node.asText())));
+        context.setTotal(1);
+        ZipUtil.zipFiles(resultFileList, context.getResultFile());
+        context.setProgress(1);
+        context.setResult(ImmutableMap.of("fileName", context.getResultFile().getName()));
+    }
+
+}
@@ -0,0 +1,96 @@
+package services.gui.jobs;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import daos.common.StudyDao;
+import daos.common.UserDao;
+import exceptions.gui.NotFoundException;
+import general.common.MessagesStrings;
+import models.common.Study;
+import play.Logger;
+import play.Logger.ALogger;
+import play.libs.Json;
+import services.gui.StudyService;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+
+/**
+ * Job handler that clones a study. The study assets are copied outside of a transaction (that's what takes long) and
+ * afterwards the clone is created in a short transaction (see StudyService.clone). The job's result is the clone's ID
+ * and title. It can't be cancelled and isn't resumed after a restart (the copy might be incomplete).
+ */
+@Singleton
+public class StudyCloneJobHandler implements JobHandler {
+
+    private static final ALogger LOGGER = Logger.of(StudyCloneJobHandler.class);
+
+    public static final String TYPE = "studyClone";
+
+    private final StudyService studyService;
+    private final StudyDao studyDao;
+    private final UserDao userDao;
+    private final IOUtils ioUtils;
+
+    @Inject
+    StudyCloneJobHandler(StudyService studyService, StudyDao studyDao, UserDao userDao, IOUtils ioUtils) {
+        this.studyService = studyService;
+        this.studyDao = studyDao;
+        this.userDao = userDao;
+        this.ioUtils = ioUtils;
+    }
+
+    /**
+     * Parameters of a job that clones the given study. The study has to be checked before.
+     */
+    public static ObjectNode parameters(Study study) {
+        return Json.newObject().put("studyId", study.getId());
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isResumable() {
+        return false;
+    }
+
+    @Override
+    public void run(JobContext context) throws Exception {
+        Long studyId = context.getParameters().get("studyId").asLong();
+        String dirName = context.withTransaction(() -> {
+            Study study = studyDao.findById(studyId);
+            if (study == null) throw new NotFoundException(MessagesStrings.studyNotExist(studyId));
+            return study.getDirName();
+        });
+        String clonedDirName = ioUtils.cloneStudyAssetsDirectory(dirName);
+
+        try {
+            Study clone = context.withTransaction(() -> {
+                Study study = studyDao.findById(studyId);
+                if (study == null) throw new NotFoundException(MessagesStrings.studyNotExist(studyId));
+                Study c = studyService.clone(study, clonedDirName);
+                studyService.createAndPersistStudy(userDao.findByUsername(context.getUsername()), c);
+                return c;
+            });
+            context.setResult(ImmutableMap.of("id", clone.getId(), "title", clone.getTitle()));
+        } catch (Exception e) {
+            removeClonedDir(clonedDirName);
+            throw e;
+        }
+    }
+
+    private void removeClonedDir(String clonedDirName) {
+        try {
+            ioUtils.removeStudyAssetsDir(clonedDirName);
+        } catch (IOException e) {
+            LOGGER.warn(".removeClonedDir: couldn't remove study assets directory " + clonedDirName + ": "
+                    + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package services.gui.jobs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import daos.common.UserDao;
+import general.gui.RequestScopeMessaging;
+import play.libs.Json;
+import services.gui.ImportExportService;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+
+/**
+ * Job handler that does the actual import of a study (the second step of a study import, see
+ * ImportExportService.importStudyConfirmed): it moves the study assets from the unzipped upload into the study assets
+ * root directory and creates or updates the study. The job's result are the messages of the import (like the response
+ * of the import did before). It can't be cancelled and isn't resumed after a restart.
+ */
+@Singleton
+public class StudyImportJobHandler implements JobHandler {
+
+    public static final String TYPE = "studyImport";
+
+    private final ImportExportService importExportService;
+    private final UserDao userDao;
+
+    @Inject
+    StudyImportJobHandler(ImportExportService importExportService, UserDao userDao) {
+        this.importExportService = importExportService;
+        this.userDao = userDao;
+    }
+
+    /**
+     * Parameters of a job that imports the study that was unzipped into the given directory (within the temp
+     * directory) during the first step of the import
+     *
+     * @param unzippedStudyDirName Name of the directory with the unzipped study
+     * @param confirmation         User's answers on how to import the study (overwrite properties, directory, ...)
+     */
+    public static ObjectNode parameters(String unzippedStudyDirName, JsonNode confirmation) {
+        ObjectNode parameters = Json.newObject();
+        parameters.put("unzippedStudyDirName", unzippedStudyDirName);
+        parameters.set("confirmation", confirmation);
+        return parameters;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isResumable() {
+        return false;
+    }
+
+    @Override
+    public void run(JobContext context) throws Exception {
+        String unzippedStudyDirName = context.getParameters().path("unzippedStudyDirName").asText(null);
+        File tempUnzippedStudyDir = unzippedStudyDirName != null
+                ? new File(IOUtils.TMP_DIR, unzippedStudyDirName) : null;
+        JsonNode confirmation = context.getParameters().get("confirmation");
+        try {
+            context.withTransaction(() -> {
+                importExportService.importStudyConfirmed(userDao.findByUsername(context.getUsername()),
+                        confirmation, tempUnzippedStudyDir);
+                return null;
+            });
+            context.setResult(RequestScopeMessaging.getAsJson());
+        } finally {
+            importExportService.cleanupAfterStudyImport(tempUnzippedStudyDir);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package services.gui.jobs;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import models.common.Study;
+import play.libs.Json;
+import services.gui.BulkResultRemover;
+import services.gui.StudyService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Job handler that removes a study. First the study's StudyResults are removed in chunks (see BulkResultRemover) - the
+ * job can be cancelled in between. Then the study itself is removed together with its components, batches and study
+ * assets (see StudyService.removeStudyInclAssets) in one transaction. Progress is the number of removed StudyResults
+ * (plus one for the study). It can be resumed after a restart.
+ */
+@Singleton
+public class StudyRemovalJobHandler implements JobHandler {
+
+    public static final String TYPE = "studyRemoval";
+
+    private final StudyService studyService;
+    private final BulkResultRemover bulkResultRemover;
+    private final StudyDao studyDao;
+    private final StudyResultDao studyResultDao;
+    private final UserDao userDao;
+
+    @Inject
+    StudyRemovalJobHandler(StudyService studyService, BulkResultRemover bulkResultRemover, StudyDao studyDao,
+            StudyResultDao studyResultDao, UserDao userDao) {
+        this.studyService = studyService;
+        this.bulkResultRemover = bulkResultRemover;
+        this.studyDao = studyDao;
+        this.studyResultDao = studyResultDao;
+        this.userDao = userDao;
+    }
+
+    /**
+     * Parameters of a job that removes the given study. The study has to be checked before.
+     */
+    public static ObjectNode parameters(Study study) {
+        return Json.newObject().put("studyId", study.getId());
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isResumable() {
+        return true;
+    }
+
+    @Override
+    public void run(JobContext context) throws Exception {
+        Long studyId = context.getParameters().get("studyId").asLong();
+        List<Long> studyResultIdList = context.withTransaction(() -> {
+            Study study = studyDao.findById(studyId);
+            return study != null ? studyResultDao.findIdsByStudy(study) : Collections.<Long>emptyList();
+        });
+        int total = studyResultIdList.size() + 1;
+        context.setTotal(total);
+        bulkResultRemover.removeInTransactions(studyResultIdList, removed -> {
+            context.setProgress(removed);
+            context.checkCancelled();
+        });
+
+        context.withTransaction(() -> {
+            // Maybe it was removed already (e.g. the job was resumed)
+            Study study = studyDao.findById(studyId);
+            if (study != null) studyService.removeStudyInclAssets(study, userDao.findByUsername(context.getUsername()));
+            return null;
+        });
+        context.setProgress(total);
+    }
+
+}
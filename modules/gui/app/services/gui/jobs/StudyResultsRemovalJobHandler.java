@@ -0,0 +1,87 @@
+package services.gui.jobs;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import daos.common.StudyDao;
+import daos.common.UserDao;
+import general.common.StudyLogger;
+import models.common.Study;
+import models.common.User;
+import play.libs.Json;
+import services.gui.BulkResultRemover;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Job handler that removes StudyResults (with their ComponentResults) in chunks (see BulkResultRemover). The
+ * StudyResults have to be checked before the job is submitted (ResultRemover.checkStudyResults). Progress is the
+ * number of removed StudyResults. It can be cancelled between two chunks and resumed after a restart - StudyResults
+ * that are removed already are just skipped.
+ */
+@Singleton
+public class StudyResultsRemovalJobHandler implements JobHandler {
+
+    public static final String TYPE = "studyResultsRemoval";
+
+    private final BulkResultRemover bulkResultRemover;
+    private final StudyDao studyDao;
+    private final UserDao userDao;
+    private final StudyLogger studyLogger;
+
+    @Inject
+    StudyResultsRemovalJobHandler(BulkResultRemover bulkResultRemover, StudyDao studyDao, UserDao userDao,
+            StudyLogger studyLogger) {
+        this.bulkResultRemover = bulkResultRemover;
+        this.studyDao = studyDao;
+        this.userDao = userDao;
+        this.studyLogger = studyLogger;
+    }
+
+    /**
+     * Parameters of a job that removes the StudyResults with the given IDs. The studies of the StudyResults get an
+     * entry in their study log.
+     */
+    public static ObjectNode parameters(List<Long> studyResultIdList, Collection<Study> studies) {
+        ObjectNode parameters = Json.newObject();
+        ArrayNode studyResultIds = parameters.putArray("studyResultIds");
+        studyResultIdList.forEach(studyResultIds::add);
+        ArrayNode studyIds = parameters.putArray("studyIds");
+        studies.forEach(study -> studyIds.add(study.getId()));
+        return parameters;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isResumable() {
+        return true;
+    }
+
+    @Override
+    public void run(JobContext context) throws Exception {
+        List<Long> studyResultIdList = context.getIds("studyResultIds");
+        context.setTotal(studyResultIdList.size());
+        try {
+            bulkResultRemover.removeInTransactions(studyResultIdList, removed -> {
+                context.setProgress(removed);
+                context.checkCancelled();
+            });
+        } finally {
+            context.withTransaction(() -> {
+                User user = userDao.findByUsername(context.getUsername());
+                for (Long studyId : context.getIds("studyIds")) {
+                    Study study = studyDao.findById(studyId);
+                    if (study != null) studyLogger.log(study, user, "Removed result data and files");
+                }
+                return null;
+            });
+        }
+    }
+
+}
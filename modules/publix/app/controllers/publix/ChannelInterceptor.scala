@@ -1,11 +1,17 @@
 package controllers.publix
 
+import akka.stream.scaladsl.Flow
+import controllers.publix.ChannelInterceptor.channelMessageFlowTransformer
 import controllers.publix.actionannotation.PublixAccessLoggingAction.PublixAccessLogging
 import exceptions.publix.{BadRequestPublixException, ForbiddenPublixException, NotFoundPublixException, PublixException}
+import general.common.DatabaseExecutionContext
 import javax.inject.{Inject, Singleton}
 import models.common.workers._
 import play.api.Logger
-import play.api.libs.json.JsValue
+import play.api.http.websocket._
+import play.api.libs.json.{JsValue, Json}
+import play.api.libs.streams.AkkaStreams
+import play.api.mvc.WebSocket.MessageFlowTransformer
 import play.api.mvc._
 import play.core.j.JavaHelpers
 import play.db.jpa.JPAApi
@@ -14,6 +20,32 @@ import services.publix.idcookie.IdCookieService
 
 import scala.compat.java8.FunctionConverters.asJavaSupplier
 import scala.concurrent.Future
+import scala.util.control.NonFatal
+
+object ChannelInterceptor {
+
+  /**
+    * Like Play's JSON MessageFlowTransformer for the incoming messages, but the outgoing messages
+    * are already serialized (by the BatchMsg or GroupMsg): this way a message that is sent to many
+    * channels is serialized only once.
+    */
+  implicit val channelMessageFlowTransformer: MessageFlowTransformer[JsValue, Message] =
+    new MessageFlowTransformer[JsValue, Message] {
+      def transform(flow: Flow[JsValue, Message, _]): Flow[Message, Message, _] = {
+        def closeOnException(block: => JsValue) =
+          try Left(block)
+          catch {
+            case NonFatal(_) => Right(CloseMessage(Some(CloseCodes.Unacceptable), "Unable to parse json message"))
+          }
+
+        AkkaStreams.bypassWith[Message, JsValue, Message](Flow[Message].collect {
+          case BinaryMessage(data) => closeOnException(Json.parse(data.iterator.asInputStream))
+          case TextMessage(text) => closeOnException(Json.parse(text))
+        })(flow)
+      }
+    }
+
+}
 
 /**
   * This class intercepts a request before it gets to the BatchChannel or GroupChannel. It has
@@ -26,6 +58,7 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
                                    idCookieService: IdCookieService,
                                    jpa: JPAApi,
                                    httpExecutionContext: HttpExecutionContext,
+                                   dbExecutionContext: DatabaseExecutionContext,
                                    jatosBatchChannel: JatosBatchChannel,
                                    personalSingleBatchChannel: PersonalSingleBatchChannel,
                                    personalMultipleBatchChannel: PersonalMultipleBatchChannel,
@@ -54,9 +87,9 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
     * @return WebSocket that transports JSON strings.
     */
   def openBatch(studyId: Long, studyResultId: Long): WebSocket =
-    WebSocket.acceptOrResult[JsValue, JsValue] { request =>
+    WebSocket.acceptOrResult[JsValue, Message] { request =>
 
-      Future.successful({
+      Future({
         // Set Http.Context used in Play with Java. Needed by IdCookieService
         play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
         val idCookie = idCookieService.getIdCookie(studyResultId)
@@ -97,7 +130,7 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
               Left(Results.InternalServerError)
           }
         ))
-      })
+      })(dbExecutionContext)
     }
 
   /**
@@ -113,10 +146,10 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
     * @return WebSocket that transfers JSON
     */
   def joinGroup(studyId: Long, studyResultId: Long): WebSocket =
-    WebSocket.acceptOrResult[JsValue, JsValue] {
+    WebSocket.acceptOrResult[JsValue, Message] {
       request =>
 
-        Future.successful({
+        Future({
           // Set Http.Context used in Play with Java. Needed by IdCookieService
           play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
           val idCookie = idCookieService.getIdCookie(studyResultId)
@@ -176,7 +209,7 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
               logger.error(".join: Exception during opening of group channel", e)
               Left(Results.InternalServerError)
           }
-        })
+        })(dbExecutionContext)
     }
 
   /**
@@ -193,32 +226,34 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
     * @throws PublixException will be handled in the global ErrorHandler
     */
   @throws(classOf[PublixException])
-  def reassignGroup(studyId: Long, studyResultId: Long): Action[AnyContent] = Action {
+  def reassignGroup(studyId: Long, studyResultId: Long): Action[AnyContent] = Action.async {
     request =>
-      // Set Http.Context used in Play with Java. Needed by IdCookieService
-      play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
-      val idCookie = idCookieService.getIdCookie(studyResultId)
+      Future {
+        // Set Http.Context used in Play with Java. Needed by IdCookieService
+        play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
+        val idCookie = idCookieService.getIdCookie(studyResultId)
 
-      jpa.withTransaction(asJavaSupplier(() => {
+        jpa.withTransaction(asJavaSupplier(() => {
 
-        idCookie.getWorkerType match {
-          case JatosWorker.WORKER_TYPE =>
-            jatosGroupChannel.reassign(studyId, studyResultId)
-          case PersonalSingleWorker.WORKER_TYPE =>
-            personalSingleGroupChannel.reassign(studyId, studyResultId)
-          case PersonalMultipleWorker.WORKER_TYPE =>
-            personalMultipleGroupChannel.reassign(studyId, studyResultId)
-          case GeneralSingleWorker.WORKER_TYPE =>
-            generalSingleGroupChannel.reassign(studyId, studyResultId)
-          case GeneralMultipleWorker.WORKER_TYPE =>
-            generalMultipleGroupChannel.reassign(studyId, studyResultId)
-          case MTSandboxWorker.WORKER_TYPE =>
-            mTGroupChannel.reassign(studyId, studyResultId)
-          case MTWorker.WORKER_TYPE =>
-            mTGroupChannel.reassign(studyId, studyResultId)
-          case _ => Results.BadRequest
-        }
-      }))
+          idCookie.getWorkerType match {
+            case JatosWorker.WORKER_TYPE =>
+              jatosGroupChannel.reassign(studyId, studyResultId)
+            case PersonalSingleWorker.WORKER_TYPE =>
+              personalSingleGroupChannel.reassign(studyId, studyResultId)
+            case PersonalMultipleWorker.WORKER_TYPE =>
+              personalMultipleGroupChannel.reassign(studyId, studyResultId)
+            case GeneralSingleWorker.WORKER_TYPE =>
+              generalSingleGroupChannel.reassign(studyId, studyResultId)
+            case GeneralMultipleWorker.WORKER_TYPE =>
+              generalMultipleGroupChannel.reassign(studyId, studyResultId)
+            case MTSandboxWorker.WORKER_TYPE =>
+              mTGroupChannel.reassign(studyId, studyResultId)
+            case MTWorker.WORKER_TYPE =>
+              mTGroupChannel.reassign(studyId, studyResultId)
+            case _ => Results.BadRequest
+          }
+        }))
+      }(dbExecutionContext)
   }
 
   /**
@@ -233,32 +268,34 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
     * @throws PublixException will be handled in the global ErrorHandler
     */
   @throws(classOf[PublixException])
-  def leaveGroup(studyId: Long, studyResultId: Long): Action[AnyContent] = Action {
+  def leaveGroup(studyId: Long, studyResultId: Long): Action[AnyContent] = Action.async {
     request =>
-      // Set Http.Context used in Play with Java. Needed by IdCookieService
-      play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
-      val idCookie = idCookieService.getIdCookie(studyResultId)
+      Future {
+        // Set Http.Context used in Play with Java. Needed by IdCookieService
+        play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
+        val idCookie = idCookieService.getIdCookie(studyResultId)
 
-      jpa.withTransaction(asJavaSupplier(() => {
+        jpa.withTransaction(asJavaSupplier(() => {
 
-        idCookie.getWorkerType match {
-          case JatosWorker.WORKER_TYPE =>
-            jatosGroupChannel.leave(studyId, studyResultId)
-          case PersonalSingleWorker.WORKER_TYPE =>
-            personalSingleGroupChannel.leave(studyId, studyResultId)
-          case PersonalMultipleWorker.WORKER_TYPE =>
-            personalMultipleGroupChannel.leave(studyId, studyResultId)
-          case GeneralSingleWorker.WORKER_TYPE =>
-            generalSingleGroupChannel.leave(studyId, studyResultId)
-          case GeneralMultipleWorker.WORKER_TYPE =>
-            generalMultipleGroupChannel.leave(studyId, studyResultId)
-          case MTSandboxWorker.WORKER_TYPE =>
-            mTGroupChannel.leave(studyId, studyResultId)
-          case MTWorker.WORKER_TYPE =>
-            mTGroupChannel.leave(studyId, studyResultId)
-          case _ => Results.BadRequest
-        }
-      }))
+          idCookie.getWorkerType match {
+            case JatosWorker.WORKER_TYPE =>
+              jatosGroupChannel.leave(studyId, studyResultId)
+            case PersonalSingleWorker.WORKER_TYPE =>
+              personalSingleGroupChannel.leave(studyId, studyResultId)
+            case PersonalMultipleWorker.WORKER_TYPE =>
+              personalMultipleGroupChannel.leave(studyId, studyResultId)
+            case GeneralSingleWorker.WORKER_TYPE =>
+              generalSingleGroupChannel.leave(studyId, studyResultId)
+            case GeneralMultipleWorker.WORKER_TYPE =>
+              generalMultipleGroupChannel.leave(studyId, studyResultId)
+            case MTSandboxWorker.WORKER_TYPE =>
+              mTGroupChannel.leave(studyId, studyResultId)
+            case MTWorker.WORKER_TYPE =>
+              mTGroupChannel.leave(studyId, studyResultId)
+            case _ => Results.BadRequest
+          }
+        }))
+      }(dbExecutionContext)
   }
 
 }
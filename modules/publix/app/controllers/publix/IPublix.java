@@ -55,7 +55,9 @@ public interface IPublix {
      * HTTP type: Ajax POST request
      * <p>
      * Heartbeat of a study result: when was the study run last seen. jatos.js periodically sends an Ajax request to
-     * this endpoint. The time when this request arrives is stored in StudyResult's lastSeenDate field.
+     * this endpoint. The time when this request arrives is stored in StudyResult's lastSeenDate field. To keep this
+     * request cheap the time is collected in memory and written later in one batch (see HeartbeatBuffer). The study
+     * run is authorised like every other request - usually by the StudyAuthorisationCache without the DB.
      */
     Result heartbeat(Long studyId, Long studyResultId) throws PublixException;
 
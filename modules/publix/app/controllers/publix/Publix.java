@@ -1,11 +1,15 @@
 package controllers.publix;
 
+import controllers.publix.ResultUploadBodyParser.ResultUpload;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenNonLinearFlowException;
+import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.ForbiddenReloadException;
 import exceptions.publix.PublixException;
 import general.common.Common;
+import general.common.HeartbeatBuffer;
+import general.common.StudyAuthorisationCache;
 import general.common.StudyLogger;
 import models.common.*;
 import models.common.ComponentResult.ComponentState;
@@ -31,12 +35,11 @@ import utils.common.JsonUtils;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
 
-import static play.libs.Files.TemporaryFile;
 import static play.mvc.Http.Request;
 
 /**
@@ -62,12 +65,14 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
     protected final StudyResultDao studyResultDao;
     protected final StudyLogger studyLogger;
     protected final IOUtils ioUtils;
+    protected final HeartbeatBuffer heartbeatBuffer;
 
     public Publix(JPAApi jpa, PublixUtils<T> publixUtils,
             StudyAuthorisation<T> studyAuthorisation, GroupChannel<T> groupChannel,
             IdCookieService idCookieService, PublixErrorMessages errorMessages,
             StudyAssets studyAssets, JsonUtils jsonUtils, ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils,
+            HeartbeatBuffer heartbeatBuffer) {
         this.jpa = jpa;
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
@@ -80,6 +85,7 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
         this.studyResultDao = studyResultDao;
         this.studyLogger = studyLogger;
         this.ioUtils = ioUtils;
+        this.heartbeatBuffer = heartbeatBuffer;
     }
 
     @Override
@@ -114,13 +120,13 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
         LOGGER.info(".getInitData: studyId " + studyId + ", " + "componentId "
                 + componentId + ", " + "studyResultId " + studyResultId);
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        publixUtils.checkComponentBelongsToStudy(study, component);
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study, studyResultId);
+        StudyAuthorisationCache.Context context = publixUtils.authoriseStudyRun(
+                studyAuthorisation, idCookie, studyId, studyResultId);
+        // The init data need the study and batch - they come with the StudyResult
+        StudyResult studyResult = publixUtils.retrieveStudyResult(context);
+        Study study = studyResult.getStudy();
+        Batch batch = studyResult.getBatch();
+        Component component = publixUtils.retrieveComponent(context, componentId);
         ComponentResult componentResult;
         try {
             componentResult = publixUtils.retrieveStartedComponentResult(component, studyResult);
@@ -143,28 +149,41 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
         LOGGER.info(".setStudySessionData: studyId " + studyId + ", "
                 + "studyResultId " + studyResultId);
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study, studyResultId);
+        StudyAuthorisationCache.Context context = publixUtils.authoriseStudyRun(
+                studyAuthorisation, idCookie, studyId, studyResultId);
         String studySessionData = request().body().asText();
-        studyResult.setStudySessionData(studySessionData);
-        studyResultDao.update(studyResult);
+        // Single UPDATE - the StudyResult isn't loaded
+        if (!studyResultDao.updateStudySessionData(studyResultId, studySessionData)) {
+            throw new ForbiddenPublixException(
+                    PublixErrorMessages.workerFinishedStudyAlready(context.getWorkerId(), studyId));
+        }
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
 
     @Override
     public Result heartbeat(Long studyId, Long studyResultId) throws PublixException {
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study, studyResultId);
-        studyResult.setLastSeenDate(new Timestamp(new Date().getTime()));
-        studyResultDao.update(studyResult);
+        publixUtils.authoriseStudyRun(studyAuthorisation, idCookie, studyId, studyResultId);
+        // The last seen time is written later by the HeartbeatBuffer
+        heartbeatBuffer.record(studyResultId);
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
 
+    /**
+     * Like heartbeat, but only if the study run's authorisation is cached (StudyAuthorisationCache) - then the
+     * database isn't needed. Returns an empty Optional (and records nothing) if it isn't cached.
+     */
+    public Optional<Result> heartbeatIfAuthorisationCached(Long studyId, Long studyResultId)
+            throws PublixException {
+        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
+        if (!publixUtils.retrieveCachedAuthorisation(studyAuthorisation, idCookie, studyId, studyResultId)
+                .isPresent()) {
+            return Optional.empty();
+        }
+        heartbeatBuffer.record(studyResultId);
+        return Optional.of(ok(" ")); // jQuery.ajax cannot handle empty responses
+    }
+
     @Override
     public Result submitResultData(Long studyId, Long componentId, Long studyResultId)
             throws PublixException {
@@ -186,14 +205,11 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
     private Result submitOrAppendResultData(Long studyId, Long componentId,
             Long studyResultId, boolean append) throws PublixException {
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        publixUtils.checkComponentBelongsToStudy(study, component);
+        StudyAuthorisationCache.Context context = publixUtils.authoriseStudyRun(
+                studyAuthorisation, idCookie, studyId, studyResultId);
+        publixUtils.retrieveComponent(context, componentId);
 
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study, studyResultId);
+        StudyResult studyResult = publixUtils.retrieveStudyResult(context);
         Optional<ComponentResult> componentResult = publixUtils.retrieveCurrentComponentResult(studyResult);
         if (!componentResult.isPresent()) {
             String error = PublixErrorMessages.componentNeverStarted(studyId, componentId, "submitOrAppendResultData");
@@ -201,49 +217,61 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
         }
 
         String postedResultData = request().body().asText();
-        String resultData;
         if (append) {
-            String currentResultData = componentResult.get().getData();
-            resultData = currentResultData != null ? currentResultData + postedResultData : postedResultData;
+            // Store appended data as a new chunk - no need to load, rewrite or re-hash the whole result data
+            ComponentResultChunk dataChunk = componentResultDao.appendData(componentResult.get(), postedResultData);
+            componentResult.get().setComponentState(ComponentState.RESULTDATA_POSTED);
+            componentResultDao.update(componentResult.get());
+            studyLogger.logResultDataAppending(componentResult.get(), dataChunk);
         } else {
-            resultData = postedResultData;
+            componentResultDao.removeDataChunks(componentResult.get());
+            componentResult.get().setComponentState(ComponentState.RESULTDATA_POSTED);
+            componentResult.get().setData(postedResultData);
+            componentResultDao.update(componentResult.get());
+            studyLogger.logResultDataStoring(componentResult.get());
         }
-        componentResult.get().setData(resultData);
-        componentResult.get().setComponentState(ComponentState.RESULTDATA_POSTED);
-        componentResultDao.update(componentResult.get());
-        studyLogger.logResultDataStoring(componentResult.get());
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
 
     @Override
     public Result uploadResultFile(Request request, Long studyId, Long componentId, Long studyResultId, String filename)
             throws PublixException {
+        // The body is already streamed into staging files (see ResultUploadBodyParser) - they have to be moved to
+        // their final place or removed
+        MultipartFormData<ResultUpload> body = request.body().asMultipartFormData();
+        try {
+            return storeResultUpload(body, studyId, componentId, studyResultId, filename);
+        } finally {
+            if (body != null) body.getFiles().forEach(filePart -> filePart.getRef().delete());
+        }
+    }
+
+    private Result storeResultUpload(MultipartFormData<ResultUpload> body, Long studyId, Long componentId,
+            Long studyResultId, String filename) throws PublixException {
         if (!Common.isResultUploadsEnabled()) return forbidden("File upload not allowed. Contact your admin.");
 
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        publixUtils.checkComponentBelongsToStudy(study, component);
+        StudyAuthorisationCache.Context context = publixUtils.authoriseStudyRun(
+                studyAuthorisation, idCookie, studyId, studyResultId);
+        publixUtils.retrieveComponent(context, componentId);
 
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study, studyResultId);
+        StudyResult studyResult = publixUtils.retrieveStudyResult(context);
         Optional<ComponentResult> componentResult = publixUtils.retrieveCurrentComponentResult(studyResult);
         if (!componentResult.isPresent()) {
             String error = PublixErrorMessages.componentNeverStarted(studyId, componentId, "uploadResultFile");
             return redirect(routes.PublixInterceptor.finishStudy(studyId, studyResult.getId(), false, error));
         }
 
-        MultipartFormData<TemporaryFile> body = request.body().asMultipartFormData();
-        MultipartFormData.FilePart<TemporaryFile> filePart = body.getFile("file");
+        if (body == null) return badRequest("Missing file");
+        MultipartFormData.FilePart<ResultUpload> filePart = body.getFile("file");
         if (filePart == null) return badRequest("Missing file");
-        TemporaryFile tmpFile = filePart.getRef();
+        ResultUpload upload = filePart.getRef();
         try {
-            if (filePart.getFileSize() > Common.getResultUploadsMaxFileSize()) {
+            if (upload.getSize() > Common.getResultUploadsMaxFileSize()) {
                 return badRequest("File size too large");
             }
-            if (ioUtils.getResultUploadDirSize(studyResultId) > Common.getResultUploadsLimitPerStudyRun()) {
+            if (publixUtils.retrieveResultUploadsSize(studyResultId) + upload.getSize()
+                    > Common.getResultUploadsLimitPerStudyRun()) {
                 return badRequest("Reached max file size limit per study run");
             }
             if (!IOUtils.checkFilename(filename)) {
@@ -252,8 +280,11 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
 
             Path destFile = ioUtils.getResultUploadFileSecurely(
                     studyResultId, componentResult.get().getId(), filename).toPath();
-            tmpFile.moveFileTo(destFile, true);
-            studyLogger.logResultUploading(destFile, componentResult.get());
+            // An existing file with the same name is replaced
+            long replacedFileSize = Files.exists(destFile) ? Files.size(destFile) : 0;
+            Files.move(upload.getFile(), destFile, StandardCopyOption.REPLACE_EXISTING);
+            studyResultDao.addToUploadsSize(studyResultId, upload.getSize() - replacedFileSize);
+            studyLogger.logResultUploading(destFile, upload.getHash(), componentResult.get());
         } catch (IOException e) {
             return badRequest("File upload failed");
         }
@@ -264,16 +295,11 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
     public Result downloadResultFile(Long studyId, Long studyResultId, String filename, Optional<Long> componentId)
             throws PublixException {
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
+        StudyAuthorisationCache.Context context = publixUtils.authoriseStudyRun(
+                studyAuthorisation, idCookie, studyId, studyResultId);
         Component component = null;
-        if (componentId.isPresent()) {
-            component = publixUtils.retrieveComponent(study, componentId.get());
-            publixUtils.checkComponentBelongsToStudy(study, component);
-        }
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study, studyResultId);
+        if (componentId.isPresent()) component = publixUtils.retrieveComponent(context, componentId.get());
+        StudyResult studyResult = publixUtils.retrieveStudyResult(context);
         Optional<File> file = publixUtils.retrieveLastUploadedResultFile(studyResult, component, filename);
         return file.isPresent() ? ok(file.get(), false) : notFound("Result file not found: " + filename);
     }
@@ -339,14 +365,12 @@ public abstract class Publix<T extends Worker> extends Controller implements IPu
     @Override
     public Result log(Long studyId, Long componentId, Long studyResultId) throws PublixException {
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
+        StudyAuthorisationCache.Context context = publixUtils.authoriseStudyRun(
+                studyAuthorisation, idCookie, studyId, studyResultId);
         String msg = request().body().asText().replaceAll("\\R+", " ").replaceAll("\\s+"," ");
         LOGGER.info("logging from client: study ID " + studyId
                 + ", component ID " + componentId + ", worker ID "
-                + worker.getId() + ", study result ID " + studyResultId
+                + context.getWorkerId() + ", study result ID " + studyResultId
                 + ", message '" + msg + "'.");
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
@@ -4,9 +4,11 @@ import controllers.publix.actionannotation.PublixAccessLoggingAction.PublixAcces
 import controllers.publix.workers.*;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.PublixException;
+import general.common.DatabaseExecutionContext;
 import models.common.workers.*;
 import play.Application;
-import play.db.jpa.Transactional;
+import play.db.jpa.JPAApi;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
@@ -17,8 +19,10 @@ import utils.common.HttpUtils;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
-import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Interceptor for Publix: it intercepts requests for JATOS' public API (Publix)
@@ -42,458 +46,177 @@ import java.util.Optional;
  * GeneralMultiplePublix. They use the GeneralMultipleWorker.<br>
  * 6. Requests coming from MechTurk or MechTurk Sandbox will be forwarded to
  * MTPublix. They use MTWorker and MTSandboxWorker.<br>
+ * <p>
+ * All endpoints that need the database are asynchronous: their work is done in a transaction in the
+ * DatabaseExecutionContext (which is as big as the DB connection pool). This way a crowd of study runs doesn't block
+ * Play's default threads, e.g. needed to serve study assets. Only the heartbeat is done right away if the study run's
+ * authorisation is cached (then it doesn't need the database).
  *
  * @author Kristian Lange
  */
 @Singleton
 @PublixAccessLogging
-public class PublixInterceptor extends Controller implements IPublix {
+public class PublixInterceptor extends Controller {
 
     private final IdCookieService idCookieService;
     private final Provider<Application> application;
+    private final JPAApi jpa;
+    private final DatabaseExecutionContext dbExecutionContext;
 
     @Inject
-    public PublixInterceptor(IdCookieService idCookieService, Provider<Application> application) {
+    public PublixInterceptor(IdCookieService idCookieService, Provider<Application> application, JPAApi jpa,
+            DatabaseExecutionContext dbExecutionContext) {
         this.idCookieService = idCookieService;
         this.application = application;
+        this.jpa = jpa;
+        this.dbExecutionContext = dbExecutionContext;
     }
 
-    @Override
-    @Transactional
-    public Result startStudy(Long studyId, Long batchId) throws PublixException {
-        Result result;
-        String workerType = getWorkerTypeFromQuery();
-        switch (workerType) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).startStudy(studyId, batchId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class).startStudy(studyId, batchId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .startStudy(studyId, batchId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class).startStudy(studyId, batchId);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class).startStudy(studyId, batchId);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).startStudy(studyId, batchId);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#startStudy
+     */
+    public CompletionStage<Result> startStudy(Long studyId, Long batchId) {
+        return inTransaction(() -> publixForWorkerType(getWorkerTypeFromQuery()).startStudy(studyId, batchId));
     }
 
-    @Override
-    @Transactional
-    public Result startComponent(Long studyId, Long componentId, Long studyResultId, String message)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .startComponent(studyId, componentId, studyResultId, message);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .startComponent(studyId, componentId, studyResultId, message);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .startComponent(studyId, componentId, studyResultId, message);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .startComponent(studyId, componentId, studyResultId, message);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .startComponent(studyId, componentId, studyResultId, message);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).startComponent(studyId,
-                        componentId, studyResultId, message);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#startComponent
+     */
+    public CompletionStage<Result> startComponent(Long studyId, Long componentId, Long studyResultId,
+            String message) {
+        return inTransaction(() -> publixForStudyResult(studyResultId)
+                .startComponent(studyId, componentId, studyResultId, message));
     }
 
-    @Override
-    @Transactional
-    public Result getInitData(Long studyId, Long componentId, Long studyResultId)
-            throws PublixException, IOException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#getInitData
+     */
+    public CompletionStage<Result> getInitData(Long studyId, Long componentId, Long studyResultId) {
+        return inTransaction(() -> publixForStudyResult(studyResultId)
+                .getInitData(studyId, componentId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result setStudySessionData(Long studyId, Long studyResultId) throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#setStudySessionData
+     */
+    public CompletionStage<Result> setStudySessionData(Long studyId, Long studyResultId) {
+        return inTransaction(() -> publixForStudyResult(studyResultId).setStudySessionData(studyId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result heartbeat(Long studyId, Long studyResultId) throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).heartbeat(studyId,
-                        studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .heartbeat(studyId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .heartbeat(studyId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .heartbeat(studyId, studyResultId);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .heartbeat(studyId, studyResultId);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).heartbeat(studyId,
-                        studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#heartbeat
+     */
+    public CompletionStage<Result> heartbeat(Long studyId, Long studyResultId) throws PublixException {
+        // Usually the study run's authorisation is cached and the heartbeat is done right away without the database
+        Optional<Result> result = publixForStudyResult(studyResultId).heartbeatIfAuthorisationCached(studyId,
+                studyResultId);
+        if (result.isPresent()) return CompletableFuture.completedFuture(result.get());
+        return inTransaction(() -> publixForStudyResult(studyResultId).heartbeat(studyId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result submitResultData(Long studyId, Long componentId, Long studyResultId)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#submitResultData
+     */
+    public CompletionStage<Result> submitResultData(Long studyId, Long componentId, Long studyResultId) {
+        return inTransaction(() -> publixForStudyResult(studyResultId)
+                .submitResultData(studyId, componentId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result appendResultData(Long studyId, Long componentId, Long studyResultId)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#appendResultData
+     */
+    public CompletionStage<Result> appendResultData(Long studyId, Long componentId, Long studyResultId) {
+        return inTransaction(() -> publixForStudyResult(studyResultId)
+                .appendResultData(studyId, componentId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result uploadResultFile(Http.Request request, Long studyId, Long componentId, Long studyResultId, String filename)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).uploadResultFile(request, studyId, componentId, studyResultId,
-                        filename);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class).uploadResultFile(request, studyId, componentId,
-                        studyResultId, filename);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class).uploadResultFile(request, studyId, componentId,
-                        studyResultId, filename);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class).uploadResultFile(request, studyId, componentId,
-                        studyResultId, filename);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class).uploadResultFile(request, studyId, componentId,
-                        studyResultId, filename);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).uploadResultFile(request, studyId, componentId, studyResultId,
-                        filename);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#uploadResultFile
+     */
+    @BodyParser.Of(ResultUploadBodyParser.class)
+    public CompletionStage<Result> uploadResultFile(Http.Request request, Long studyId, Long componentId,
+            Long studyResultId, String filename) {
+        return inTransaction(() -> publixForStudyResult(studyResultId)
+                .uploadResultFile(request, studyId, componentId, studyResultId, filename));
     }
 
-    @Override
-    @Transactional
-    public Result downloadResultFile(Long studyId, Long studyResultId, String filename, Optional<Long> componentId)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).downloadResultFile(studyId, studyResultId, filename,
-                        componentId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class).downloadResultFile(studyId, studyResultId,
-                        filename, componentId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class).downloadResultFile(studyId, studyResultId,
-                        filename, componentId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class).downloadResultFile(studyId, studyResultId,
-                        filename, componentId);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class).downloadResultFile(studyId, studyResultId,
-                        filename, componentId);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).downloadResultFile(studyId, studyResultId, filename,
-                        componentId);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#downloadResultFile
+     */
+    public CompletionStage<Result> downloadResultFile(Long studyId, Long studyResultId, String filename,
+            Optional<Long> componentId) {
+        return inTransaction(() -> publixForStudyResult(studyResultId)
+                .downloadResultFile(studyId, studyResultId, filename, componentId));
     }
 
-    @Override
-    @Transactional
-    public Result abortStudy(Long studyId, Long studyResultId, String message)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#abortStudy
+     */
+    public CompletionStage<Result> abortStudy(Long studyId, Long studyResultId, String message) {
+        return inTransaction(() -> publixForStudyResult(studyResultId).abortStudy(studyId, studyResultId, message));
     }
 
-    @Override
-    @Transactional
-    public Result finishStudy(Long studyId, Long studyResultId, Boolean successful, String message)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .finishStudy(studyId, studyResultId, successful, message);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .finishStudy(studyId, studyResultId, successful, message);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .finishStudy(studyId, studyResultId, successful, message);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .finishStudy(studyId, studyResultId, successful, message);
-                break;
-            case GeneralMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralMultiplePublix.class)
-                        .finishStudy(studyId, studyResultId, successful, message);
-                break;
-            // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-            case MTWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .finishStudy(studyId, studyResultId, successful, message);
-                break;
-            default:
-                throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    /**
+     * @see IPublix#finishStudy
+     */
+    public CompletionStage<Result> finishStudy(Long studyId, Long studyResultId, Boolean successful,
+            String message) {
+        return inTransaction(() -> publixForStudyResult(studyResultId)
+                .finishStudy(studyId, studyResultId, successful, message));
+    }
+
+    /**
+     * @see IPublix#log
+     */
+    public CompletionStage<Result> log(Long studyId, Long componentId, Long studyResultId) {
+        return inTransaction(() -> publixForStudyResult(studyResultId).log(studyId, componentId, studyResultId));
+    }
+
+    /**
+     * Does the given action in a transaction in the DatabaseExecutionContext (with the current Http.Context). A
+     * PublixException (or any other exception) rolls back the transaction and fails the returned CompletionStage - it's
+     * then handled by the ErrorHandler.
+     */
+    private CompletionStage<Result> inTransaction(PublixAction action) {
+        return CompletableFuture.supplyAsync(() -> jpa.withTransaction(() -> {
+            try {
+                return action.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }), dbExecutionContext.current());
+    }
+
+    @FunctionalInterface
+    private interface PublixAction {
+        Result call() throws Exception;
     }
 
-    @Override
-    @Transactional
-    public Result log(Long studyId, Long componentId, Long studyResultId)
-            throws PublixException {
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
+    /**
+     * Returns the Publix implementation for the worker type that is stored in the ID cookie of the given study result
+     */
+    private Publix<?> publixForStudyResult(Long studyResultId) throws PublixException {
+        return publixForWorkerType(getWorkerTypeFromIdCookie(studyResultId));
+    }
+
+    private Publix<?> publixForWorkerType(String workerType) throws BadRequestPublixException {
+        switch (workerType) {
             case JatosWorker.WORKER_TYPE:
-                return instanceOfPublix(JatosPublix.class)
-                        .log(studyId, componentId, studyResultId);
+                return instanceOfPublix(JatosPublix.class);
             case PersonalSingleWorker.WORKER_TYPE:
-                return instanceOfPublix(PersonalSinglePublix.class)
-                        .log(studyId, componentId, studyResultId);
+                return instanceOfPublix(PersonalSinglePublix.class);
             case PersonalMultipleWorker.WORKER_TYPE:
-                return instanceOfPublix(PersonalMultiplePublix.class)
-                        .log(studyId, componentId, studyResultId);
+                return instanceOfPublix(PersonalMultiplePublix.class);
             case GeneralSingleWorker.WORKER_TYPE:
-                return instanceOfPublix(GeneralSinglePublix.class)
-                        .log(studyId, componentId, studyResultId);
+                return instanceOfPublix(GeneralSinglePublix.class);
             case GeneralMultipleWorker.WORKER_TYPE:
-                return instanceOfPublix(GeneralMultiplePublix.class)
-                        .log(studyId, componentId, studyResultId);
+                return instanceOfPublix(GeneralMultiplePublix.class);
             // Handle MTWorker like MTSandboxWorker
             case MTSandboxWorker.WORKER_TYPE:
             case MTWorker.WORKER_TYPE:
-                return instanceOfPublix(MTPublix.class)
-                        .log(studyId, componentId, studyResultId);
+                return instanceOfPublix(MTPublix.class);
             default:
                 throw new BadRequestPublixException(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
         }
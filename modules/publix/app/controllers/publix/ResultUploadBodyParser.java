@@ -0,0 +1,305 @@
+package controllers.publix;
+
+import akka.NotUsed;
+import akka.stream.IOResult;
+import akka.stream.Materializer;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.util.ByteString;
+import daos.common.StudyResultDao;
+import general.common.Common;
+import general.common.DatabaseExecutionContext;
+import models.common.StudyResult;
+import play.Logger;
+import play.Logger.ALogger;
+import play.core.parsers.Multipart;
+import play.db.jpa.JPAApi;
+import play.http.HttpErrorHandler;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Http.MultipartFormData;
+import play.mvc.Result;
+import play.mvc.Results;
+import services.publix.PublixErrorMessages;
+import services.publix.PublixHelpers;
+import services.publix.idcookie.IdCookieModel;
+import services.publix.idcookie.IdCookieService;
+import utils.common.HashUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Body parser for result file uploads (multipart/form-data). Instead of buffering the whole body in memory or in a
+ * temporary file (Play's default) the uploaded files are streamed directly into a staging directory within the result
+ * uploads directory. From there the action only has to move them to their final place (usually just a rename).
+ * <p>
+ * Before any byte is accepted the study run is checked: there has to be an ID cookie for the study result and the
+ * study result has to be running and belong to the cookie's worker and study. The check runs in the
+ * DatabaseExecutionContext - the body parser itself never blocks.
+ * <p>
+ * While the bytes arrive the size limits are enforced: the max file size and what is left of the limit per study
+ * run. As soon as one is exceeded the upload is aborted with a 413 (Request Entity Too Large). The file's hash for the
+ * study log is calculated on the way too - so each upload is read exactly once.
+ */
+@Singleton
+public class ResultUploadBodyParser implements BodyParser<MultipartFormData<ResultUploadBodyParser.ResultUpload>> {
+
+    private static final ALogger LOGGER = Logger.of(ResultUploadBodyParser.class);
+
+    /**
+     * Max size of the non-file parts of the body that are kept in memory
+     */
+    private static final long MAX_MEMORY_BUFFER = 100 * 1024;
+
+    /**
+     * Max size of the multipart boundaries and part headers around the file
+     */
+    private static final long MULTIPART_OVERHEAD = 16 * 1024;
+
+    static final String STAGING_DIR = ".incoming";
+
+    private final Materializer materializer;
+    private final HttpErrorHandler errorHandler;
+    private final JPAApi jpa;
+    private final DatabaseExecutionContext dbExecutionContext;
+    private final StudyResultDao studyResultDao;
+    private final IdCookieService idCookieService;
+
+    @Inject
+    ResultUploadBodyParser(Materializer materializer, HttpErrorHandler errorHandler, JPAApi jpa,
+            DatabaseExecutionContext dbExecutionContext, StudyResultDao studyResultDao,
+            IdCookieService idCookieService) {
+        this.materializer = materializer;
+        this.errorHandler = errorHandler;
+        this.jpa = jpa;
+        this.dbExecutionContext = dbExecutionContext;
+        this.studyResultDao = studyResultDao;
+        this.idCookieService = idCookieService;
+    }
+
+    @Override
+    public Accumulator<ByteString, F.Either<Result, MultipartFormData<ResultUpload>>> apply(
+            Http.RequestHeader request) {
+        if (!Common.isResultUploadsEnabled()) {
+            return Accumulator.done(F.Either.Left(Results.forbidden("File upload not allowed. Contact your admin.")));
+        }
+
+        Long studyResultId;
+        try {
+            studyResultId = Long.valueOf(request.getQueryString("srid"));
+        } catch (NumberFormatException e) {
+            return Accumulator.done(F.Either.Left(Results.badRequest("Missing study result ID")));
+        }
+        Optional<IdCookieModel> idCookie = idCookieService.findIdCookie(request, studyResultId);
+        if (!idCookie.isPresent()) {
+            return Accumulator.done(F.Either.Left(Results.badRequest(
+                    PublixErrorMessages.idCookieForThisStudyResultNotExists(studyResultId))));
+        }
+
+        // The study result is checked in the DatabaseExecutionContext - no byte of the body is accepted before
+        CompletionStage<Accumulator<ByteString, F.Either<Result, MultipartFormData<ResultUpload>>>> accumulator =
+                CompletableFuture.supplyAsync(() -> jpa.withTransaction(() -> checkStudyRun(idCookie.get())),
+                        dbExecutionContext)
+                        .thenApply(check -> check.left.isPresent()
+                                ? Accumulator.done(F.Either.Left(check.left.get()))
+                                : createAccumulator(request, check.right.get()));
+        return Accumulator.flatten(accumulator, materializer);
+    }
+
+    /**
+     * Checks that the study run of the ID cookie is still running and belongs to the ID cookie's worker and study.
+     * This is only a first check that keeps uploads of unknown or finished study runs out - the action does the
+     * complete authorisation before it keeps the file. Returns the size of the files that were already uploaded in
+     * this study run (0 if it's unknown - the action checks again anyway) or the Result if the check failed.
+     */
+    private F.Either<Result, Long> checkStudyRun(IdCookieModel idCookie) {
+        StudyResult studyResult = studyResultDao.findById(idCookie.getStudyResultId());
+        if (studyResult == null) {
+            return F.Either.Left(Results.badRequest(PublixErrorMessages.STUDY_RESULT_DOESN_T_EXIST));
+        }
+        if (!studyResult.getWorkerId().equals(idCookie.getWorkerId())) {
+            return F.Either.Left(Results.forbidden(
+                    PublixErrorMessages.workerNeverDidStudy(idCookie.getWorkerId(), idCookie.getStudyId())));
+        }
+        if (!studyResult.getStudy().getId().equals(idCookie.getStudyId())) {
+            return F.Either.Left(Results.forbidden(PublixErrorMessages.STUDY_RESULT_DOESN_T_BELONG_TO_THIS_STUDY));
+        }
+        if (PublixHelpers.studyDone(studyResult)) {
+            return F.Either.Left(Results.forbidden(PublixErrorMessages.workerFinishedStudyAlready(
+                    idCookie.getWorkerId(), idCookie.getStudyId())));
+        }
+        Long uploadsSize = studyResultDao.findUploadsSize(studyResult.getId());
+        return F.Either.Right(uploadsSize != null ? uploadsSize : 0);
+    }
+
+    /**
+     * Creates the accumulator that streams the files into the staging directory - with the size limits that are left
+     * for this study run
+     */
+    private Accumulator<ByteString, F.Either<Result, MultipartFormData<ResultUpload>>> createAccumulator(
+            Http.RequestHeader request, long uploadsSize) {
+        long remainingForStudyRun = Common.getResultUploadsLimitPerStudyRun() - uploadsSize;
+        if (remainingForStudyRun <= 0) return tooLarge(UploadTooLargeException.LIMIT_PER_STUDY_RUN);
+        UploadTooLargeException limitException = Common.getResultUploadsMaxFileSize() <= remainingForStudyRun
+                ? new UploadTooLargeException(UploadTooLargeException.MAX_FILE_SIZE)
+                : new UploadTooLargeException(UploadTooLargeException.LIMIT_PER_STUDY_RUN);
+        long maxFileSize = Math.min(Common.getResultUploadsMaxFileSize(), remainingForStudyRun);
+
+        // Abort right away if the body is announced to be too large
+        Optional<Long> contentLength = request.header(Http.HeaderNames.CONTENT_LENGTH)
+                .filter(value -> value.matches("\\d{1,18}")).map(Long::parseLong);
+        if (contentLength.isPresent() && contentLength.get() > maxFileSize + MULTIPART_OVERHEAD) {
+            return tooLarge(limitException.getMessage());
+        }
+
+        return new FileStagingParser(maxFileSize, limitException).apply(request).recover(throwable -> {
+            Throwable cause = throwable;
+            while (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+            if (cause instanceof UploadTooLargeException) {
+                return F.Either.Left(Results.status(Http.Status.REQUEST_ENTITY_TOO_LARGE, cause.getMessage()));
+            }
+            if (throwable instanceof RuntimeException) throw (RuntimeException) throwable;
+            throw new CompletionException(throwable);
+        }, materializer.executionContext());
+    }
+
+    private Accumulator<ByteString, F.Either<Result, MultipartFormData<ResultUpload>>> tooLarge(String msg) {
+        return Accumulator.done(F.Either.Left(Results.status(Http.Status.REQUEST_ENTITY_TOO_LARGE, msg)));
+    }
+
+    /**
+     * Creates a new file in the staging directory
+     */
+    private static Path createStagingFile() throws IOException {
+        Path stagingDir = Paths.get(Common.getResultUploadsPath(), STAGING_DIR);
+        Files.createDirectories(stagingDir);
+        return Files.createTempFile(stagingDir, "upload-", ".tmp");
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't delete staged upload file " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Multipart parser that streams each file part into a staging file. Since the size limit differs for each request
+     * a new one is created for each request.
+     */
+    private class FileStagingParser extends BodyParser.DelegatingMultipartFormDataBodyParser<ResultUpload> {
+
+        private final long maxFileSize;
+        private final UploadTooLargeException limitException;
+
+        FileStagingParser(long maxFileSize, UploadTooLargeException limitException) {
+            super(materializer, MAX_MEMORY_BUFFER, maxFileSize + MULTIPART_OVERHEAD, errorHandler);
+            this.maxFileSize = maxFileSize;
+            this.limitException = limitException;
+        }
+
+        @Override
+        public Function<Multipart.FileInfo, Accumulator<ByteString, MultipartFormData.FilePart<ResultUpload>>>
+        createFilePartHandler() {
+            return fileInfo -> {
+                Path stagingFile;
+                try {
+                    stagingFile = createStagingFile();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                MessageDigest digest = HashUtils.getMessageDigest(HashUtils.SHA_256);
+                long[] size = {0};
+                Flow<ByteString, ByteString, NotUsed> limitAndHash = Flow.<ByteString>create().map(bytes -> {
+                    size[0] += bytes.size();
+                    if (size[0] > maxFileSize) throw limitException;
+                    digest.update(bytes.asByteBuffer());
+                    return bytes;
+                });
+                Sink<ByteString, CompletionStage<IOResult>> fileSink =
+                        limitAndHash.toMat(FileIO.toPath(stagingFile), Keep.right());
+                String contentType = fileInfo.contentType().isDefined() ? fileInfo.contentType().get() : null;
+                return Accumulator.fromSink(fileSink).map(ioResult -> {
+                    if (!ioResult.wasSuccessful()) throw new CompletionException(ioResult.getError());
+                    ResultUpload upload = new ResultUpload(stagingFile, ioResult.getCount(),
+                            HashUtils.getHash(digest));
+                    return new MultipartFormData.FilePart<>(fileInfo.partName(), fileInfo.fileName(), contentType,
+                            upload);
+                }, materializer.executionContext()).recover(throwable -> {
+                    deleteQuietly(stagingFile);
+                    throw throwable instanceof CompletionException
+                            ? (CompletionException) throwable : new CompletionException(throwable);
+                }, materializer.executionContext());
+            };
+        }
+    }
+
+    /**
+     * A result file that was streamed into the staging directory. It has to be moved to its final place or deleted.
+     */
+    public static class ResultUpload {
+
+        private final Path file;
+        private final long size;
+        private final String hash;
+
+        private ResultUpload(Path file, long size, String hash) {
+            this.file = file;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * SHA-256 hash of the file
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Deletes the staged file - if it wasn't moved already
+         */
+        public void delete() {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Thrown while an upload is streamed if it exceeds a size limit
+     */
+    private static class UploadTooLargeException extends RuntimeException {
+
+        static final String MAX_FILE_SIZE = "File size too large";
+        static final String LIMIT_PER_STUDY_RUN = "Reached max file size limit per study run";
+
+        UploadTooLargeException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+}
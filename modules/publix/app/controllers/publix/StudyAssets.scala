@@ -6,24 +6,37 @@ import java.nio.charset.StandardCharsets
 
 import daos.common.{ComponentDao, StudyDao}
 import exceptions.publix.{ForbiddenPublixException, NotFoundPublixException, PublixException}
-import general.common.{Common, MessagesStrings}
+import general.common.{Common, DatabaseExecutionContext, MessagesStrings}
 import javax.inject.{Inject, Singleton}
 import play.api.Logger
 import play.api.mvc._
 import play.core.j.JavaHelpers
+import play.core.utils.HttpHeaderParameterEncoding
 import play.db.jpa.JPAApi
-import services.publix.PublixErrorMessages
+import services.publix.{PublixErrorMessages, StudyAssetsCompressor, StudyAssetsIndex}
 import services.publix.idcookie.IdCookieService
 import utils.common.{HttpUtils, IOUtils}
 
 import scala.compat.java8.FunctionConverters.asJavaSupplier
-import scala.concurrent.ExecutionContext.Implicits.global
+import scala.compat.java8.OptionConverters._
+import scala.concurrent.{ExecutionContext, Future}
 import scala.util.matching.Regex
 
 /**
   * Manages web-access to files in the external study assets directories (outside of JATOS'
   * packed Jar).
   *
+  * Study assets files are served non-blocking in Play's default execution context. The few DB
+  * lookups (e.g. the study's assets directory) are done in the DatabaseExecutionContext - this
+  * way study assets don't have to wait for threads that are blocked by DB work.
+  *
+  * The files' size, last modified time and ETag are taken from the StudyAssetsIndex. Requests
+  * with If-None-Match or If-Modified-Since get a 304 (Not Modified) if the file didn't change.
+  *
+  * Compressible files are sent gzipped if the client accepts it. They are compressed only once and
+  * then taken from the StudyAssetsCompressor's cache. Study assets are therefore excluded from
+  * Play's GzipFilter (see GzipFilterConfigProvider).
+  *
   * @author Kristian Lange
   */
 @Singleton
@@ -32,10 +45,16 @@ class StudyAssets @Inject()(components: ControllerComponents,
                             idCookieService: IdCookieService,
                             jpa: JPAApi,
                             studyDao: StudyDao,
-                            assets: Assets) extends AbstractController(components) {
+                            assets: Assets,
+                            studyAssetsIndex: StudyAssetsIndex,
+                            studyAssetsCompressor: StudyAssetsCompressor,
+                            dbExecutionContext: DatabaseExecutionContext)
+  extends AbstractController(components) {
 
   private val logger: Logger = Logger(this.getClass)
 
+  private implicit val executionContext: ExecutionContext = components.executionContext
+
   private val URL_PATH_SEPARATOR = "/"
 
   /**
@@ -57,13 +76,14 @@ class StudyAssets @Inject()(components: ControllerComponents,
       case "jatos.js" => assets.at(path = "/public/lib/jatos-publix/javascripts", file = "jatos.js")
       case "jatos-3.5.2.js" => assets.at(path = "/public/lib/jatos-publix/javascripts", file = "jatos-3.5.2.js")
       case jatosPublixPattern(_, _, file) => assets.at(path = "/public/lib/jatos-publix/javascripts", file)
-      case _ => jpa.withTransaction(asJavaSupplier(() => {
-        val study = studyDao.findById(studyId)
-        if (study == null) {
-          BadRequest(MessagesStrings.studyNotExist(studyId))
+      case _ => Action.async { request =>
+        Future {
+          jpa.withTransaction(asJavaSupplier(() => Option(studyDao.findById(studyId)).map(_.getDirName)))
+        }(dbExecutionContext).flatMap {
+          case Some(dirName) => viaAssetsPath(dirName + URL_PATH_SEPARATOR + urlPath)(request)
+          case None => Future.successful(BadRequest(MessagesStrings.studyNotExist(studyId)))
         }
-        viaAssetsPath(study.getDirName + URL_PATH_SEPARATOR + urlPath)
-      }))
+      }
     }
 
   /**
@@ -78,14 +98,26 @@ class StudyAssets @Inject()(components: ControllerComponents,
     val filePath = urlDecodedPath.replace(URL_PATH_SEPARATOR, File.separator)
     try {
       checkProperAssets(urlPath) // Windows needs URL path
-      val file = ioUtils.getExistingFileSecurely(Common.getStudyAssetsRootPath, filePath)
-      logger.debug(s".viaAssetsPath: loading file ${file.getPath}.")
-      if (request.headers.hasHeader(RANGE)) {
-        // Support range requests (needed for videos in Safari)
+      val entry = studyAssetsIndex.find(urlDecodedPath)
+      logger.debug(s".viaAssetsPath: loading file ${entry.getFile.getPath}.")
+      val gzipped = if (StudyAssetsCompressor.acceptsGzip(request.headers.get(ACCEPT_ENCODING).asJava))
+        studyAssetsCompressor.findGzipped(entry).asScala else None
+      val cacheHeaders = Seq("Cache-Control" -> "private", VARY -> ACCEPT_ENCODING, ACCEPT_RANGES -> "bytes",
+        ETAG -> (if (gzipped.isDefined) entry.getGzipEtag else entry.getEtag),
+        LAST_MODIFIED -> entry.getLastModified)
+      if (entry.isNotModified(request.headers.get(IF_NONE_MATCH).asJava,
+        request.headers.get(IF_MODIFIED_SINCE).asJava)) {
+        NotModified.withHeaders(cacheHeaders: _*)
+      } else if (request.headers.hasHeader(RANGE)) {
+        // Support range requests (needed for videos in Safari) - ranges always refer to the uncompressed file
         // https://www.playframework.com/documentation/2.7.x/AssetsOverview#Range-requests-support
-        RangeResult.ofFile(file, request.headers.get(RANGE), Option.empty)
+        RangeResult.ofFile(entry.getFile, request.headers.get(RANGE), Some(entry.getContentType))
+      } else if (gzipped.isDefined) {
+        Ok.sendFile(gzipped.get, inline = true).as(entry.getContentType).withHeaders(cacheHeaders: _*)
+          .withHeaders(CONTENT_ENCODING -> "gzip", CONTENT_DISPOSITION ->
+            ("inline; " + HttpHeaderParameterEncoding.encode("filename", entry.getFile.getName)))
       } else {
-        Ok.sendFile(file, true).withHeaders("Cache-Control" -> "private")
+        Ok.sendFile(entry.getFile, true).as(entry.getContentType).withHeaders(cacheHeaders: _*)
       }
     } catch {
       case e: PublixException =>
@@ -143,8 +175,8 @@ class StudyAssets @Inject()(components: ControllerComponents,
     * Redirects to or shows the end page (either from study assets or default end page) after a study run finished.
     * Passes on the confirmationCode in case it's defined (either cookie or URL query parameter).
     */
-  def endPage(studyId: Long, confirmationCode: Option[String] = None): Action[AnyContent] = Action { _ =>
-    jpa.withTransaction(asJavaSupplier(() => {
+  def endPage(studyId: Long, confirmationCode: Option[String] = None): Action[AnyContent] = Action.async { _ =>
+    Future(jpa.withTransaction(asJavaSupplier(() => {
       val study = studyDao.findById(studyId)
 
       if (study == null) BadRequest(MessagesStrings.studyNotExist(studyId))
@@ -171,7 +203,7 @@ class StudyAssets @Inject()(components: ControllerComponents,
           case None => Ok(views.html.publix.endPage.render())
         }
       }
-    }));
+    })))(dbExecutionContext)
   }
 
   private def confirmationCodeCookie(confirmationCode: String): Cookie = Cookie(
@@ -7,6 +7,7 @@ import controllers.publix.StudyAssets;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.PublixException;
+import general.common.HeartbeatBuffer;
 import general.common.StudyLogger;
 import models.common.Batch;
 import models.common.Component;
@@ -58,10 +59,11 @@ public class GeneralMultiplePublix extends Publix<GeneralMultipleWorker> impleme
             PersonalMultipleErrorMessages errorMessages,
             StudyAssets studyAssets, JsonUtils jsonUtils,
             ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils,
+            HeartbeatBuffer heartbeatBuffer) {
         super(jpa, publixUtils, studyAuthorisation,
                 groupChannel, idCookieService, errorMessages, studyAssets,
-                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils, heartbeatBuffer);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
@@ -75,7 +77,7 @@ public class GeneralMultiplePublix extends Publix<GeneralMultipleWorker> impleme
         Study study = publixUtils.retrieveStudy(studyId);
         Batch batch = publixUtils.retrieveBatchByIdOrDefault(batchId, study);
 
-        GeneralMultipleWorker worker = workerCreator.createAndPersistGeneralMultipleWorker(batch);
+        GeneralMultipleWorker worker = workerCreator.createAndPersistGeneralMultipleWorker();
         studyAuthorisation.checkWorkerAllowedToStartStudy(worker, study, batch);
         LOGGER.info(".startStudy: study (study ID " + studyId + ", batch ID "
                 + batchId + ") " + "assigned to worker with ID " + worker.getId());
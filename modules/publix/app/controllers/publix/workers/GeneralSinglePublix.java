@@ -8,6 +8,7 @@ import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.InternalServerErrorPublixException;
 import exceptions.publix.PublixException;
+import general.common.HeartbeatBuffer;
 import general.common.StudyLogger;
 import models.common.Batch;
 import models.common.Component;
@@ -61,10 +62,11 @@ public class GeneralSinglePublix extends Publix<GeneralSingleWorker> implements
             GeneralSingleCookieService generalSingleCookieService,
             GeneralSingleErrorMessages errorMessages, StudyAssets studyAssets,
             JsonUtils jsonUtils, ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils,
+            HeartbeatBuffer heartbeatBuffer) {
         super(jpa, publixUtils, studyAuthorisation, groupChannel,
                 idCookieService, errorMessages, studyAssets,
-                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils, heartbeatBuffer);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
@@ -105,7 +107,7 @@ public class GeneralSinglePublix extends Publix<GeneralSingleWorker> implements
         StudyResult studyResult;
         GeneralSingleWorker worker;
         if (workerId == null) {
-            worker = workerCreator.createAndPersistGeneralSingleWorker(batch);
+            worker = workerCreator.createAndPersistGeneralSingleWorker();
             studyAuthorisation.checkWorkerAllowedToStartStudy(worker, study, batch);
             LOGGER.info(".startStudy: study (study ID " + studyId + ", batch ID "
                     + batchId + ") " + "assigned to worker with ID "
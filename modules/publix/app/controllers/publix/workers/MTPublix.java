@@ -6,6 +6,7 @@ import daos.common.StudyResultDao;
 import daos.common.worker.MTWorkerDao;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.PublixException;
+import general.common.HeartbeatBuffer;
 import general.common.StudyLogger;
 import models.common.Batch;
 import models.common.Component;
@@ -74,11 +75,12 @@ public class MTPublix extends Publix<MTWorker> implements IPublix {
             MTGroupChannel groupChannel, IdCookieService idCookieService,
             MTErrorMessages errorMessages, StudyAssets studyAssets,
             JsonUtils jsonUtils, ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, MTWorkerDao mtWorkerDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, MTWorkerDao mtWorkerDao, StudyLogger studyLogger, IOUtils ioUtils,
+            HeartbeatBuffer heartbeatBuffer) {
         super(jpa, publixUtils, studyAuthorisation,
                 groupChannel, idCookieService,
                 errorMessages, studyAssets, jsonUtils, componentResultDao,
-                studyResultDao, studyLogger, ioUtils);
+                studyResultDao, studyLogger, ioUtils, heartbeatBuffer);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
@@ -115,7 +117,7 @@ public class MTPublix extends Publix<MTWorker> implements IPublix {
             boolean isRequestFromMTurkSandbox = workerType
                     .equals(MTSandboxWorker.WORKER_TYPE);
             worker = Optional.of(workerCreator.createAndPersistMTWorker(mtWorkerId,
-                    isRequestFromMTurkSandbox, batch));
+                    isRequestFromMTurkSandbox));
         }
         studyAuthorisation.checkWorkerAllowedToStartStudy(worker.get(), study, batch);
         LOGGER.info(".startStudy: study (study ID " + studyId + ", batch ID "
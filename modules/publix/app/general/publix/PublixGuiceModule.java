@@ -2,8 +2,12 @@ package general.publix;
 
 import batch.BatchDispatcher;
 import batch.BatchDispatcherRegistry;
+import batch.DispatcherBatchSessionAccess;
 import com.google.inject.AbstractModule;
 import com.google.inject.TypeLiteral;
+import general.common.BatchSessionAccess;
+import general.common.GroupSessionAccess;
+import group.DispatcherGroupSessionAccess;
 import group.GroupDispatcherRegistry;
 import group.GroupDispatcher;
 import models.common.workers.*;
@@ -54,6 +58,10 @@ public class PublixGuiceModule extends AbstractModule implements AkkaGuiceSuppor
 		bindActor(BatchDispatcherRegistry.class, "batch-dispatcher-registry-actor");
 		bindActorFactory(BatchDispatcher.class, BatchDispatcher.Factory.class);
 		bindActorFactory(GroupDispatcher.class, GroupDispatcher.Factory.class);
+
+		// Batch and group sessions are held in memory by the BatchDispatchers and GroupDispatchers
+		bind(BatchSessionAccess.class).to(DispatcherBatchSessionAccess.class);
+		bind(GroupSessionAccess.class).to(DispatcherGroupSessionAccess.class);
 	}
 
 }
@@ -0,0 +1,41 @@
+package services.publix;
+
+import daos.common.BatchDao;
+import exceptions.publix.ForbiddenPublixException;
+import models.common.Batch;
+import models.common.workers.Worker;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Admits workers into a batch while keeping the batch's maxTotalWorkers - without loading the batch's workerList.
+ *
+ * The batch's persisted worker count (Batch.workerCount) is the authority: the batch's row is locked, the worker is
+ * inserted with a conditional INSERT and the count is only incremented if it was (BatchDao.addWorkerIfAllowed). This
+ * way concurrent transactions can't both take the last place and the (possibly outdated) worker count of the Batch
+ * entity isn't used at all.
+ */
+@Singleton
+public class BatchWorkerAdmission {
+
+    private final BatchDao batchDao;
+
+    @Inject
+    BatchWorkerAdmission(BatchDao batchDao) {
+        this.batchDao = batchDao;
+    }
+
+    /**
+     * Admits the worker into the batch (adds it to the batch's workerList) if it isn't already in there. Throws a
+     * ForbiddenPublixException if the batch's maxTotalWorkers is reached. The worker must be persisted. Has to be
+     * called within a transaction (like every publix request) - the admission is committed or rolled back with it.
+     */
+    public void admit(Batch batch, Worker worker) throws ForbiddenPublixException {
+        if (batchDao.hasWorker(batch, worker)) return;
+        if (!batchDao.addWorkerIfAllowed(batch, worker)) {
+            throw new ForbiddenPublixException(PublixErrorMessages.batchMaxTotalWorkerReached(batch.getId()));
+        }
+    }
+
+}
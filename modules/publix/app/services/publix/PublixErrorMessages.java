@@ -25,7 +25,11 @@ public class PublixErrorMessages {
 	}
 
 	public static String workerNeverDidStudy(Worker worker, Long studyId) {
-		return "Worker " + worker.getId() + " never did study " + studyId + ".";
+		return workerNeverDidStudy(worker.getId(), studyId);
+	}
+
+	public static String workerNeverDidStudy(Long workerId, Long studyId) {
+		return "Worker " + workerId + " never did study " + studyId + ".";
 	}
 
 	public static String workerNotAllowedStudy(Worker worker, Long studyId) {
@@ -33,7 +37,11 @@ public class PublixErrorMessages {
 	}
 
 	public static String workerFinishedStudyAlready(Worker worker, Long studyId) {
-		return "Worker " + worker.getId() + " finished study " + studyId + " already.";
+		return workerFinishedStudyAlready(worker.getId(), studyId);
+	}
+
+	public static String workerFinishedStudyAlready(Long workerId, Long studyId) {
+		return "Worker " + workerId + " finished study " + studyId + " already.";
 	}
 
 	public static String workerNotExist(Long workerId) {
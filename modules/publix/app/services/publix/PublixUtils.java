@@ -3,13 +3,16 @@ package services.publix;
 import daos.common.*;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.*;
+import general.common.StudyAuthorisationCache;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
 import models.common.ComponentResult.ComponentState;
 import models.common.StudyResult.StudyState;
+import models.common.workers.JatosWorker;
 import models.common.workers.Worker;
 import play.Logger;
+import services.publix.idcookie.IdCookieModel;
 import services.publix.idcookie.IdCookieService;
 import utils.common.IOUtils;
 import utils.common.JsonUtils;
@@ -42,6 +45,8 @@ public abstract class PublixUtils<T extends Worker> {
     private final BatchDao batchDao;
     private final StudyLogger studyLogger;
     private final IOUtils ioUtils;
+    private final StudyAuthorisationCache studyAuthorisationCache;
+    private final BatchStatsDao batchStatsDao;
 
     public PublixUtils(ResultCreator resultCreator,
             IdCookieService idCookieService,
@@ -49,7 +54,8 @@ public abstract class PublixUtils<T extends Worker> {
             PublixErrorMessages errorMessages, StudyDao studyDao,
             StudyResultDao studyResultDao, ComponentDao componentDao,
             ComponentResultDao componentResultDao, WorkerDao workerDao,
-            BatchDao batchDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            BatchDao batchDao, StudyLogger studyLogger, IOUtils ioUtils,
+            StudyAuthorisationCache studyAuthorisationCache, BatchStatsDao batchStatsDao) {
         this.resultCreator = resultCreator;
         this.idCookieService = idCookieService;
         this.groupAdministration = groupAdministration;
@@ -62,6 +68,8 @@ public abstract class PublixUtils<T extends Worker> {
         this.batchDao = batchDao;
         this.studyLogger = studyLogger;
         this.ioUtils = ioUtils;
+        this.studyAuthorisationCache = studyAuthorisationCache;
+        this.batchStatsDao = batchStatsDao;
     }
 
     /**
@@ -146,6 +154,7 @@ public abstract class PublixUtils<T extends Worker> {
      * message.
      */
     public void abortStudy(String message, StudyResult studyResult) {
+        boolean alreadyDone = PublixHelpers.studyDone(studyResult);
         // Put current ComponentResult into state ABORTED and set end date
         Timestamp endDate = new Timestamp(new Date().getTime());
         retrieveCurrentComponentResult(studyResult).ifPresent(currentComponentResult -> {
@@ -157,6 +166,7 @@ public abstract class PublixUtils<T extends Worker> {
 
         // Clear all data and set ABORTED for all(!) ComponentResults
         for (ComponentResult componentResult : studyResult.getComponentResultList()) {
+            componentResultDao.removeDataChunks(componentResult);
             componentResult.setData(null);
             componentResult.setComponentState(ComponentState.ABORTED);
             componentResultDao.update(componentResult);
@@ -165,6 +175,7 @@ public abstract class PublixUtils<T extends Worker> {
         // Remove all uploaded result files
         try {
             ioUtils.removeResultUploadsDir(studyResult.getId());
+            studyResultDao.setUploadsSize(studyResult.getId(), 0);
         } catch (IOException e) {
             LOGGER.error("Cannot delete result upload files (srid " + studyResult.getId() + "): " + e.getMessage());
         }
@@ -175,6 +186,8 @@ public abstract class PublixUtils<T extends Worker> {
         studyResult.setEndDate(endDate);
         studyResult.setStudySessionData(null);
         studyResultDao.update(studyResult);
+        if (!alreadyDone) batchStatsDao.finishStudyResult(studyResult);
+        studyAuthorisationCache.invalidateStudyResult(studyResult.getId());
     }
 
     /**
@@ -190,6 +203,7 @@ public abstract class PublixUtils<T extends Worker> {
      * @return The confirmation code or null if it was unsuccessful
      */
     public String finishStudyResult(Boolean successful, String message, StudyResult studyResult) {
+        boolean alreadyDone = PublixHelpers.studyDone(studyResult);
         String confirmationCode;
         StudyState studyState;
         ComponentState componentState;
@@ -216,6 +230,8 @@ public abstract class PublixUtils<T extends Worker> {
         // Clear study session data before finishing
         studyResult.setStudySessionData(null);
         studyResultDao.update(studyResult);
+        if (!alreadyDone) batchStatsDao.finishStudyResult(studyResult);
+        studyAuthorisationCache.invalidateStudyResult(studyResult.getId());
         return confirmationCode;
     }
 
@@ -279,6 +295,61 @@ public abstract class PublixUtils<T extends Worker> {
 
     }
 
+    /**
+     * Returns the cached authorisation of the study run (see authoriseStudyRun) if there is a valid one that matches
+     * the ID cookie - or an empty Optional otherwise. It never accesses the database.
+     */
+    public Optional<StudyAuthorisationCache.Context> retrieveCachedAuthorisation(
+            StudyAuthorisation<T> studyAuthorisation, IdCookieModel idCookie, Long studyId, Long studyResultId) {
+        return studyAuthorisationCache.get(studyResultId)
+                .filter(cached -> cached.getStudyId().equals(studyId)
+                        && cached.getBatchId().equals(idCookie.getBatchId())
+                        && cached.getWorkerId().equals(idCookie.getWorkerId())
+                        && cached.getWorkerType().equals(idCookie.getWorkerType())
+                        && studyAuthorisation.isContextValid(cached));
+    }
+
+    /**
+     * Authorises a request of a running study (after the study started) and returns its authorisation context. If
+     * there is a valid context of this study result in the StudyAuthorisationCache nothing is read from the database.
+     * Otherwise the worker, study, batch and study result are retrieved and checked and the decision is cached for the
+     * following requests.
+     */
+    public StudyAuthorisationCache.Context authoriseStudyRun(StudyAuthorisation<T> studyAuthorisation,
+            IdCookieModel idCookie, Long studyId, Long studyResultId) throws PublixException {
+        Optional<StudyAuthorisationCache.Context> cached =
+                retrieveCachedAuthorisation(studyAuthorisation, idCookie, studyId, studyResultId);
+        if (cached.isPresent()) return cached.get();
+
+        // Stamps have to be taken before anything is read from the database
+        StudyAuthorisationCache.Stamps stamps = studyAuthorisationCache.getStamps(studyId, idCookie.getBatchId());
+        T worker = retrieveTypedWorker(idCookie.getWorkerId());
+        Study study = retrieveStudy(studyId);
+        Batch batch = retrieveBatch(idCookie.getBatchId());
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
+        StudyResult studyResult = retrieveStudyResult(worker, study, studyResultId);
+        String username = worker instanceof JatosWorker ? ((JatosWorker) worker).getUser().getUsername() : null;
+        return studyAuthorisationCache.put(studyResult.getId(), study.getId(), batch.getId(), worker.getId(),
+                worker.getWorkerType(), username, stamps);
+    }
+
+    /**
+     * Retrieves the study result of an authorised study run (see authoriseStudyRun). Throws a
+     * BadRequestPublixException if it doesn't exist (anymore) and a ForbiddenPublixException if it's finished already.
+     */
+    public StudyResult retrieveStudyResult(StudyAuthorisationCache.Context context)
+            throws ForbiddenPublixException, BadRequestPublixException {
+        StudyResult studyResult = studyResultDao.findById(context.getStudyResultId());
+        if (studyResult == null) {
+            throw new BadRequestPublixException(PublixErrorMessages.STUDY_RESULT_DOESN_T_EXIST);
+        }
+        if (PublixHelpers.studyDone(studyResult)) {
+            throw new ForbiddenPublixException(
+                    PublixErrorMessages.workerFinishedStudyAlready(context.getWorkerId(), context.getStudyId()));
+        }
+        return studyResult;
+    }
+
     /**
      * Returns an Optional of the last ComponentResult's component (of the given StudyResult.
      */
@@ -374,6 +445,29 @@ public abstract class PublixUtils<T extends Worker> {
         return component;
     }
 
+    /**
+     * Same checks as retrieveComponent(Study, Long) but for an authorised study run (see authoriseStudyRun): the
+     * study doesn't have to be loaded to check that the component belongs to it.
+     */
+    public Component retrieveComponent(StudyAuthorisationCache.Context context, Long componentId)
+            throws NotFoundPublixException, BadRequestPublixException, ForbiddenPublixException {
+        Component component = componentDao.findById(componentId);
+        if (component == null) {
+            throw new NotFoundPublixException(PublixErrorMessages
+                    .componentNotExist(context.getStudyId(), componentId));
+        }
+        // Getting the ID of the lazy study doesn't load it
+        if (!component.getStudy().getId().equals(context.getStudyId())) {
+            throw new BadRequestPublixException(PublixErrorMessages
+                    .componentNotBelongToStudy(context.getStudyId(), componentId));
+        }
+        if (!component.isActive()) {
+            throw new ForbiddenPublixException(PublixErrorMessages
+                    .componentNotActive(context.getStudyId(), componentId));
+        }
+        return component;
+    }
+
     public Component retrieveComponentByPosition(Long studyId, Integer position)
             throws NotFoundPublixException, BadRequestPublixException {
         Study study = retrieveStudy(studyId);
@@ -509,4 +603,18 @@ public abstract class PublixUtils<T extends Worker> {
         return Optional.empty();
     }
 
+    /**
+     * Returns the size (in bytes) of all result files uploaded in the StudyResult with the given ID. Usually it's
+     * just read from the database. Only if it's unknown (StudyResults from before the size was stored) it is
+     * calculated from the upload directory once and then stored.
+     */
+    public long retrieveResultUploadsSize(Long studyResultId) throws IOException {
+        Long uploadsSize = studyResultDao.findUploadsSize(studyResultId);
+        if (uploadsSize == null) {
+            uploadsSize = ioUtils.getResultUploadDirSize(studyResultId);
+            studyResultDao.setUploadsSize(studyResultId, uploadsSize);
+        }
+        return uploadsSize;
+    }
+
 }
@@ -1,5 +1,6 @@
 package services.publix;
 
+import daos.common.BatchStatsDao;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import daos.common.worker.WorkerDao;
@@ -20,12 +21,15 @@ public class ResultCreator {
     private final ComponentResultDao componentResultDao;
     private final StudyResultDao studyResultDao;
     private final WorkerDao workerDao;
+    private final BatchStatsDao batchStatsDao;
 
     @Inject
-    ResultCreator(ComponentResultDao componentResultDao, StudyResultDao studyResultDao, WorkerDao workerDao) {
+    ResultCreator(ComponentResultDao componentResultDao, StudyResultDao studyResultDao, WorkerDao workerDao,
+            BatchStatsDao batchStatsDao) {
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
         this.workerDao = workerDao;
+        this.batchStatsDao = batchStatsDao;
     }
 
     /**
@@ -41,6 +45,7 @@ public class ResultCreator {
         worker.addStudyResult(studyResult);
         studyResultDao.create(studyResult);
         workerDao.update(worker);
+        batchStatsDao.addStudyResult(studyResult);
         return studyResult;
     }
 
@@ -0,0 +1,214 @@
+package services.publix;
+
+import org.apache.commons.io.FileUtils;
+import play.Logger;
+import play.Logger.ALogger;
+import play.inject.ApplicationLifecycle;
+import services.publix.StudyAssetsIndex.Entry;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of gzipped study assets files: compressible files (text, JavaScript, JSON, SVG, ...) are gzipped once and then
+ * the compressed file is sent to every client that accepts gzip - instead of gzipping the file again with each
+ * request (GzipFilter).
+ * <p>
+ * Files are compressed in the background: either when their study assets directory is indexed (StudyAssetsIndex -
+ * this happens again after each change in the directory, e.g. after an upload or a study import) or on the first
+ * request. Until the compressed file is ready the file is sent uncompressed. The compressed files are stored in a
+ * directory within the temp directory. Each one belongs to a certain version (ETag: size and last modified time) of
+ * the original file - a changed file is compressed again. The cache directory is emptied with each start of JATOS.
+ */
+@Singleton
+public class StudyAssetsCompressor {
+
+    private static final ALogger LOGGER = Logger.of(StudyAssetsCompressor.class);
+
+    /**
+     * Smaller files are not compressed - the gain is too small
+     */
+    private static final long MIN_FILE_SIZE = 1024;
+
+    /**
+     * Bigger files are not compressed (to limit disk usage and compression time)
+     */
+    private static final long MAX_FILE_SIZE = 50 * 1024 * 1024;
+
+    private static final File CACHE_DIR = new File(IOUtils.TMP_DIR, "JATOS_study_assets_gzip");
+
+    private final ExecutorService compressionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "study-assets-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Path of the original file -> its compressed file (only the latest version)
+     */
+    private final Map<String, Compressed> compressedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Path and ETag of the files that are currently scheduled for compression
+     */
+    private final Map<String, Boolean> scheduled = new ConcurrentHashMap<>();
+
+    /**
+     * Used to give each compressed file a unique name
+     */
+    private final AtomicLong fileCounter = new AtomicLong();
+
+    @Inject
+    StudyAssetsCompressor(ApplicationLifecycle applicationLifecycle) {
+        try {
+            FileUtils.deleteDirectory(CACHE_DIR);
+            Files.createDirectories(CACHE_DIR.toPath());
+        } catch (IOException e) {
+            LOGGER.warn(".StudyAssetsCompressor: couldn't create cache directory " + CACHE_DIR.getPath(), e);
+        }
+        applicationLifecycle.addStopHook(() -> {
+            compressionExecutor.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Returns the gzipped version of the given file if it is already in the cache. If not and the file is
+     * compressible its compression is scheduled.
+     */
+    public Optional<File> findGzipped(Entry entry) {
+        if (!isCompressible(entry)) return Optional.empty();
+        Compressed compressed = compressedFiles.get(entry.getFile().getPath());
+        if (compressed != null && compressed.etag.equals(entry.getEtag())) return Optional.of(compressed.file);
+        schedule(entry);
+        return Optional.empty();
+    }
+
+    /**
+     * Schedules the compression of all compressible files that are not yet in the cache
+     */
+    public void prepare(Collection<Entry> entries) {
+        entries.stream().filter(StudyAssetsCompressor::isCompressible).forEach(entry -> {
+            Compressed compressed = compressedFiles.get(entry.getFile().getPath());
+            if (compressed == null || !compressed.etag.equals(entry.getEtag())) schedule(entry);
+        });
+    }
+
+    /**
+     * Whether the given value of an Accept-Encoding request header allows gzip (RFC 7231, 5.3.4). An explicit 'gzip'
+     * has precedence over '*' and a quality value of 0 refuses the coding.
+     */
+    public static boolean acceptsGzip(Optional<String> acceptEncoding) {
+        if (!acceptEncoding.isPresent()) return false;
+        boolean wildcardAccepted = false;
+        for (String coding : acceptEncoding.get().split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            boolean accepted = parts.length < 2 || !parts[1].trim().toLowerCase(Locale.ENGLISH)
+                    .matches("q\\s*=\\s*0(\\.0*)?");
+            if (name.equals("gzip")) return accepted;
+            if (name.equals("*")) wildcardAccepted = accepted;
+        }
+        return wildcardAccepted;
+    }
+
+    static boolean isCompressible(Entry entry) {
+        if (entry.getSize() < MIN_FILE_SIZE || entry.getSize() > MAX_FILE_SIZE) return false;
+        String contentType = entry.getContentType().toLowerCase(Locale.ENGLISH);
+        return contentType.startsWith("text/")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("application/xml")
+                || contentType.startsWith("application/xhtml+xml")
+                || contentType.startsWith("application/wasm")
+                || contentType.startsWith("image/svg+xml");
+    }
+
+    private void schedule(Entry entry) {
+        String key = entry.getFile().getPath() + entry.getEtag();
+        if (scheduled.putIfAbsent(key, Boolean.TRUE) != null) return;
+        try {
+            compressionExecutor.execute(() -> {
+                try {
+                    compress(entry);
+                } finally {
+                    scheduled.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            // JATOS is shutting down
+            scheduled.remove(key);
+        }
+    }
+
+    /**
+     * Gzips the file into a temporary file first and then moves it into place: a compressed file is either complete
+     * or doesn't exist
+     */
+    private void compress(Entry entry) {
+        String name = fileCounter.incrementAndGet() + "_" + entry.getFile().getName() + ".gz";
+        File compressedFile = new File(CACHE_DIR, name);
+        File tmpFile = new File(CACHE_DIR, name + ".tmp");
+        try (InputStream in = new FileInputStream(entry.getFile());
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(tmpFile), 64 * 1024)) {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            LOGGER.info(".compress: couldn't compress " + entry.getFile().getPath() + ": " + e.getMessage());
+            tmpFile.delete();
+            return;
+        }
+
+        try {
+            // Only use it if the original file didn't change in the meantime
+            Path file = entry.getFile().toPath();
+            if (Files.getLastModifiedTime(file).toMillis() != entry.getLastModifiedMillis()
+                    || Files.size(file) != entry.getSize()) {
+                tmpFile.delete();
+                return;
+            }
+            Files.move(tmpFile.toPath(), compressedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.info(".compress: couldn't move " + tmpFile.getPath() + ": " + e.getMessage());
+            tmpFile.delete();
+            return;
+        }
+        Compressed previous = compressedFiles.put(entry.getFile().getPath(),
+                new Compressed(compressedFile, entry.getEtag()));
+        if (previous != null) previous.file.delete();
+    }
+
+    /**
+     * A compressed file and the ETag of the original file's version it was made of
+     */
+    private static class Compressed {
+
+        private final File file;
+        private final String etag;
+
+        Compressed(File file, String etag) {
+            this.file = file;
+            this.etag = etag;
+        }
+    }
+
+}
@@ -0,0 +1,366 @@
+package services.publix;
+
+import general.common.Common;
+import play.Logger;
+import play.Logger.ALogger;
+import play.api.http.FileMimeTypes;
+import play.inject.ApplicationLifecycle;
+import scala.compat.java8.OptionConverters;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * In-memory index of the files in the study assets directories: for each file its size, last modified time, ETag and
+ * content type. With it the study assets can be served without checking the file system each time, and requests with
+ * If-None-Match or If-Modified-Since can be answered with a 304 (Not Modified).
+ * <p>
+ * A directory is indexed in the background the first time one of its files is requested - until its index is ready
+ * its files are looked up on the file system. Its directories are watched (WatchService) and any change of the
+ * directory drops its index - it's built again with the next request. An index that was built while its directory
+ * changed is thrown away. If indexing fails (e.g. too many files) it's tried again after RETRY_INTERVAL, and a
+ * directory that doesn't exist (yet) isn't remembered at all. Since only files found while
+ * indexing are in the index, a path can't point outside of its study assets directory. Paths that are not in the index
+ * (e.g. with '..' or './' in it) are looked up on the file system like before (IOUtils.getExistingFileSecurely). If the
+ * WatchService isn't available all files are looked up on the file system.
+ * <p>
+ * After a directory is indexed the compression of its compressible files is scheduled (StudyAssetsCompressor).
+ */
+@Singleton
+public class StudyAssetsIndex {
+
+    private static final ALogger LOGGER = Logger.of(StudyAssetsIndex.class);
+
+    /**
+     * Study assets directories with more files are not indexed (to limit memory usage)
+     */
+    private static final int MAX_FILES_PER_DIR = 10000;
+
+    /**
+     * Time in ms after which a study assets directory whose indexing failed is indexed again
+     */
+    private static final long RETRY_INTERVAL = 60 * 1000;
+
+    /**
+     * Format of HTTP dates (e.g. Last-Modified header)
+     */
+    private static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
+    private final IOUtils ioUtils;
+    private final FileMimeTypes fileMimeTypes;
+    private final StudyAssetsCompressor studyAssetsCompressor;
+    private final WatchService watchService;
+
+    /**
+     * Study assets directory name -> (path within the directory -> entry). Only complete indices are in here.
+     */
+    private final Map<String, Map<String, Entry>> indices = new ConcurrentHashMap<>();
+
+    /**
+     * Study assets directory name -> time (ms) when its indexing failed
+     */
+    private final Map<String, Long> failedDirs = new ConcurrentHashMap<>();
+
+    /**
+     * Study assets directory name -> number of times its index was dropped. Used to find out whether the directory
+     * changed while it was indexed.
+     */
+    private final Map<String, Long> invalidations = new ConcurrentHashMap<>();
+
+    /**
+     * Names of the study assets directories that are currently indexed (or scheduled for it)
+     */
+    private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "study-assets-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Watch key of a (sub)directory -> name of its study assets directory
+     */
+    private final Map<WatchKey, String> watchedDirs = new ConcurrentHashMap<>();
+
+    @Inject
+    StudyAssetsIndex(IOUtils ioUtils, FileMimeTypes fileMimeTypes, StudyAssetsCompressor studyAssetsCompressor,
+            ApplicationLifecycle applicationLifecycle) {
+        this.ioUtils = ioUtils;
+        this.fileMimeTypes = fileMimeTypes;
+        this.studyAssetsCompressor = studyAssetsCompressor;
+        this.watchService = createWatchService();
+        if (watchService != null) {
+            Thread watcher = new Thread(this::watch, "study-assets-index-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            applicationLifecycle.addStopHook(() -> {
+                indexExecutor.shutdownNow();
+                watchService.close();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+    }
+
+    private static WatchService createWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn(".createWatchService: study assets are not indexed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the entry of the file with the given path. The path starts with the study assets directory name and
+     * uses '/' as separator (e.g. 'my_study/img/cat.png').
+     *
+     * @throws IOException if the file doesn't exist, is a directory or is outside of the study assets root directory
+     */
+    public Entry find(String urlDecodedPath) throws IOException {
+        int index = urlDecodedPath.indexOf('/');
+        if (index > 0 && watchService != null) {
+            String dirName = urlDecodedPath.substring(0, index);
+            Map<String, Entry> dirIndex = getIndex(dirName);
+            Entry entry = dirIndex != null ? dirIndex.get(urlDecodedPath.substring(index + 1)) : null;
+            if (entry != null) return entry;
+        }
+
+        // Not indexed - check the file system
+        String filePath = urlDecodedPath.replace("/", File.separator);
+        File file = ioUtils.getExistingFileSecurely(Common.getStudyAssetsRootPath(), filePath);
+        return createEntry(file.toPath(), Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+    }
+
+    /**
+     * Whether the index of the given study assets directory is ready
+     */
+    public boolean isIndexed(String dirName) {
+        return indices.containsKey(dirName);
+    }
+
+    /**
+     * Returns the index of the study assets directory or null if it's not ready. In this case the directory's indexing
+     * is scheduled (if it's not already running and didn't fail recently).
+     */
+    private Map<String, Entry> getIndex(String dirName) {
+        if (!isValidDirName(dirName)) return null;
+        Map<String, Entry> dirIndex = indices.get(dirName);
+        if (dirIndex == null) scheduleIndexing(dirName);
+        return dirIndex;
+    }
+
+    private void scheduleIndexing(String dirName) {
+        Long failed = failedDirs.get(dirName);
+        if (failed != null && System.currentTimeMillis() - failed < RETRY_INTERVAL) return;
+        if (!building.add(dirName)) return;
+        try {
+            indexExecutor.execute(() -> {
+                try {
+                    buildIndex(dirName);
+                } finally {
+                    building.remove(dirName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // JATOS is shutting down
+            building.remove(dirName);
+        }
+    }
+
+    private static boolean isValidDirName(String dirName) {
+        return !dirName.equals(".") && !dirName.equals("..") && !dirName.contains("\\")
+                && !dirName.contains(File.separator);
+    }
+
+    /**
+     * Walks through the study assets directory and indexes its files. Each (sub)directory is registered with the
+     * WatchService before its files are read - this way no change can get lost. Runs in the indexExecutor.
+     */
+    private void buildIndex(String dirName) {
+        Path dir = Paths.get(Common.getStudyAssetsRootPath(), dirName);
+        // Not remembered - maybe the directory is created later
+        if (!Files.isDirectory(dir)) return;
+
+        long invalidationCount = invalidations.getOrDefault(dirName, 0L);
+        Map<String, Entry> dirIndex = new HashMap<>();
+        List<WatchKey> watchKeys = new ArrayList<>();
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                    WatchKey watchKey = subDir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    watchKeys.add(watchKey);
+                    watchedDirs.put(watchKey, dirName);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (dirIndex.size() >= MAX_FILES_PER_DIR) {
+                        throw new IOException("more than " + MAX_FILES_PER_DIR + " files");
+                    }
+                    if (attrs.isRegularFile()) {
+                        String path = dir.relativize(file).toString().replace(File.separator, "/");
+                        dirIndex.put(path, createEntry(file, attrs));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            synchronized (this) {
+                if (invalidations.getOrDefault(dirName, 0L) != invalidationCount) {
+                    // Changed while it was indexed - it's indexed again with the next request
+                    watchKeys.forEach(this::cancel);
+                    return;
+                }
+                indices.put(dirName, dirIndex);
+                failedDirs.remove(dirName);
+            }
+            LOGGER.debug(".buildIndex: indexed " + dirIndex.size() + " files of study assets " + dirName);
+            studyAssetsCompressor.prepare(dirIndex.values());
+        } catch (IOException | ClosedWatchServiceException e) {
+            LOGGER.info(".buildIndex: couldn't index study assets " + dirName + ": " + e.getMessage());
+            watchKeys.forEach(this::cancel);
+            failedDirs.put(dirName, System.currentTimeMillis());
+        }
+    }
+
+    private Entry createEntry(Path file, BasicFileAttributes attrs) {
+        String contentType = OptionConverters.toJava(fileMimeTypes.forFileName(file.getFileName().toString()))
+                .orElse("application/octet-stream");
+        return new Entry(file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis(), contentType);
+    }
+
+    /**
+     * Runs in its own thread: drops the index of a study assets directory as soon as something in it changes
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                watchKey.pollEvents();
+                String dirName = watchedDirs.get(watchKey);
+                if (dirName != null) invalidate(dirName);
+                watchKey.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // JATOS is shutting down
+        }
+    }
+
+    private synchronized void invalidate(String dirName) {
+        invalidations.merge(dirName, 1L, Long::sum);
+        indices.remove(dirName);
+        failedDirs.remove(dirName);
+        watchedDirs.entrySet().removeIf(e -> {
+            if (!e.getValue().equals(dirName)) return false;
+            e.getKey().cancel();
+            return true;
+        });
+    }
+
+    private void cancel(WatchKey watchKey) {
+        watchedDirs.remove(watchKey);
+        watchKey.cancel();
+    }
+
+    /**
+     * A file in a study assets directory
+     */
+    public static class Entry {
+
+        private final File file;
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+        private final String gzipEtag;
+        private final String contentType;
+
+        Entry(File file, long size, long lastModified, String contentType) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            this.gzipEtag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "-gz\"";
+            this.contentType = contentType;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * ETag of the gzipped version of this file (different representations need different ETags)
+         */
+        public String getGzipEtag() {
+            return gzipEtag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getLastModifiedMillis() {
+            return lastModified;
+        }
+
+        /**
+         * Last modified time formatted as HTTP date
+         */
+        public String getLastModified() {
+            return HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(lastModified));
+        }
+
+        /**
+         * Whether the client's cached version (given by the request headers If-None-Match and If-Modified-Since) is
+         * still up-to-date. If-None-Match has precedence. The ETags of both versions, gzipped and not, are accepted.
+         */
+        public boolean isNotModified(Optional<String> ifNoneMatch, Optional<String> ifModifiedSince) {
+            if (ifNoneMatch.isPresent()) {
+                for (String tag : ifNoneMatch.get().split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/")) tag = tag.substring(2);
+                    if (tag.equals("*") || tag.equals(etag) || tag.equals(gzipEtag)) return true;
+                }
+                return false;
+            }
+            if (ifModifiedSince.isPresent()) {
+                try {
+                    Instant since = Instant.from(HTTP_DATE_FORMAT.parse(ifModifiedSince.get().trim()));
+                    // HTTP dates have only seconds
+                    return lastModified / 1000 <= since.getEpochSecond();
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+}
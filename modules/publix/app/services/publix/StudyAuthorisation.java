@@ -1,14 +1,19 @@
 package services.publix;
 
-import java.util.Set;
-
 import exceptions.publix.ForbiddenPublixException;
+import general.common.StudyAuthorisationCache;
 import models.common.Batch;
 import models.common.Study;
 import models.common.workers.Worker;
 
 public abstract class StudyAuthorisation<T extends Worker> {
 
+	private final BatchWorkerAdmission batchWorkerAdmission;
+
+	protected StudyAuthorisation(BatchWorkerAdmission batchWorkerAdmission) {
+		this.batchWorkerAdmission = batchWorkerAdmission;
+	}
+
 	/**
 	 * Checks whether the given worker is allowed to start this study in this
 	 * batch. If the worker has no permission an ForbiddenPublixException is
@@ -26,21 +31,25 @@ public abstract class StudyAuthorisation<T extends Worker> {
 			Batch batch) throws ForbiddenPublixException;
 
 	/**
-	 * Check if the max total worker number is reached for this batch. Only
-	 * non-JatosWorker count here.
+	 * Checks whether a cached authorisation context (see
+	 * StudyAuthorisationCache) still holds for the current request. Everything
+	 * checked in checkWorkerAllowedToDoStudy that isn't stored in the database
+	 * (e.g. the session) has to be checked here too. If false, the context
+	 * isn't used and the worker is checked against the database.
+	 */
+	public boolean isContextValid(StudyAuthorisationCache.Context context) {
+		return true;
+	}
+
+	/**
+	 * Check if the max total worker number is reached for this batch. If not,
+	 * the worker is admitted into the batch (added to its workerList) if it
+	 * isn't already in there. The batch's workerList isn't loaded for this
+	 * (see BatchWorkerAdmission).
 	 */
 	public void checkMaxTotalWorkers(Batch batch, Worker worker)
 			throws ForbiddenPublixException {
-		Set<Worker> workerSet = batch.getWorkerList();
-		// Add the worker who wants to run the study (he might have run it
-		// already)
-		workerSet.add(worker);
-		int potentialWorkerNumber = workerSet.size();
-		if (batch.getMaxTotalWorkers() != null
-				&& potentialWorkerNumber > batch.getMaxTotalWorkers()) {
-			throw new ForbiddenPublixException(PublixErrorMessages
-					.batchMaxTotalWorkerReached(batch.getId()));
-		}
+		batchWorkerAdmission.admit(batch, worker);
 	}
 
 }
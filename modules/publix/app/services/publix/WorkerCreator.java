@@ -1,8 +1,6 @@
 package services.publix;
 
-import daos.common.BatchDao;
 import daos.common.worker.WorkerDao;
-import models.common.Batch;
 import models.common.workers.GeneralMultipleWorker;
 import models.common.workers.GeneralSingleWorker;
 import models.common.workers.MTSandboxWorker;
@@ -14,56 +12,50 @@ import javax.inject.Singleton;
 /**
  * Service class for JATOS Controllers (not Publix)..
  *
+ * The created workers are not yet added to a batch: this happens when they are admitted into the batch during the
+ * study start (StudyAuthorisation.checkMaxTotalWorkers).
+ *
  * @author Kristian Lange
  */
 @Singleton
 public class WorkerCreator {
 
     private final WorkerDao workerDao;
-    private final BatchDao batchDao;
 
     @Inject
-    WorkerCreator(WorkerDao workerDao, BatchDao batchDao) {
+    WorkerCreator(WorkerDao workerDao) {
         this.workerDao = workerDao;
-        this.batchDao = batchDao;
     }
 
     /**
      * Creates and persists a MTWorker or a MTSandboxWorker.
      */
-    public MTWorker createAndPersistMTWorker(String mtWorkerId,
-            boolean mTurkSandbox, Batch batch) {
+    public MTWorker createAndPersistMTWorker(String mtWorkerId, boolean mTurkSandbox) {
         MTWorker worker;
         if (mTurkSandbox) {
             worker = new MTSandboxWorker(mtWorkerId);
         } else {
             worker = new MTWorker(mtWorkerId);
         }
-        batch.addWorker(worker);
         workerDao.create(worker);
-        batchDao.update(batch);
         return worker;
     }
 
     /**
      * Create and persist a GeneralSingleWorker
      */
-    public GeneralSingleWorker createAndPersistGeneralSingleWorker(Batch batch) {
+    public GeneralSingleWorker createAndPersistGeneralSingleWorker() {
         GeneralSingleWorker worker = new GeneralSingleWorker();
-        batch.addWorker(worker);
         workerDao.create(worker);
-        batchDao.update(batch);
         return worker;
     }
 
     /**
      * Create and persist a GeneralMultipleWorker
      */
-    public GeneralMultipleWorker createAndPersistGeneralMultipleWorker(Batch batch) {
+    public GeneralMultipleWorker createAndPersistGeneralMultipleWorker() {
         GeneralMultipleWorker worker = new GeneralMultipleWorker();
-        batch.addWorker(worker);
         workerDao.create(worker);
-        batchDao.update(batch);
         return worker;
     }
 
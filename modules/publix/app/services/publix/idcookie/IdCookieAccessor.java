@@ -21,6 +21,7 @@ import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 import static play.mvc.Http.Cookie.*;
 
@@ -101,6 +102,31 @@ public class IdCookieAccessor {
         return idCookieCollection;
     }
 
+    /**
+     * Returns the IdCookie of the given study result ID from the cookies of
+     * the given request. Other than extract it doesn't need a Http.Context
+     * (e.g. it can be used in a body parser): the RequestScope isn't used and
+     * malformed cookies are skipped instead of discarded.
+     */
+    protected Optional<IdCookieModel> findInRequest(Http.RequestHeader request,
+            Long studyResultId) {
+        for (Cookie cookie : request.cookies()) {
+            if (!cookie.name().toLowerCase()
+                    .startsWith(IdCookieModel.ID_COOKIE_NAME.toLowerCase())) {
+                continue;
+            }
+            try {
+                IdCookieModel idCookie = buildIdCookie(cookie);
+                if (studyResultId.equals(idCookie.getStudyResultId())) {
+                    return Optional.of(idCookie);
+                }
+            } catch (IdCookieMalformedException e) {
+                // Skip it - it's discarded with the next extract
+            }
+        }
+        return Optional.empty();
+    }
+
     private IdCookieModel buildIdCookie(Cookie cookie)
             throws IdCookieMalformedException {
         IdCookieModel idCookie = new IdCookieModel();
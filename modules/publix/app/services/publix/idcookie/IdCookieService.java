@@ -6,6 +6,7 @@ import exceptions.publix.InternalServerErrorPublixException;
 import general.common.Common;
 import models.common.*;
 import models.common.workers.Worker;
+import play.mvc.Http;
 import services.publix.PublixErrorMessages;
 import services.publix.idcookie.exception.IdCookieAlreadyExistsException;
 import services.publix.idcookie.exception.IdCookieCollectionFullException;
@@ -13,6 +14,7 @@ import utils.common.HttpUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.Optional;
 
 /**
  * Service class for JATOS ID cookie handling. It generates, extracts and
@@ -53,6 +55,16 @@ public class IdCookieService {
         return idCookie;
     }
 
+    /**
+     * Returns the IdCookie that corresponds to the given study result ID from
+     * the cookies of the given request - or an empty Optional if it doesn't
+     * exist. It doesn't need a Http.Context (e.g. in a body parser).
+     */
+    public Optional<IdCookieModel> findIdCookie(Http.RequestHeader request,
+            Long studyResultId) {
+        return idCookieAccessor.findInRequest(request, studyResultId);
+    }
+
     /**
      * Returns the whole IdCookieCollection
      */
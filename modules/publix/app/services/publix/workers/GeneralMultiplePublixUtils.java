@@ -4,6 +4,7 @@ import controllers.publix.workers.GeneralMultiplePublix;
 import daos.common.*;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
+import general.common.StudyAuthorisationCache;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.workers.GeneralMultipleWorker;
@@ -34,10 +35,12 @@ public class GeneralMultiplePublixUtils extends PublixUtils<GeneralMultipleWorke
             GeneralMultipleErrorMessages errorMessages, StudyDao studyDao,
             StudyResultDao studyResultDao, ComponentDao componentDao,
             ComponentResultDao componentResultDao, WorkerDao workerDao,
-            BatchDao batchDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            BatchDao batchDao, StudyLogger studyLogger, IOUtils ioUtils,
+            StudyAuthorisationCache studyAuthorisationCache, BatchStatsDao batchStatsDao) {
         super(resultCreator, idCookieService, groupAdministration,
                 errorMessages, studyDao, studyResultDao, componentDao,
-                componentResultDao, workerDao, batchDao, studyLogger, ioUtils);
+                componentResultDao, workerDao, batchDao, studyLogger, ioUtils,
+                studyAuthorisationCache, batchStatsDao);
     }
 
     @Override
@@ -4,9 +4,11 @@ import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
 import models.common.workers.GeneralMultipleWorker;
+import services.publix.BatchWorkerAdmission;
 import services.publix.PublixErrorMessages;
 import services.publix.StudyAuthorisation;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
@@ -17,6 +19,11 @@ import javax.inject.Singleton;
 @Singleton
 public class GeneralMultipleStudyAuthorisation extends StudyAuthorisation<GeneralMultipleWorker> {
 
+    @Inject
+    GeneralMultipleStudyAuthorisation(BatchWorkerAdmission batchWorkerAdmission) {
+        super(batchWorkerAdmission);
+    }
+
     @Override
     public void checkWorkerAllowedToStartStudy(GeneralMultipleWorker worker, Study study,
             Batch batch) throws ForbiddenPublixException {
@@ -1,5 +1,6 @@
 package services.publix.workers;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import exceptions.publix.ForbiddenPublixException;
@@ -7,6 +8,7 @@ import models.common.Batch;
 import models.common.Study;
 import models.common.StudyResult;
 import models.common.workers.GeneralSingleWorker;
+import services.publix.BatchWorkerAdmission;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixHelpers;
 import services.publix.StudyAuthorisation;
@@ -21,6 +23,11 @@ import java.util.Optional;
 @Singleton
 public class GeneralSingleStudyAuthorisation extends StudyAuthorisation<GeneralSingleWorker> {
 
+    @Inject
+    GeneralSingleStudyAuthorisation(BatchWorkerAdmission batchWorkerAdmission) {
+        super(batchWorkerAdmission);
+    }
+
     @Override
     public void checkWorkerAllowedToStartStudy(GeneralSingleWorker worker, Study study, Batch batch)
             throws ForbiddenPublixException {
@@ -7,6 +7,7 @@ import daos.common.*;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.ForbiddenPublixException;
+import general.common.StudyAuthorisationCache;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.User;
@@ -42,10 +43,12 @@ public class JatosPublixUtils extends PublixUtils<JatosWorker> {
             JatosErrorMessages errorMessages, UserDao userDao,
             StudyDao studyDao, StudyResultDao studyResultDao,
             ComponentDao componentDao, ComponentResultDao componentResultDao,
-            WorkerDao workerDao, BatchDao batchDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            WorkerDao workerDao, BatchDao batchDao, StudyLogger studyLogger, IOUtils ioUtils,
+            StudyAuthorisationCache studyAuthorisationCache, BatchStatsDao batchStatsDao) {
         super(resultCreator, idCookieService, groupAdministration,
                 errorMessages, studyDao, studyResultDao, componentDao,
-                componentResultDao, workerDao, batchDao, studyLogger, ioUtils);
+                componentResultDao, workerDao, batchDao, studyLogger, ioUtils,
+                studyAuthorisationCache, batchStatsDao);
         this.errorMessages = errorMessages;
         this.userDao = userDao;
     }
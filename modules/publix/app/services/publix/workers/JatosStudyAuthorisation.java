@@ -3,13 +3,16 @@ package services.publix.workers;
 import controllers.publix.Publix;
 import controllers.publix.workers.JatosPublix;
 import exceptions.publix.ForbiddenPublixException;
+import general.common.StudyAuthorisationCache;
 import models.common.Batch;
 import models.common.Study;
 import models.common.User;
 import models.common.workers.JatosWorker;
+import services.publix.BatchWorkerAdmission;
 import services.publix.PublixErrorMessages;
 import services.publix.StudyAuthorisation;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
@@ -20,6 +23,11 @@ import javax.inject.Singleton;
 @Singleton
 public class JatosStudyAuthorisation extends StudyAuthorisation<JatosWorker> {
 
+    @Inject
+    JatosStudyAuthorisation(BatchWorkerAdmission batchWorkerAdmission) {
+        super(batchWorkerAdmission);
+    }
+
     @Override
     public void checkWorkerAllowedToStartStudy(JatosWorker worker, Study study, Batch batch)
             throws ForbiddenPublixException {
@@ -50,4 +58,11 @@ public class JatosStudyAuthorisation extends StudyAuthorisation<JatosWorker> {
         }
     }
 
+    @Override
+    public boolean isContextValid(StudyAuthorisationCache.Context context) {
+        // User has to be logged in
+        String username = Publix.session(JatosPublix.SESSION_USERNAME);
+        return context.getUsername() != null && context.getUsername().equals(username);
+    }
+
 }
@@ -1,5 +1,6 @@
 package services.publix.workers;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import exceptions.publix.ForbiddenPublixException;
@@ -7,6 +8,7 @@ import models.common.Batch;
 import models.common.Study;
 import models.common.workers.MTSandboxWorker;
 import models.common.workers.MTWorker;
+import services.publix.BatchWorkerAdmission;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixHelpers;
 import services.publix.StudyAuthorisation;
@@ -19,6 +21,11 @@ import services.publix.StudyAuthorisation;
 @Singleton
 public class MTStudyAuthorisation extends StudyAuthorisation<MTWorker> {
 
+    @Inject
+    MTStudyAuthorisation(BatchWorkerAdmission batchWorkerAdmission) {
+        super(batchWorkerAdmission);
+    }
+
     @Override
     public void checkWorkerAllowedToStartStudy(MTWorker worker, Study study, Batch batch)
             throws ForbiddenPublixException {
@@ -1,11 +1,13 @@
 package services.publix.workers;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
 import models.common.workers.PersonalMultipleWorker;
+import services.publix.BatchWorkerAdmission;
 import services.publix.PublixErrorMessages;
 import services.publix.StudyAuthorisation;
 
@@ -17,6 +19,11 @@ import services.publix.StudyAuthorisation;
 @Singleton
 public class PersonalMultipleStudyAuthorisation extends StudyAuthorisation<PersonalMultipleWorker> {
 
+    @Inject
+    PersonalMultipleStudyAuthorisation(BatchWorkerAdmission batchWorkerAdmission) {
+        super(batchWorkerAdmission);
+    }
+
     @Override
     public void checkWorkerAllowedToStartStudy(PersonalMultipleWorker worker, Study study,
             Batch batch) throws ForbiddenPublixException {
@@ -5,6 +5,7 @@ import models.common.Batch;
 import models.common.Study;
 import models.common.StudyResult;
 import models.common.workers.PersonalSingleWorker;
+import services.publix.BatchWorkerAdmission;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixHelpers;
 import services.publix.StudyAuthorisation;
@@ -22,7 +23,9 @@ import java.util.Optional;
 public class PersonalSingleStudyAuthorisation extends StudyAuthorisation<PersonalSingleWorker> {
 
     @Inject
-    PersonalSingleStudyAuthorisation(PersonalSingleErrorMessages errorMessages) {
+    PersonalSingleStudyAuthorisation(PersonalSingleErrorMessages errorMessages,
+            BatchWorkerAdmission batchWorkerAdmission) {
+        super(batchWorkerAdmission);
     }
 
     @Override
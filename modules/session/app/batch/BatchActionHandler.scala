@@ -3,18 +3,20 @@ package batch
 import batch.BatchDispatcher.{BatchAction, BatchActionJsonKey, BatchMsg, TellWhom}
 import com.google.common.base.Strings
 import daos.common.BatchDao
-import gnieh.diffson.playJson._
+import general.{PatchCoalescer, SessionJournal, SessionState}
 import javax.inject.{Inject, Singleton}
-import models.common.Batch
 import play.api.Logger
-import play.api.libs.json.Reads._
 import play.api.libs.json.{JsObject, JsValue, Json}
 import play.db.jpa.JPAApi
 
 import scala.compat.java8.FunctionConverters.asJavaSupplier
+import scala.util.Try
 
 /**
   * Handles batch action messages received by a BatchDispatcher from a client via a batch channel.
+  * The batch session is changed in memory (SessionState of the BatchDispatcher) - loading it from
+  * and writing it into the database is done here too, but only when the BatchDispatcher asks for it
+  * (see SessionWriteBehind).
   *
   * @author Kristian Lange
   */
@@ -28,87 +30,85 @@ class BatchActionHandler @Inject()(jpa: JPAApi,
   /**
     * Handles batch action messages originating from a client: Gets a BatchMsg that contains a field
     * 'action' in their JSON. The only action handled here is the a patch for the batch session.
-    * The function returns BatchMsges that will be send out to the batch members.
+    * The function returns BatchMsges that will be send out to the batch members. An applied patch
+    * isn't returned but added to the PatchCoalescer.
     */
-  def handleActionMsg(actionMsg: BatchMsg, batchId: Long): List[BatchMsg] = {
+  def handleActionMsg(actionMsg: BatchMsg, batchId: Long, session: SessionState, journal: SessionJournal,
+                      patchCoalescer: PatchCoalescer): List[BatchMsg] = {
     val actionValue = (actionMsg.json \ BatchActionJsonKey.Action.toString).as[String]
     val action = BatchAction.withName(actionValue)
     action match {
-      case BatchAction.Session => handlePatch(actionMsg.json, batchId)
+      case BatchAction.Session => handlePatch(actionMsg.json, batchId, session, journal, patchCoalescer)
       case _ =>
         List(msgBuilder.buildError(s"Unknown action $action", TellWhom.SenderOnly))
     }
   }
 
   /**
-    * Applies JSON Patch for the batch session and tells everyone in the batch
+    * Applies JSON Patch for the batch session and adds it to the PatchCoalescer (to tell everyone in
+    * the batch). The patch is only applied if the client's version is equal to the current one or
+    * versioning is turned off. The patch is added to the journal - the dispatcher sends the
+    * acknowledgement after the journal entry is written.
     */
-  private def handlePatch(json: JsObject, batchId: Long): List[BatchMsg] = {
-    jpa.withTransaction(asJavaSupplier(() => {
-      val batch = batchDao.findById(batchId)
-      if (batch == null) {
-        val errorMsg = s"Couldn't find batch with ID $batchId in database."
-        List(msgBuilder.buildError(errorMsg, TellWhom.SenderOnly))
+  private def handlePatch(json: JsObject, batchId: Long, session: SessionState, journal: SessionJournal,
+                          patchCoalescer: PatchCoalescer): List[BatchMsg] = {
+    val sessionActionId = (json \ BatchActionJsonKey.SessionActionId.toString).as[Long]
+    val clientsVersion = (json \ BatchActionJsonKey.SessionVersion.toString).as[Long]
+    val versioning = (json \ BatchActionJsonKey.SessionVersioning.toString).as[Boolean]
+    try {
+      if (versioning && session.version != clientsVersion) {
+        return List(msgBuilder.buildSimple(session.version, BatchAction.SessionFail, sessionActionId,
+          TellWhom.SenderOnly))
       }
 
-      val sessionActionId = (json \ BatchActionJsonKey.SessionActionId.toString).as[Long]
-      val clientsVersion = (json \ BatchActionJsonKey.SessionVersion.toString).as[Long]
-      val versioning = (json \ BatchActionJsonKey.SessionVersioning.toString).as[Boolean]
-      try {
-        val patches = (json \ BatchActionJsonKey.SessionPatches.toString).get
-        val patchedSessionData = patchSessionData(patches, batch)
-        logger.debug(s".handlePatch: batchId $batchId, " +
-          s"clientsVersion $clientsVersion, versioning $versioning, batchSessionPatch ${Json.stringify(patches)}, " +
-          s"updatedSessionData ${Json.stringify(patchedSessionData)}")
+      val patches = (json \ BatchActionJsonKey.SessionPatches.toString).get
+      val patchedSessionData = SessionState.patch(patches, session.data)
+      logger.debug(s".handlePatch: batchId $batchId, " +
+        s"clientsVersion $clientsVersion, versioning $versioning, batchSessionPatch ${Json.stringify(patches)}")
 
-        val success = checkVersionAndPersistSessionData(patchedSessionData, batch, clientsVersion, versioning)
-        if (success) {
-          val msg1 = msgBuilder.buildSessionPatch(batch, patches, TellWhom.All)
-          val msg2 = msgBuilder.buildSimple(batch, BatchAction.SessionAck, sessionActionId, TellWhom.SenderOnly)
-          List(msg1, msg2)
-        } else {
-          List(msgBuilder.buildSimple(batch, BatchAction.SessionFail, sessionActionId, TellWhom.SenderOnly))
-        }
+      journal.appendPatches(session.version + 1, patches)
+      patchCoalescer.add(session.data, patches, patchedSessionData, session.version + 1)
+      session.change(patchedSessionData)
+      List(msgBuilder.buildSimple(session.version, BatchAction.SessionAck, sessionActionId, TellWhom.SenderOnly))
+    } catch {
+      case e: Exception =>
+        logger.warn(s".handlePatch: batchId $batchId, json ${Json.stringify(json)}, " +
+          s"${e.getClass.getName}: ${e.getMessage}")
+        List(msgBuilder.buildSimple(session.version, BatchAction.SessionFail, sessionActionId, TellWhom.SenderOnly))
+    }
+  }
 
-      } catch {
-        case e: Exception =>
-          logger.warn(s".handlePatch: batchId $batchId, json ${Json.stringify(json)}, " +
-            s"${e.getClass.getName}: ${e.getMessage}")
-          List(msgBuilder.buildSimple(batch, BatchAction.SessionFail, sessionActionId, TellWhom.SenderOnly))
+  /**
+    * Loads the batch session from the database. Returns None if the batch doesn't exist.
+    */
+  def loadSession(batchId: Long): Option[SessionState] = {
+    jpa.withTransaction(asJavaSupplier(() => {
+      val batch = batchDao.findById(batchId)
+      if (batch == null) None
+      else {
+        val sessionData = Try(
+          if (Strings.isNullOrEmpty(batch.getBatchSessionData)) Json.obj()
+          else Json.parse(batch.getBatchSessionData)
+        ).getOrElse {
+          logger.error(s".loadSession: invalid session data in DB - batchId $batchId, " +
+            s"batchSessionVersion ${batch.getBatchSessionVersion}, " +
+            s"batchSessionData ${batch.getBatchSessionData}")
+          Json.obj()
+        }
+        Some(new SessionState(sessionData, batch.getBatchSessionVersion))
       }
     }))
   }
 
-  private def patchSessionData(patches: JsValue, batch: Batch): JsValue = {
-    val currentSessionData =
-      if (!Strings.isNullOrEmpty(batch.getBatchSessionData))
-        Json.parse(batch.getBatchSessionData)
-      else Json.obj()
-
-    // Fix for gnieh.diffson JsonPatch for "remove" and "/" - clear all session data
-    // Assumes the 'remove' operation is in the first JSON patch
-    if ((patches \ 0 \ "op").as[String] == "remove" && (patches \ 0 \ "path").as[String] == "/") {
-      return Json.obj()
-    }
-
-    JsonPatch.apply(patches)(currentSessionData)
-  }
-
   /**
-    * Persists the given sessionData in the Batch and increases the batchSessionVersion by 1 - but only if the stored
-    * version is equal to the received one or versioning is turned off. Returns true if this was successful -
-    * otherwise false.
+    * Writes the batch session data and version into the database. Returns false if the version in
+    * the database isn't the expected one (the batch session was changed by someone else or the batch
+    * was deleted).
     */
-  private def checkVersionAndPersistSessionData(sessionData: JsValue, batch: Batch,
-                                                version: Long,
-                                                versioning: Boolean): Boolean = {
-    if (batch != null && sessionData != null && (!versioning || batch.getBatchSessionVersion == version)) {
-      batch.setBatchSessionData(sessionData.toString)
-      batch.setBatchSessionVersion(batch.getBatchSessionVersion + 1L)
-      batchDao.update(batch)
-      return true
-    }
-    false
+  def persistSession(batchId: Long, data: JsValue, version: Long, persistedVersion: Long): Boolean = {
+    jpa.withTransaction(asJavaSupplier(() =>
+      batchDao.updateBatchSession(batchId, Json.stringify(data), version, persistedVersion)
+    ))
   }
 
 }
@@ -1,27 +1,20 @@
 package batch
 
-import java.io.IOException
-import javax.inject.{Inject, Singleton}
+import javax.inject.Singleton
 
-import com.google.common.base.Strings
-import daos.common.BatchDao
-import models.common.Batch
 import play.api.Logger
 import play.api.libs.json.{JsNumber, JsValue, Json}
-import play.db.jpa.JPAApi
 import batch.BatchDispatcher.BatchAction.BatchAction
 import batch.BatchDispatcher.TellWhom.TellWhom
 import batch.BatchDispatcher.{BatchAction, BatchActionJsonKey, BatchMsg, TellWhom}
 
-import scala.compat.java8.FunctionConverters.asJavaSupplier
-
 /**
   * Utility class that builds BatchMsgs. So it mostly handles the JSON creation.
   *
   * @author Kristian Lange (2017)
   */
 @Singleton
-class BatchActionMsgBuilder @Inject()(jpa: JPAApi, batchDao: BatchDao) {
+class BatchActionMsgBuilder {
 
   private val logger: Logger = Logger(this.getClass)
 
@@ -38,61 +31,35 @@ class BatchActionMsgBuilder @Inject()(jpa: JPAApi, batchDao: BatchDao) {
   /**
     * Builds a simple BatchMsg with the action and the session version
     */
-  def buildSimple(batch: Batch, action: BatchAction, sessionActionId: Long, tellWhom: TellWhom): BatchMsg = {
-    logger.debug(s".buildSimple: batchId ${batch.getId}")
+  def buildSimple(sessionVersion: Long, action: BatchAction, sessionActionId: Long, tellWhom: TellWhom): BatchMsg = {
     val json = Json.obj(
       BatchActionJsonKey.Action.toString -> action.toString,
       BatchActionJsonKey.SessionActionId.toString -> JsNumber(BigDecimal(sessionActionId)),
-      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(batch.getBatchSessionVersion)))
+      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     BatchMsg(json, tellWhom)
   }
 
   /**
     * Builds a BatchActionMessage with the batch session patch and version
     */
-  def buildSessionPatch(batch: Batch, patches: JsValue, tellWhom: TellWhom): BatchMsg = {
-    logger.debug(s".buildSessionPatch: batchId ${batch.getId}")
+  def buildSessionPatch(sessionVersion: Long, patches: JsValue, tellWhom: TellWhom): BatchMsg = {
     val json = Json.obj(
       BatchActionJsonKey.Action.toString -> BatchAction.Session.toString,
       BatchActionJsonKey.SessionPatches.toString -> patches,
-      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(batch.getBatchSessionVersion)))
+      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     BatchMsg(json, tellWhom)
   }
 
   /**
     * Builds a BatchMsg with the current batch session data and version
     */
-  def buildSessionData(batchId: Long, action: BatchAction, tellWhom: TellWhom): BatchMsg = {
-    jpa.withTransaction(asJavaSupplier(() => {
-      logger.debug(s".buildSessionData: batchId $batchId, action $action, tellWhom ${
-        tellWhom
-          .toString
-      }")
-      val batch = batchDao.findById(batchId)
-      if (batch != null) buildSessionAction(batch, action, tellWhom)
-      else buildError(s"Couldn't find batch with ID $batchId in database.", TellWhom.SenderOnly)
-    }))
-  }
-
-  private def buildSessionAction(batch: Batch, action: BatchAction, tellWhom: TellWhom) = {
-    val sessionData =
-      try
-          if (Strings.isNullOrEmpty(batch.getBatchSessionData)) Json.obj()
-          else Json.parse(batch.getBatchSessionData)
-      catch {
-        case e: IOException =>
-          logger.error(s".buildSessionActionMsg: invalid session data in DB - batchId " +
-            s"${batch.getId}, batchSessionVersion ${batch.getBatchSessionVersion}, " +
-            s"batchSessionData ${batch.getBatchSessionData}, error: ${e.getMessage}")
-          Json.obj()
-      }
-
+  def buildSessionData(sessionData: JsValue, sessionVersion: Long, action: BatchAction,
+                       tellWhom: TellWhom): BatchMsg = {
+    logger.debug(s".buildSessionData: action $action, tellWhom ${tellWhom.toString}")
     val json = Json.obj(
       BatchActionJsonKey.Action.toString -> action.toString,
       BatchActionJsonKey.SessionData.toString -> sessionData,
-      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(batch
-        .getBatchSessionVersion)))
-
+      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     BatchMsg(json, tellWhom)
   }
 
@@ -3,6 +3,7 @@ package batch
 import akka.actor.{Actor, ActorRef, PoisonPill, Props}
 import batch.BatchDispatcher._
 import javax.inject.Inject
+import play.api.http.websocket.TextMessage
 import play.api.libs.json.{JsObject, Json}
 
 /**
@@ -35,7 +36,7 @@ class BatchChannelActor @Inject()(out: ActorRef,
 
   override def postStop() = batchDispatcher ! UnregisterChannel(studyResultId)
 
-  val pong = Json.obj("heartbeat" -> "pong")
+  val pong = TextMessage(Json.stringify(Json.obj("heartbeat" -> "pong")))
 
   def receive = {
     case msg: JsObject if msg.keys.contains("heartbeat") =>
@@ -47,8 +48,8 @@ class BatchChannelActor @Inject()(out: ActorRef,
       batchDispatcher ! BatchMsg(msg)
     case msg: BatchMsg =>
       // If we receive a BatchMsg (can only come from the BatchDispatcher),
-      // send the unwrapped JSON to the client
-      out ! msg.json
+      // send the JSON (serialized by the BatchMsg only once for all channels) to the client
+      out ! TextMessage(msg.text)
     case _: PoisonChannel =>
       // Kill this batch channel
       self ! PoisonPill
@@ -1,5 +1,6 @@
 package batch
 
+import java.nio.charset.StandardCharsets
 import javax.inject.Inject
 
 import akka.actor.{Actor, ActorRef, PoisonPill}
@@ -7,9 +8,10 @@ import batch.BatchDispatcher.TellWhom.TellWhom
 import batch.BatchDispatcher._
 import batch.BatchDispatcherRegistry.Unregister
 import com.google.inject.assistedinject.Assisted
-import general.ChannelRegistry
+import general.common.SessionMetrics
+import general.{ChannelRegistry, SessionBroadcast, SessionJournal, SessionState, SessionWriteBehind}
 import play.api.Logger
-import play.api.libs.json.{JsObject, Json}
+import play.api.libs.json.{JsObject, JsValue, Json}
 
 /**
   * A BatchDispatcher is an Akka Actor responsible for distributing messages (BatchMsg) within a
@@ -28,6 +30,11 @@ import play.api.libs.json.{JsObject, Json}
   * batch. These messages are essentially JSON Patches after RFC 6902 and used to describe
   * changes in the batch session data. The session data are stored and persisted with the Batch.
   *
+  * A BatchDispatcher holds the batch session in memory (the authoritative copy while it runs) and
+  * applies the patches there. The session is written into the database behind the scenes (see
+  * SessionWriteBehind). The GUI reads and changes it via BatchSessionAccess. Patches are sent to
+  * the members coalesced (see SessionBroadcast).
+  *
   * @author Kristian Lange (2017)
   */
 object BatchDispatcher {
@@ -100,22 +107,59 @@ object BatchDispatcher {
     * Message used for an action message. It has a JSON string and the JSON
     * contains an 'action' field. Additionally it can be addressed with TellWhom.
     */
-  case class BatchMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown)
+  case class BatchMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown) {
+
+    /**
+      * The JSON serialized - only once, no matter to how many channels the BatchMsg is sent
+      */
+    lazy val text: String = Json.stringify(json)
+
+    lazy val size: Int = text.getBytes(StandardCharsets.UTF_8).length
+
+  }
 
 }
 
 class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
                                 @Assisted actionHandler: BatchActionHandler,
                                 @Assisted actionMsgBuilder: BatchActionMsgBuilder,
-                                @Assisted batchId: Long) extends Actor {
+                                @Assisted batchId: Long,
+                                protected val sessionMetrics: SessionMetrics)
+  extends Actor with SessionWriteBehind with SessionBroadcast[BatchMsg] {
 
   private val logger: Logger = Logger(this.getClass)
 
   private val channelRegistry = new ChannelRegistry
 
-  override def postStop() = dispatcherRegistry ! Unregister(batchId)
+  protected val journal = SessionJournal("batch", batchId,
+    context.system.dispatchers.lookup(SessionWriteBehind.DispatcherName))
+
+  protected def sessionDescription = s"batch session of batch $batchId"
+
+  protected def loadSession(): Option[SessionState] = actionHandler.loadSession(batchId)
+
+  protected def writeSession(data: JsValue, version: Long, persistedVersion: Long): Boolean =
+    actionHandler.persistSession(batchId, data, version, persistedVersion)
+
+  protected def dispatcherDescription = s"BatchDispatcher of batch $batchId"
+
+  protected def buildPatchMsg(patch: JsValue, version: Long): BatchMsg =
+    actionMsgBuilder.buildSessionPatch(version, patch, TellWhom.All)
+
+  protected def changesDurable(): Unit = sendReadyReplies()
+
+  override def preStart() = {
+    initSession()
+    startSessionBroadcast()
+  }
+
+  override def postStop() = {
+    stopSessionBroadcast()
+    persistSessionOnStop()
+    dispatcherRegistry ! Unregister(batchId)
+  }
 
-  def receive = {
+  def receive = handleWriteBehind orElse handleSessionBroadcast orElse {
     case actionMsg: BatchMsg => handleActionMsg(actionMsg)
     case RegisterChannel(studyResultId: Long) => registerChannel(studyResultId)
     case UnregisterChannel(studyResultId: Long) => unregisterChannel(studyResultId)
@@ -129,18 +173,34 @@ class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     logger.debug(s".handleActionMsg: batchId $batchId, " +
         s"studyResultId ${channelRegistry.getStudyResult(sender).get}, " +
         s"actionMsg ${Json.stringify(actionMsg.json)}")
-    val msgList = actionHandler.handleActionMsg(actionMsg, batchId)
-    tellActionMsg(msgList)
+    session match {
+      case Some(s) =>
+        val version = s.version
+        val msgList = actionHandler.handleActionMsg(actionMsg, batchId, s, journal, patchCoalescer)
+        if (s.version != version) {
+          patchesApplied(msgList, s.version)
+          sessionChanged(s)
+        } else tellActionMsg(msgList)
+      case None => tellActionMsg(List(buildBatchNotFoundError()))
+    }
   }
 
+  private def buildBatchNotFoundError() =
+    actionMsgBuilder.buildError(s"Couldn't find batch with ID $batchId in database.", TellWhom.SenderOnly)
+
   /**
     * Registers the given channel in the channelRegistry and send an OPENED msg back to the sender
     */
   private def registerChannel(studyResultId: Long) = {
     logger.debug(s".registerChannel: batchId $batchId, studyResultId $studyResultId")
+    // The new channel gets the whole session data - not the pending patches
+    flushPatches()
     channelRegistry.register(studyResultId, sender)
-    tellActionMsg(List(actionMsgBuilder.buildSessionData(
-      batchId, BatchAction.Opened, TellWhom.SenderOnly)))
+    val msg = session match {
+      case Some(s) => actionMsgBuilder.buildSessionData(s.data, s.version, BatchAction.Opened, TellWhom.SenderOnly)
+      case None => buildBatchNotFoundError()
+    }
+    tellActionMsg(List(msg))
   }
 
   /**
@@ -178,7 +238,11 @@ class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     else tellSenderOnly(false)
   }
 
+  /**
+    * Sends the messages - after the pending session patches
+    */
   private def tellActionMsg(msgList: List[BatchMsg]) = {
+    flushPatches()
     msgList.foreach(msg =>
       msg.tellWhom match {
         case TellWhom.All => tellAll(msg)
@@ -191,19 +255,26 @@ class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
   /**
     * Sends the message to everyone in batch channelRegistry.
     */
-  private def tellAll(msg: BatchMsg) = {
-    logger.debug(s".tellAll: batchId $batchId, msg ${Json.stringify(msg.json)}")
-    for (actorRef <- channelRegistry.getAllChannels) {
-      actorRef ! msg
-    }
-  }
+  private def tellAll(msg: BatchMsg) = sendToAll(msg)
 
   /**
     * Sends the message only to the sender.
     */
-  private def tellSenderOnly(msg: BatchMsg) = {
-    logger.debug(s".tellSenderOnly: batchId $batchId, msg ${Json.stringify(msg.json)}")
-    sender ! msg
+  private def tellSenderOnly(msg: BatchMsg) = sendTo(sender, msg)
+
+  protected def sendToAll(msg: BatchMsg): Unit = {
+    logger.debug(s".tellAll: batchId $batchId, msg ${msg.text}")
+    val channels = channelRegistry.getAllChannels
+    channelMetrics.record(msg.size, channels.size)
+    for (actorRef <- channels) {
+      actorRef ! msg
+    }
+  }
+
+  protected def sendTo(channel: ActorRef, msg: BatchMsg): Unit = {
+    logger.debug(s".tellSenderOnly: batchId $batchId, msg ${msg.text}")
+    channelMetrics.record(msg.size, 1)
+    channel ! msg
   }
 
   /**
@@ -2,7 +2,7 @@ package batch
 
 import akka.actor.SupervisorStrategy.Resume
 import akka.actor.{Actor, ActorRef, ActorSystem, OneForOneStrategy}
-import batch.BatchDispatcherRegistry.{GetOrCreate, ItsThisOne, Unregister}
+import batch.BatchDispatcherRegistry._
 import javax.inject.{Inject, Singleton}
 import play.api.Logger
 import play.api.libs.concurrent.InjectedActorSupport
@@ -36,6 +36,17 @@ object BatchDispatcherRegistry {
     */
   case class Unregister(batchId: Long) extends RegistryProtocol
 
+  /**
+    * Used to send a message to the BatchDispatcher of a particular batch - but only if it exists
+    * (without creating a new one). If it doesn't exist the answer is NoDispatcher.
+    */
+  case class ForwardIfExists(batchId: Long, msg: Any) extends RegistryProtocol
+
+  /**
+    * Answer to ForwardIfExists if there is no BatchDispatcher for the batch
+    */
+  case object NoDispatcher extends RegistryProtocol
+
 }
 
 @Singleton
@@ -73,6 +84,11 @@ class BatchDispatcherRegistry @Inject()(actorSystem: ActorSystem,
         logger.debug(s".receive: registered dispatcher for batch ID $batchId")
       }
       sender ! ItsThisOne(dispatcherMap(batchId))
+    case ForwardIfExists(batchId: Long, msg: Any) =>
+      dispatcherMap.get(batchId) match {
+        case Some(dispatcher) => dispatcher forward msg
+        case None => sender ! NoDispatcher
+      }
     case Unregister(batchId: Long) =>
       dispatcherMap -= batchId
       logger.debug(s".receive: unregistered dispatcher for batch ID $batchId")
@@ -0,0 +1,57 @@
+package general
+
+import general.common.SessionMetrics
+
+/**
+  * Counts the messages and bytes a dispatcher (BatchDispatcher or GroupDispatcher) sends to its
+  * channels. A message sent to several channels counts once per channel. Only used by the
+  * dispatcher actor that owns it. Everything is counted in the SessionMetrics of all dispatchers
+  * too.
+  */
+class ChannelMetrics(sessionMetrics: SessionMetrics) {
+
+  private val createdAt = System.currentTimeMillis()
+  private var periodStart = createdAt
+
+  private var periodMessages = 0L
+  private var periodBytes = 0L
+  private var totalMessages = 0L
+  private var totalBytes = 0L
+
+  /**
+    * Records a message of the given size (serialized) sent to the given number of channels
+    */
+  def record(bytes: Int, channels: Int): Unit = {
+    periodMessages += channels
+    periodBytes += bytes.toLong * channels
+    sessionMetrics.recordSent(channels, bytes.toLong * channels)
+  }
+
+  def hasTraffic: Boolean = periodMessages > 0
+
+  /**
+    * Returns the messages/s and bytes/s since the last call and starts a new period
+    */
+  def takeRates(): String = {
+    val now = System.currentTimeMillis()
+    val rates = format(periodMessages, periodBytes, now - periodStart)
+    totalMessages += periodMessages
+    totalBytes += periodBytes
+    periodMessages = 0
+    periodBytes = 0
+    periodStart = now
+    rates
+  }
+
+  /**
+    * Returns the messages/s and bytes/s over the whole lifetime
+    */
+  def totalRates(): String =
+    format(totalMessages + periodMessages, totalBytes + periodBytes, System.currentTimeMillis() - createdAt)
+
+  private def format(messages: Long, bytes: Long, millis: Long) = {
+    val seconds = math.max(millis, 1L) / 1000.0
+    f"${messages / seconds}%.1f messages/s, ${bytes / seconds}%.1f bytes/s ($messages messages, $bytes bytes)"
+  }
+
+}
@@ -0,0 +1,159 @@
+package general
+
+import general.common.SessionMetrics
+import play.api.libs.json.{JsArray, JsObject, JsValue, Json}
+
+import scala.collection.mutable
+
+/**
+  * Collects the session patches (JSON Patches after RFC 6902) a dispatcher applied within the
+  * coalescing window (see Common.getSessionPatchCoalescingWindow) so they can be sent to the
+  * members as one patch that leads from the session data before the first patch to the data after
+  * the last one. Each drain is recorded in the SessionMetrics.
+  */
+class PatchCoalescer(sessionMetrics: SessionMetrics) {
+
+  private var baseData: JsValue = Json.obj()
+  private var patchedData: JsValue = Json.obj()
+  private var patches = Vector[JsValue]()
+  private var patchedVersion: Long = 0
+
+  def isEmpty: Boolean = patches.isEmpty
+
+  def nonEmpty: Boolean = patches.nonEmpty
+
+  /**
+    * Adds a patch that was applied to the session data
+    *
+    * @param dataBefore session data before the patch
+    * @param patch      the applied patch (JSON array of operations)
+    * @param dataAfter  session data after the patch
+    * @param version    session version after the patch
+    */
+  def add(dataBefore: JsValue, patch: JsValue, dataAfter: JsValue, version: Long): Unit = {
+    if (patches.isEmpty) baseData = dataBefore
+    patches :+= patch
+    patchedData = dataAfter
+    patchedVersion = version
+  }
+
+  /**
+    * Returns the merged patch together with the session version it leads to and empties this
+    * PatchCoalescer. Returns None if there is no patch.
+    */
+  def drain(): Option[(JsValue, Long)] = {
+    if (patches.isEmpty) return None
+    val merged = PatchCoalescer.merge(baseData, patches, patchedData)
+    val operationsIn = patches.map(PatchCoalescer.operations(_).size).sum
+    sessionMetrics.recordCoalescing(patches.size, operationsIn, PatchCoalescer.operations(merged).size,
+      patches.size > 1 && patches.exists(PatchCoalescer.isRemoveAll))
+    patches = Vector()
+    Some((merged, patchedVersion))
+  }
+
+}
+
+object PatchCoalescer {
+
+  /**
+    * Operations whose effect depends only on their own path and value (and not on other locations
+    * like 'move', 'copy' and 'test')
+    */
+  private val PathOnlyOps = Set("add", "replace", "remove")
+
+  /**
+    * Merges consecutive patches into one. A single patch is returned unchanged.
+    *
+    * Usually the operations of all patches are concatenated and operations that are overwritten by
+    * a later operation are dropped (see dropOverwritten). This way the costs depend only on the
+    * number of operations and not on the size of the session data. Only if one of the patches
+    * removes everything ('remove' of "/") the whole session data are restated.
+    */
+  def merge(baseData: JsValue, patches: Seq[JsValue], patchedData: JsValue): JsValue = {
+    if (patches.size == 1) return patches.head
+
+    // A 'remove' of "/" is only understood as first operation of a patch (jatos.js and
+    // SessionState.patch ignore the following operations) - so it can't be concatenated
+    if (patches.exists(isRemoveAll)) return restate(baseData, patchedData)
+
+    JsArray(dropOverwritten(patches.flatMap(operations)))
+  }
+
+  /**
+    * Drops operations whose target is overwritten later: an 'add' or 'replace' of a path makes all
+    * earlier operations on the same path or below it obsolete. A 'replace' that overwrites
+    * something becomes an 'add' (which sets an object member whether it exists or not) - the
+    * dropped operation might have been the one that created it.
+    *
+    * Only paths of object members are considered: array indices shift with each 'add' and
+    * 'remove'. If there is a 'move', 'copy' or 'test' nothing is dropped.
+    */
+  private[general] def dropOverwritten(ops: Seq[JsValue]): Seq[JsValue] = {
+    if (!ops.forall(op => PathOnlyOps.contains(opName(op)))) return ops
+
+    val kept = mutable.ArrayBuffer[JsValue]()
+    // Overwriting paths -> index in kept
+    val overwritingPaths = mutable.Map[String, Int]()
+    for (op <- ops.reverseIterator) {
+      val path = opPath(op)
+      // The path itself or one of its parents
+      val overwrittenBy = pathAndParents(path).flatMap(overwritingPaths.get).headOption
+      overwrittenBy match {
+        case Some(index) =>
+          if (opName(kept(index)) == "replace") {
+            kept(index) = kept(index).as[JsObject] + ("op" -> Json.toJson("add"))
+          }
+        case None =>
+          kept += op
+          if (opName(op) != "remove" && isObjectMemberPath(path)) overwritingPaths += path -> (kept.size - 1)
+      }
+    }
+    kept.reverse
+  }
+
+  /**
+    * Patch that leads from the given data before to the data after: removes the fields that are
+    * gone and sets the others to their current value or, if the data after are empty, removes
+    * everything
+    */
+  private def restate(dataBefore: JsValue, dataAfter: JsValue): JsValue = dataAfter match {
+    case JsObject(fields) if fields.nonEmpty =>
+      val keysAfter = fields.map(_._1).toSet
+      val removedKeys = dataBefore.asOpt[JsObject].map(_.keys.filterNot(keysAfter.contains)).getOrElse(Set())
+      JsArray(removedKeys.toSeq.map(key => Json.obj("op" -> "remove", "path" -> s"/${escape(key)}")) ++
+        fields.toSeq.map { case (key, value) =>
+          Json.obj("op" -> "add", "path" -> s"/${escape(key)}", "value" -> value)
+        })
+    case _ => Json.arr(Json.obj("op" -> "remove", "path" -> "/"))
+  }
+
+  private[general] def operations(patch: JsValue): Seq[JsValue] = patch.asOpt[JsArray].map(_.value).getOrElse(Nil)
+
+  /**
+    * Returns the given JSON Pointer and all its parents (without the root), e.g. "/a/b" -> "/a", "/a/b"
+    */
+  private def pathAndParents(path: String): Iterator[String] =
+    Iterator.iterate(path.indexOf('/', 1))(index => path.indexOf('/', index + 1))
+      .takeWhile(_ != -1).map(path.substring(0, _)) ++ Iterator(path)
+
+  private def opName(op: JsValue) = (op \ "op").asOpt[String].getOrElse("")
+
+  private def opPath(op: JsValue) = (op \ "path").asOpt[String].getOrElse("")
+
+  /**
+    * Whether each segment of the JSON Pointer can only be an object member: not the root and no
+    * array index or "-"
+    */
+  private def isObjectMemberPath(path: String) =
+    path.startsWith("/") && path.length > 1 &&
+      path.substring(1).split("/", -1).forall(segment => segment != "-" && !segment.forall(_.isDigit))
+
+  /**
+    * Escapes a JSON object key for a JSON Pointer (RFC 6901)
+    */
+  private def escape(key: String) = key.replace("~", "~0").replace("/", "~1")
+
+  private[general] def isRemoveAll(patch: JsValue) =
+    (patch \ 0 \ "op").asOpt[String].contains("remove") && (patch \ 0 \ "path").asOpt[String].contains("/")
+
+}
@@ -0,0 +1,155 @@
+package general
+
+import akka.actor.{Actor, ActorRef, Cancellable}
+import general.SessionBroadcast._
+import general.common.{Common, SessionMetrics}
+import play.api.Logger
+import play.api.libs.json.JsValue
+
+import scala.concurrent.duration._
+
+/**
+  * Messages of the SessionBroadcast
+  */
+object SessionBroadcast {
+
+  /**
+    * Message a dispatcher sends to itself when the patch coalescing window is over
+    */
+  case object FlushPatches
+
+  /**
+    * Message a dispatcher sends to itself to log its channel metrics
+    */
+  case object ReportMetrics
+
+  val MetricsInterval: FiniteDuration = 1.minute
+
+}
+
+/**
+  * Lets a dispatcher (BatchDispatcher or GroupDispatcher) send session patches to its members
+  * coalesced: all patches applied within the coalescing window (Common.getSessionPatchCoalescingWindow)
+  * are merged (PatchCoalescer) and sent as one message. The replies to the senders of the patches
+  * (e.g. SESSION_ACK) are held back until the merged patch is sent, so a client never gets a session
+  * version before the data that belong to it. For the same reason pending patches have to be sent
+  * (flushPatches) before any other message goes out to the channels. Additionally a reply is held
+  * back until its change is durable (isDurable) - the dispatcher calls sendReadyReplies when more
+  * changes became durable.
+  *
+  * Additionally it keeps the ChannelMetrics of the dispatcher and logs them regularly. The counters of
+  * all dispatchers together are in the SessionMetrics.
+  */
+trait SessionBroadcast[M] {
+  this: Actor =>
+
+  private val broadcastLogger: Logger = Logger(classOf[SessionBroadcast[_]])
+
+  protected lazy val patchCoalescer = new PatchCoalescer(sessionMetrics)
+
+  protected lazy val channelMetrics = new ChannelMetrics(sessionMetrics)
+
+  /**
+    * Replies to the senders of the pending patches - with the session version of their change
+    */
+  private var pendingReplies = Vector[(ActorRef, M, Long)]()
+
+  /**
+    * Highest session version that was sent to all members
+    */
+  private var sentVersion = 0L
+
+  private var flushTask: Option[Cancellable] = None
+
+  private var metricsTask: Option[Cancellable] = None
+
+  protected def sessionMetrics: SessionMetrics
+
+  /**
+    * Whether the change that led to this session version is durable
+    */
+  protected def isDurable(version: Long): Boolean
+
+  /**
+    * Description of the dispatcher used in log messages
+    */
+  protected def dispatcherDescription: String
+
+  /**
+    * Builds the message with a (merged) session patch that is sent to all members
+    */
+  protected def buildPatchMsg(patch: JsValue, version: Long): M
+
+  /**
+    * Sends the message to all channels without flushing the pending patches first
+    */
+  protected def sendToAll(msg: M): Unit
+
+  /**
+    * Sends the message to the given channel without flushing the pending patches first
+    */
+  protected def sendTo(channel: ActorRef, msg: M): Unit
+
+  protected def handleSessionBroadcast: Receive = {
+    case FlushPatches => flushPatches()
+    case ReportMetrics => reportMetrics()
+  }
+
+  protected def startSessionBroadcast(): Unit = {
+    metricsTask = Some(context.system.scheduler.schedule(
+      MetricsInterval, MetricsInterval, self, ReportMetrics)(context.dispatcher))
+  }
+
+  protected def stopSessionBroadcast(): Unit = {
+    flushTask.foreach(_.cancel())
+    metricsTask.foreach(_.cancel())
+    broadcastLogger.debug(s".stopSessionBroadcast: $dispatcherDescription sent ${channelMetrics.totalRates()}")
+  }
+
+  /**
+    * Has to be called after patches were added to the patchCoalescer. The given replies go to the
+    * current sender after the merged patch was sent and the change that led to the given session
+    * version is durable.
+    */
+  protected def patchesApplied(replies: List[M], version: Long): Unit = {
+    pendingReplies ++= replies.map(reply => (sender, reply, version))
+    val window = Common.getSessionPatchCoalescingWindow
+    if (window <= 0) flushPatches()
+    else if (flushTask.isEmpty) {
+      flushTask = Some(context.system.scheduler.scheduleOnce(
+        window.millis, self, FlushPatches)(context.dispatcher))
+    }
+  }
+
+  /**
+    * Sends the pending patches merged into one message to all members and then the held back
+    * replies that are ready
+    */
+  protected def flushPatches(): Unit = {
+    flushTask.foreach(_.cancel())
+    flushTask = None
+    patchCoalescer.drain().foreach { case (patch, version) =>
+      sendToAll(buildPatchMsg(patch, version))
+      sentVersion = math.max(sentVersion, version)
+    }
+    sendReadyReplies()
+  }
+
+  /**
+    * Sends the held back replies whose change was sent to all members and is durable
+    */
+  protected def sendReadyReplies(): Unit = {
+    val (ready, waiting) = pendingReplies.partition { case (_, _, version) =>
+      version <= sentVersion && isDurable(version)
+    }
+    ready.foreach { case (channel, reply, _) => sendTo(channel, reply) }
+    pendingReplies = waiting
+  }
+
+  private def reportMetrics() = {
+    val hasTraffic = channelMetrics.hasTraffic
+    val rates = channelMetrics.takeRates()
+    if (hasTraffic) broadcastLogger.debug(s".reportMetrics: $dispatcherDescription sent $rates")
+  }
+
+}
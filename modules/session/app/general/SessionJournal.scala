@@ -0,0 +1,209 @@
+package general
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardCopyOption, StandardOpenOption}
+
+import general.common.Common
+import play.api.Logger
+import play.api.libs.json.{JsValue, Json}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.util.Try
+
+/**
+  * Journal of the changes of a session (batch or group session) that is held in memory by a dispatcher but not yet
+  * written into the database. Each change is appended as one line of JSON together with the session version it
+  * leads to - before the change is acknowledged to the client. If JATOS stops unexpectedly before the session is
+  * written into the database, the dispatcher replays the journal the next time it loads the session.
+  *
+  * A journal entry has either the JSON patches of the change (from a client) or the whole session data (e.g. edited
+  * in the GUI).
+  *
+  * Appending an entry only adds it to a buffer. It's written by sync: all buffered entries with one write that is
+  * forced to the storage device (fsync) - entries appended while a sync is running are written together by the next
+  * one (group commit). After each successful write of the session into the database the journal is truncated to the
+  * entries that are not yet in the database - so it doesn't grow while a session stays dirty.
+  *
+  * All file operations (sync, truncate, delete) run on the given ExecutionContext - one after another in the order
+  * they were called. The file stays open between them. The methods themselves are not thread-safe - the journal is
+  * only used by its dispatcher actor.
+  */
+object SessionJournal {
+
+  val Version = "version"
+  val Patches = "patches"
+  val Data = "data"
+
+  /**
+    * Max time close waits for the pending file operations
+    */
+  val CloseTimeout: FiniteDuration = 10.seconds
+
+  def apply(sessionType: String, id: Long, ec: ExecutionContext): SessionJournal =
+    new SessionJournal(Paths.get(Common.getSessionJournalPath, s"${sessionType}_$id.journal"), ec)
+
+}
+
+class SessionJournal(path: Path, ec: ExecutionContext) {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  /**
+    * Appended entries that are not yet handed to a sync
+    */
+  private var buffer = Vector[JsValue]()
+
+  /**
+    * The last file operation - the next one starts after it's done
+    */
+  private var lastOperation: Future[Any] = Future.successful(())
+
+  /**
+    * The open journal file. Only used within file operations.
+    */
+  @volatile private var channel: Option[FileChannel] = None
+
+  def appendPatches(version: Long, patches: JsValue): Unit =
+    buffer :+= Json.obj(SessionJournal.Version -> version, SessionJournal.Patches -> patches)
+
+  def appendData(version: Long, data: JsValue): Unit =
+    buffer :+= Json.obj(SessionJournal.Version -> version, SessionJournal.Data -> data)
+
+  /**
+    * Whether there are appended entries that are not yet handed to a sync
+    */
+  def hasPending: Boolean = buffer.nonEmpty
+
+  /**
+    * Writes all appended entries into the journal file and forces them to the storage device. The returned Future
+    * has the highest session version of the written entries - it fails if they couldn't be written.
+    */
+  def sync(): Future[Long] = {
+    val entries = buffer
+    buffer = Vector()
+    enqueue {
+      write(entries)
+      entries.lastOption.flatMap(entry => (entry \ SessionJournal.Version).asOpt[Long]).getOrElse(0L)
+    }
+  }
+
+  /**
+    * Removes all entries that lead to the given version or a lower one (they are in the database now). The remaining
+    * entries are written into a new file that replaces the journal atomically. Entries that are not yet synced are
+    * not affected.
+    */
+  def truncate(persistedVersion: Long): Unit = enqueueLogged("truncate") {
+    closeChannel()
+    val remaining = read().filter(isAfter(persistedVersion))
+    if (remaining.isEmpty) Files.deleteIfExists(path)
+    else {
+      val tmpPath = path.resolveSibling(path.getFileName.toString + ".tmp")
+      val tmpChannel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)
+      try writeAndForce(tmpChannel, remaining.map(Json.stringify(_) + "\n").mkString)
+      finally tmpChannel.close()
+      Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+  }
+
+  /**
+    * Deletes the journal - together with the entries that are not yet synced
+    */
+  def delete(): Unit = {
+    buffer = Vector()
+    enqueueLogged("delete") {
+      closeChannel()
+      Files.deleteIfExists(path)
+    }
+  }
+
+  /**
+    * Waits for the pending file operations, writes the entries that are not yet synced and closes the journal file.
+    * It blocks the calling thread - to be used only when the dispatcher stops.
+    */
+  def close(): Unit = {
+    val entries = buffer
+    buffer = Vector()
+    val closing = enqueue {
+      try write(entries)
+      finally closeChannel()
+    }
+    Try(Await.result(closing, SessionJournal.CloseTimeout)).failed.foreach(e =>
+      logger.error(s".close: couldn't write and close session journal $path", e))
+  }
+
+  /**
+    * Returns all entries that lead to a version higher than the given one - in the order they were written. Lines
+    * that can't be parsed (e.g. the last one if JATOS stopped while writing it) are skipped. It reads the file
+    * directly - to be used before any other file operation (e.g. when the session is loaded).
+    */
+  def readAfter(version: Long): List[JsValue] = read().filter(isAfter(version))
+
+  private def isAfter(version: Long)(entry: JsValue) =
+    (entry \ SessionJournal.Version).asOpt[Long].exists(_ > version)
+
+  private def read(): List[JsValue] = {
+    if (Files.notExists(path)) return List()
+    Files.readAllLines(path, StandardCharsets.UTF_8).asScala.toList
+      .flatMap(line => Try(Json.parse(line)).toOption)
+  }
+
+  /**
+    * Runs the file operation after the last one (no matter whether that one failed)
+    */
+  private def enqueue[T](operation: => T): Future[T] = {
+    val result = lastOperation.recover { case _ => () }(ec).map(_ => operation)(ec)
+    lastOperation = result
+    result
+  }
+
+  private def enqueueLogged(name: String)(operation: => Unit): Unit =
+    enqueue(operation).failed.foreach(e => logger.error(s".$name: session journal $path", e))(ec)
+
+  private def write(entries: Seq[JsValue]): Unit = {
+    if (entries.isEmpty) return
+    val (openChannel, separator) = channel match {
+      case Some(c) => (c, "")
+      case None => open()
+    }
+    writeAndForce(openChannel, separator + entries.map(Json.stringify(_) + "\n").mkString)
+  }
+
+  /**
+    * Opens the journal file for appending. If the file's last line is incomplete (JATOS stopped while writing it) the
+    * returned separator has to be written first - otherwise the next entry would be appended to this line.
+    */
+  private def open(): (FileChannel, String) = {
+    Files.createDirectories(path.getParent)
+    val separator = if (Files.exists(path) && !endsWithNewline) "\n" else ""
+    val openChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.APPEND)
+    channel = Some(openChannel)
+    (openChannel, separator)
+  }
+
+  private def endsWithNewline: Boolean = {
+    val readChannel = FileChannel.open(path, StandardOpenOption.READ)
+    try {
+      val size = readChannel.size()
+      val lastByte = ByteBuffer.allocate(1)
+      size == 0 || (readChannel.read(lastByte, size - 1) == 1 && lastByte.get(0) == '\n')
+    } finally readChannel.close()
+  }
+
+  private def writeAndForce(fileChannel: FileChannel, str: String): Unit = {
+    val bytes = ByteBuffer.wrap(str.getBytes(StandardCharsets.UTF_8))
+    while (bytes.hasRemaining) fileChannel.write(bytes)
+    fileChannel.force(false)
+  }
+
+  private def closeChannel(): Unit = {
+    channel.foreach(c => Try(c.close()))
+    channel = None
+  }
+
+}
@@ -0,0 +1,51 @@
+package general
+
+import gnieh.diffson.playJson._
+import play.api.libs.json.Reads._
+import play.api.libs.json.{JsValue, Json}
+
+/**
+  * A session (batch or group session) held in memory by a dispatcher: the parsed session data and their version.
+  * Only the dispatcher actor that owns it reads or changes it.
+  */
+class SessionState(var data: JsValue, var version: Long) {
+
+  /**
+    * Version of the session that is stored in the database
+    */
+  var persistedVersion: Long = version
+
+  /**
+    * Number of changes since the session was last written into the database
+    */
+  var unpersistedChanges: Int = 0
+
+  def isDirty: Boolean = version != persistedVersion
+
+  /**
+    * Sets the new data and increases the version by 1
+    */
+  def change(newData: JsValue): Unit = {
+    data = newData
+    version += 1
+    unpersistedChanges += 1
+  }
+
+}
+
+object SessionState {
+
+  /**
+    * Applies the JSON patches (RFC 6902) to the session data and returns the patched data
+    */
+  def patch(patches: JsValue, sessionData: JsValue): JsValue = {
+    // Fix for gnieh.diffson JsonPatch for "remove" and "/" - clear all session data
+    // Assumes the 'remove' operation is in the first JSON patch
+    if ((patches \ 0 \ "op").as[String] == "remove" && (patches \ 0 \ "path").as[String] == "/") {
+      return Json.obj()
+    }
+
+    JsonPatch.apply(patches)(sessionData)
+  }
+
+}
@@ -0,0 +1,387 @@
+package general
+
+import akka.actor.{Actor, ActorRef, Cancellable}
+import com.google.common.base.Strings
+import general.SessionWriteBehind._
+import general.common.Common
+import play.api.Logger
+import play.api.libs.json.{JsValue, Json}
+
+import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.duration._
+import scala.util.{Failure, Success, Try}
+
+/**
+  * Messages and settings of the SessionWriteBehind
+  */
+object SessionWriteBehind {
+
+  /**
+    * Message that asks a dispatcher to write its session into the database. It answers with true
+    * after it's written - or with false if the write failed MaxFlushAttempts times in a row.
+    */
+  case object FlushSession
+
+  /**
+    * Message that asks a dispatcher to replace its session data (e.g. edited in the GUI) if the
+    * version is the current one. It answers with true after the new data are durable (journaled or
+    * in the database) - or with false if the version isn't the current one.
+    */
+  case class ReplaceSessionData(version: Long, data: String)
+
+  /**
+    * Message a dispatcher sends to itself when it's time to write the session into the database
+    */
+  case object PersistSession
+
+  /**
+    * Message a dispatcher sends to itself after the session was written into the database
+    */
+  case class SessionPersisted(version: Long, result: Try[Boolean])
+
+  /**
+    * Message a dispatcher sends to itself after the journal entries were written. It has the
+    * highest session version that was written.
+    */
+  case class JournalSynced(result: Try[Long])
+
+  /**
+    * Dispatcher (application.conf) for the journal's file IO and the writes of the sessions into
+    * the database
+    */
+  val DispatcherName = "session.dispatcher"
+
+  /**
+    * Delay of the retry after a failed write into the database - doubled after each further
+    * failure up to MaxRetryDelay
+    */
+  val MinRetryDelay: FiniteDuration = 1.second
+
+  val MaxRetryDelay: FiniteDuration = 1.minute
+
+  /**
+    * Number of failed writes in a row after which FlushSession is answered with false
+    */
+  val MaxFlushAttempts = 3
+
+  def retryDelay(failedWrites: Int): FiniteDuration =
+    (MinRetryDelay * (1L << math.min(math.max(failedWrites - 1, 0), 16))) min MaxRetryDelay
+
+}
+
+/**
+  * Lets a dispatcher (BatchDispatcher or GroupDispatcher) hold its session in memory as the
+  * authoritative copy and write it into the database behind the scenes.
+  *
+  * Each change is journaled (SessionJournal) and only acknowledged to the client after it is
+  * durable: the journal is written and forced to disk on the 'session.dispatcher' - with all
+  * changes that came in meanwhile together (group commit) - and the dispatcher is told about it
+  * with a JournalSynced message (see isDurable and changesDurable). The session is written into the
+  * database asynchronously: after a number of changes, after some time at the latest (bounded
+  * staleness), when asked for it (FlushSession) and when the dispatcher stops. Only one write is in
+  * progress at any time. It runs on the 'session.dispatcher' too - blocking IO must not run on the
+  * actor system's default dispatcher that handles the messages of all dispatchers. A failed write
+  * is retried with an increasing delay. If the session was changed in the database by someone else
+  * the write fails and the session is reloaded.
+  */
+trait SessionWriteBehind {
+  this: Actor =>
+
+  private val writeBehindLogger: Logger = Logger(classOf[SessionWriteBehind])
+
+  /**
+    * The session held in memory. It's None if there is no session (e.g. the batch doesn't exist).
+    */
+  protected var session: Option[SessionState] = None
+
+  protected def journal: SessionJournal
+
+  /**
+    * Description of the session used in log messages
+    */
+  protected def sessionDescription: String
+
+  /**
+    * Loads the session from the database
+    */
+  protected def loadSession(): Option[SessionState]
+
+  /**
+    * Writes the session into the database. Returns false if the version in the database isn't the
+    * expected one.
+    */
+  protected def writeSession(data: JsValue, version: Long, persistedVersion: Long): Boolean
+
+  /**
+    * Called after more changes became durable: replies that wait for it can be sent now
+    */
+  protected def changesDurable(): Unit
+
+  /**
+    * Is true while the session is being written into the database
+    */
+  private var persisting = false
+
+  /**
+    * Scheduled write of the session into the database
+    */
+  private var persistTask: Option[Cancellable] = None
+
+  /**
+    * Number of failed writes into the database in a row
+    */
+  private var failedWrites = 0
+
+  /**
+    * Actors that wait for the session to be written into the database
+    */
+  private var flushWaiters = List[ActorRef]()
+
+  /**
+    * Is true while journal entries are being written
+    */
+  private var syncing = false
+
+  /**
+    * Highest session version that is durable (journaled or in the database)
+    */
+  private var durableVersion = 0L
+
+  /**
+    * Actors that wait for their replaced session data to be durable - with the session version of
+    * their data
+    */
+  private var replaceWaiters = List[(ActorRef, Long)]()
+
+  protected def handleWriteBehind: Receive = {
+    case FlushSession => flushSession()
+    case ReplaceSessionData(version, data) => replaceSessionData(version, data)
+    case PersistSession => persistSession()
+    case SessionPersisted(version, result) => sessionPersisted(version, result)
+    case JournalSynced(result) => journalSynced(result)
+  }
+
+  /**
+    * Whether the change that led to this session version is durable
+    */
+  protected def isDurable(version: Long): Boolean = version <= durableVersion
+
+  /**
+    * Loads the session from the database and replays the journaled changes that didn't make it
+    * into the database
+    */
+  protected def initSession(): Unit = {
+    session = loadSession()
+    session match {
+      case Some(s) =>
+        replayJournal(s)
+        durableVersion = s.version
+      case None => journal.delete()
+    }
+    if (session.exists(_.isDirty)) persistSession()
+  }
+
+  private def replayJournal(s: SessionState): Unit = {
+    val entries = journal.readAfter(s.version)
+    for (entry <- entries if (entry \ SessionJournal.Version).as[Long] == s.version + 1) {
+      val sessionData = (entry \ SessionJournal.Data).toOption
+        .getOrElse(SessionState.patch((entry \ SessionJournal.Patches).get, s.data))
+      s.change(sessionData)
+    }
+    if (s.isDirty) {
+      writeBehindLogger.info(s".replayJournal: restored $sessionDescription from journal " +
+        s"(version ${s.persistedVersion} -> ${s.version})")
+    } else journal.delete()
+  }
+
+  private def replaceSessionData(version: Long, data: String) = session match {
+    case Some(s) if s.version == version =>
+      val sessionData = if (Strings.isNullOrEmpty(data)) Json.obj() else Json.parse(data)
+      journal.appendData(s.version + 1, sessionData)
+      s.change(sessionData)
+      replaceWaiters = (sender, s.version) :: replaceWaiters
+      sessionChanged(s)
+    case _ => sender ! false
+  }
+
+  /**
+    * Drops the session held in memory without writing it into the database (e.g. because the
+    * session data were deleted in the database)
+    */
+  protected def dropSession(): Unit = {
+    cancelPersistTask()
+    session = None
+    journal.delete()
+    durableVersion = Long.MaxValue
+    replyToFlushWaiters(true)
+    durabilityChanged()
+  }
+
+  /**
+    * Has to be called after each change of the session: writes the journal and writes the session
+    * into the database if there are enough changes - or schedules it
+    */
+  protected def sessionChanged(s: SessionState): Unit = {
+    syncJournal()
+    // After a failed write the retry is scheduled already
+    if (failedWrites > 0) return
+    if (s.unpersistedChanges >= Common.getSessionPersistAfterChanges) persistSession()
+    else if (persistTask.isEmpty) schedulePersist(Common.getSessionPersistInterval.millis)
+  }
+
+  /**
+    * Writes the journal entries asynchronously. If a sync is already in progress the entries that
+    * came in meanwhile are written together after it's done.
+    */
+  private def syncJournal(): Unit = {
+    if (syncing || !journal.hasPending) return
+    syncing = true
+    journal.sync().onComplete(result => self ! JournalSynced(result))(context.dispatcher)
+  }
+
+  private def journalSynced(result: Try[Long]) = {
+    syncing = false
+    result match {
+      case Success(version) => durableVersion = math.max(durableVersion, version)
+      case Failure(e) =>
+        // The changes become durable with the next write into the database
+        writeBehindLogger.error(s".journalSynced: couldn't write the journal of $sessionDescription", e)
+        if (failedWrites == 0) persistSession()
+    }
+    syncJournal()
+    durabilityChanged()
+  }
+
+  private def durabilityChanged() = {
+    val (durable, waiting) = replaceWaiters.partition { case (_, version) => isDurable(version) }
+    durable.foreach { case (waiter, _) => waiter ! true }
+    replaceWaiters = waiting
+    changesDurable()
+  }
+
+  private def flushSession() = {
+    if (!session.exists(_.isDirty)) sender ! true
+    else if (failedWrites >= MaxFlushAttempts) sender ! false
+    else {
+      flushWaiters = sender :: flushWaiters
+      // After a failed write the retry is scheduled already
+      if (failedWrites == 0) persistSession()
+    }
+  }
+
+  private def schedulePersist(delay: FiniteDuration) = {
+    persistTask = Some(context.system.scheduler.scheduleOnce(delay, self, PersistSession)(context.dispatcher))
+  }
+
+  private def cancelPersistTask() = {
+    persistTask.foreach(_.cancel())
+    persistTask = None
+  }
+
+  /**
+    * Writes the session into the database asynchronously. If a write is already in progress the
+    * next one starts after it's done.
+    */
+  private def persistSession(): Unit = {
+    cancelPersistTask()
+    if (persisting) return
+    session.filter(_.isDirty).foreach { s =>
+      persisting = true
+      s.unpersistedChanges = 0
+      val (data, version, persistedVersion) = (s.data, s.version, s.persistedVersion)
+      implicit val ec: ExecutionContext = context.system.dispatchers.lookup(DispatcherName)
+      Future(writeSession(data, version, persistedVersion))
+        .onComplete(result => self ! SessionPersisted(version, result))
+    }
+  }
+
+  private def sessionPersisted(version: Long, result: Try[Boolean]) = {
+    persisting = false
+    result match {
+      case Failure(e) => writeFailed(e)
+      case Success(written) =>
+        failedWrites = 0
+        session.foreach { s =>
+          if (written) {
+            s.persistedVersion = version
+            durableVersion = math.max(durableVersion, version)
+            if (!s.isDirty) journal.delete()
+            else journal.truncate(version)
+          } else {
+            writeBehindLogger.warn(s".sessionPersisted: $sessionDescription was changed by someone " +
+              s"else in the database - reload it")
+            reloadSession(s)
+          }
+        }
+        session.filter(_.isDirty).foreach { s =>
+          if (flushWaiters.nonEmpty) persistSession()
+          else sessionChanged(s)
+        }
+        if (!session.exists(_.isDirty)) replyToFlushWaiters(true)
+        durabilityChanged()
+    }
+  }
+
+  /**
+    * Schedules the next write with an increasing delay. After MaxFlushAttempts failed writes in a
+    * row the actors waiting for a flush get false.
+    */
+  private def writeFailed(e: Throwable) = {
+    failedWrites += 1
+    val delay = retryDelay(failedWrites)
+    writeBehindLogger.error(s".writeFailed: couldn't write $sessionDescription ($failedWrites failed " +
+      s"writes in a row) - retry in $delay", e)
+    if (failedWrites >= MaxFlushAttempts) replyToFlushWaiters(false)
+    if (session.exists(_.isDirty)) schedulePersist(delay)
+  }
+
+  private def replyToFlushWaiters(written: Boolean) = {
+    flushWaiters.foreach(_ ! written)
+    flushWaiters = List()
+  }
+
+  /**
+    * Loads the session from the database again. The version is set higher than all versions the
+    * clients might know so their next versioned patch fails and they don't work on outdated data.
+    * The changes that weren't in the database are discarded - the replies waiting for them are
+    * released.
+    */
+  private def reloadSession(current: SessionState) = {
+    journal.delete()
+    durableVersion = math.max(durableVersion, current.version)
+    session = loadSession()
+    session.foreach { s =>
+      if (current.version >= s.version) {
+        s.version = current.version + 1
+        s.unpersistedChanges += 1
+      }
+    }
+  }
+
+  /**
+    * Writes the session into the database and closes the journal - both synchronously. To be
+    * called when the dispatcher stops. If the session couldn't be written the journal keeps the
+    * changes for the next time the session is loaded.
+    */
+  protected def persistSessionOnStop(): Unit = {
+    cancelPersistTask()
+    val written = session.filter(_.isDirty).forall(s =>
+      Try(writeSession(s.data, s.version, s.persistedVersion)) match {
+        case Success(true) =>
+          journal.delete()
+          true
+        case Success(false) =>
+          writeBehindLogger.warn(s".persistSessionOnStop: $sessionDescription was changed by someone " +
+            s"else in the database")
+          false
+        case Failure(e) =>
+          writeBehindLogger.error(s".persistSessionOnStop: couldn't write $sessionDescription", e)
+          false
+      })
+    journal.close()
+    replyToFlushWaiters(written)
+    replaceWaiters.foreach { case (waiter, _) => waiter ! true }
+    replaceWaiters = List()
+  }
+
+}
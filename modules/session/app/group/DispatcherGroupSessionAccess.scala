@@ -0,0 +1,72 @@
+package group
+
+import java.util.Optional
+import java.util.concurrent.CompletionStage
+
+import akka.actor.ActorRef
+import akka.pattern.{AskTimeoutException, ask}
+import akka.util.Timeout
+import general.SessionWriteBehind.{FlushSession, ReplaceSessionData}
+import general.common.GroupSessionAccess
+import group.GroupDispatcherRegistry.{ForwardIfExists, NoDispatcher}
+import javax.inject.{Inject, Named, Singleton}
+import play.api.Logger
+
+import scala.compat.java8.FutureConverters.toJava
+import scala.concurrent.duration._
+import scala.concurrent.{ExecutionContext, Future}
+
+/**
+  * Implementation of GroupSessionAccess: asks the GroupDispatcher of the group (if one exists) and
+  * returns its answer as a CompletionStage - without blocking the calling thread. This is called
+  * from the GUI and a slow or stopping dispatcher must not hold up the request. If the dispatcher
+  * doesn't answer in time the GUI falls back to the database: persist completes with false (the GUI
+  * gets the last persisted session - at most 'bounded staleness' old) and replace completes with
+  * 'not replaced' (the user has to reload the session and try again).
+  */
+@Singleton
+class DispatcherGroupSessionAccess @Inject()(@Named("group-dispatcher-registry-actor")
+                                             groupDispatcherRegistry: ActorRef)
+                                            (implicit ec: ExecutionContext)
+  extends GroupSessionAccess {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  /**
+    * Time to wait for an answer after asking an Akka actor
+    */
+  implicit val timeout: Timeout = 3.seconds
+
+  override def persist(groupResultId: Long): CompletionStage[java.lang.Boolean] = {
+    val answer = groupDispatcherRegistry ? ForwardIfExists(groupResultId, FlushSession)
+    val future: Future[java.lang.Boolean] = answer.map {
+      case NoDispatcher => Boolean.box(true)
+      case persisted: Boolean =>
+        if (!persisted) logger.warn(s".persist: groupResultId $groupResultId: the group dispatcher couldn't " +
+          s"write the group session - the group session from the database is used")
+        Boolean.box(persisted)
+    }.recover {
+      case _: AskTimeoutException =>
+        logger.warn(s".persist: groupResultId $groupResultId: no answer from the group dispatcher within " +
+          s"${timeout.duration} - the group session from the database is used")
+        Boolean.box(false)
+    }
+    toJava(future)
+  }
+
+  override def replace(groupResultId: Long, version: Long,
+                       data: String): CompletionStage[Optional[java.lang.Boolean]] = {
+    val answer = groupDispatcherRegistry ? ForwardIfExists(groupResultId, ReplaceSessionData(version, data))
+    val future: Future[Optional[java.lang.Boolean]] = answer.map {
+      case NoDispatcher => Optional.empty[java.lang.Boolean]()
+      case replaced: Boolean => Optional.of(Boolean.box(replaced))
+    }.recover {
+      case _: AskTimeoutException =>
+        logger.warn(s".replace: groupResultId $groupResultId: no answer from the group dispatcher within " +
+          s"${timeout.duration} - group session not replaced")
+        Optional.of(Boolean.box(false))
+    }
+    toJava(future)
+  }
+
+}
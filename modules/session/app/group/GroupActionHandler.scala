@@ -2,22 +2,26 @@ package group
 
 import com.google.common.base.Strings
 import daos.common.GroupResultDao
-import gnieh.diffson.playJson._
+import general.{PatchCoalescer, SessionJournal, SessionState}
 import group.GroupDispatcher.{GroupAction, GroupActionJsonKey, GroupMsg, TellWhom}
 import javax.inject.{Inject, Singleton}
-import models.common.GroupResult
 import models.common.GroupResult.GroupState
 import play.api.Logger
 import play.api.libs.json.{JsObject, JsValue, Json}
 import play.db.jpa.JPAApi
 
 import scala.compat.java8.FunctionConverters.asJavaSupplier
+import scala.util.Try
 
 /**
   * Handles group action messages. Those messages are of type GroupMsg with a JSON object that
   * contains an 'action' field. It was received by an GroupDispatcher and comes from a client via
   * a GroupChannelActor.
   *
+  * The group session is changed in memory (SessionState of the GroupDispatcher) - loading it from
+  * and writing it into the database is done here too, but only when the GroupDispatcher asks for it
+  * (see SessionWriteBehind).
+  *
   * @author Kristian Lange (2017)
   */
 @Singleton
@@ -31,102 +35,71 @@ class GroupActionHandler @Inject()(jpa: JPAApi,
     * Handles group actions originating from a client: Gets a GroupMsg that contains a field
     * 'action' in their JSON. The only action handled here are 1) the a patch for the group
     * session, or 2) the msg to fix the group. The function returns GroupMsges that will be send
-    * out to the group members.
+    * out to the group members. An applied patch isn't returned but added to the PatchCoalescer.
     */
-  def handleActionMsg(msg: GroupMsg, groupResultId: Long, studyResultId: Long): List[GroupMsg] = {
+  def handleActionMsg(msg: GroupMsg, groupResultId: Long, studyResultId: Long, groupState: GroupState,
+                      session: SessionState, journal: SessionJournal,
+                      patchCoalescer: PatchCoalescer): List[GroupMsg] = {
     logger.debug(s".handleActionMsg: groupResultId $groupResultId, studyResultId $studyResultId, " +
       s"jsonNode ${Json.stringify(msg.json)}")
     val actionValue = (msg.json \ GroupActionJsonKey.Action.toString).as[String]
     val action = GroupAction.withName(actionValue)
     action match {
-      case GroupAction.Session => handlePatch(msg.json, groupResultId, studyResultId)
-      case GroupAction.Fixed => handleActionFix(groupResultId);
+      case GroupAction.Session => handlePatch(msg.json, groupResultId, groupState, session, journal, patchCoalescer)
+      case GroupAction.Fixed => handleActionFix(groupResultId, session)
       case _ =>
         List(msgBuilder.buildError(groupResultId, s"Unknown action $action", TellWhom.SenderOnly))
     }
   }
 
   /**
-    * Applies the patch to the group session
+    * Applies the patch to the group session and adds it to the PatchCoalescer (to tell everyone in
+    * the group). The patch is only applied if the client's version is equal to the current one or
+    * versioning is turned off. The patch is added to the journal - the dispatcher sends the
+    * acknowledgement after the journal entry is written.
     */
-  private def handlePatch(json: JsObject, groupResultId: Long, studyResultId: Long): List[GroupMsg] = {
-    jpa.withTransaction(asJavaSupplier(() => {
-      val groupResult = groupResultDao.findById(groupResultId)
-      if (groupResult == null) {
-        val errorMsg = s"Couldn't find group result with ID $groupResultId in database."
-        List(msgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly))
+  private def handlePatch(json: JsObject, groupResultId: Long, groupState: GroupState, session: SessionState,
+                          journal: SessionJournal, patchCoalescer: PatchCoalescer): List[GroupMsg] = {
+    val sessionActionId = (json \ GroupActionJsonKey.SessionActionId.toString).as[Long]
+    val clientsVersion = (json \ GroupActionJsonKey.SessionVersion.toString).as[Long]
+    val versioning = (json \ GroupActionJsonKey.SessionVersioning.toString).as[Boolean]
+    try {
+      if (versioning && session.version != clientsVersion) {
+        return List(msgBuilder.buildSimple(groupResultId, groupState, session.version, GroupAction.SessionFail,
+          Some(sessionActionId), TellWhom.SenderOnly))
       }
 
-      val sessionActionId = (json \ GroupActionJsonKey.SessionActionId.toString).as[Long]
-      val clientsVersion = (json \ GroupActionJsonKey.SessionVersion.toString).as[Long]
-      val versioning = (json \ GroupActionJsonKey.SessionVersioning.toString).as[Boolean]
-      try {
-        val patches = (json \ GroupActionJsonKey.SessionPatches.toString).get
-        val patchedSessionData = patchSessionData(patches, groupResult)
-        logger.debug(s".handlePatch: groupResultId $groupResultId, " +
-          s"clientsVersion $clientsVersion, versioning $versioning, groupSessionPatch ${Json.stringify(patches)}, " +
-          s"updatedSessionData ${Json.stringify(patchedSessionData)}")
-
-        val success = checkVersionAndPersistSessionData(patchedSessionData, groupResult, clientsVersion, versioning)
-        if (success) {
-          val msg1 = msgBuilder.buildSessionPatch(groupResult, studyResultId, patches, TellWhom.All)
-          val msg2 = msgBuilder.buildSimple(groupResult, GroupAction.SessionAck, Some(sessionActionId), TellWhom.SenderOnly)
-          List(msg1, msg2)
-        } else {
-          List(msgBuilder.buildSimple(groupResult, GroupAction.SessionFail, Some(sessionActionId), TellWhom.SenderOnly))
-        }
-      } catch {
-        case e: Exception =>
-          logger.warn(s".handlePatch: groupResultId $groupResultId, json ${Json.stringify(json)}," +
-            s" ${e.getClass.getName}: ${e.getMessage}")
-          List(msgBuilder.buildSimple(groupResult, GroupAction.SessionFail, Some(sessionActionId), TellWhom.SenderOnly))
-      }
-    }))
-  }
-
-  private def patchSessionData(patches: JsValue, groupResult: GroupResult): JsValue = {
-    val currentSessionData =
-      if (!Strings.isNullOrEmpty(groupResult.getGroupSessionData))
-        Json.parse(groupResult.getGroupSessionData)
-      else Json.obj()
-
-    // Fix for gnieh.diffson JsonPatch for "remove" and "/" - clear session data
-    // Assumes the 'remove' operation is in the first JSON patch
-    if ((patches \ 0 \ "op").as[String] == "remove" && (patches \ 0 \ "path").as[String] == "/") {
-      return Json.obj()
-    }
-
-    JsonPatch.apply(patches)(currentSessionData)
-  }
+      val patches = (json \ GroupActionJsonKey.SessionPatches.toString).get
+      val patchedSessionData = SessionState.patch(patches, session.data)
+      logger.debug(s".handlePatch: groupResultId $groupResultId, " +
+        s"clientsVersion $clientsVersion, versioning $versioning, groupSessionPatch ${Json.stringify(patches)}")
 
-  /**
-    * Persists the given sessionData in the GroupResult and increases the groupSessionVersion by 1 - but only if the
-    * stored version is equal to the received one or versioning is turned off. Returns true if this was successful -
-    * otherwise false.
-    */
-  private def checkVersionAndPersistSessionData(sessionData: JsValue, groupResult: GroupResult,
-                                                version: Long,
-                                                versioning: Boolean): Boolean = {
-    if (groupResult != null && sessionData != null && (!versioning || groupResult.getGroupSessionVersion == version)) {
-      groupResult.setGroupSessionData(sessionData.toString)
-      groupResult.setGroupSessionVersion(groupResult.getGroupSessionVersion + 1L)
-      groupResultDao.update(groupResult)
-      return true
+      journal.appendPatches(session.version + 1, patches)
+      patchCoalescer.add(session.data, patches, patchedSessionData, session.version + 1)
+      session.change(patchedSessionData)
+      List(msgBuilder.buildSimple(groupResultId, groupState, session.version, GroupAction.SessionAck,
+        Some(sessionActionId), TellWhom.SenderOnly))
+    } catch {
+      case e: Exception =>
+        logger.warn(s".handlePatch: groupResultId $groupResultId, json ${Json.stringify(json)}," +
+          s" ${e.getClass.getName}: ${e.getMessage}")
+        List(msgBuilder.buildSimple(groupResultId, groupState, session.version, GroupAction.SessionFail,
+          Some(sessionActionId), TellWhom.SenderOnly))
     }
-    false
   }
 
   /**
     * Changes state of GroupResult to FIXED and sends an update to all group
     * members
     */
-  private def handleActionFix(groupResultId: Long) = {
+  private def handleActionFix(groupResultId: Long, session: SessionState) = {
     jpa.withTransaction(asJavaSupplier(() => {
       val groupResult = groupResultDao.findById(groupResultId)
       if (groupResult != null) {
         groupResult.setGroupState(GroupState.FIXED)
         groupResultDao.update(groupResult)
-        List(msgBuilder.buildSimple(groupResult, GroupAction.Fixed, None, TellWhom.SenderOnly))
+        List(msgBuilder.buildSimple(groupResultId, groupResult.getGroupState, session.version,
+          GroupAction.Fixed, None, TellWhom.SenderOnly))
       } else {
         val errorMsg = s"Couldn't find group result with ID $groupResultId in database."
         List(msgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly))
@@ -134,4 +107,38 @@ class GroupActionHandler @Inject()(jpa: JPAApi,
     }))
   }
 
+  /**
+    * Loads the group session from the database. Returns None if the group result doesn't exist or
+    * the group is already finished (then it has no session anymore).
+    */
+  def loadSession(groupResultId: Long): Option[SessionState] = {
+    jpa.withTransaction(asJavaSupplier(() => {
+      val groupResult = groupResultDao.findById(groupResultId)
+      if (groupResult == null || groupResult.getGroupState == GroupState.FINISHED) None
+      else {
+        val sessionData = Try(
+          if (Strings.isNullOrEmpty(groupResult.getGroupSessionData)) Json.obj()
+          else Json.parse(groupResult.getGroupSessionData)
+        ).getOrElse {
+          logger.error(s".loadSession: invalid session data in DB - groupResultId $groupResultId, " +
+            s"groupSessionVersion ${groupResult.getGroupSessionVersion}, " +
+            s"groupSessionData ${groupResult.getGroupSessionData}")
+          Json.obj()
+        }
+        Some(new SessionState(sessionData, groupResult.getGroupSessionVersion))
+      }
+    }))
+  }
+
+  /**
+    * Writes the group session data and version into the database. Returns false if the version in
+    * the database isn't the expected one (the group session was changed by someone else) or the
+    * group is finished or deleted.
+    */
+  def persistSession(groupResultId: Long, data: JsValue, version: Long, persistedVersion: Long): Boolean = {
+    jpa.withTransaction(asJavaSupplier(() =>
+      groupResultDao.updateGroupSession(groupResultId, Json.stringify(data), version, persistedVersion)
+    ))
+  }
+
 }
@@ -1,12 +1,14 @@
 package group
 
+import com.google.common.base.Strings
 import daos.common.GroupResultDao
-import general.ChannelRegistry
+import general.{ChannelRegistry, SessionState}
 import group.GroupDispatcher.GroupAction.GroupAction
 import group.GroupDispatcher.TellWhom.TellWhom
 import group.GroupDispatcher._
 import javax.inject.{Inject, Singleton}
 import models.common.GroupResult
+import models.common.GroupResult.GroupState
 import play.api.Logger
 import play.api.libs.json._
 import play.db.jpa.JPAApi
@@ -37,15 +39,16 @@ class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDa
   }
 
   /**
-    * Builds a simple GroupMsg with the action, group result ID, and the session version
+    * Builds a simple GroupMsg with the action, group result ID, group state and the session version
     */
-  def buildSimple(groupResult: GroupResult, action: GroupAction, sessionActionId: Option[Long], tellWhom: TellWhom): GroupMsg = {
-    logger.debug(s".buildSimple: groupResult ${groupResult.getId}")
+  def buildSimple(groupResultId: Long, groupState: GroupState, sessionVersion: Long, action: GroupAction,
+                  sessionActionId: Option[Long], tellWhom: TellWhom): GroupMsg = {
+    logger.debug(s".buildSimple: groupResult $groupResultId")
     var json = Json.obj(
       GroupActionJsonKey.Action.toString -> action.toString,
-      GroupActionJsonKey.GroupResultId.toString -> groupResult.getId.toString,
-      GroupActionJsonKey.GroupState.toString -> groupResult.getGroupState.name,
-      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(groupResult.getGroupSessionVersion)))
+      GroupActionJsonKey.GroupResultId.toString -> groupResultId.toString,
+      GroupActionJsonKey.GroupState.toString -> groupState.name,
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     if (sessionActionId.isDefined) {
       json = json + (GroupActionJsonKey.SessionActionId.toString -> JsNumber(BigDecimal(sessionActionId.get)))
     }
@@ -53,9 +56,11 @@ class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDa
   }
 
   /**
-    * Builds a GroupMsg with or without session data but always with session version
+    * Builds a GroupMsg with or without session data but always with session version. The session
+    * is taken from the given SessionState (held in memory by the GroupDispatcher) - if there is
+    * none, from the GroupResult.
     */
-  def build(groupResultId: Long, studyResultId: Long, registry: ChannelRegistry,
+  def build(groupResultId: Long, studyResultId: Long, registry: ChannelRegistry, session: Option[SessionState],
             includeSessionData: Boolean, action: GroupAction, tellWhom: TellWhom): GroupMsg = {
     // The current group data are persisted in a GroupResult entity.
     // The GroupResult determines who is member of the group - and not the group registry.
@@ -64,7 +69,7 @@ class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDa
         s"$action , tellWhom ${tellWhom.toString}")
       val groupResult = groupResultDao.findById(groupResultId)
       if (groupResult != null)
-        buildAction(groupResult, studyResultId, registry, includeSessionData, action, tellWhom)
+        buildAction(groupResult, studyResultId, registry, session, includeSessionData, action, tellWhom)
       else
         buildError(groupResultId, s"Couldn't find group result with ID $groupResultId in database" +
           s".", TellWhom.SenderOnly)
@@ -74,21 +79,23 @@ class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDa
   /**
     * Builds a GroupMsg with the group session patch and version
     */
-  def buildSessionPatch(groupResult: GroupResult, studyResultId: Long, patches: JsValue, tellWhom: TellWhom): GroupMsg = {
-    logger.debug(s".buildSessionPatch: groupResultId ${groupResult.getId}, studyResultId $studyResultId")
+  def buildSessionPatch(groupResultId: Long, sessionVersion: Long, patches: JsValue, tellWhom: TellWhom): GroupMsg = {
+    logger.debug(s".buildSessionPatch: groupResultId $groupResultId")
     val json = Json.obj(
       GroupActionJsonKey.Action.toString -> GroupAction.Session.toString,
       GroupActionJsonKey.SessionPatches.toString -> patches,
-      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(groupResult.getGroupSessionVersion)))
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     GroupMsg(json, tellWhom)
   }
 
   private def buildAction(groupResult: GroupResult, studyResultId: Long, registry: ChannelRegistry,
-                          includeSessionData: Boolean, action: GroupAction, tellWhom: TellWhom): GroupMsg = {
+                          session: Option[SessionState], includeSessionData: Boolean, action: GroupAction,
+                          tellWhom: TellWhom): GroupMsg = {
     val members = JsArray(
       groupResult.getActiveMemberList.asScala.map(sr => JsString(sr.getId.toString)).toSeq
     )
     val channels = JsArray(registry.getAllStudyResultIds.map(id => JsString(id.toString)).toSeq)
+    val sessionVersion: Long = session.map(_.version).getOrElse(groupResult.getGroupSessionVersion)
     var json = Json.obj(
       GroupActionJsonKey.Action.toString -> action.toString,
       GroupActionJsonKey.MemberId.toString -> studyResultId.toString,
@@ -96,9 +103,13 @@ class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDa
       GroupActionJsonKey.GroupState.toString -> groupResult.getGroupState.name,
       GroupActionJsonKey.Members.toString -> members,
       GroupActionJsonKey.Channels.toString -> channels,
-      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(groupResult.getGroupSessionVersion)))
-    if (includeSessionData)
-      json = json + (GroupActionJsonKey.SessionData.toString -> Json.parse(groupResult.getGroupSessionData))
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
+    if (includeSessionData) {
+      val sessionData = session.map(_.data).getOrElse(
+        if (Strings.isNullOrEmpty(groupResult.getGroupSessionData)) Json.obj()
+        else Json.parse(groupResult.getGroupSessionData))
+      json = json + (GroupActionJsonKey.SessionData.toString -> sessionData)
+    }
     GroupMsg(json, tellWhom)
   }
 
@@ -3,7 +3,7 @@ package group
 import java.sql.Timestamp
 import java.util.Date
 
-import daos.common.{GroupResultDao, StudyResultDao}
+import daos.common.{BatchStatsDao, GroupResultDao, StudyResultDao}
 import javax.inject.{Inject, Singleton}
 import models.common.GroupResult.GroupState
 import models.common.{Batch, GroupResult, StudyResult}
@@ -24,6 +24,7 @@ import scala.compat.java8.FunctionConverters.asJavaSupplier
 @Singleton
 class GroupAdministration @Inject()(studyResultDao: StudyResultDao,
                                     groupResultDao: GroupResultDao,
+                                    batchStatsDao: BatchStatsDao,
                                     jpa: JPAApi) {
 
   /**
@@ -36,8 +37,10 @@ class GroupAdministration @Inject()(studyResultDao: StudyResultDao,
     jpa.withTransaction(asJavaSupplier(() => {
       val allGroupMaxNotReached = groupResultDao.findAllMaxNotReached(batch)
       val groupMaxNotReached =
-        if (allGroupMaxNotReached.isEmpty) groupResultDao.create(new GroupResult(batch))
-        else allGroupMaxNotReached.get(0)
+        if (allGroupMaxNotReached.isEmpty) {
+          batchStatsDao.addGroupResult(batch)
+          groupResultDao.create(new GroupResult(batch))
+        } else allGroupMaxNotReached.get(0)
 
       groupMaxNotReached.addActiveMember(studyResult)
       studyResult.setActiveGroupResult(groupMaxNotReached)
@@ -131,9 +134,9 @@ class GroupAdministration @Inject()(studyResultDao: StudyResultDao,
     jpa.withTransaction(asJavaSupplier(() => {
       groupResult.setGroupState(GroupState.FINISHED)
       groupResult.setEndDate(new Timestamp(new Date().getTime))
-      // All session data are temporarily and have to be deleted when the group is finished
-      groupResult.setGroupSessionData(null)
       groupResultDao.update(groupResult)
+      // All session data are temporarily and have to be deleted when the group is finished
+      groupResultDao.clearGroupSession(groupResult.getId)
     }))
   }
 
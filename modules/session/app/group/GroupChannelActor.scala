@@ -3,6 +3,7 @@ package group
 import javax.inject.Inject
 import akka.actor.{Actor, ActorRef, PoisonPill, Props}
 import group.GroupDispatcher._
+import play.api.http.websocket.TextMessage
 import play.api.libs.json.{JsObject, Json}
 
 /**
@@ -32,7 +33,7 @@ class GroupChannelActor @Inject()(out: ActorRef,
                                   studyResultId: Long,
                                   var groupDispatcher: ActorRef) extends Actor {
 
-  val pong = Json.obj("heartbeat" -> "pong")
+  val pong = TextMessage(Json.stringify(Json.obj("heartbeat" -> "pong")))
 
   override def preStart() = groupDispatcher ! RegisterChannel(studyResultId)
 
@@ -47,9 +48,9 @@ class GroupChannelActor @Inject()(out: ActorRef,
       // the GroupDispatcher
       groupDispatcher ! GroupMsg(json)
     case msg: GroupMsg =>
-      // If we receive a GroupMsg (only from the GroupDispatcher) send the wrapped JsonNode to
-      // the client
-      out ! msg.json
+      // If we receive a GroupMsg (only from the GroupDispatcher) send the JSON (serialized by
+      // the GroupMsg only once for all channels) to the client
+      out ! TextMessage(msg.text)
     case rc: ReassignChannel =>
       // This group channel has to reassign to a different dispatcher
       groupDispatcher ! UnregisterChannel(studyResultId)
@@ -1,15 +1,20 @@
 package group
 
+import java.nio.charset.StandardCharsets
+
 import akka.actor.{Actor, ActorRef, PoisonPill}
 import com.google.inject.assistedinject.Assisted
-import general.ChannelRegistry
+import general.common.SessionMetrics
+import general.{ChannelRegistry, SessionBroadcast, SessionJournal, SessionState, SessionWriteBehind}
+import group.GroupDispatcher.GroupAction.GroupAction
 import group.GroupDispatcher.TellWhom.TellWhom
 import group.GroupDispatcher._
 import group.GroupDispatcherRegistry.Unregister
 import javax.inject.Inject
+import models.common.GroupResult.GroupState
 import play.api.Logger
 import play.api.libs.json.Reads._
-import play.api.libs.json.{JsObject, Json}
+import play.api.libs.json.{JsObject, JsValue, Json}
 
 /**
   * A GroupDispatcher is an Akka Actor responsible for distributing messages (GroupMsg) within a
@@ -37,6 +42,12 @@ import play.api.libs.json.{JsObject, Json}
   * The group session patches are JSON Patches after RFC 6902 and used to describe changes in the
   * group session data. The session data are stored in the GroupResult.
   *
+  * A GroupDispatcher holds the group session in memory (the authoritative copy while it runs) and
+  * applies the patches there. The session is written into the database behind the scenes (see
+  * SessionWriteBehind). The GUI reads and changes it via GroupSessionAccess. When the group is
+  * finished its session data are deleted and the GroupDispatcher drops its session too. Patches
+  * are sent to the members coalesced (see SessionBroadcast).
+  *
   * @author Kristian Lange (2015, 2017)
   */
 object GroupDispatcher {
@@ -145,22 +156,65 @@ object GroupDispatcher {
     *
     * The parameter 'tellWhom' can be used to address the recipient.
     */
-  case class GroupMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown)
+  case class GroupMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown) {
+
+    /**
+      * The JSON serialized - only once, no matter to how many channels the GroupMsg is sent
+      */
+    lazy val text: String = Json.stringify(json)
+
+    lazy val size: Int = text.getBytes(StandardCharsets.UTF_8).length
+
+  }
 
 }
 
 class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
                                 @Assisted actionHandler: GroupActionHandler,
                                 @Assisted actionMsgBuilder: GroupActionMsgBuilder,
-                                @Assisted groupResultId: Long) extends Actor {
+                                @Assisted groupResultId: Long,
+                                protected val sessionMetrics: SessionMetrics)
+  extends Actor with SessionWriteBehind with SessionBroadcast[GroupMsg] {
 
   private val logger: Logger = Logger(this.getClass)
 
   private val channelRegistry = new ChannelRegistry
 
-  override def postStop() = dispatcherRegistry ! Unregister(groupResultId)
+  /**
+    * Last known state of the GroupResult. It's updated with each message that is built from the
+    * GroupResult in the database.
+    */
+  private var groupState = GroupState.STARTED
+
+  protected val journal = SessionJournal("group", groupResultId,
+    context.system.dispatchers.lookup(SessionWriteBehind.DispatcherName))
+
+  protected def sessionDescription = s"group session of group result $groupResultId"
 
-  def receive = {
+  protected def loadSession(): Option[SessionState] = actionHandler.loadSession(groupResultId)
+
+  protected def writeSession(data: JsValue, version: Long, persistedVersion: Long): Boolean =
+    actionHandler.persistSession(groupResultId, data, version, persistedVersion)
+
+  protected def dispatcherDescription = s"GroupDispatcher of group result $groupResultId"
+
+  protected def buildPatchMsg(patch: JsValue, version: Long): GroupMsg =
+    actionMsgBuilder.buildSessionPatch(groupResultId, version, patch, TellWhom.All)
+
+  protected def changesDurable(): Unit = sendReadyReplies()
+
+  override def preStart() = {
+    initSession()
+    startSessionBroadcast()
+  }
+
+  override def postStop() = {
+    stopSessionBroadcast()
+    persistSessionOnStop()
+    dispatcherRegistry ! Unregister(groupResultId)
+  }
+
+  def receive = handleWriteBehind orElse handleSessionBroadcast orElse {
     case groupMsg: GroupMsg =>
       // We got a GroupMsg from a client
       handleGroupMsg(groupMsg)
@@ -196,8 +250,21 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     if (msg.json.keys.contains(GroupActionJsonKey.Action.toString)) {
       // We have a group action message
       val studyResultId = channelRegistry.getStudyResult(sender).get
-      val msgList = actionHandler.handleActionMsg(msg, groupResultId, studyResultId)
-      tellActionMsg(msgList)
+      session match {
+        case Some(s) =>
+          val version = s.version
+          val msgList = actionHandler.handleActionMsg(msg, groupResultId, studyResultId, groupState, s, journal,
+            patchCoalescer)
+          msgList.foreach(updateGroupState)
+          if (s.version != version) {
+            patchesApplied(msgList, s.version)
+            sessionChanged(s)
+          } else tellActionMsg(msgList)
+        case None =>
+          val errorMsg = s"Couldn't find group session of group result with ID $groupResultId - " +
+            s"maybe the group is already finished."
+          tellActionMsg(List(actionMsgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly)))
+      }
 
     } else if (msg.json.keys.contains(GroupActionJsonKey.Recipient.toString)) {
       // We have a message intended for only one recipient (direct msg)
@@ -218,11 +285,11 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     */
   private def registerChannel(studyResultId: Long) = {
     logger.debug(s".registerChannel: groupResultId $groupResultId, studyResultId $studyResultId")
+    // The new channel gets the whole session data - not the pending patches
+    flushPatches()
     channelRegistry.register(studyResultId, sender)
-    val msg1 = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, true, GroupAction.Opened, TellWhom.SenderOnly)
-    val msg2 = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, false, GroupAction.Opened, TellWhom.AllButSender)
+    val msg1 = build(studyResultId, true, GroupAction.Opened, TellWhom.SenderOnly)
+    val msg2 = build(studyResultId, false, GroupAction.Opened, TellWhom.AllButSender)
     tellActionMsg(List(msg1, msg2))
   }
 
@@ -238,8 +305,7 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     if (channelRegistry.containsStudyResult(studyResultId)
         && channelRegistry.getChannel(studyResultId).get == sender) {
       channelRegistry.unregister(studyResultId)
-      val msg = actionMsgBuilder.build(groupResultId, studyResultId,
-        channelRegistry, false, GroupAction.Closed, TellWhom.AllButSender)
+      val msg = build(studyResultId, false, GroupAction.Closed, TellWhom.AllButSender)
       tellActionMsg(List(msg))
     }
 
@@ -288,8 +354,7 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     */
   private def joined(studyResultId: Long) {
     logger.debug(s".joined: groupResultId $groupResultId studyResultId $studyResultId")
-    val msg = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, false, GroupAction.Joined, TellWhom.AllButSender)
+    val msg = build(studyResultId, false, GroupAction.Joined, TellWhom.AllButSender)
     tellAllButSender(msg)
   }
 
@@ -299,20 +364,43 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     */
   private def left(studyResultId: Long) = {
     logger.debug(s".left: groupResultId $groupResultId, studyResultId $studyResultId")
-    val msg = actionMsgBuilder.build(groupResultId, studyResultId, channelRegistry, false,
-      GroupAction.Left, TellWhom.AllButSender)
+    val msg = build(studyResultId, false, GroupAction.Left, TellWhom.AllButSender)
     tellAllButSender(msg)
   }
 
   /**
-    * Sends the message only to the recipient specified by the given study result ID.
+    * Builds a GroupMsg from the GroupResult in the database and the group session in memory
+    */
+  private def build(studyResultId: Long, includeSessionData: Boolean, action: GroupAction,
+                    tellWhom: TellWhom): GroupMsg = {
+    val msg = actionMsgBuilder.build(groupResultId, studyResultId, channelRegistry, session,
+      includeSessionData, action, tellWhom)
+    updateGroupState(msg)
+    msg
+  }
+
+  /**
+    * Takes the group state from the given GroupMsg (if it has one). If the group is finished its
+    * session data were deleted in the database and the session held in memory is dropped.
+    */
+  private def updateGroupState(msg: GroupMsg) = {
+    (msg.json \ GroupActionJsonKey.GroupState.toString).asOpt[String].foreach { state =>
+      groupState = GroupState.valueOf(state)
+      if (groupState == GroupState.FINISHED && session.isDefined) dropSession()
+    }
+  }
+
+  /**
+    * Sends the message only to the recipient specified by the given study result ID - after the
+    * pending session patches.
     */
   private def tellRecipientOnly(msg: GroupMsg, recipientStudyResultId: Long) {
     logger.debug(s".tellRecipientOnly: groupResultId $groupResultId, recipientStudyResultId " +
-        s"$recipientStudyResultId, msg ${Json.stringify(msg.json)}")
+        s"$recipientStudyResultId, msg ${msg.text}")
+    flushPatches()
     val groupChannel = channelRegistry.getChannel(recipientStudyResultId)
     if (groupChannel.isDefined)
-      groupChannel.get ! msg
+      sendTo(groupChannel.get, msg)
     else {
       val errorMsg = s"Recipient $recipientStudyResultId isn't member of this group."
       logger.debug(s".tellRecipientOnly: groupResultId $groupResultId, errorMsg $errorMsg")
@@ -321,7 +409,11 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     }
   }
 
+  /**
+    * Sends the messages - after the pending session patches
+    */
   private def tellActionMsg(msgList: List[GroupMsg]) = {
+    flushPatches()
     msgList.foreach(msg =>
       msg.tellWhom match {
         case TellWhom.All => tellAll(msg)
@@ -335,28 +427,38 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
   /**
     * Sends the message to everyone in channelRegistry.
     */
-  private def tellAll(msg: GroupMsg) = {
-    logger.debug(s".tellAll: groupResultId $groupResultId, msg ${Json.stringify(msg.json)}")
-    for (actorRef <- channelRegistry.getAllChannels)
-      actorRef ! msg
-  }
+  private def tellAll(msg: GroupMsg) = sendToAll(msg)
 
   /**
-    * Sends the message to everyone in the group registry except the sender of this message.
+    * Sends the message to everyone in the group registry except the sender of this message - after
+    * the pending session patches.
     */
   private def tellAllButSender(msg: GroupMsg) = {
-    logger.debug(s".tellAllButSender: groupResultId $groupResultId, " +
-        s"msg ${Json.stringify(msg.json)}")
-    for (actorRef <- channelRegistry.getAllChannels)
-      if (actorRef != sender) actorRef ! msg
+    logger.debug(s".tellAllButSender: groupResultId $groupResultId, msg ${msg.text}")
+    flushPatches()
+    val channels = channelRegistry.getAllChannels.filter(_ != sender)
+    channelMetrics.record(msg.size, channels.size)
+    for (actorRef <- channels)
+      actorRef ! msg
   }
 
   /**
     * Sends the message only to the sender.
     */
-  private def tellSenderOnly(msg: GroupMsg) = {
-    logger.debug(s".tellSenderOnly: groupResultId $groupResultId, msg ${Json.stringify(msg.json)}")
-    sender ! msg
+  private def tellSenderOnly(msg: GroupMsg) = sendTo(sender, msg)
+
+  protected def sendToAll(msg: GroupMsg): Unit = {
+    logger.debug(s".tellAll: groupResultId $groupResultId, msg ${msg.text}")
+    val channels = channelRegistry.getAllChannels
+    channelMetrics.record(msg.size, channels.size)
+    for (actorRef <- channels)
+      actorRef ! msg
+  }
+
+  protected def sendTo(channel: ActorRef, msg: GroupMsg): Unit = {
+    logger.debug(s".tellSenderOnly: groupResultId $groupResultId, msg ${msg.text}")
+    channelMetrics.record(msg.size, 1)
+    channel ! msg
   }
 
   /**
@@ -2,7 +2,7 @@ package group
 
 import akka.actor.SupervisorStrategy.Resume
 import akka.actor.{Actor, ActorRef, ActorSystem, OneForOneStrategy}
-import group.GroupDispatcherRegistry.{Get, GetOrCreate, ItsThisOne, Unregister}
+import group.GroupDispatcherRegistry._
 import javax.inject.{Inject, Singleton}
 import play.api.Logger
 import play.api.libs.concurrent.InjectedActorSupport
@@ -43,6 +43,17 @@ object GroupDispatcherRegistry {
     */
   case class Unregister(groupResultId: Long) extends RegistryProtocol
 
+  /**
+    * Used to send a message to the GroupDispatcher of a particular group - but only if it exists
+    * (without creating a new one). If it doesn't exist the answer is NoDispatcher.
+    */
+  case class ForwardIfExists(groupResultId: Long, msg: Any) extends RegistryProtocol
+
+  /**
+    * Answer to ForwardIfExists if there is no GroupDispatcher for the group
+    */
+  case object NoDispatcher extends RegistryProtocol
+
 }
 
 @Singleton
@@ -84,6 +95,11 @@ class GroupDispatcherRegistry @Inject()(actorSystem: ActorSystem,
         logger.debug(s".receive: registered dispatcher for groupResult ID $groupResultId")
       }
       sender ! ItsThisOne(dispatcherMap.get(groupResultId))
+    case ForwardIfExists(groupResultId: Long, msg: Any) =>
+      dispatcherMap.get(groupResultId) match {
+        case Some(dispatcher) => dispatcher forward msg
+        case None => sender ! NoDispatcher
+      }
     case Unregister(groupResultId: Long) =>
       // A Dispatcher closed down and wants to unregister
       dispatcherMap -= groupResultId
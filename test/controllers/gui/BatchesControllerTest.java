@@ -1,10 +1,12 @@
 package controllers.gui;
 
+import akka.stream.Materializer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import general.TestHelper;
 import models.common.Study;
+import models.common.workers.PersonalSingleWorker;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -18,6 +20,7 @@ import play.mvc.Http;
 import play.mvc.Http.RequestBuilder;
 import play.mvc.Result;
 import play.test.Helpers;
+import scala.Option;
 
 import javax.inject.Inject;
 
@@ -41,6 +44,9 @@ public class BatchesControllerTest {
     @Inject
     private TestHelper testHelper;
 
+    @Inject
+    private Materializer materializer;
+
     @Before
     public void startApp() throws Exception {
         fakeApplication = Helpers.fakeApplication();
@@ -107,4 +113,33 @@ public class BatchesControllerTest {
         assertThat(jsonNode.size()).isEqualTo(10);
     }
 
+    @Test
+    public void callExportPersonalRunLinks() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Http.Session session = testHelper.mockSessionCookieandCache(testHelper.getAdmin());
+
+        JsonNode jsonNode = Json.mapper().readTree("{\"comment\": \"test, comment\",\"amount\": 3}");
+        RequestBuilder request = new RequestBuilder().method("POST")
+                .session(session).remoteAddress(TestHelper.WWW_EXAMPLE_COM)
+                .bodyJson(jsonNode)
+                .uri(routes.Batches.createPersonalSingleRun(
+                        study.getId(), study.getDefaultBatch().getId()).url());
+        route(fakeApplication, request);
+
+        request = new RequestBuilder().method("GET")
+                .session(session).remoteAddress(TestHelper.WWW_EXAMPLE_COM)
+                .uri(routes.Batches.exportPersonalRunLinks(study.getId(), study.getDefaultBatch().getId(),
+                        PersonalSingleWorker.WORKER_TYPE, "csv", Option.empty(), Option.empty()).url());
+        Result result = route(fakeApplication, request);
+
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(result.contentType().get()).isEqualTo("text/csv");
+        String[] lines = contentAsString(result, materializer).split("\n");
+        assertThat(lines.length).isEqualTo(4);
+        assertThat(lines[0]).isEqualTo("id,comment,url");
+        assertThat(lines[1]).contains(",\"test, comment\",");
+        assertThat(lines[1]).contains("/publix/" + study.getId() + "/start?batchId="
+                + study.getDefaultBatch().getId() + "&personalSingleWorkerId=");
+    }
+
 }
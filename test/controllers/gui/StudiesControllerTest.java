@@ -24,6 +24,7 @@ import play.mvc.Http;
 import play.mvc.Http.RequestBuilder;
 import play.mvc.Result;
 import play.test.Helpers;
+import scala.Option;
 import services.gui.UserService;
 import utils.common.IOUtils;
 import utils.common.JsonUtils;
@@ -650,11 +651,17 @@ public class StudiesControllerTest {
                 .method("GET")
                 .session(session)
                 .remoteAddress(TestHelper.WWW_EXAMPLE_COM)
-                .uri(controllers.gui.routes.Studies.allWorkers(study.getId()).url());
+                .uri(controllers.gui.routes.Studies.allWorkers(study.getId(), Option.empty(), Option.empty()).url());
         Result result = route(fakeApplication, request);
 
         assertThat(result.status()).isEqualTo(OK);
         assertThat(contentAsString(result)).isNotNull();
+
+        // Only the admin's JatosWorker belongs to the study and there is no next page
+        JsonNode json = Json.parse(contentAsString(result));
+        assertThat(json.get(JsonUtils.DATA).size()).isEqualTo(1);
+        assertThat(json.get(JsonUtils.DATA).get(0).get("username").asText()).isEqualTo(UserService.ADMIN_USERNAME);
+        assertThat(json.get("next").isNull()).isTrue();
     }
 
 }
@@ -6,6 +6,7 @@ import general.TestHelper;
 import models.common.Batch;
 import models.common.Study;
 import models.common.workers.JatosWorker;
+import models.common.workers.PersonalSingleWorker;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,6 +17,7 @@ import play.api.mvc.Call;
 import play.inject.guice.GuiceApplicationBuilder;
 import play.inject.guice.GuiceApplicationLoader;
 import play.test.Helpers;
+import scala.Option;
 
 import javax.inject.Inject;
 
@@ -193,4 +195,15 @@ public class BatchesUserAccessTest {
         userAccessTestHelpers.checkAccessGranted(call, Helpers.GET, testHelper.getAdmin());
     }
 
+    @Test
+    public void workerBatchesPersonalRunLinks() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Batch batch = study.getDefaultBatch();
+        Call call = controllers.gui.routes.Batches.personalRunLinks(study.getId(), batch.getId(),
+                PersonalSingleWorker.WORKER_TYPE, Option.empty(), Option.empty(), Option.empty());
+        userAccessTestHelpers.checkDeniedAccessAndRedirectToLogin(call);
+        userAccessTestHelpers.checkNotTheRightUserForStudy(call, study.getId(), Helpers.GET);
+        userAccessTestHelpers.checkAccessGranted(call, Helpers.GET, testHelper.getAdmin());
+    }
+
 }
@@ -115,6 +115,12 @@ public class ImportExportUserAccessTest {
         userAccessTestHelpers.checkDeniedAccessAndRedirectToLogin(call);
     }
 
+    @Test
+    public void callExportResultsOfStudyResults() {
+        Call call = routes.ImportExport.exportResultsOfStudyResults();
+        userAccessTestHelpers.checkDeniedAccessAndRedirectToLogin(call);
+    }
+
     @Test
     public void callExportDataOfComponentResults() {
         Call call = routes.ImportExport.exportDataOfComponentResults();
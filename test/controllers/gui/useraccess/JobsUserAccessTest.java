@@ -0,0 +1,75 @@
+package controllers.gui.useraccess;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import controllers.gui.routes;
+import general.TestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.ApplicationLoader;
+import play.Environment;
+import play.api.mvc.Call;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import play.test.Helpers;
+
+import javax.inject.Inject;
+
+/**
+ * Testing controller actions of Jobs whether they have proper access control:
+ * only the right user should be allowed to do the action.
+ * <p>
+ * JATOS actions mostly use its @Authenticated annotation (specified in
+ * AuthenticationAction).
+ */
+public class JobsUserAccessTest {
+
+    @Inject
+    private Application fakeApplication;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private UserAccessTestHelpers userAccessTestHelpers;
+
+    @Before
+    public void startApp() throws Exception {
+        fakeApplication = Helpers.fakeApplication();
+
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        Injector injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        Helpers.start(fakeApplication);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        Helpers.stop(fakeApplication);
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void callJob() {
+        Call call = routes.Jobs.job(1L);
+        userAccessTestHelpers.checkDeniedAccessAndRedirectToLogin(call);
+    }
+
+    @Test
+    public void callCancel() {
+        Call call = routes.Jobs.cancel(1L);
+        userAccessTestHelpers.checkDeniedAccessAndRedirectToLogin(call);
+    }
+
+    @Test
+    public void callDownload() {
+        Call call = routes.Jobs.download(1L);
+        userAccessTestHelpers.checkDeniedAccessAndRedirectToLogin(call);
+    }
+
+}
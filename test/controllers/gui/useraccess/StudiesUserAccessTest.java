@@ -15,6 +15,7 @@ import play.api.mvc.Call;
 import play.inject.guice.GuiceApplicationBuilder;
 import play.inject.guice.GuiceApplicationLoader;
 import play.test.Helpers;
+import scala.Option;
 
 import javax.inject.Inject;
 
@@ -196,7 +197,7 @@ public class StudiesUserAccessTest {
     @Test
     public void callStudiesAllWorkers() {
         Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
-        Call call = routes.Studies.allWorkers(study.getId());
+        Call call = routes.Studies.allWorkers(study.getId(), Option.empty(), Option.empty());
         userAccessTestHelpers.checkDeniedAccessAndRedirectToLogin(call);
         userAccessTestHelpers.checkNotTheRightUserForStudy(call, study.getId(), Helpers.GET);
         userAccessTestHelpers.checkAccessGranted(call, Helpers.GET, testHelper.getAdmin());
@@ -570,6 +570,7 @@ public class PublixJatosWholeRunIntegrationTest {
             StudyResult studyResult = studyResultDao.findById(studyResultId);
             ComponentResult componentResult = studyResult.getComponentResultList().get(index);
             testHelper.fetchTheLazyOnes(componentResult);
+            testHelper.fetchTheLazyOnes(componentResult.getDataChunkList());
             StudyResult componentResultsStudyResult = componentResult.getStudyResult();
             testHelper.fetchTheLazyOnes(componentResultsStudyResult);
             Worker worker = componentResultsStudyResult.getWorker();
@@ -0,0 +1,274 @@
+package controllers.publix;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.common.base.Strings;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import controllers.publix.ResultUploadBodyParser.ResultUpload;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.TestHelper;
+import general.common.Common;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import models.common.workers.Worker;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import play.libs.F;
+import play.mvc.Http;
+import play.mvc.Http.MultipartFormData;
+import play.mvc.Result;
+import play.test.Helpers;
+import services.gui.UserService;
+import services.publix.PublixErrorMessages;
+import services.publix.ResultCreator;
+import services.publix.idcookie.IdCookieModel;
+import services.publix.idcookie.IdCookieTestHelper;
+import utils.common.HashUtils;
+
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests ResultUploadBodyParser: the study run is checked before any byte is accepted, the size limits are enforced
+ * while the body is streamed and a partially written file is removed
+ */
+public class ResultUploadBodyParserTest {
+
+    private static final String BOUNDARY = "----JatosTestBoundary";
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private Materializer materializer;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private IdCookieTestHelper idCookieTestHelper;
+
+    @Inject
+    private ResultUploadBodyParser bodyParser;
+
+    private Study study;
+
+    private StudyResult studyResult;
+
+    private Path stagingDir;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        studyResult = jpaApi.withTransaction(() -> {
+            Worker worker = userDao.findByUsername(UserService.ADMIN_USERNAME).getWorker();
+            return resultCreator.createStudyResult(study, study.getDefaultBatch(), worker);
+        });
+        stagingDir = Paths.get(Common.getResultUploadsPath(), ResultUploadBodyParser.STAGING_DIR);
+        FileUtils.deleteDirectory(stagingDir.toFile());
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        FileUtils.deleteDirectory(stagingDir.toFile());
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private IdCookieModel buildIdCookie() {
+        IdCookieModel idCookie = idCookieTestHelper.buildDummyIdCookie(studyResult.getId());
+        idCookie.setWorkerId(studyResult.getWorkerId());
+        idCookie.setStudyId(study.getId());
+        idCookie.setBatchId(study.getDefaultBatch().getId());
+        return idCookie;
+    }
+
+    private Http.RequestBuilder buildRequest(IdCookieModel idCookie) {
+        // The component ID in the path isn't checked by the body parser
+        Http.RequestBuilder request = Helpers.fakeRequest("POST",
+                "/publix/" + study.getId() + "/1/files/test.txt?srid=" + studyResult.getId())
+                .header(Http.HeaderNames.CONTENT_TYPE, "multipart/form-data; boundary=" + BOUNDARY);
+        if (idCookie != null) request.cookie(idCookieTestHelper.buildCookie(idCookie));
+        return request;
+    }
+
+    /**
+     * Multipart body with one file part "file" - split in several ByteStrings like it arrives over the network
+     */
+    private static Source<ByteString, ?> multipartBody(String content) {
+        String head = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"test.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n";
+        String tail = "\r\n--" + BOUNDARY + "--\r\n";
+        List<ByteString> pieces = new ArrayList<>();
+        pieces.add(ByteString.fromString(head));
+        for (String piece : content.split("(?<=\\G.{1024})")) {
+            pieces.add(ByteString.fromString(piece));
+        }
+        pieces.add(ByteString.fromString(tail));
+        return Source.from(pieces);
+    }
+
+    private F.Either<Result, MultipartFormData<ResultUpload>> parse(Http.RequestBuilder request,
+            Source<ByteString, ?> body) throws Exception {
+        return bodyParser.apply(request.build()).run(body, materializer).toCompletableFuture()
+                .get(30, TimeUnit.SECONDS);
+    }
+
+    private long countStagedFiles() throws Exception {
+        if (!Files.exists(stagingDir)) return 0;
+        try (Stream<Path> files = Files.list(stagingDir)) {
+            return files.count();
+        }
+    }
+
+    private static void checkResult(F.Either<Result, ?> parsed, int status, String msg) {
+        assertThat(parsed.left.isPresent()).isTrue();
+        assertThat(parsed.left.get().status()).isEqualTo(status);
+        assertThat(Helpers.contentAsString(parsed.left.get())).isEqualTo(msg);
+    }
+
+    @Test
+    public void checkUpload() throws Exception {
+        String content = Strings.repeat("abcdefgh", 1000);
+        F.Either<Result, MultipartFormData<ResultUpload>> parsed = parse(buildRequest(buildIdCookie()),
+                multipartBody(content));
+
+        assertThat(parsed.right.isPresent()).isTrue();
+        ResultUpload upload = parsed.right.get().getFile("file").getRef();
+        assertThat(upload.getSize()).isEqualTo(content.length());
+        assertThat(upload.getHash()).isEqualTo(HashUtils.getHash(content, HashUtils.SHA_256));
+        assertThat(new String(Files.readAllBytes(upload.getFile()), StandardCharsets.UTF_8)).isEqualTo(content);
+        upload.delete();
+        assertThat(countStagedFiles()).isEqualTo(0);
+    }
+
+    /**
+     * A body that exceeds what is left of the limit per study run is aborted while it's streamed - the partially
+     * written file is removed
+     */
+    @Test
+    public void checkLimitPerStudyRunWhileStreaming() throws Exception {
+        jpaApi.withTransaction(() -> studyResultDao.setUploadsSize(studyResult.getId(),
+                Common.getResultUploadsLimitPerStudyRun() - 2000));
+
+        F.Either<Result, MultipartFormData<ResultUpload>> parsed = parse(buildRequest(buildIdCookie()),
+                multipartBody(Strings.repeat("x", 10000)));
+
+        checkResult(parsed, Http.Status.REQUEST_ENTITY_TOO_LARGE, "Reached max file size limit per study run");
+        assertThat(countStagedFiles()).isEqualTo(0);
+    }
+
+    /**
+     * A body that is announced (Content-Length) to be larger than the max file size is rejected without reading it
+     */
+    @Test
+    public void checkAnnouncedMaxFileSize() throws Exception {
+        AtomicBoolean pulled = new AtomicBoolean(false);
+        Source<ByteString, ?> body = multipartBody("x").map(bytes -> {
+            pulled.set(true);
+            return bytes;
+        });
+        Http.RequestBuilder request = buildRequest(buildIdCookie()).header(Http.HeaderNames.CONTENT_LENGTH,
+                String.valueOf(Common.getResultUploadsMaxFileSize() * 2));
+
+        checkResult(parse(request, body), Http.Status.REQUEST_ENTITY_TOO_LARGE, "File size too large");
+        assertThat(pulled.get()).isFalse();
+        assertThat(countStagedFiles()).isEqualTo(0);
+    }
+
+    /**
+     * If the limit per study run is reached already nothing is accepted
+     */
+    @Test
+    public void checkLimitPerStudyRunReached() throws Exception {
+        jpaApi.withTransaction(() -> studyResultDao.setUploadsSize(studyResult.getId(),
+                Common.getResultUploadsLimitPerStudyRun()));
+
+        checkResult(parse(buildRequest(buildIdCookie()), multipartBody("x")),
+                Http.Status.REQUEST_ENTITY_TOO_LARGE, "Reached max file size limit per study run");
+        assertThat(countStagedFiles()).isEqualTo(0);
+    }
+
+    /**
+     * Without an ID cookie of the study run no byte is accepted
+     */
+    @Test
+    public void checkWithoutIdCookie() throws Exception {
+        AtomicBoolean pulled = new AtomicBoolean(false);
+        Source<ByteString, ?> body = multipartBody("x").map(bytes -> {
+            pulled.set(true);
+            return bytes;
+        });
+
+        checkResult(parse(buildRequest(null), body), Http.Status.BAD_REQUEST,
+                PublixErrorMessages.idCookieForThisStudyResultNotExists(studyResult.getId()));
+        assertThat(pulled.get()).isFalse();
+    }
+
+    /**
+     * A study result of another worker isn't accepted
+     */
+    @Test
+    public void checkOtherWorker() throws Exception {
+        IdCookieModel idCookie = buildIdCookie();
+        idCookie.setWorkerId(studyResult.getWorkerId() + 1000);
+
+        checkResult(parse(buildRequest(idCookie), multipartBody("x")), Http.Status.FORBIDDEN,
+                PublixErrorMessages.workerNeverDidStudy(idCookie.getWorkerId(), study.getId()));
+        assertThat(countStagedFiles()).isEqualTo(0);
+    }
+
+    @Test
+    public void checkFinishedStudyRun() throws Exception {
+        jpaApi.withTransaction(() -> {
+            StudyResult sr = studyResultDao.findById(studyResult.getId());
+            sr.setStudyState(StudyState.FINISHED);
+            studyResultDao.update(sr);
+        });
+
+        checkResult(parse(buildRequest(buildIdCookie()), multipartBody("x")), Http.Status.FORBIDDEN,
+                PublixErrorMessages.workerFinishedStudyAlready(studyResult.getWorkerId(), study.getId()));
+        assertThat(countStagedFiles()).isEqualTo(0);
+    }
+
+}
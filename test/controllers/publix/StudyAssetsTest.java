@@ -12,6 +12,7 @@ import general.common.Common;
 import general.common.MessagesStrings;
 import models.common.Study;
 import models.common.User;
+import org.apache.commons.io.FileUtils;
 import org.fest.assertions.Fail;
 import org.junit.After;
 import org.junit.Before;
@@ -30,11 +31,14 @@ import play.test.Helpers;
 import services.gui.AuthenticationService;
 import services.gui.StudyService;
 import services.gui.UserService;
+import services.publix.StudyAssetsIndex;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static play.mvc.Http.Status.*;
@@ -70,6 +74,9 @@ public class StudyAssetsTest {
     @Inject
     private Materializer materializer;
 
+    @Inject
+    private StudyAssetsIndex studyAssetsIndex;
+
     @Before
     public void startApp() throws Exception {
         fakeApplication = Helpers.fakeApplication();
@@ -149,6 +156,143 @@ public class StudyAssetsTest {
         assertThat(result.status()).isEqualTo(OK);
     }
 
+    @Test
+    public void testViaAssetsPathNotModified() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        Result startStudyResult = startStudy(study);
+        Cookie idCookie = startStudyResult.cookie("JATOS_IDS_0");
+
+        Call call = controllers.publix.routes.StudyAssets.viaAssetsPath(study.getDirName() + "/"
+                + study.getFirstComponent().get().getHtmlFilePath());
+        RequestBuilder request =
+                new RequestBuilder().method(Helpers.GET).uri(call.url()).cookie(idCookie);
+        Result result = route(fakeApplication, request);
+        assertThat(result.status()).isEqualTo(OK);
+        String etag = result.header(ETAG).get();
+
+        // Same request but with the ETag gets a 304
+        request = new RequestBuilder().method(Helpers.GET).uri(call.url()).cookie(idCookie)
+                .header(IF_NONE_MATCH, etag);
+        result = route(fakeApplication, request);
+        assertThat(result.status()).isEqualTo(NOT_MODIFIED);
+        assertThat(result.header(ETAG).get()).isEqualTo(etag);
+    }
+
+    /**
+     * A stale ETag gets the file, and If-Modified-Since with the file's Last-Modified gets a 304
+     */
+    @Test
+    public void testViaAssetsPathStaleEtagAndIfModifiedSince() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Cookie idCookie = startStudy(study).cookie("JATOS_IDS_0");
+        String url = controllers.publix.routes.StudyAssets.viaAssetsPath(study.getDirName() + "/"
+                + study.getFirstComponent().get().getHtmlFilePath()).url();
+
+        Result result = route(fakeApplication, new RequestBuilder().method(GET).uri(url).cookie(idCookie));
+        String lastModified = result.header(LAST_MODIFIED).get();
+
+        result = route(fakeApplication, new RequestBuilder().method(GET).uri(url).cookie(idCookie)
+                .header(IF_NONE_MATCH, "\"0-0\""));
+        assertThat(result.status()).isEqualTo(OK);
+
+        result = route(fakeApplication, new RequestBuilder().method(GET).uri(url).cookie(idCookie)
+                .header(IF_MODIFIED_SINCE, lastModified));
+        assertThat(result.status()).isEqualTo(NOT_MODIFIED);
+    }
+
+    /**
+     * The first request of a study assets file schedules the indexing of its directory and is served from the file
+     * system. Once the index is ready the file is served from it with the same ETag.
+     */
+    @Test
+    public void testViaAssetsPathIndex() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Cookie idCookie = startStudy(study).cookie("JATOS_IDS_0");
+        String path = study.getDirName() + "/" + study.getFirstComponent().get().getHtmlFilePath();
+        String url = controllers.publix.routes.StudyAssets.viaAssetsPath(path).url();
+
+        Result result = route(fakeApplication, new RequestBuilder().method(GET).uri(url).cookie(idCookie));
+        assertThat(result.status()).isEqualTo(OK);
+        String etag = result.header(ETAG).get();
+
+        waitUntil(() -> studyAssetsIndex.isIndexed(study.getDirName()));
+        assertThat(studyAssetsIndex.find(path).getEtag()).isEqualTo(etag);
+        result = route(fakeApplication, new RequestBuilder().method(GET).uri(url).cookie(idCookie));
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(result.header(ETAG).get()).isEqualTo(etag);
+    }
+
+    /**
+     * A change of a file drops the index of its study assets directory: the file gets a new ETag and the old ETag
+     * doesn't get a 304 anymore
+     */
+    @Test
+    public void testViaAssetsPathIndexInvalidation() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Cookie idCookie = startStudy(study).cookie("JATOS_IDS_0");
+        String htmlFilePath = study.getFirstComponent().get().getHtmlFilePath();
+        String path = study.getDirName() + "/" + htmlFilePath;
+        String url = controllers.publix.routes.StudyAssets.viaAssetsPath(path).url();
+
+        Result result = route(fakeApplication, new RequestBuilder().method(GET).uri(url).cookie(idCookie));
+        String oldEtag = result.header(ETAG).get();
+        waitUntil(() -> studyAssetsIndex.isIndexed(study.getDirName()));
+
+        File file = new File(new File(Common.getStudyAssetsRootPath(), study.getDirName()), htmlFilePath);
+        FileUtils.writeStringToFile(file, "<!-- changed -->", StandardCharsets.UTF_8, true);
+        waitUntil(() -> !studyAssetsIndex.isIndexed(study.getDirName()));
+
+        result = route(fakeApplication, new RequestBuilder().method(GET).uri(url).cookie(idCookie)
+                .header(IF_NONE_MATCH, oldEtag));
+        assertThat(result.status()).isEqualTo(OK);
+        String newEtag = result.header(ETAG).get();
+        assertThat(newEtag).isNotEqualTo(oldEtag);
+        assertThat(contentAsString(result, materializer)).endsWith("<!-- changed -->");
+
+        // The request scheduled the indexing again
+        waitUntil(() -> studyAssetsIndex.isIndexed(study.getDirName()));
+        assertThat(studyAssetsIndex.find(path).getEtag()).isEqualTo(newEtag);
+    }
+
+    /**
+     * A study assets directory that doesn't exist isn't remembered: it's indexed after it was created
+     */
+    @Test
+    public void testIndexOfDirCreatedLater() throws Exception {
+        String dirName = "created_later";
+        try {
+            studyAssetsIndex.find(dirName + "/a.txt");
+            Fail.fail();
+        } catch (IOException e) {
+            // Expected
+        }
+
+        File dir = new File(Common.getStudyAssetsRootPath(), dirName);
+        try {
+            FileUtils.writeStringToFile(new File(dir, "a.txt"), "a", StandardCharsets.UTF_8);
+            waitUntil(() -> {
+                try {
+                    studyAssetsIndex.find(dirName + "/a.txt");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return studyAssetsIndex.isIndexed(dirName);
+            });
+            assertThat(studyAssetsIndex.find(dirName + "/a.txt").getSize()).isEqualTo(1);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
     @Test
     public void testViaAssetsPathNotFound() {
         Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
@@ -0,0 +1,214 @@
+package daos.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.worker.WorkerDao;
+import general.TestHelper;
+import models.common.Batch;
+import models.common.Study;
+import models.common.workers.GeneralSingleWorker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests BatchDao.addWorkerIfAllowed and addWorkers: the batch's maxTotalWorkers is kept - also by concurrent
+ * transactions - and the worker count is only incremented if the worker was added
+ */
+public class BatchDaoTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Inject
+    private WorkerDao workerDao;
+
+    private long batchId;
+
+    /**
+     * Worker count of the default batch before a test adds workers (the admin's Jatos worker is in it)
+     */
+    private int initialWorkerCount;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        jpaApi.withTransaction(() -> {
+            Batch batch = studyDao.findById(study.getId()).getDefaultBatch();
+            batchId = batch.getId();
+            initialWorkerCount = batch.getWorkerCount();
+        });
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private void setMaxTotalWorkers(Integer maxTotalWorkers) {
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(batchId);
+            batch.setMaxTotalWorkers(maxTotalWorkers);
+            batchDao.update(batch);
+        });
+    }
+
+    private List<Long> createWorkers(int count) {
+        return jpaApi.withTransaction(() -> {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                GeneralSingleWorker worker = new GeneralSingleWorker();
+                workerDao.create(worker);
+                ids.add(worker.getId());
+            }
+            return ids;
+        });
+    }
+
+    private boolean addWorkerInTransaction(long workerId) {
+        return jpaApi.withTransaction(() ->
+                batchDao.addWorkerIfAllowed(batchDao.findById(batchId), workerDao.findById(workerId)));
+    }
+
+    private int countBatchWorkerMapRows() {
+        return jpaApi.withTransaction(() -> ((Number) jpaApi.em()
+                .createNativeQuery("SELECT COUNT(*) FROM BatchWorkerMap WHERE batch_id = ?")
+                .setParameter(1, batchId)
+                .getSingleResult()).intValue());
+    }
+
+    private int findWorkerCount() {
+        return jpaApi.withTransaction(() -> batchDao.findById(batchId).getWorkerCount());
+    }
+
+    @Test
+    public void checkAddWorker() {
+        long workerId = createWorkers(1).get(0);
+
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(batchId);
+            assertThat(batchDao.addWorkerIfAllowed(batch, workerDao.findById(workerId))).isTrue();
+            // The batch in the persistence context is re-read and has the new worker count
+            assertThat(batch.getWorkerCount()).isEqualTo(initialWorkerCount + 1);
+            assertThat(batchDao.hasWorker(batch, workerDao.findById(workerId))).isTrue();
+        });
+        assertThat(findWorkerCount()).isEqualTo(initialWorkerCount + 1);
+    }
+
+    /**
+     * A worker that is persisted in the same transaction isn't flushed yet (Worker IDs come from a pooled generator) -
+     * it's flushed before the native INSERT into BatchWorkerMap
+     */
+    @Test
+    public void checkAddWorkerPersistedInSameTransaction() {
+        long workerId = jpaApi.withTransaction(() -> {
+            GeneralSingleWorker worker = new GeneralSingleWorker();
+            workerDao.create(worker);
+            assertThat(batchDao.addWorkerIfAllowed(batchDao.findById(batchId), worker)).isTrue();
+            return worker.getId();
+        });
+        assertThat(findWorkerCount()).isEqualTo(initialWorkerCount + 1);
+        assertThat(jpaApi.withTransaction(() ->
+                batchDao.hasWorker(batchDao.findById(batchId), workerDao.findById(workerId)))).isTrue();
+    }
+
+    @Test
+    public void checkAddWorkersPersistedInSameTransaction() {
+        jpaApi.withTransaction(() -> {
+            List<GeneralSingleWorker> workers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                GeneralSingleWorker worker = new GeneralSingleWorker();
+                workerDao.create(worker);
+                workers.add(worker);
+            }
+            batchDao.addWorkers(batchDao.findById(batchId), workers);
+        });
+        assertThat(findWorkerCount()).isEqualTo(initialWorkerCount + 3);
+        assertThat(countBatchWorkerMapRows()).isEqualTo(initialWorkerCount + 3);
+    }
+
+    /**
+     * A worker that is already in the batch isn't added a second time and the worker count stays the same
+     */
+    @Test
+    public void checkAddSameWorkerTwice() {
+        long workerId = createWorkers(1).get(0);
+
+        assertThat(addWorkerInTransaction(workerId)).isTrue();
+        assertThat(addWorkerInTransaction(workerId)).isFalse();
+        assertThat(findWorkerCount()).isEqualTo(initialWorkerCount + 1);
+        assertThat(countBatchWorkerMapRows()).isEqualTo(initialWorkerCount + 1);
+    }
+
+    @Test
+    public void checkMaxTotalWorkersReached() {
+        setMaxTotalWorkers(initialWorkerCount + 1);
+        List<Long> workerIds = createWorkers(2);
+
+        assertThat(addWorkerInTransaction(workerIds.get(0))).isTrue();
+        assertThat(addWorkerInTransaction(workerIds.get(1))).isFalse();
+        assertThat(findWorkerCount()).isEqualTo(initialWorkerCount + 1);
+        assertThat(countBatchWorkerMapRows()).isEqualTo(initialWorkerCount + 1);
+    }
+
+    /**
+     * Concurrent transactions that add workers to the same batch never exceed its maxTotalWorkers: exactly the free
+     * places are taken and the worker count matches the rows in BatchWorkerMap
+     */
+    @Test
+    public void checkConcurrentAddsKeepMaxTotalWorkers() throws Exception {
+        int freePlaces = 5;
+        setMaxTotalWorkers(initialWorkerCount + freePlaces);
+        List<Long> workerIds = createWorkers(20);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (long workerId : workerIds) {
+            futures.add(executor.submit(() -> addWorkerInTransaction(workerId)));
+        }
+        int added = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get(30, TimeUnit.SECONDS)) added++;
+        }
+        executor.shutdown();
+
+        assertThat(added).isEqualTo(freePlaces);
+        assertThat(findWorkerCount()).isEqualTo(initialWorkerCount + freePlaces);
+        assertThat(countBatchWorkerMapRows()).isEqualTo(initialWorkerCount + freePlaces);
+    }
+
+}
@@ -0,0 +1,163 @@
+package daos.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import general.TestHelper;
+import models.common.Batch;
+import models.common.BatchStats;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import models.common.workers.JatosWorker;
+import models.common.workers.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.BulkResultRemover;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+import services.publix.workers.JatosPublixUtils;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests BatchStatsDao: the counters that are changed incrementally have to match the ones calculated by a rebuild
+ */
+public class BatchStatsDaoTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private BatchStatsDao batchStatsDao;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private BulkResultRemover bulkResultRemover;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private JatosPublixUtils jatosPublixUtils;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void checkCountersMatchRebuild() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        // Start five StudyResults and finish, fail and abort three of them
+        jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            Batch batch = s.getDefaultBatch();
+            Worker worker = userDao.findByUsername(UserService.ADMIN_USERNAME).getWorker();
+            List<StudyResult> studyResults = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                studyResults.add(resultCreator.createStudyResult(s, batch, worker));
+            }
+            jatosPublixUtils.finishStudyResult(true, null, studyResults.get(0));
+            jatosPublixUtils.finishStudyResult(false, "fail", studyResults.get(1));
+            jatosPublixUtils.abortStudy("abort", studyResults.get(2));
+        });
+
+        List<Object> counters = jpaApi.withTransaction(() -> {
+            BatchStats batchStats = findBatchStats(study);
+            assertThat(batchStats.getStudyResultCount()).isEqualTo(5);
+            assertThat(batchStats.getFinishedCount()).isEqualTo(1);
+            assertThat(batchStats.getFailCount()).isEqualTo(1);
+            assertThat(batchStats.getAbortedCount()).isEqualTo(1);
+            assertThat(batchStats.getStudyResultCountsPerWorker().get(JatosWorker.WORKER_TYPE)).isEqualTo(5);
+            return getCounters(batchStats);
+        });
+
+        jpaApi.withTransaction(() -> batchStatsDao.rebuild(
+                Collections.singletonList(studyDao.findById(study.getId()).getDefaultBatch())));
+
+        jpaApi.withTransaction(() -> {
+            assertThat(getCounters(findBatchStats(study))).isEqualTo(counters);
+        });
+    }
+
+    /**
+     * Removing StudyResults rebuilds the counters of their batch
+     */
+    @Test
+    public void checkCountersAfterRemoval() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        // Start four StudyResults, finish and abort two of them and remove the aborted and a started one
+        List<Long> studyResultIds = jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            Batch batch = s.getDefaultBatch();
+            Worker worker = userDao.findByUsername(UserService.ADMIN_USERNAME).getWorker();
+            List<StudyResult> studyResults = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                studyResults.add(resultCreator.createStudyResult(s, batch, worker));
+            }
+            jatosPublixUtils.finishStudyResult(true, null, studyResults.get(0));
+            jatosPublixUtils.abortStudy("abort", studyResults.get(1));
+            return studyResults.stream().map(StudyResult::getId).collect(Collectors.toList());
+        });
+
+        jpaApi.withTransaction(() -> bulkResultRemover.remove(studyResultIds.subList(1, 3)));
+
+        jpaApi.withTransaction(() -> {
+            BatchStats batchStats = findBatchStats(study);
+            assertThat(batchStats.getStudyResultCount()).isEqualTo(2);
+            assertThat(batchStats.getFinishedCount()).isEqualTo(1);
+            assertThat(batchStats.getAbortedCount()).isEqualTo(0);
+            assertThat(batchStats.getStudyResultCountsPerWorker().get(JatosWorker.WORKER_TYPE)).isEqualTo(2);
+        });
+    }
+
+    private BatchStats findBatchStats(Study study) {
+        return batchStatsDao.findByBatch(studyDao.findById(study.getId()).getDefaultBatch());
+    }
+
+    /**
+     * All counters of the BatchStats (without lastActivity: the rebuild takes it from the StudyResults' dates)
+     */
+    private static List<Object> getCounters(BatchStats batchStats) {
+        return Arrays.asList(batchStats.getStudyResultCount(), batchStats.getFinishedCount(),
+                batchStats.getAbortedCount(), batchStats.getFailCount(),
+                batchStats.getStudyResultCountsPerWorker(), batchStats.getGroupResultCount());
+    }
+
+}
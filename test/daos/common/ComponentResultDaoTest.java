@@ -0,0 +1,203 @@
+package daos.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import general.TestHelper;
+import models.common.ComponentResult;
+import models.common.ComponentResultChunk;
+import models.common.Study;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.ResultTestHelper;
+import utils.common.HashUtils;
+
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the result data chunks of ComponentResultDao: appending, reassembling and concurrent appends
+ */
+public class ComponentResultDaoTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private ResultTestHelper resultTestHelper;
+
+    @Inject
+    private ComponentResultDao componentResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private long createComponentResult(String submittedData) {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long id = resultTestHelper.createTwoComponentResults(study.getId()).get(0);
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(id);
+            componentResult.setData(submittedData);
+            componentResultDao.update(componentResult);
+        });
+        return id;
+    }
+
+    private void appendInTransaction(long id, String data) {
+        jpaApi.withTransaction(() -> {
+            componentResultDao.appendData(componentResultDao.findById(id), data);
+        });
+    }
+
+    @Test
+    public void checkAppendData() {
+        long id = createComponentResult("submitted;");
+
+        appendInTransaction(id, "first;");
+        appendInTransaction(id, "second;");
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(id);
+            // The submitted data are untouched, the appended ones are chunks
+            assertThat(componentResult.getSubmittedData()).isEqualTo("submitted;");
+            assertThat(componentResult.getData()).isEqualTo("submitted;first;second;");
+            assertThat(componentResult.getDataSize()).isEqualTo("submitted;first;second;".length());
+
+            List<ComponentResultChunk> chunks = componentResult.getDataChunkList();
+            assertThat(chunks.size()).isEqualTo(2);
+            assertThat(chunks.get(0).getChunkNumber()).isEqualTo(1);
+            assertThat(chunks.get(1).getChunkNumber()).isEqualTo(2);
+            // The hash of the last chunk is the chained hash over all data
+            assertThat(chunks.get(1).getDataHash()).isEqualTo(HashUtils.getChainedHash("submitted;",
+                    Arrays.asList("first;", "second;"), HashUtils.SHA_256));
+        });
+    }
+
+    /**
+     * The chunks are put together by their chunkNumber and not by the order they were stored in
+     */
+    @Test
+    public void checkChunksReassembledInOrder() {
+        long id = createComponentResult("0");
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(id);
+            for (int chunkNumber : Arrays.asList(3, 1, 2)) {
+                componentResultDao.persist(
+                        new ComponentResultChunk(componentResult, chunkNumber, String.valueOf(chunkNumber), null));
+            }
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(id);
+            assertThat(componentResult.getData()).isEqualTo("0123");
+        });
+    }
+
+    /**
+     * Data appended to a ComponentResult whose data were stored before the chunks existed (evolution 13): the stored
+     * data stay as they are and come first, the hash chain starts with their hash
+     */
+    @Test
+    public void checkAppendToExistingData() {
+        long id = createComponentResult(null);
+        jpaApi.withTransaction(() -> {
+            // Data of a ComponentResult written before evolution 13 - without chunks and dataSize
+            jpaApi.em().createNativeQuery("UPDATE ComponentResult SET data = 'old data ä', dataSize = 0 WHERE id = ?")
+                    .setParameter(1, id)
+                    .executeUpdate();
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(id);
+            assertThat(componentResult.getData()).isEqualTo("old data ä");
+            assertThat(componentResult.getDataChunkList()).isEmpty();
+        });
+
+        appendInTransaction(id, " new data");
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(id);
+            assertThat(componentResult.getData()).isEqualTo("old data ä new data");
+            ComponentResultChunk chunk = componentResult.getDataChunkList().get(0);
+            assertThat(chunk.getChunkNumber()).isEqualTo(1);
+            assertThat(chunk.getDataHash()).isEqualTo(
+                    HashUtils.getChainedHash(HashUtils.getHash("old data ä", HashUtils.SHA_256), " new data",
+                            HashUtils.SHA_256));
+            // The append re-reads the ComponentResult: its dataSize is the one from the DB plus the chunk's size
+            assertThat(componentResult.getDataSize()).isEqualTo(" new data".getBytes(StandardCharsets.UTF_8).length);
+        });
+    }
+
+    /**
+     * Concurrent appends to the same ComponentResult are serialized (locked ComponentResult row): each one gets its
+     * own chunk number and no data are lost
+     */
+    @Test
+    public void checkConcurrentAppends() throws Exception {
+        long id = createComponentResult(null);
+        int appendCount = 20;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < appendCount; i++) {
+            String data = "[" + i + "]";
+            futures.add(executor.submit(() -> appendInTransaction(id, data)));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(id);
+            List<ComponentResultChunk> chunks = componentResult.getDataChunkList();
+            assertThat(chunks.size()).isEqualTo(appendCount);
+            for (int i = 0; i < appendCount; i++) {
+                assertThat(chunks.get(i).getChunkNumber()).isEqualTo(i + 1);
+            }
+            List<String> appended = chunks.stream().map(ComponentResultChunk::getData).collect(Collectors.toList());
+            for (int i = 0; i < appendCount; i++) {
+                assertThat(appended).contains("[" + i + "]");
+            }
+            assertThat(componentResult.getDataSize()).isEqualTo(String.join("", appended).length());
+            // Each chunk's hash is chained to the one before it
+            assertThat(chunks.get(appendCount - 1).getDataHash())
+                    .isEqualTo(HashUtils.getChainedHash(null, appended, HashUtils.SHA_256));
+        });
+    }
+
+}
@@ -0,0 +1,231 @@
+package daos.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.worker.WorkerDao;
+import general.TestHelper;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import models.common.StudyResultSummary;
+import models.common.User;
+import models.common.workers.GeneralSingleWorker;
+import models.common.workers.JatosWorker;
+import models.common.workers.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+/**
+ * Tests StudyResultDao.findSummaries: the keyset pagination at the page boundaries and the worker types that are
+ * filled in afterwards (fillWorkerTypes)
+ */
+public class StudyResultDaoTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private WorkerDao workerDao;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    private Study study;
+
+    /**
+     * IDs of the created StudyResults in the order they were created
+     */
+    private List<Long> studyResultIds;
+
+    private Long defaultBatchId;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        studyResultIds = createStudyResults();
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    /**
+     * Creates 7 StudyResults: 4 of the admin's Jatos worker and 3 of a General Single worker. The study states have
+     * ties (STARTED, FINISHED, STARTED, FINISHED, ...) so the StudyResult's ID decides within a state.
+     */
+    private List<Long> createStudyResults() {
+        return jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            defaultBatchId = s.getDefaultBatch().getId();
+            User admin = userDao.findByUsername(UserService.ADMIN_USERNAME);
+            GeneralSingleWorker generalSingleWorker = new GeneralSingleWorker();
+            workerDao.create(generalSingleWorker);
+            List<Worker> workers = Arrays.asList(admin.getWorker(), generalSingleWorker);
+
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                StudyResult studyResult = resultCreator.createStudyResult(s, s.getDefaultBatch(), workers.get(i % 2));
+                if (i % 2 == 1) {
+                    studyResult.setStudyState(StudyState.FINISHED);
+                    studyResultDao.update(studyResult);
+                }
+                ids.add(studyResult.getId());
+            }
+            return ids;
+        });
+    }
+
+    private List<StudyResultSummary> findPage(String workerType, String sortBy, boolean descending, Long afterId,
+            int limit) {
+        return jpaApi.withTransaction(() -> studyResultDao.findSummaries(studyDao.findById(study.getId()), null,
+                null, null, null, workerType, sortBy, descending, afterId, limit));
+    }
+
+    /**
+     * Reads all pages (each starts after the last StudyResult of the page before) and returns the IDs in the order
+     * they were read
+     */
+    private List<Long> findAllPages(String sortBy, boolean descending, int limit) {
+        List<Long> ids = new ArrayList<>();
+        Long afterId = null;
+        while (true) {
+            List<StudyResultSummary> page = findPage(null, sortBy, descending, afterId, limit);
+            assertThat(page.size()).isLessThanOrEqualTo(limit);
+            if (page.isEmpty()) return ids;
+            page.forEach(summary -> ids.add(summary.getId()));
+            afterId = page.get(page.size() - 1).getId();
+        }
+    }
+
+    private List<Long> idsSortedByState(boolean descending) {
+        Comparator<Long> byState = Comparator.comparing(id -> studyResultIds.indexOf(id) % 2 == 1);
+        Comparator<Long> comparator = byState.thenComparing(Comparator.naturalOrder());
+        if (descending) comparator = comparator.reversed();
+        return studyResultIds.stream().sorted(comparator).collect(Collectors.toList());
+    }
+
+    @Test
+    public void checkPagesById() {
+        List<StudyResultSummary> firstPage = findPage(null, "id", false, null, 3);
+        assertThat(firstPage.stream().map(StudyResultSummary::getId).collect(Collectors.toList()))
+                .isEqualTo(studyResultIds.subList(0, 3));
+
+        // The next page starts right after the last ID of the page before
+        List<StudyResultSummary> secondPage = findPage(null, "id", false, firstPage.get(2).getId(), 3);
+        assertThat(secondPage.stream().map(StudyResultSummary::getId).collect(Collectors.toList()))
+                .isEqualTo(studyResultIds.subList(3, 6));
+
+        // Last page isn't full and after the last one there is nothing
+        assertThat(findPage(null, "id", false, studyResultIds.get(5), 3).size()).isEqualTo(1);
+        assertThat(findPage(null, "id", false, studyResultIds.get(6), 3)).isEmpty();
+
+        // All pages together
+        assertThat(findAllPages("id", false, 3)).isEqualTo(studyResultIds);
+        List<Long> descendingIds = new ArrayList<>(studyResultIds);
+        descendingIds.sort(Comparator.reverseOrder());
+        assertThat(findAllPages("id", true, 3)).isEqualTo(descendingIds);
+    }
+
+    /**
+     * Pages sorted by a column with ties: the StudyResult's ID decides within a tie - no StudyResult is skipped or
+     * read twice at a page boundary that falls within a tie
+     */
+    @Test
+    public void checkPagesWithTies() {
+        for (int limit = 1; limit <= 4; limit++) {
+            assertThat(findAllPages("studyState", false, limit)).isEqualTo(idsSortedByState(false));
+            assertThat(findAllPages("studyState", true, limit)).isEqualTo(idsSortedByState(true));
+        }
+    }
+
+    /**
+     * Pages sorted by the worker ID - all StudyResults of a worker are a tie
+     */
+    @Test
+    public void checkPagesByWorker() {
+        List<Long> ids = findAllPages("workerId", false, 2);
+        assertThat(ids.size()).isEqualTo(studyResultIds.size());
+        assertThat(ids).containsOnly(studyResultIds.toArray());
+    }
+
+    /**
+     * A page after a StudyResult that doesn't exist (e.g. deleted meanwhile) is empty
+     */
+    @Test
+    public void checkAfterUnknownId() {
+        assertThat(findPage(null, "id", false, -1L, 3)).isEmpty();
+        assertThat(findPage(null, "studyState", false, -1L, 3)).isEmpty();
+    }
+
+    @Test
+    public void checkUnknownSortColumn() {
+        try {
+            findPage(null, "data", false, null, 3);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * The worker types are filled in after the projection query
+     */
+    @Test
+    public void checkWorkerTypes() {
+        List<StudyResultSummary> summaries = findPage(null, "id", false, null, 10);
+        assertThat(summaries.size()).isEqualTo(7);
+        for (int i = 0; i < summaries.size(); i++) {
+            String expectedType = i % 2 == 0 ? JatosWorker.WORKER_TYPE : GeneralSingleWorker.WORKER_TYPE;
+            assertThat(summaries.get(i).getWorkerType()).isEqualTo(expectedType);
+            assertThat(summaries.get(i).getComponentResultCount()).isEqualTo(0);
+            assertThat(summaries.get(i).getBatchId()).isEqualTo(defaultBatchId);
+        }
+
+        // Filter by worker type
+        List<StudyResultSummary> generalSingle = findPage(GeneralSingleWorker.WORKER_TYPE, "id", false, null, 10);
+        assertThat(generalSingle.size()).isEqualTo(3);
+        generalSingle.forEach(s -> assertThat(s.getWorkerType()).isEqualTo(GeneralSingleWorker.WORKER_TYPE));
+    }
+
+}
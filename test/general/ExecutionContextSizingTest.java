@@ -0,0 +1,123 @@
+package general;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.typesafe.config.Config;
+import general.common.DatabaseExecutionContext;
+import general.gui.ExportExecutionContext;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the sizes of the thread pools that use database connections: the study runs' database.dispatcher has as
+ * many threads as there are connections and the other pools (exports, session writes, jobs) are bounded and leave
+ * connections for the study runs
+ */
+public class ExecutionContextSizingTest {
+
+    private Injector injector;
+
+    @Inject
+    private Config config;
+
+    @Inject
+    private DatabaseExecutionContext dbExecutionContext;
+
+    @Inject
+    private ExportExecutionContext exportExecutionContext;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    /**
+     * Runs three times as many blocking tasks as the pool should have threads and returns how many ran at the same
+     * time
+     */
+    private int measureParallelism(Executor executor, int poolSize) throws Exception {
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < poolSize * 3; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }, executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        return maxRunning.get();
+    }
+
+    @Test
+    public void checkConfiguredSizes() {
+        int dbPoolSize = config.getInt("jatos.db.poolSize");
+        assertThat(config.getInt("db.default.hikaricp.maximumPoolSize")).isEqualTo(dbPoolSize);
+        assertThat(config.getInt("database.dispatcher.thread-pool-executor.fixed-pool-size")).isEqualTo(dbPoolSize);
+        assertThat(config.getInt("export.dispatcher.thread-pool-executor.fixed-pool-size"))
+                .isEqualTo(config.getInt("jatos.export.poolSize"));
+        assertThat(config.getInt("session.dispatcher.thread-pool-executor.fixed-pool-size"))
+                .isEqualTo(config.getInt("jatos.session.poolSize"));
+
+        // The pools besides the study runs' get less than all connections together
+        int otherPools = config.getInt("jatos.export.poolSize") + config.getInt("jatos.session.poolSize")
+                + config.getInt("jatos.jobs.poolSize");
+        assertThat(otherPools).isLessThan(dbPoolSize);
+    }
+
+    @Test
+    public void checkDatabaseExecutionContextIsBounded() throws Exception {
+        int poolSize = config.getInt("jatos.db.poolSize");
+        assertThat(measureParallelism(dbExecutionContext, poolSize)).isEqualTo(poolSize);
+    }
+
+    @Test
+    public void checkExportExecutionContextIsBounded() throws Exception {
+        int poolSize = config.getInt("jatos.export.poolSize");
+        assertThat(measureParallelism(exportExecutionContext, poolSize)).isEqualTo(poolSize);
+    }
+
+    /**
+     * An export doesn't take a thread of the study runs: while all export threads are busy the database.dispatcher
+     * still runs tasks
+     */
+    @Test
+    public void checkExportsDontBlockStudyRuns() throws Exception {
+        int poolSize = config.getInt("jatos.export.poolSize");
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        List<CompletableFuture<Void>> exports = new ArrayList<>();
+        for (int i = 0; i < poolSize * 2; i++) {
+            exports.add(CompletableFuture.runAsync(release::join, exportExecutionContext));
+        }
+
+        assertThat(CompletableFuture.supplyAsync(() -> true, dbExecutionContext).get(10, TimeUnit.SECONDS))
+                .isTrue();
+        assertThat(exports.stream().anyMatch(CompletableFuture::isDone)).isFalse();
+
+        release.complete(null);
+        CompletableFuture.allOf(exports.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    }
+
+}
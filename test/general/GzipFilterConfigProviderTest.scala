@@ -0,0 +1,47 @@
+package general
+
+import org.fest.assertions.Assertions.assertThat
+import org.junit.Test
+import play.api.http.HeaderNames
+import play.api.mvc.{RequestHeader, Result, Results}
+import play.api.test.FakeRequest
+import play.api.{Configuration, Environment}
+import play.filters.gzip.GzipFilterConfig
+
+/**
+  * Tests GzipFilterConfigProvider: study assets (they are sent precompressed) and responses that
+  * support range requests are excluded from the GzipFilter - everything else is gzipped like before
+  */
+class GzipFilterConfigProviderTest {
+
+  private val gzipFilterConfig: GzipFilterConfig =
+    new GzipFilterConfigProvider(Configuration.load(Environment.simple())).get
+
+  private def request(path: String): RequestHeader =
+    FakeRequest("GET", path).withHeaders(HeaderNames.ACCEPT_ENCODING -> "gzip")
+
+  private val javaScript: Result = Results.Ok("var a = 1;").as("application/javascript")
+
+  @Test
+  def checkStudyAssetsExcluded(): Unit = {
+    assertThat(gzipFilterConfig.shouldGzip(request("/study_assets/my_study/a.js"), javaScript)).isFalse
+    assertThat(gzipFilterConfig.shouldGzip(request("/study_assets_root/my_study/a.js"), javaScript))
+      .isFalse
+  }
+
+  /**
+    * Study assets via the study path (/publix/...) are recognized by their Accept-Ranges header
+    */
+  @Test
+  def checkRangeResponsesExcluded(): Unit = {
+    val result = javaScript.withHeaders(HeaderNames.ACCEPT_RANGES -> "bytes")
+    assertThat(gzipFilterConfig.shouldGzip(request("/publix/1/a.js"), result)).isFalse
+  }
+
+  @Test
+  def checkOtherResponsesGzipped(): Unit = {
+    assertThat(gzipFilterConfig.shouldGzip(request("/jatos/1/study.js"), javaScript)).isTrue
+    assertThat(gzipFilterConfig.shouldGzip(request("/publix/1/a.js"), javaScript)).isTrue
+  }
+
+}
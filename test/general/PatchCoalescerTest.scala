@@ -0,0 +1,213 @@
+package general
+
+import general.common.SessionMetrics
+import org.fest.assertions.Assertions.assertThat
+import org.junit.Test
+import play.api.libs.json.{JsValue, Json}
+
+/**
+  * Tests PatchCoalescer: the merge rules and that the merged patch always leads to the same session
+  * data as the single patches
+  */
+class PatchCoalescerTest {
+
+  private def op(name: String, path: String, value: JsValue): JsValue =
+    Json.obj("op" -> name, "path" -> path, "value" -> value)
+
+  private def add(path: String, value: JsValue) = op("add", path, value)
+
+  private def replace(path: String, value: JsValue) = op("replace", path, value)
+
+  private def remove(path: String): JsValue = Json.obj("op" -> "remove", "path" -> path)
+
+  private def patch(ops: JsValue*): JsValue = Json.arr(ops: _*)
+
+  /**
+    * Applies the patches one after another to the data, adds them to a PatchCoalescer and returns
+    * the merged patch. Checks that the merged patch leads from the data to the same result.
+    */
+  private def coalesce(data: JsValue, patches: JsValue*): JsValue = {
+    val coalescer = new PatchCoalescer(new SessionMetrics)
+    var version = 1L
+    val patchedData = patches.foldLeft(data) { (dataBefore, p) =>
+      val dataAfter = SessionState.patch(p, dataBefore)
+      version += 1
+      coalescer.add(dataBefore, p, dataAfter, version)
+      dataAfter
+    }
+    val Some((merged, mergedVersion)) = coalescer.drain()
+    assertThat(mergedVersion).isEqualTo(version)
+    assertThat(coalescer.isEmpty).isTrue
+    assertThat(SessionState.patch(merged, data)).isEqualTo(patchedData)
+    merged
+  }
+
+  @Test
+  def checkSinglePatchUnchanged(): Unit = {
+    val p = patch(add("/a", Json.toJson(1)), add("/b", Json.toJson(2)))
+    assertThat(coalesce(Json.obj(), p)).isEqualTo(p)
+  }
+
+  @Test
+  def checkNothingToDrain(): Unit = {
+    assertThat(new PatchCoalescer(new SessionMetrics).drain()).isEqualTo(None)
+  }
+
+  /**
+    * A later 'add' of the same path drops the earlier one
+    */
+  @Test
+  def checkAddOverwritesAdd(): Unit = {
+    val merged = coalesce(Json.obj(), patch(add("/a", Json.toJson(1))), patch(add("/a", Json.toJson(2))))
+    assertThat(merged).isEqualTo(patch(add("/a", Json.toJson(2))))
+  }
+
+  /**
+    * A 'replace' that overwrites an earlier operation becomes an 'add' - the dropped operation might
+    * have created the member
+    */
+  @Test
+  def checkReplaceOverwritesAddBecomesAdd(): Unit = {
+    val merged = coalesce(Json.obj(), patch(add("/a", Json.toJson(1))), patch(replace("/a", Json.toJson(2))))
+    assertThat(merged).isEqualTo(patch(add("/a", Json.toJson(2))))
+  }
+
+  /**
+    * A 'replace' that doesn't overwrite anything stays a 'replace'
+    */
+  @Test
+  def checkReplaceKept(): Unit = {
+    val merged = coalesce(Json.obj("a" -> 1, "b" -> 1),
+      patch(replace("/a", Json.toJson(2))), patch(replace("/b", Json.toJson(3))))
+    assertThat(merged).isEqualTo(patch(replace("/a", Json.toJson(2)), replace("/b", Json.toJson(3))))
+  }
+
+  /**
+    * An 'add' of a parent path drops the earlier operations below it
+    */
+  @Test
+  def checkAddOfPrefixPathOverwritesChildren(): Unit = {
+    val merged = coalesce(Json.obj("a" -> Json.obj("b" -> 1)),
+      patch(replace("/a/b", Json.toJson(2)), add("/a/c", Json.toJson(3))),
+      patch(add("/a", Json.obj("d" -> 4))))
+    assertThat(merged).isEqualTo(patch(add("/a", Json.obj("d" -> 4))))
+  }
+
+  /**
+    * An 'add' of a child path doesn't drop the earlier operation on the parent path
+    */
+  @Test
+  def checkAddOfChildPathKeepsParent(): Unit = {
+    val merged = coalesce(Json.obj(),
+      patch(add("/a", Json.obj("b" -> 1))), patch(add("/a/c", Json.toJson(2))))
+    assertThat(merged).isEqualTo(patch(add("/a", Json.obj("b" -> 1)), add("/a/c", Json.toJson(2))))
+  }
+
+  /**
+    * A path that only starts with the same characters is no parent ("/ab" isn't below "/a")
+    */
+  @Test
+  def checkSimilarPathIsNoParent(): Unit = {
+    val merged = coalesce(Json.obj(),
+      patch(add("/ab", Json.toJson(1))), patch(add("/a", Json.toJson(2))))
+    assertThat(merged).isEqualTo(patch(add("/ab", Json.toJson(1)), add("/a", Json.toJson(2))))
+  }
+
+  /**
+    * A 'remove' doesn't drop earlier operations (the member has to exist to be removed) - but a
+    * later 'add' drops the 'remove'
+    */
+  @Test
+  def checkRemove(): Unit = {
+    val mergedRemove = coalesce(Json.obj(),
+      patch(add("/a", Json.toJson(1))), patch(remove("/a")))
+    assertThat(mergedRemove).isEqualTo(patch(add("/a", Json.toJson(1)), remove("/a")))
+
+    val mergedAdd = coalesce(Json.obj("a" -> 1),
+      patch(remove("/a")), patch(add("/a", Json.toJson(2))))
+    assertThat(mergedAdd).isEqualTo(patch(add("/a", Json.toJson(2))))
+  }
+
+  /**
+    * A 'remove' of a parent path doesn't drop the earlier operations below it
+    */
+  @Test
+  def checkRemoveOfPrefixPath(): Unit = {
+    val merged = coalesce(Json.obj("a" -> Json.obj("b" -> 1)),
+      patch(replace("/a/b", Json.toJson(2))), patch(remove("/a")))
+    assertThat(merged).isEqualTo(patch(replace("/a/b", Json.toJson(2)), remove("/a")))
+  }
+
+  /**
+    * Array indices shift with each 'add' and 'remove' - operations on them are never dropped
+    */
+  @Test
+  def checkArrayIndicesKept(): Unit = {
+    val merged = coalesce(Json.obj("arr" -> Json.arr(1, 2)),
+      patch(add("/arr/0", Json.toJson(0))), patch(add("/arr/0", Json.toJson(-1))),
+      patch(add("/arr/-", Json.toJson(3))), patch(remove("/arr/1")))
+    assertThat(merged).isEqualTo(patch(add("/arr/0", Json.toJson(0)), add("/arr/0", Json.toJson(-1)),
+      add("/arr/-", Json.toJson(3)), remove("/arr/1")))
+  }
+
+  /**
+    * An 'add' of a member whose path contains an array index doesn't drop anything either
+    */
+  @Test
+  def checkMemberBelowArrayIndexKept(): Unit = {
+    val merged = coalesce(Json.obj("arr" -> Json.arr(Json.obj("x" -> 1))),
+      patch(add("/arr/0/x", Json.toJson(2))), patch(add("/arr/0/x", Json.toJson(3))))
+    assertThat(merged).isEqualTo(patch(add("/arr/0/x", Json.toJson(2)), add("/arr/0/x", Json.toJson(3))))
+  }
+
+  /**
+    * If there is a 'move', 'copy' or 'test' nothing is dropped
+    */
+  @Test
+  def checkMoveDropsNothing(): Unit = {
+    val move = Json.obj("op" -> "move", "from" -> "/a", "path" -> "/b")
+    val merged = coalesce(Json.obj(),
+      patch(add("/a", Json.toJson(1))), patch(move), patch(add("/a", Json.toJson(2))))
+    assertThat(merged).isEqualTo(patch(add("/a", Json.toJson(1)), move, add("/a", Json.toJson(2))))
+  }
+
+  /**
+    * A 'remove' of "/" can't be concatenated: the session data are restated
+    */
+  @Test
+  def checkRemoveAllRestates(): Unit = {
+    val merged = coalesce(Json.obj("a" -> 1, "b" -> 2),
+      patch(add("/c", Json.toJson(3))), patch(remove("/")), patch(add("/b", Json.toJson(4))))
+    val ops = PatchCoalescer.operations(merged)
+    assertThat(ops.size).isEqualTo(2)
+    assertThat(ops.contains(remove("/a"))).isTrue
+    assertThat(ops.contains(add("/b", Json.toJson(4)))).isTrue
+  }
+
+  /**
+    * If the session data are empty after a 'remove' of "/" the merged patch is a 'remove' of "/"
+    */
+  @Test
+  def checkRemoveAllToEmpty(): Unit = {
+    val merged = coalesce(Json.obj("a" -> 1), patch(add("/b", Json.toJson(2))), patch(remove("/")))
+    assertThat(merged).isEqualTo(patch(remove("/")))
+  }
+
+  @Test
+  def checkMetricsRecorded(): Unit = {
+    val sessionMetrics = new SessionMetrics
+    val coalescer = new PatchCoalescer(sessionMetrics)
+    val p1 = patch(add("/a", Json.toJson(1)))
+    val p2 = patch(add("/a", Json.toJson(2)), add("/b", Json.toJson(3)))
+    coalescer.add(Json.obj(), p1, Json.obj("a" -> 1), 2)
+    coalescer.add(Json.obj("a" -> 1), p2, Json.obj("a" -> 2, "b" -> 3), 3)
+    coalescer.drain()
+
+    val metrics = sessionMetrics.getMetrics
+    assertThat(metrics.get("coalescedPatches")).isEqualTo(2L)
+    assertThat(metrics.get("sentPatches")).isEqualTo(1L)
+    assertThat(metrics.get("coalescedOperations")).isEqualTo(3L)
+    assertThat(metrics.get("sentOperations")).isEqualTo(2L)
+  }
+
+}
@@ -0,0 +1,168 @@
+package general
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.util.concurrent.Executors
+
+import akka.dispatch.ExecutionContexts
+import org.apache.commons.io.FileUtils
+import org.fest.assertions.Assertions.assertThat
+import org.junit.{After, Before, Test}
+import play.api.libs.json.{JsValue, Json}
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContextExecutorService}
+
+/**
+  * Tests SessionJournal: group commit, truncate, delete, close and the recovery of a journal that
+  * was written when JATOS stopped unexpectedly
+  */
+class SessionJournalTest {
+
+  private var journalDir: Path = _
+
+  private var journalPath: Path = _
+
+  private var ec: ExecutionContextExecutorService = _
+
+  @Before
+  def setUp(): Unit = {
+    journalDir = Files.createTempDirectory("session_journal")
+    journalPath = journalDir.resolve("batch_1.journal")
+    ec = ExecutionContexts.fromExecutorService(Executors.newSingleThreadExecutor())
+  }
+
+  @After
+  def tearDown(): Unit = {
+    ec.shutdown()
+    FileUtils.deleteDirectory(journalDir.toFile)
+  }
+
+  private def newJournal() = new SessionJournal(journalPath, ec)
+
+  private def patch(key: String, value: Int): JsValue =
+    Json.arr(Json.obj("op" -> "add", "path" -> s"/$key", "value" -> value))
+
+  private def versions(entries: List[JsValue]) = entries.map(e => (e \ SessionJournal.Version).as[Long])
+
+  private def sync(journal: SessionJournal): Long = Await.result(journal.sync(), 10.seconds)
+
+  /**
+    * Waits until all file operations that were called before are done
+    */
+  private def awaitFileOperations(journal: SessionJournal): Unit = sync(journal)
+
+  /**
+    * Appended entries are only written with the next sync - all of them together
+    */
+  @Test
+  def checkSync(): Unit = {
+    val journal = newJournal()
+    journal.appendPatches(2, patch("a", 1))
+    journal.appendPatches(3, patch("b", 2))
+    assertThat(journal.hasPending).isTrue
+    assertThat(Files.exists(journalPath)).isFalse
+
+    assertThat(sync(journal)).isEqualTo(3L)
+    assertThat(journal.hasPending).isFalse
+    assertThat(versions(journal.readAfter(1))).isEqualTo(List(2L, 3L))
+    assertThat(versions(journal.readAfter(2))).isEqualTo(List(3L))
+
+    journal.appendData(4, Json.obj("c" -> 3))
+    assertThat(sync(journal)).isEqualTo(4L)
+    val entries = journal.readAfter(1)
+    assertThat(versions(entries)).isEqualTo(List(2L, 3L, 4L))
+    assertThat((entries.last \ SessionJournal.Data).get).isEqualTo(Json.obj("c" -> 3))
+    journal.close()
+  }
+
+  /**
+    * Entries appended while a sync is running are written by the next sync
+    */
+  @Test
+  def checkGroupCommit(): Unit = {
+    val journal = newJournal()
+    journal.appendPatches(2, patch("a", 1))
+    val firstSync = journal.sync()
+    journal.appendPatches(3, patch("b", 2))
+    journal.appendPatches(4, patch("c", 3))
+    val secondSync = journal.sync()
+
+    assertThat(Await.result(firstSync, 10.seconds)).isEqualTo(2L)
+    assertThat(Await.result(secondSync, 10.seconds)).isEqualTo(4L)
+    assertThat(versions(journal.readAfter(0))).isEqualTo(List(2L, 3L, 4L))
+    journal.close()
+  }
+
+  /**
+    * Truncate removes the entries that are in the database - and keeps the ones appended later
+    */
+  @Test
+  def checkTruncate(): Unit = {
+    val journal = newJournal()
+    journal.appendPatches(2, patch("a", 1))
+    journal.appendPatches(3, patch("b", 2))
+    sync(journal)
+
+    journal.truncate(2)
+    journal.appendPatches(4, patch("c", 3))
+    awaitFileOperations(journal)
+    assertThat(versions(journal.readAfter(0))).isEqualTo(List(3L, 4L))
+
+    journal.truncate(4)
+    awaitFileOperations(journal)
+    assertThat(Files.exists(journalPath)).isFalse
+    journal.close()
+  }
+
+  /**
+    * Delete removes the file and the entries that are not yet synced
+    */
+  @Test
+  def checkDelete(): Unit = {
+    val journal = newJournal()
+    journal.appendPatches(2, patch("a", 1))
+    sync(journal)
+    journal.appendPatches(3, patch("b", 2))
+
+    journal.delete()
+    assertThat(journal.hasPending).isFalse
+    awaitFileOperations(journal)
+    assertThat(Files.exists(journalPath)).isFalse
+    journal.close()
+  }
+
+  /**
+    * Close writes the entries that are not yet synced
+    */
+  @Test
+  def checkCloseWritesPendingEntries(): Unit = {
+    val journal = newJournal()
+    journal.appendPatches(2, patch("a", 1))
+    journal.close()
+
+    assertThat(versions(newJournal().readAfter(0))).isEqualTo(List(2L))
+  }
+
+  /**
+    * If JATOS stopped while writing an entry the incomplete last line is skipped - and the next
+    * entry is written into a new line
+    */
+  @Test
+  def checkRecoveryWithTruncatedLastLine(): Unit = {
+    val journal = newJournal()
+    journal.appendPatches(2, patch("a", 1))
+    journal.appendPatches(3, patch("b", 2))
+    journal.close()
+    Files.write(journalPath, "{\"version\":4,\"patc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND)
+
+    val recoveredJournal = newJournal()
+    assertThat(versions(recoveredJournal.readAfter(1))).isEqualTo(List(2L, 3L))
+
+    recoveredJournal.appendPatches(4, patch("c", 3))
+    sync(recoveredJournal)
+    assertThat(versions(recoveredJournal.readAfter(1))).isEqualTo(List(2L, 3L, 4L))
+    recoveredJournal.close()
+  }
+
+}
@@ -0,0 +1,279 @@
+package general
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.util.concurrent.atomic.AtomicInteger
+
+import akka.actor.{Actor, ActorRef, ActorSystem, Props}
+import akka.testkit.TestProbe
+import com.google.inject.Guice
+import general.SessionWriteBehind.{FlushSession, MaxFlushAttempts, ReplaceSessionData}
+import general.SessionWriteBehindTest._
+import org.apache.commons.io.FileUtils
+import org.fest.assertions.Assertions.assertThat
+import org.junit.{After, Before, Test}
+import play.api.libs.json.{JsValue, Json}
+import play.inject.guice.GuiceApplicationLoader
+import play.{ApplicationLoader, Environment}
+
+import scala.concurrent.duration._
+
+object SessionWriteBehindTest {
+
+  case class Patch(patches: JsValue)
+
+  case object GetSession
+
+  /**
+    * Session in a fake database: writes can be made to fail and the session can be changed by
+    * 'someone else'
+    */
+  class FakeSessionDb {
+    @volatile var data: JsValue = Json.obj()
+    @volatile var version: Long = 1
+    @volatile var failWrites = false
+    val writes = new AtomicInteger()
+
+    def load(): Option[SessionState] = synchronized(Some(new SessionState(data, version)))
+
+    def write(newData: JsValue, newVersion: Long, persistedVersion: Long): Boolean = synchronized {
+      writes.incrementAndGet()
+      if (failWrites) throw new RuntimeException("Database not available")
+      if (version != persistedVersion) false
+      else {
+        data = newData
+        version = newVersion
+        true
+      }
+    }
+  }
+
+  /**
+    * Dispatcher that holds its session with the SessionWriteBehind - like the BatchDispatcher but
+    * without channels and with a FakeSessionDb
+    */
+  class TestDispatcher(db: FakeSessionDb, protected val journal: SessionJournal)
+    extends Actor with SessionWriteBehind {
+
+    protected def sessionDescription = "test session"
+
+    protected def loadSession(): Option[SessionState] = db.load()
+
+    protected def writeSession(data: JsValue, version: Long, persistedVersion: Long): Boolean =
+      db.write(data, version, persistedVersion)
+
+    protected def changesDurable(): Unit = ()
+
+    override def preStart(): Unit = initSession()
+
+    override def postStop(): Unit = persistSessionOnStop()
+
+    def receive: Receive = handleWriteBehind orElse {
+      case Patch(patches) => session.foreach { s =>
+        journal.appendPatches(s.version + 1, patches)
+        s.change(SessionState.patch(patches, s.data))
+        sessionChanged(s)
+        sender ! s.version
+      }
+      case GetSession => sender ! session.map(s => (s.data, s.version))
+    }
+  }
+
+  def props(db: FakeSessionDb, journal: SessionJournal): Props = Props(new TestDispatcher(db, journal))
+
+}
+
+/**
+  * Tests SessionWriteBehind with an actor system: durable replies, writes into the database,
+  * journal recovery, conflicts with the database, failed writes and the write when the dispatcher
+  * stops
+  */
+class SessionWriteBehindTest {
+
+  private var system: ActorSystem = _
+
+  private var journalDir: Path = _
+
+  private var journalPath: Path = _
+
+  private var db: FakeSessionDb = _
+
+  @Before
+  def startApp(): Unit = {
+    val builder = new GuiceApplicationLoader().builder(new ApplicationLoader.Context(Environment.simple()))
+    system = Guice.createInjector(builder.applicationModule()).getInstance(classOf[ActorSystem])
+    journalDir = Files.createTempDirectory("session_journal")
+    journalPath = journalDir.resolve("batch_1.journal")
+    db = new FakeSessionDb
+  }
+
+  @After
+  def stopApp(): Unit = FileUtils.deleteDirectory(journalDir.toFile)
+
+  private def newJournal() =
+    new SessionJournal(journalPath, system.dispatchers.lookup(SessionWriteBehind.DispatcherName))
+
+  private def startDispatcher(): ActorRef = system.actorOf(props(db, newJournal()))
+
+  private def stopDispatcher(dispatcher: ActorRef): Unit = {
+    val probe = TestProbe()(system)
+    probe.watch(dispatcher)
+    system.stop(dispatcher)
+    probe.expectTerminated(dispatcher, 10.seconds)
+  }
+
+  private def patch(key: String, value: Int): JsValue =
+    Json.arr(Json.obj("op" -> "add", "path" -> s"/$key", "value" -> value))
+
+  private def journaledVersions() =
+    newJournal().readAfter(0).map(e => (e \ SessionJournal.Version).as[Long])
+
+  /**
+    * ReplaceSessionData is answered after the new data are journaled. FlushSession writes them
+    * into the database and the journal is deleted afterwards.
+    */
+  @Test
+  def checkReplaceAndFlush(): Unit = {
+    val dispatcher = startDispatcher()
+    val probe = TestProbe()(system)
+
+    probe.send(dispatcher, ReplaceSessionData(1, "{\"a\":1}"))
+    probe.expectMsg(10.seconds, true)
+    assertThat(journaledVersions()).isEqualTo(List(2L))
+    assertThat(db.version).isEqualTo(1L)
+
+    probe.send(dispatcher, FlushSession)
+    probe.expectMsg(10.seconds, true)
+    assertThat(db.version).isEqualTo(2L)
+    assertThat(db.data).isEqualTo(Json.obj("a" -> 1))
+    probe.awaitAssert(assertThat(Files.exists(journalPath)).isFalse, 10.seconds)
+
+    // Outdated version
+    probe.send(dispatcher, ReplaceSessionData(1, "{\"b\":2}"))
+    probe.expectMsg(10.seconds, false)
+    stopDispatcher(dispatcher)
+  }
+
+  /**
+    * Changes that are journaled but not in the database (JATOS stopped unexpectedly) are replayed
+    * when the session is loaded - an incomplete last line is skipped - and written into the
+    * database
+    */
+  @Test
+  def checkJournalRecovery(): Unit = {
+    val journal = newJournal()
+    journal.appendPatches(2, patch("a", 1))
+    journal.appendPatches(3, patch("b", 2))
+    journal.close()
+    Files.write(journalPath, "{\"version\":4,\"patc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND)
+
+    val dispatcher = startDispatcher()
+    val probe = TestProbe()(system)
+    probe.send(dispatcher, GetSession)
+    probe.expectMsg(10.seconds, Some((Json.obj("a" -> 1, "b" -> 2), 3L)))
+
+    // The restored session is written into the database right away
+    probe.awaitAssert(assertThat(db.version).isEqualTo(3L), 10.seconds)
+    assertThat(db.data).isEqualTo(Json.obj("a" -> 1, "b" -> 2))
+    probe.awaitAssert(assertThat(Files.exists(journalPath)).isFalse, 10.seconds)
+    stopDispatcher(dispatcher)
+  }
+
+  /**
+    * If the session was changed by someone else in the database the write fails and the session is
+    * reloaded - with a version higher than all versions the clients know
+    */
+  @Test
+  def checkConflictReloadsSession(): Unit = {
+    val dispatcher = startDispatcher()
+    val probe = TestProbe()(system)
+    probe.send(dispatcher, Patch(patch("a", 1)))
+    probe.expectMsg(10.seconds, 2L)
+
+    // Someone else changes the session in the database
+    db.synchronized {
+      db.data = Json.obj("other" -> true)
+      db.version = 2
+    }
+
+    probe.send(dispatcher, FlushSession)
+    probe.expectMsg(10.seconds, true)
+    probe.send(dispatcher, GetSession)
+    probe.expectMsg(10.seconds, Some((Json.obj("other" -> true), 3L)))
+    assertThat(db.version).isEqualTo(3L)
+    assertThat(db.data).isEqualTo(Json.obj("other" -> true))
+    stopDispatcher(dispatcher)
+  }
+
+  /**
+    * The session is written into the database when the dispatcher stops and the journal is deleted
+    */
+  @Test
+  def checkFlushOnStop(): Unit = {
+    val dispatcher = startDispatcher()
+    val probe = TestProbe()(system)
+    probe.send(dispatcher, Patch(patch("a", 1)))
+    probe.expectMsg(10.seconds, 2L)
+    probe.send(dispatcher, Patch(patch("b", 2)))
+    probe.expectMsg(10.seconds, 3L)
+
+    stopDispatcher(dispatcher)
+    assertThat(db.version).isEqualTo(3L)
+    assertThat(db.data).isEqualTo(Json.obj("a" -> 1, "b" -> 2))
+    assertThat(Files.exists(journalPath)).isFalse
+  }
+
+  /**
+    * If the session can't be written when the dispatcher stops the journal keeps the changes
+    */
+  @Test
+  def checkStopKeepsJournalIfWriteFails(): Unit = {
+    db.failWrites = true
+    val dispatcher = startDispatcher()
+    val probe = TestProbe()(system)
+    probe.send(dispatcher, Patch(patch("a", 1)))
+    probe.expectMsg(10.seconds, 2L)
+
+    stopDispatcher(dispatcher)
+    assertThat(db.version).isEqualTo(1L)
+    assertThat(journaledVersions()).isEqualTo(List(2L))
+  }
+
+  /**
+    * Failed writes are retried with an increasing delay (no tight retry loop). After
+    * MaxFlushAttempts failed writes the flush waiters get false. When the database is back the
+    * next retry writes the session.
+    */
+  @Test
+  def checkFailedWritesAreRetriedWithBackoff(): Unit = {
+    db.failWrites = true
+    val dispatcher = startDispatcher()
+    val probe = TestProbe()(system)
+    probe.send(dispatcher, Patch(patch("a", 1)))
+    probe.expectMsg(10.seconds, 2L)
+
+    probe.send(dispatcher, FlushSession)
+    probe.expectMsg(20.seconds, false)
+    assertThat(db.writes.get).isEqualTo(MaxFlushAttempts)
+
+    // While the writes fail a flush is answered right away
+    probe.send(dispatcher, FlushSession)
+    probe.expectMsg(10.seconds, false)
+
+    db.failWrites = false
+    probe.awaitAssert(assertThat(db.version).isEqualTo(2L), 20.seconds)
+    assertThat(db.writes.get).isEqualTo(MaxFlushAttempts + 1)
+    probe.send(dispatcher, FlushSession)
+    probe.expectMsg(10.seconds, true)
+    stopDispatcher(dispatcher)
+  }
+
+  @Test
+  def checkRetryDelay(): Unit = {
+    assertThat(SessionWriteBehind.retryDelay(1)).isEqualTo(1.second)
+    assertThat(SessionWriteBehind.retryDelay(2)).isEqualTo(2.seconds)
+    assertThat(SessionWriteBehind.retryDelay(3)).isEqualTo(4.seconds)
+    assertThat(SessionWriteBehind.retryDelay(100)).isEqualTo(SessionWriteBehind.MaxRetryDelay)
+  }
+
+}
@@ -7,10 +7,14 @@ import daos.common.UserDao;
 import exceptions.gui.ForbiddenException;
 import exceptions.gui.JatosGuiException;
 import exceptions.gui.NotFoundException;
+import exceptions.publix.ForbiddenPublixException;
 import general.common.Common;
 import general.common.RequestScope;
+import general.common.StudyLogger;
+import models.common.Batch;
 import models.common.Study;
 import models.common.User;
+import models.common.workers.Worker;
 import org.apache.commons.io.FileUtils;
 import org.hibernate.Hibernate;
 import org.hibernate.proxy.HibernateProxy;
@@ -24,6 +28,7 @@ import play.mvc.Http.Cookies;
 import play.mvc.Http.RequestBuilder;
 import play.test.Helpers;
 import services.gui.*;
+import services.publix.StudyAuthorisation;
 import utils.common.IOUtils;
 import utils.common.ZipUtil;
 
@@ -69,6 +74,9 @@ public class TestHelper {
     @Inject
     private StudyDao studyDao;
 
+    @Inject
+    private StudyLogger studyLogger;
+
     @Inject
     private StudyService studyService;
 
@@ -102,6 +110,7 @@ public class TestHelper {
     }
 
     public void removeAllStudyLogs() throws IOException {
+        studyLogger.flush();
         FileUtils.deleteDirectory(new File(Common.getStudyLogsPath()));
     }
 
@@ -244,6 +253,22 @@ public class TestHelper {
         }
     }
 
+    /**
+     * Runs StudyAuthorisation.checkWorkerAllowedToStartStudy within a transaction - like during a publix request
+     */
+    public <T extends Worker> void checkWorkerAllowedToStartStudy(StudyAuthorisation<T> studyAuthorisation,
+            T worker, Study study, Batch batch) throws ForbiddenPublixException {
+        ForbiddenPublixException exception = jpaApi.withTransaction(() -> {
+            try {
+                studyAuthorisation.checkWorkerAllowedToStartStudy(worker, study, batch);
+                return null;
+            } catch (ForbiddenPublixException e) {
+                return e;
+            }
+        });
+        if (exception != null) throw exception;
+    }
+
     @SuppressWarnings("unchecked")
     public <T> T fetchTheLazyOnes(T obj) {
         Hibernate.initialize(obj);
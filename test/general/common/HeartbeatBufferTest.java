@@ -0,0 +1,184 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.TestHelper;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import scala.concurrent.ExecutionContext;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+import services.publix.workers.JatosPublixUtils;
+
+import javax.inject.Inject;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests HeartbeatBuffer
+ */
+public class HeartbeatBufferTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private JatosPublixUtils jatosPublixUtils;
+
+    private HeartbeatBuffer heartbeatBuffer;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        // Small cap and no scheduled flush during the test
+        Map<String, Object> configMap = new HashMap<>();
+        configMap.put("jatos.heartbeat.maxPending", 2);
+        configMap.put("jatos.heartbeat.flushInterval", "1h");
+        Config config = ConfigFactory.parseMap(configMap);
+        heartbeatBuffer = new HeartbeatBuffer(jpaApi, studyResultDao, injector.getInstance(ActorSystem.class),
+                injector.getInstance(ExecutionContext.class), mock(ApplicationLifecycle.class), config);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private List<Long> createStudyResults(int count) {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        return jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            User admin = userDao.findByUsername(UserService.ADMIN_USERNAME);
+            Long[] ids = new Long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = resultCreator.createStudyResult(s, s.getDefaultBatch(), admin.getWorker()).getId();
+            }
+            return Arrays.asList(ids);
+        });
+    }
+
+    private Timestamp getPendingLastSeenDate(Long studyResultId) {
+        StudyResult studyResult = new StudyResult();
+        studyResult.setId(studyResultId);
+        heartbeatBuffer.merge(studyResult);
+        return studyResult.getLastSeenDate();
+    }
+
+    private Timestamp getStoredLastSeenDate(Long studyResultId) {
+        return jpaApi.withTransaction(() -> studyResultDao.findById(studyResultId).getLastSeenDate());
+    }
+
+    /**
+     * Several heartbeats of the same study result are coalesced: only the latest time is kept and written
+     */
+    @Test
+    public void checkCoalescing() throws InterruptedException {
+        Long id = createStudyResults(1).get(0);
+
+        heartbeatBuffer.record(id);
+        Timestamp first = getPendingLastSeenDate(id);
+        Thread.sleep(10);
+        heartbeatBuffer.record(id);
+        Timestamp second = getPendingLastSeenDate(id);
+        assertThat(first).isNotNull();
+        assertThat(second.after(first)).isTrue();
+
+        heartbeatBuffer.flush();
+        assertThat(getStoredLastSeenDate(id)).isEqualTo(second);
+        // Nothing pending anymore
+        assertThat(getPendingLastSeenDate(id)).isNull();
+    }
+
+    /**
+     * Heartbeats of further study results are dropped if maxPending study results are pending - the pending ones
+     * still get theirs
+     */
+    @Test
+    public void checkMaxPending() throws InterruptedException {
+        List<Long> ids = createStudyResults(3);
+
+        heartbeatBuffer.record(ids.get(0));
+        heartbeatBuffer.record(ids.get(1));
+        heartbeatBuffer.record(ids.get(2));
+        assertThat(getPendingLastSeenDate(ids.get(2))).isNull();
+
+        Timestamp first = getPendingLastSeenDate(ids.get(0));
+        Thread.sleep(10);
+        heartbeatBuffer.record(ids.get(0));
+        assertThat(getPendingLastSeenDate(ids.get(0)).after(first)).isTrue();
+
+        // After the flush there is room again
+        heartbeatBuffer.flush();
+        heartbeatBuffer.record(ids.get(2));
+        assertThat(getPendingLastSeenDate(ids.get(2))).isNotNull();
+    }
+
+    /**
+     * Only unfinished study results get a new lastSeenDate
+     */
+    @Test
+    public void checkOnlyUnfinishedWritten() {
+        List<Long> ids = createStudyResults(2);
+        Long unfinishedId = ids.get(0);
+        Long finishedId = ids.get(1);
+        jpaApi.withTransaction(() -> {
+            jatosPublixUtils.finishStudyResult(true, null, studyResultDao.findById(finishedId));
+        });
+        Timestamp finishedBefore = getStoredLastSeenDate(finishedId);
+
+        heartbeatBuffer.record(unfinishedId);
+        heartbeatBuffer.record(finishedId);
+        Timestamp pending = getPendingLastSeenDate(unfinishedId);
+        heartbeatBuffer.flush();
+
+        assertThat(getStoredLastSeenDate(unfinishedId)).isEqualTo(pending);
+        assertThat(getStoredLastSeenDate(finishedId)).isEqualTo(finishedBefore);
+    }
+
+}
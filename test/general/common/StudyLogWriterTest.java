@@ -0,0 +1,194 @@
+package general.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.common.HashUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests StudyLogWriter
+ */
+public class StudyLogWriterTest {
+
+    private Path logDir;
+
+    private StudyLogWriter studyLogWriter;
+
+    @Before
+    public void setUp() throws IOException {
+        logDir = Files.createTempDirectory("JATOS_study_log_writer_test");
+        studyLogWriter = createWriter(2, "60s");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        studyLogWriter.stop();
+        FileUtils.deleteDirectory(logDir.toFile());
+    }
+
+    private StudyLogWriter createWriter(int maxOpenLogs, String idleTimeout) {
+        Map<String, Object> configMap = new HashMap<>();
+        configMap.put("jatos.studyLogs.queueSize", 100);
+        configMap.put("jatos.studyLogs.fsync", "batch");
+        configMap.put("jatos.studyLogs.maxOpenLogs", maxOpenLogs);
+        configMap.put("jatos.studyLogs.idleTimeout", idleTimeout);
+        Config config = ConfigFactory.parseMap(configMap);
+        return new StudyLogWriter(config, mock(ApplicationLifecycle.class));
+    }
+
+    private static byte[] entry(String msg) {
+        return ("\n" + msg).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<String> readEntries(Path path) throws IOException {
+        return Files.readAllLines(path, StandardCharsets.ISO_8859_1).stream()
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Entries of one thread are written in the order they were queued - after the initial entry
+     */
+    @Test
+    public void checkOrdering() throws IOException {
+        Path path = logDir.resolve("study.log");
+        for (int i = 0; i < 1000; i++) {
+            studyLogWriter.write(path, entry("entry " + i), () -> entry("initial"));
+        }
+        studyLogWriter.flush();
+
+        List<String> entries = readEntries(path);
+        assertThat(entries.size()).isEqualTo(1001);
+        assertThat(entries.get(0)).isEqualTo("initial");
+        for (int i = 0; i < 1000; i++) {
+            assertThat(entries.get(i + 1)).isEqualTo("entry " + i);
+        }
+    }
+
+    /**
+     * More logs than open channels are allowed: the least recently used channels are closed, but no entry is lost
+     */
+    @Test
+    public void checkMaxOpenLogs() throws IOException {
+        for (int round = 0; round < 3; round++) {
+            for (int log = 0; log < 5; log++) {
+                studyLogWriter.write(logDir.resolve(log + ".log"), entry("round " + round), null);
+            }
+        }
+        studyLogWriter.flush();
+
+        assertThat(studyLogWriter.getMetrics().get("openLogs")).isEqualTo(2);
+        for (int log = 0; log < 5; log++) {
+            assertThat(readEntries(logDir.resolve(log + ".log")))
+                    .isEqualTo(Arrays.asList("round 0", "round 1", "round 2"));
+        }
+    }
+
+    /**
+     * Channels that weren't used within the idle timeout are closed
+     */
+    @Test
+    public void checkIdleLogsClosed() throws Exception {
+        studyLogWriter.stop();
+        studyLogWriter = createWriter(2, "100ms");
+        studyLogWriter.write(logDir.resolve("study.log"), entry("bla"), null);
+        studyLogWriter.flush();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((int) studyLogWriter.getMetrics().get("openLogs") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(studyLogWriter.getMetrics().get("openLogs")).isEqualTo(0);
+        assertThat(readEntries(logDir.resolve("study.log"))).isEqualTo(Collections.singletonList("bla"));
+    }
+
+    /**
+     * Stopping the writer writes all queued entries. Entries that come in after the stop are written directly.
+     */
+    @Test
+    public void checkFlushOnStop() throws IOException {
+        Path path = logDir.resolve("study.log");
+        for (int i = 0; i < 100; i++) {
+            studyLogWriter.write(path, entry("entry " + i), null);
+        }
+        studyLogWriter.stop();
+
+        assertThat(readEntries(path).size()).isEqualTo(100);
+        assertThat(studyLogWriter.getMetrics().get("openLogs")).isEqualTo(0);
+
+        studyLogWriter.write(path, entry("after stop"), null);
+        List<String> entries = readEntries(path);
+        assertThat(entries.size()).isEqualTo(101);
+        assertThat(entries.get(100)).isEqualTo("after stop");
+    }
+
+    /**
+     * The chained hashes of appended data, logged from several threads into the same log, can still be verified: the
+     * entries of each chain are in the order they were logged and the last one matches the recalculated chain
+     */
+    @Test
+    public void checkHashChainAfterAsyncWrites() throws Exception {
+        Path path = logDir.resolve("study.log");
+        int chainCount = 4;
+        int chunkCount = 200;
+        Map<Integer, List<String>> chunkMap = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(chainCount);
+        for (int chain = 0; chain < chainCount; chain++) {
+            List<String> chunks = new ArrayList<>();
+            for (int i = 0; i < chunkCount; i++) {
+                chunks.add("data " + chain + "-" + i);
+            }
+            chunkMap.put(chain, chunks);
+            int componentResultId = chain;
+            executor.execute(() -> {
+                String hash = null;
+                for (int i = 0; i < chunks.size(); i++) {
+                    hash = HashUtils.getChainedHash(hash, chunks.get(i), HashUtils.SHA_256);
+                    String logEntry = Json.stringify(Json.newObject()
+                            .put("componentResultId", componentResultId)
+                            .put("chunkNumber", i + 1)
+                            .put("dataHash", hash));
+                    studyLogWriter.write(path, entry(logEntry), null);
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        studyLogWriter.flush();
+
+        Map<Integer, List<JsonNode>> loggedMap = new HashMap<>();
+        for (String line : readEntries(path)) {
+            JsonNode json = Json.parse(line);
+            loggedMap.computeIfAbsent(json.get("componentResultId").asInt(), k -> new ArrayList<>()).add(json);
+        }
+        for (int chain = 0; chain < chainCount; chain++) {
+            List<JsonNode> logged = loggedMap.get(chain);
+            assertThat(logged.size()).isEqualTo(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                assertThat(logged.get(i).get("chunkNumber").asInt()).isEqualTo(i + 1);
+            }
+            String recalculated = HashUtils.getChainedHash(null, chunkMap.get(chain), HashUtils.SHA_256);
+            assertThat(logged.get(chunkCount - 1).get("dataHash").asText()).isEqualTo(recalculated);
+        }
+    }
+
+}
@@ -83,11 +83,13 @@ public class StudyLoggerTest {
         assertThat(Files.isReadable(studyLogPath)).isTrue();
 
         // Now delete the log
+        studyLogger.flush();
         Files.delete(studyLogPath);
         assertThat(Files.notExists(studyLogPath)).isTrue();
 
         // Write something into the log
         studyLogger.log(study, testHelper.getAdmin(), "bla bla bla");
+        studyLogger.flush();
 
         // Check that the log is recreated
         assertThat(Files.isReadable(studyLogPath)).isTrue();
@@ -131,6 +133,7 @@ public class StudyLoggerTest {
         studyLogger.log(study, user, "bir bir bir", Pair.of("birkey", "birvalue"));
 
         // Check they wrote something into the log
+        studyLogger.flush();
         List<String> content = Files.readAllLines(logPath);
         // First line is always empty, second line is the initial msg, third line is study created, fourth line is
         // study description
@@ -159,6 +162,7 @@ public class StudyLoggerTest {
         studyResult1.addComponentResult(componentResult);
 
         studyLogger.logResultDataStoring(componentResult);
+        studyLogger.flush();
 
         Path logPath = Paths.get(studyLogger.getPath(study));
         List<String> content = Files.readAllLines(logPath);
@@ -188,6 +192,7 @@ public class StudyLoggerTest {
         Path uploadedFile = Paths.get("test/resources/example.png");
 
         studyLogger.logResultUploading(uploadedFile, componentResult);
+        studyLogger.flush();
 
         Path logPath = Paths.get(studyLogger.getPath(study));
         List<String> content = Files.readAllLines(logPath);
@@ -7,6 +7,7 @@ import utils.common.HashUtils;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -56,6 +57,21 @@ public class HashUtilsTest {
         assertThat(hash).isEqualTo("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
     }
 
+    @Test
+    public void checkGetChainedHash() {
+        String firstHash = HashUtils.getHash("bla", "SHA-256");
+        String chainedHash = HashUtils.getChainedHash(firstHash, "blu", "SHA-256");
+        assertThat(chainedHash).isEqualTo(HashUtils.getHash(firstHash + "blu", "SHA-256"));
+
+        // Without a previous hash it's just the hash of the string
+        assertThat(HashUtils.getChainedHash((String) null, "blu", "SHA-256"))
+                .isEqualTo(HashUtils.getHash("blu", "SHA-256"));
+
+        // Chaining over a list gives the same result as chaining step by step
+        String chainedHashOfList = HashUtils.getChainedHash("bla", Arrays.asList("blu", "bli"), "SHA-256");
+        assertThat(chainedHashOfList).isEqualTo(HashUtils.getChainedHash(chainedHash, "bli", "SHA-256"));
+    }
+
     @Test
     public void checkGetFileHash() {
         String hash = null;
@@ -0,0 +1,182 @@
+package services.gui;
+
+import akka.util.ByteString;
+import com.google.common.base.Strings;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.ComponentResultDao;
+import general.TestHelper;
+import models.common.ComponentResult;
+import models.common.Study;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.Database;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests ResultDataCursor: the result data of several ComponentResults (submitted data and appended data chunks) are
+ * read piece by piece in the right order
+ */
+public class ResultDataCursorTest {
+
+    private static final String SEPARATOR = System.lineSeparator();
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private Database database;
+
+    @Inject
+    private ResultTestHelper resultTestHelper;
+
+    @Inject
+    private ComponentResultDao componentResultDao;
+
+    private List<Long> componentResultIds;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        componentResultIds = resultTestHelper.createTwoComponentResults(study.getId());
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private void setData(long componentResultId, String submittedData, String... appendedData) {
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResult.setData(submittedData);
+            componentResultDao.update(componentResult);
+        });
+        for (String data : appendedData) {
+            jpaApi.withTransaction(() -> {
+                componentResultDao.appendData(componentResultDao.findById(componentResultId), data);
+            });
+        }
+    }
+
+    /**
+     * Reads all pieces of the cursor
+     */
+    private List<ByteString> readAll(List<Long> ids) throws Exception {
+        List<ByteString> pieces = new ArrayList<>();
+        try (ResultDataCursor cursor = new ResultDataCursor(database.getConnection(), ids, 16)) {
+            Optional<ByteString> piece;
+            while ((piece = cursor.next()).isPresent()) {
+                pieces.add(piece.get());
+            }
+        }
+        return pieces;
+    }
+
+    private static String concat(List<ByteString> pieces) {
+        return pieces.stream().map(ByteString::utf8String).reduce("", String::concat);
+    }
+
+    /**
+     * The submitted data and the appended data chunks of each ComponentResult follow each other in the order of the
+     * given IDs - each ComponentResult's data end with a line separator. A ComponentResult without data has no line.
+     */
+    @Test
+    public void checkOrder() throws Exception {
+        long first = componentResultIds.get(0);
+        long second = componentResultIds.get(1);
+        setData(first, "submitted ä", "-1", "-2");
+
+        List<ByteString> pieces = readAll(Arrays.asList(first, second, first));
+        assertThat(concat(pieces)).isEqualTo("submitted ä-1-2" + SEPARATOR + "submitted ä-1-2" + SEPARATOR);
+
+        // Only appended data
+        setData(second, null, "only appended");
+        assertThat(concat(readAll(Collections.singletonList(second)))).isEqualTo("only appended" + SEPARATOR);
+    }
+
+    @Test
+    public void checkNoData() throws Exception {
+        assertThat(readAll(componentResultIds)).isEmpty();
+        assertThat(readAll(Collections.emptyList())).isEmpty();
+    }
+
+    /**
+     * Big data are read in pieces of at most CHUNK_SIZE characters - a surrogate pair at a piece boundary isn't
+     * split (each piece is valid UTF-8 on its own)
+     */
+    @Test
+    public void checkPiecesAndSurrogatePairs() throws Exception {
+        long id = componentResultIds.get(0);
+        String emoji = "\uD83D\uDE00";
+        String bigData = Strings.repeat("a", ResultDataCursor.CHUNK_SIZE - 1) + emoji
+                + Strings.repeat("b", ResultDataCursor.CHUNK_SIZE) + emoji;
+        setData(id, bigData, emoji + "c");
+
+        List<ByteString> pieces = readAll(Collections.singletonList(id));
+        assertThat(pieces.size()).isGreaterThan(2);
+        StringBuilder decoded = new StringBuilder();
+        for (ByteString piece : pieces) {
+            String str = piece.utf8String();
+            assertThat(str.length()).isLessThanOrEqualTo(ResultDataCursor.CHUNK_SIZE);
+            // A split surrogate pair would be encoded as '?'
+            assertThat(str.contains("?")).isFalse();
+            decoded.append(str);
+        }
+        assertThat(decoded.toString()).isEqualTo(bigData + emoji + "c" + SEPARATOR);
+    }
+
+    /**
+     * The InputStream has the result data in UTF-8 and closing it closes the JDBC connection
+     */
+    @Test
+    public void checkAsInputStream() throws Exception {
+        long id = componentResultIds.get(0);
+        setData(id, "submitted ä", "-1");
+
+        Connection connection = database.getConnection();
+        ResultDataCursor cursor = new ResultDataCursor(connection, Collections.singletonList(id), 16);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = cursor.asInputStream()) {
+            byte[] buffer = new byte[3];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("submitted ä-1" + SEPARATOR);
+        assertThat(connection.isClosed()).isTrue();
+    }
+
+}
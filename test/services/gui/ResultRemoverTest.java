@@ -2,6 +2,7 @@ package services.gui;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import daos.common.BatchStatsDao;
 import daos.common.StudyDao;
 import daos.common.StudyResultDao;
 import daos.common.UserDao;
@@ -10,10 +11,13 @@ import exceptions.gui.ForbiddenException;
 import exceptions.gui.NotFoundException;
 import general.TestHelper;
 import general.common.MessagesStrings;
+import models.common.BatchStats;
 import models.common.ComponentResult;
 import models.common.Study;
 import models.common.StudyResult;
 import models.common.User;
+import models.common.workers.JatosWorker;
+import org.apache.commons.io.FileUtils;
 import org.fest.assertions.Fail;
 import org.junit.After;
 import org.junit.Before;
@@ -23,9 +27,14 @@ import play.Environment;
 import play.db.jpa.JPAApi;
 import play.inject.guice.GuiceApplicationBuilder;
 import play.inject.guice.GuiceApplicationLoader;
+import utils.common.IOUtils;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -63,6 +72,12 @@ public class ResultRemoverTest {
     @Inject
     private StudyResultDao studyResultDao;
 
+    @Inject
+    private BatchStatsDao batchStatsDao;
+
+    @Inject
+    private BulkResultRemover bulkResultRemover;
+
     @Before
     public void startApp() throws Exception {
         GuiceApplicationBuilder builder = new GuiceApplicationLoader()
@@ -155,7 +170,7 @@ public class ResultRemoverTest {
             User admin = userDao.findByUsername(UserService.ADMIN_USERNAME);
             try {
                 resultRemover.removeStudyResults(ids, admin);
-            } catch (BadRequestException | NotFoundException | ForbiddenException | IOException e) {
+            } catch (BadRequestException | NotFoundException | ForbiddenException e) {
                 throw new RuntimeException(e);
             }
         });
@@ -167,4 +182,118 @@ public class ResultRemoverTest {
         });
     }
 
+    /**
+     * Creating and removing StudyResults changes the batch's BatchStats
+     */
+    @Test
+    public void checkRemoveStudyResultsUpdatesBatchStats() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        List<Long> ids = resultTestHelper.createTwoStudyResults(study.getId());
+
+        jpaApi.withTransaction(() -> {
+            BatchStats batchStats = batchStatsDao.findByBatch(studyDao.findById(study.getId()).getDefaultBatch());
+            assertThat(batchStats.getStudyResultCount()).isEqualTo(2);
+            assertThat(batchStats.getStudyResultCountsPerWorker().get(JatosWorker.WORKER_TYPE)).isEqualTo(2);
+        });
+
+        // Remove the first StudyResult
+        jpaApi.withTransaction(() -> {
+            User admin = userDao.findByUsername(UserService.ADMIN_USERNAME);
+            try {
+                resultRemover.removeStudyResults(ids.subList(0, 1), admin);
+            } catch (BadRequestException | NotFoundException | ForbiddenException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        jpaApi.withTransaction(() -> {
+            BatchStats batchStats = batchStatsDao.findByBatch(studyDao.findById(study.getId()).getDefaultBatch());
+            assertThat(batchStats.getStudyResultCount()).isEqualTo(1);
+            assertThat(batchStats.getStudyResultCountsPerWorker().get(JatosWorker.WORKER_TYPE)).isEqualTo(1);
+        });
+    }
+
+    /**
+     * Removing a StudyResult must not leave a gap in its worker's study result list
+     */
+    @Test
+    public void checkRemoveStudyResultsRenumbersWorkersStudyResultList() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        List<Long> ids = resultTestHelper.createTwoStudyResults(study.getId());
+
+        // Remove the first StudyResult
+        jpaApi.withTransaction(() -> {
+            User admin = userDao.findByUsername(UserService.ADMIN_USERNAME);
+            try {
+                resultRemover.removeStudyResults(ids.subList(0, 1), admin);
+            } catch (BadRequestException | NotFoundException | ForbiddenException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        jpaApi.withTransaction(() -> {
+            List<StudyResult> studyResultList = userDao.findByUsername(UserService.ADMIN_USERNAME).getWorker()
+                    .getStudyResultList();
+            assertThat(studyResultList.contains(null)).isFalse();
+            assertThat(studyResultList.get(studyResultList.size() - 1).getId()).isEqualTo(ids.get(1));
+            assertThat(studyResultDao.findById(ids.get(0))).isNull();
+        });
+    }
+
+    private Path createResultUploadFile(Long studyResultId) throws IOException {
+        Path dir = Paths.get(IOUtils.getResultUploadsDir(studyResultId));
+        Files.createDirectories(dir);
+        return Files.write(dir.resolve("upload.txt"), "uploaded".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void removeAndRollBack(List<Long> studyResultIds) {
+        bulkResultRemover.remove(studyResultIds);
+        throw new IllegalStateException("Rollback");
+    }
+
+    /**
+     * The result upload directories of removed StudyResults are removed after the removal is committed
+     */
+    @Test
+    public void checkRemoveStudyResultsRemovesUploadsAfterCommit() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        List<Long> ids = resultTestHelper.createTwoStudyResults(study.getId());
+        Path uploadFile = createResultUploadFile(ids.get(0));
+
+        jpaApi.withTransaction(() -> bulkResultRemover.remove(ids.subList(0, 1)));
+
+        // They are removed asynchronously
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Files.exists(uploadFile.getParent()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(Files.exists(uploadFile.getParent())).isFalse();
+    }
+
+    /**
+     * If the removal is rolled back the result upload directories are kept
+     */
+    @Test
+    public void checkRemoveStudyResultsKeepsUploadsOnRollback() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        List<Long> ids = resultTestHelper.createTwoStudyResults(study.getId());
+        Path uploadFile = createResultUploadFile(ids.get(0));
+
+        try {
+            jpaApi.withTransaction(() -> removeAndRollBack(ids.subList(0, 1)));
+            Fail.fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        Thread.sleep(500);
+        assertThat(Files.exists(uploadFile)).isTrue();
+        jpaApi.withTransaction(() -> {
+            assertThat(studyResultDao.findById(ids.get(0))).isNotNull();
+        });
+        FileUtils.deleteDirectory(uploadFile.getParent().toFile());
+    }
+
 }
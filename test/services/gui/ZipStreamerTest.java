@@ -0,0 +1,101 @@
+package services.gui;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.common.ZipStreamer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests ZipStreamer
+ */
+public class ZipStreamerTest {
+
+    private ActorSystem system;
+    private Materializer materializer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        system = ActorSystem.create();
+        materializer = ActorMaterializer.create(system);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        system.terminate();
+    }
+
+    @Test
+    public void checkZip() throws Exception {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("study_result_1/metadata.json", "{\"id\":1}".getBytes(StandardCharsets.UTF_8));
+        contents.put("study_result_1/comp_result_1/data.txt", "ä result data 😀".getBytes(StandardCharsets.UTF_8));
+        contents.put("study_result_1/comp_result_1/files/empty.txt", new byte[0]);
+        contents.put("study_result_1/comp_result_1/files/audio.mp3", randomBytes(100_000));
+        // Bigger than ZipStreamer's in-memory limit: compressed while written
+        contents.put("study_result_1/comp_result_2/data.txt", randomBytes(6 * 1024 * 1024));
+        // Bigger than ZipStreamer's in-memory limit: stored while written
+        contents.put("study_result_1/comp_result_2/files/video.mp4", randomBytes(5 * 1024 * 1024));
+
+        List<ZipStreamer.Entry> entries = new ArrayList<>();
+        contents.forEach((name, bytes) -> entries.add(new ZipStreamer.Entry(name,
+                () -> new ByteArrayInputStream(bytes), name.endsWith(".mp3") || name.endsWith(".mp4"))));
+
+        ByteString zip = ZipStreamer.zip(Source.from(entries), executor, 3)
+                .runWith(Sink.fold(ByteString.empty(), ByteString::concat), materializer)
+                .toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        Map<String, byte[]> unzipped = unzip(zip);
+        assertThat(new ArrayList<>(unzipped.keySet())).isEqualTo(new ArrayList<>(contents.keySet()));
+        contents.forEach((name, bytes) -> assertThat(unzipped.get(name)).isEqualTo(bytes));
+    }
+
+    @Test
+    public void checkZipWithoutEntries() throws Exception {
+        ByteString zip = ZipStreamer.zip(Source.empty(), executor, 3)
+                .runWith(Sink.fold(ByteString.empty(), ByteString::concat), materializer)
+                .toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        assertThat(unzip(zip)).isEmpty();
+        assertThat(zip.size()).isEqualTo(22);
+    }
+
+    private static Map<String, byte[]> unzip(ByteString zip) throws IOException {
+        Map<String, byte[]> unzipped = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                unzipped.put(entry.getName(), IOUtils.toByteArray(in));
+            }
+        }
+        return unzipped;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+}
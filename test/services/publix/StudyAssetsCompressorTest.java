@@ -0,0 +1,180 @@
+package services.publix;
+
+import com.google.common.base.Strings;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.publix.StudyAssetsIndex.Entry;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests StudyAssetsCompressor: which Accept-Encoding headers allow gzip, which files are compressed and that a
+ * compressed file of an outdated version (ETag) is replaced
+ */
+public class StudyAssetsCompressorTest {
+
+    private Injector injector;
+
+    @Inject
+    private StudyAssetsCompressor studyAssetsCompressor;
+
+    private File tmpDir;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        tmpDir = Files.createTempDirectory("JATOS_compressor_test").toFile();
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        return StudyAssetsCompressor.acceptsGzip(Optional.ofNullable(acceptEncoding));
+    }
+
+    private static Entry createEntry(File file, String contentType) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return new Entry(file, attrs.size(), attrs.lastModifiedTime().toMillis(), contentType);
+    }
+
+    /**
+     * Waits until the compressed file of the entry is in the cache
+     */
+    private File waitForGzipped(Entry entry) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        Optional<File> gzipped = studyAssetsCompressor.findGzipped(entry);
+        while (!gzipped.isPresent() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            gzipped = studyAssetsCompressor.findGzipped(entry);
+        }
+        assertThat(gzipped.isPresent()).isTrue();
+        return gzipped.get();
+    }
+
+    private static String gunzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void checkAcceptsGzip() {
+        assertThat(acceptsGzip(null)).isFalse();
+        assertThat(acceptsGzip("")).isFalse();
+        assertThat(acceptsGzip("gzip")).isTrue();
+        assertThat(acceptsGzip("gzip, deflate, br")).isTrue();
+        assertThat(acceptsGzip("deflate, br")).isFalse();
+        assertThat(acceptsGzip("identity")).isFalse();
+
+        // Case-insensitive
+        assertThat(acceptsGzip("GZIP")).isTrue();
+        assertThat(acceptsGzip("deflate, GZip;Q=0.5")).isTrue();
+        assertThat(acceptsGzip("gzip;Q=0")).isFalse();
+    }
+
+    /**
+     * A quality value of 0 refuses gzip - any other allows it
+     */
+    @Test
+    public void checkAcceptsGzipQualityValues() {
+        assertThat(acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(acceptsGzip("gzip; q=0.0")).isFalse();
+        assertThat(acceptsGzip("gzip;q = 0.000")).isFalse();
+        assertThat(acceptsGzip("gzip;q=0.001")).isTrue();
+        assertThat(acceptsGzip("gzip;q=1")).isTrue();
+        assertThat(acceptsGzip("deflate;q=0, gzip;q=0.8")).isTrue();
+    }
+
+    /**
+     * '*' allows gzip, unless gzip is refused explicitly - an explicit gzip has precedence in both directions
+     */
+    @Test
+    public void checkAcceptsGzipWildcard() {
+        assertThat(acceptsGzip("*")).isTrue();
+        assertThat(acceptsGzip("deflate, *;q=0.1")).isTrue();
+        assertThat(acceptsGzip("*;q=0")).isFalse();
+        assertThat(acceptsGzip("gzip;q=0, *")).isFalse();
+        assertThat(acceptsGzip("*, gzip;q=0")).isFalse();
+        assertThat(acceptsGzip("*;q=0, gzip")).isTrue();
+    }
+
+    @Test
+    public void checkIsCompressible() {
+        File file = new File(tmpDir, "file");
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 2048, 0, "text/html"))).isTrue();
+        assertThat(StudyAssetsCompressor.isCompressible(
+                new Entry(file, 2048, 0, "application/javascript; charset=utf-8"))).isTrue();
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 2048, 0, "application/json"))).isTrue();
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 2048, 0, "image/svg+xml"))).isTrue();
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 2048, 0, "Text/CSS"))).isTrue();
+
+        // Already compressed formats
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 2048, 0, "image/png"))).isFalse();
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 2048, 0, "video/mp4"))).isFalse();
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 2048, 0, "application/zip"))).isFalse();
+        assertThat(StudyAssetsCompressor.isCompressible(
+                new Entry(file, 2048, 0, "application/octet-stream"))).isFalse();
+
+        // Too small and too big
+        assertThat(StudyAssetsCompressor.isCompressible(new Entry(file, 100, 0, "text/html"))).isFalse();
+        assertThat(StudyAssetsCompressor.isCompressible(
+                new Entry(file, 100L * 1024 * 1024, 0, "text/html"))).isFalse();
+    }
+
+    /**
+     * The first request schedules the compression. A changed file (new ETag) doesn't get the compressed file of the
+     * old version: it's compressed again and the old compressed file is removed.
+     */
+    @Test
+    public void checkStaleEtagIsReplaced() throws Exception {
+        File file = new File(tmpDir, "script.js");
+        String oldContent = Strings.repeat("var a = 1;\n", 500);
+        FileUtils.writeStringToFile(file, oldContent, StandardCharsets.UTF_8);
+        Entry oldEntry = createEntry(file, "application/javascript");
+
+        File oldGzipped = waitForGzipped(oldEntry);
+        assertThat(gunzip(oldGzipped)).isEqualTo(oldContent);
+
+        // Different size - different ETag
+        String newContent = Strings.repeat("var b = 22;\n", 500);
+        FileUtils.writeStringToFile(file, newContent, StandardCharsets.UTF_8);
+        Entry newEntry = createEntry(file, "application/javascript");
+        assertThat(newEntry.getEtag()).isNotEqualTo(oldEntry.getEtag());
+
+        File newGzipped = waitForGzipped(newEntry);
+        assertThat(newGzipped).isNotEqualTo(oldGzipped);
+        assertThat(gunzip(newGzipped)).isEqualTo(newContent);
+        assertThat(oldGzipped.exists()).isFalse();
+
+        // The old version isn't served anymore
+        assertThat(studyAssetsCompressor.findGzipped(oldEntry).isPresent()).isFalse();
+    }
+
+}
@@ -3,6 +3,8 @@ package services.publix.workers;
 import controllers.publix.workers.GeneralMultiplePublix;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.PublixException;
+import general.common.StudyAuthorisationCache;
+import models.common.Batch;
 import models.common.Study;
 import models.common.StudyResult;
 import models.common.User;
@@ -10,7 +12,9 @@ import models.common.workers.GeneralMultipleWorker;
 import org.fest.assertions.Fail;
 import org.junit.Test;
 import services.gui.UserService;
+import services.publix.PublixErrorMessages;
 import services.publix.PublixUtilsTest;
+import services.publix.idcookie.IdCookieModel;
 
 import javax.inject.Inject;
 import java.util.HashMap;
@@ -29,6 +33,12 @@ public class GeneralMultiplePublixUtilsTest extends PublixUtilsTest<GeneralMulti
     @Inject
     private GeneralMultiplePublixUtils generalMultiplePublixUtils;
 
+    @Inject
+    private GeneralMultipleStudyAuthorisation studyAuthorisation;
+
+    @Inject
+    private StudyAuthorisationCache studyAuthorisationCache;
+
     @Test
     public void checkRetrieveTypedWorker() {
         GeneralMultipleWorker worker = jpaApi.withTransaction(() -> {
@@ -84,4 +94,68 @@ public class GeneralMultiplePublixUtilsTest extends PublixUtilsTest<GeneralMulti
         });
     }
 
+    /**
+     * PublixUtils.authoriseStudyRun() caches the authorisation: a change of the batch is only noticed after the batch
+     * was invalidated in the StudyAuthorisationCache
+     */
+    @Test
+    public void checkAuthoriseStudyRun() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        IdCookieModel idCookie = jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            batch.addAllowedWorkerType(GeneralMultipleWorker.WORKER_TYPE);
+            batchDao.update(batch);
+            GeneralMultipleWorker worker = new GeneralMultipleWorker();
+            workerDao.create(worker);
+            StudyResult studyResult = resultCreator.createStudyResult(study, batch, worker);
+
+            IdCookieModel model = new IdCookieModel();
+            model.setWorkerId(worker.getId());
+            model.setWorkerType(worker.getWorkerType());
+            model.setBatchId(batch.getId());
+            model.setStudyId(study.getId());
+            model.setStudyResultId(studyResult.getId());
+            return model;
+        });
+
+        jpaApi.withTransaction(() -> {
+            try {
+                StudyAuthorisationCache.Context context = generalMultiplePublixUtils.authoriseStudyRun(
+                        studyAuthorisation, idCookie, study.getId(), idCookie.getStudyResultId());
+                assertThat(context.getWorkerId()).isEqualTo(idCookie.getWorkerId());
+                assertThat(context.getBatchId()).isEqualTo(idCookie.getBatchId());
+            } catch (PublixException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // Disallow the worker type without invalidating the batch: the cached authorisation is still used
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(idCookie.getBatchId());
+            batch.removeAllowedWorkerType(GeneralMultipleWorker.WORKER_TYPE);
+            batchDao.update(batch);
+        });
+        jpaApi.withTransaction(() -> {
+            try {
+                generalMultiplePublixUtils.authoriseStudyRun(
+                        studyAuthorisation, idCookie, study.getId(), idCookie.getStudyResultId());
+            } catch (PublixException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // After the invalidation the worker isn't allowed anymore
+        studyAuthorisationCache.invalidateBatch(idCookie.getBatchId());
+        jpaApi.withTransaction(() -> {
+            try {
+                generalMultiplePublixUtils.authoriseStudyRun(
+                        studyAuthorisation, idCookie, study.getId(), idCookie.getStudyResultId());
+                Fail.fail();
+            } catch (PublixException e) {
+                assertThat(e.getMessage()).isEqualTo(PublixErrorMessages.workerTypeNotAllowed(
+                        GeneralMultipleWorker.UI_WORKER_TYPE, study.getId(), idCookie.getBatchId()));
+            }
+        });
+    }
+
 }
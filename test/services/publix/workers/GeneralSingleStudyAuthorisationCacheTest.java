@@ -0,0 +1,237 @@
+package services.publix.workers;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.BatchDao;
+import daos.common.StudyResultDao;
+import daos.common.worker.WorkerDao;
+import exceptions.publix.PublixException;
+import general.TestHelper;
+import general.common.StudyAuthorisationCache;
+import models.common.Batch;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import models.common.workers.GeneralSingleWorker;
+import org.fest.assertions.Fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.publix.PublixErrorMessages;
+import services.publix.ResultCreator;
+import services.publix.idcookie.IdCookieModel;
+
+import javax.inject.Inject;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the StudyAuthorisationCache with a General Single worker: a cached authorisation is used without the
+ * database until it's invalidated - by changing the batch (e.g. deactivating it) or by finishing the study result.
+ */
+public class GeneralSingleStudyAuthorisationCacheTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private WorkerDao workerDao;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private GeneralSinglePublixUtils publixUtils;
+
+    @Inject
+    private GeneralSingleStudyAuthorisation studyAuthorisation;
+
+    @Inject
+    private StudyAuthorisationCache studyAuthorisationCache;
+
+    private Study study;
+
+    private Batch batch;
+
+    private GeneralSingleWorker worker;
+
+    private StudyResult studyResult;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        batch = jpaApi.withTransaction(() -> {
+            Batch b = batchDao.findById(study.getDefaultBatch().getId());
+            b.addAllowedWorkerType(GeneralSingleWorker.WORKER_TYPE);
+            batchDao.update(b);
+            return b;
+        });
+        worker = new GeneralSingleWorker();
+        jpaApi.withTransaction(() -> workerDao.create(worker));
+        studyResult = jpaApi.withTransaction(() -> {
+            StudyResult sr = resultCreator.createStudyResult(study, batch, worker);
+            sr.setStudyState(StudyState.STARTED);
+            return sr;
+        });
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private IdCookieModel createIdCookie() {
+        IdCookieModel idCookie = new IdCookieModel();
+        idCookie.setWorkerId(worker.getId());
+        idCookie.setWorkerType(worker.getWorkerType());
+        idCookie.setBatchId(batch.getId());
+        idCookie.setStudyId(study.getId());
+        idCookie.setStudyResultId(studyResult.getId());
+        return idCookie;
+    }
+
+    private StudyAuthorisationCache.Context authorise() throws PublixException {
+        try {
+            return jpaApi.withTransaction(() -> {
+                try {
+                    return publixUtils.authoriseStudyRun(studyAuthorisation, createIdCookie(), study.getId(),
+                            studyResult.getId());
+                } catch (PublixException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof PublixException) throw (PublixException) e.getCause();
+            throw e;
+        }
+    }
+
+    private boolean isCached() {
+        return publixUtils.retrieveCachedAuthorisation(studyAuthorisation, createIdCookie(), study.getId(),
+                studyResult.getId()).isPresent();
+    }
+
+    @Test
+    public void checkAuthorisationIsCached() throws PublixException {
+        assertThat(isCached()).isFalse();
+        StudyAuthorisationCache.Context context = authorise();
+        assertThat(context.getStudyResultId()).isEqualTo(studyResult.getId());
+        assertThat(context.getWorkerType()).isEqualTo(GeneralSingleWorker.WORKER_TYPE);
+        assertThat(isCached()).isTrue();
+
+        // The cached Context is used: a change in the database without an invalidation isn't noticed
+        jpaApi.withTransaction(() -> {
+            Batch b = batchDao.findById(batch.getId());
+            b.removeAllowedWorkerType(GeneralSingleWorker.WORKER_TYPE);
+            batchDao.update(b);
+        });
+        assertThat(authorise().getStudyResultId()).isEqualTo(studyResult.getId());
+    }
+
+    /**
+     * Deactivating a batch (like Batches.toggleActive) invalidates the Contexts of its study runs - the next request is
+     * authorised against the database again
+     */
+    @Test
+    public void checkBatchDeactivationInvalidates() throws PublixException {
+        authorise();
+
+        jpaApi.withTransaction(() -> {
+            Batch b = batchDao.findById(batch.getId());
+            b.setActive(false);
+            batchDao.update(b);
+            studyAuthorisationCache.invalidateBatch(b.getId());
+        });
+        assertThat(isCached()).isFalse();
+
+        // A running study run may continue in an inactive batch - but it's checked against the database
+        assertThat(authorise().getBatchId()).isEqualTo(batch.getId());
+        assertThat(isCached()).isTrue();
+    }
+
+    /**
+     * A batch change that the authorisation depends on is noticed after the invalidation
+     */
+    @Test
+    public void checkBatchChangeInvalidates() throws PublixException {
+        authorise();
+
+        jpaApi.withTransaction(() -> {
+            Batch b = batchDao.findById(batch.getId());
+            b.removeAllowedWorkerType(GeneralSingleWorker.WORKER_TYPE);
+            batchDao.update(b);
+            studyAuthorisationCache.invalidateBatch(b.getId());
+        });
+
+        try {
+            authorise();
+            Fail.fail();
+        } catch (PublixException e) {
+            assertThat(e.getMessage()).isEqualTo(PublixErrorMessages
+                    .workerTypeNotAllowed(worker.getUIWorkerType(), study.getId(), batch.getId()));
+        }
+        assertThat(isCached()).isFalse();
+    }
+
+    /**
+     * Finishing the study result removes its Context - the finished study run isn't authorised anymore
+     */
+    @Test
+    public void checkStudyResultFinishInvalidates() throws PublixException {
+        authorise();
+
+        jpaApi.withTransaction(() -> {
+            publixUtils.finishStudyResult(true, null, studyResultDao.findById(studyResult.getId()));
+        });
+        assertThat(isCached()).isFalse();
+
+        try {
+            authorise();
+            Fail.fail();
+        } catch (PublixException e) {
+            assertThat(e.getMessage()).isEqualTo(PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
+        }
+        assertThat(isCached()).isFalse();
+    }
+
+    /**
+     * A Context that is created while the study result is being finished (from the not yet committed state) is
+     * dropped after the finishing transaction completed
+     */
+    @Test
+    public void checkContextCreatedDuringFinishIsDropped() throws PublixException {
+        jpaApi.withTransaction(() -> {
+            publixUtils.finishStudyResult(true, null, studyResultDao.findById(studyResult.getId()));
+            // A concurrent request that still sees the running study result caches its authorisation
+            studyAuthorisationCache.put(studyResult.getId(), study.getId(), batch.getId(), worker.getId(),
+                    worker.getWorkerType(), null, studyAuthorisationCache.getStamps(study.getId(), batch.getId()));
+            assertThat(isCached()).isTrue();
+        });
+        assertThat(isCached()).isFalse();
+    }
+
+}
@@ -2,6 +2,7 @@ package services.publix.workers;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import daos.common.BatchDao;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.PublixException;
@@ -43,6 +44,9 @@ public class GeneralSingleStudyAuthorisationTest {
     @Inject
     private WorkerDao workerDao;
 
+    @Inject
+    private BatchDao batchDao;
+
     @Inject
     private ResultCreator resultCreator;
 
@@ -94,7 +98,7 @@ public class GeneralSingleStudyAuthorisationTest {
         // Does start if there is an StudyResult which is in state PRE
         createStudyResult(study, batch, worker, StudyState.PRE);
 
-        studyAuthorisation.checkWorkerAllowedToStartStudy(worker, study, batch);
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, worker, study, batch);
     }
 
     @Test
@@ -138,6 +142,43 @@ public class GeneralSingleStudyAuthorisationTest {
         }
     }
 
+    @Test
+    public void checkWorkerAllowedToStartStudyMaxTotalWorkers() throws ForbiddenPublixException {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        // Only one more worker fits into the batch
+        Batch batch = jpaApi.withTransaction(() -> {
+            Batch b = batchDao.findById(study.getDefaultBatch().getId());
+            b.addAllowedWorkerType(GeneralSingleWorker.WORKER_TYPE);
+            b.setMaxTotalWorkers(b.getWorkerCount() + 1);
+            batchDao.update(b);
+            return b;
+        });
+
+        GeneralSingleWorker worker1 = new GeneralSingleWorker();
+        GeneralSingleWorker worker2 = new GeneralSingleWorker();
+        jpaApi.withTransaction(() -> {
+            workerDao.create(worker1);
+            workerDao.create(worker2);
+        });
+
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, worker1, study, batch);
+        try {
+            testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, worker2, study, batch);
+            Fail.fail();
+        } catch (PublixException e) {
+            assertThat(e.getMessage()).isEqualTo(PublixErrorMessages.batchMaxTotalWorkerReached(batch.getId()));
+        }
+        // An admitted worker doesn't count twice
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, worker1, study, batch);
+
+        jpaApi.withTransaction(() -> {
+            Batch b = batchDao.findById(batch.getId());
+            assertThat(b.getWorkerCount()).isEqualTo(b.getMaxTotalWorkers());
+            assertThat(b.getWorkerList()).contains(worker1);
+            assertThat(b.getWorkerList()).excludes(worker2);
+        });
+    }
+
     private StudyResult createStudyResult(Study study, Batch batch,
             GeneralSingleWorker worker, StudyState studyState) {
         return jpaApi.withTransaction(() -> {
@@ -81,8 +81,8 @@ public class MTStudyAuthorisationTest {
         Batch batch = study.getDefaultBatch();
         batch.addAllowedWorkerType(MTWorker.WORKER_TYPE);
 
-        studyAuthorisation.checkWorkerAllowedToStartStudy(mtWorker, study, batch);
-        studyAuthorisation.checkWorkerAllowedToStartStudy(mtSandboxWorker, study, batch);
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, mtWorker, study, batch);
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, mtSandboxWorker, study, batch);
     }
 
     @Test
@@ -101,8 +101,8 @@ public class MTStudyAuthorisationTest {
         batch.addAllowedWorkerType(MTWorker.WORKER_TYPE);
 
         // MTWorker and MTSandboxWorker are allowed to start again
-        studyAuthorisation.checkWorkerAllowedToStartStudy(mtWorker, study, batch);
-        studyAuthorisation.checkWorkerAllowedToStartStudy(mtSandboxWorker, study, batch);
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, mtWorker, study, batch);
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, mtSandboxWorker, study, batch);
     }
 
     @Test
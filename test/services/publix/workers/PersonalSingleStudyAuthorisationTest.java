@@ -74,7 +74,7 @@ public class PersonalSingleStudyAuthorisationTest {
         PersonalSingleWorker worker = new PersonalSingleWorker();
         jpaApi.withTransaction(() -> workerDao.create(worker));
 
-        studyAuthorisation.checkWorkerAllowedToStartStudy(worker, study, batch);
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, worker, study, batch);
     }
 
     @Test
@@ -90,7 +90,7 @@ public class PersonalSingleStudyAuthorisationTest {
         createStudyResult(study, batch, worker, StudyState.FINISHED);
 
         try {
-            studyAuthorisation.checkWorkerAllowedToStartStudy(worker, study, batch);
+            testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, worker, study, batch);
             Fail.fail();
         } catch (PublixException e) {
             assertThat(e.getMessage()).isEqualTo(PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
@@ -109,7 +109,7 @@ public class PersonalSingleStudyAuthorisationTest {
         // Does start if there is an StudyResult which is in state PRE
         createStudyResult(study, batch, worker, StudyState.PRE);
 
-        studyAuthorisation.checkWorkerAllowedToStartStudy(worker, study, batch);
+        testHelper.checkWorkerAllowedToStartStudy(studyAuthorisation, worker, study, batch);
     }
 
     @Test